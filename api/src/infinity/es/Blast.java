@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.es;
+
+import com.simsilica.es.EntityComponent;
+
+/**
+ * Makes a bomb, mine or thor damage everything within a radius when it goes off, scaled by the
+ * distance, instead of only what it touches. The damage itself is the intended damage of the
+ * entity's Damage component.
+ *
+ * @author Asser
+ */
+public class Blast implements EntityComponent {
+
+    private final double radius;
+    private final double proximity;
+
+    /**
+     * Creates a blast.
+     *
+     * @param radius how far the blast reaches, in world units
+     * @param proximity how close a ship has to come to set it off, 0 for no proximity trigger
+     */
+    public Blast(final double radius, final double proximity) {
+        this.radius = radius;
+        this.proximity = proximity;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public double getProximity() {
+        return proximity;
+    }
+}
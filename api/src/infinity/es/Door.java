@@ -6,6 +6,7 @@ public class Door implements EntityComponent {
 
   private long interval;
   private long endTime;
+  private int door;
 
   public long getEndTime() {
     return endTime;
@@ -19,9 +20,23 @@ public class Door implements EntityComponent {
     return interval;
   }
 
+  /**
+   * Returns the door number, which selects the bit of the DoorMode setting that controls this door.
+   *
+   * @return the door number, 0-7
+   */
+  public int getDoor() {
+    return door;
+  }
+
 
   public Door ( long createdTime, long interval) {
+    this(createdTime, interval, 0);
+  }
+
+  public Door ( long createdTime, long interval, int door) {
     this.endTime = createdTime + interval;
     this.interval = interval;
+    this.door = door;
   }
 }
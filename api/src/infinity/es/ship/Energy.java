@@ -28,32 +28,124 @@ package infinity.es.ship;
 import com.simsilica.es.EntityComponent;
 
 /**
- * A destructable entity's health. Initial amount of energy that the ship can
- * have.
+ * A destructable entity's energy. The energy is stored as the amount it had at a point in time, and
+ * how fast it recharges from there up to its maximum, so the current energy can be worked out for
+ * any later time by anyone that has the component. It only has to be replaced when something
+ * happens to it (a hit, a shot, a prize, a new maximum or recharge rate) and not while it
+ * recharges.
  *
  * @author Paul Speed
  */
 public class Energy implements EntityComponent {
 
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
     private int health;
+    private long time;
+    private double rechargePerSecond;
+    private int maxHealth = Integer.MAX_VALUE;
 
     public Energy() {
     }
 
+    /**
+     * Creates energy that does not recharge and has no maximum.
+     *
+     * @param health the energy
+     */
     public Energy(final int health) {
         this.health = health;
     }
 
+    /**
+     * Creates energy that recharges.
+     *
+     * @param health the energy at the given time
+     * @param time the sim time of the energy in nanoseconds
+     * @param rechargePerSecond how much energy is gained a second
+     * @param maxHealth the energy does not recharge beyond this
+     */
+    public Energy(final int health, final long time, final double rechargePerSecond,
+            final int maxHealth) {
+        this.health = health;
+        this.time = time;
+        this.rechargePerSecond = rechargePerSecond;
+        this.maxHealth = maxHealth;
+    }
+
     public Energy newAdjusted(final int delta) {
-        return new Energy(health + delta);
+        return new Energy(health + delta, time, rechargePerSecond, maxHealth);
     }
 
+    /**
+     * Returns the energy at a time with a change applied, recharging at the given rate up to the
+     * given maximum from then on. Nothing is lost to rounding: the part of a point recharged by then
+     * is carried over by moving the start time back a little.
+     *
+     * @param now the sim time in nanoseconds
+     * @param delta the change in energy
+     * @param rechargePerSecond the new recharge rate
+     * @param maxHealth the new maximum
+     * @return the new energy
+     */
+    public Energy newAdjusted(final long now, final int delta, final double rechargePerSecond,
+            final int maxHealth) {
+        final double exact = getExactHealth(now);
+        int base = (int) Math.floor(exact);
+        long start = now;
+        if (rechargePerSecond > 0) {
+            start -= Math.round((exact - base) / rechargePerSecond * NANOS_PER_SECOND);
+        }
+        base += delta;
+        if (base >= maxHealth) {
+            base = maxHealth;
+            start = now;
+        }
+        return new Energy(base, start, rechargePerSecond, maxHealth);
+    }
+
+    /**
+     * Returns the energy at the time of the component, see getTime().
+     *
+     * @return the energy
+     */
     public int getHealth() {
         return health;
     }
 
+    /**
+     * Returns the energy at a time, with what was recharged since the time of the component.
+     *
+     * @param now the sim time in nanoseconds, not before getTime()
+     * @return the energy
+     */
+    public int getHealth(final long now) {
+        return (int) Math.floor(getExactHealth(now));
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public double getRechargePerSecond() {
+        return rechargePerSecond;
+    }
+
+    public int getMaxHealth() {
+        return maxHealth;
+    }
+
+    private double getExactHealth(final long now) {
+        if (rechargePerSecond <= 0 || health >= maxHealth || now <= time) {
+            return health;
+        }
+        final double exact = health + rechargePerSecond * (now - time) / NANOS_PER_SECOND;
+        return Math.min(exact, maxHealth);
+    }
+
     @Override
     public String toString() {
-        return "HitPoints[" + health + "]";
+        return "HitPoints[" + health + " at " + time + ", +" + rechargePerSecond + "/s, max "
+                + maxHealth + "]";
     }
 }
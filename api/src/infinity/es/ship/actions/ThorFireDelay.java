@@ -29,36 +29,29 @@ package infinity.es.ship.actions;
 import com.simsilica.es.EntityComponent;
 
 /**
+ * The time between firing two thors, the CooldownSystem keeps when a ship can fire again.
  *
  * @author Asser
  */
 public class ThorFireDelay implements EntityComponent {
 
-  private final long start;
   private final long delta;
 
   public ThorFireDelay() {
-    start = System.nanoTime();
     delta = 1000000 * 10;
   }
 
   public ThorFireDelay(final long deltaMillis) {
-    start = System.nanoTime();
     delta = deltaMillis * 1000000;
   }
 
-  public double getPercent() {
-    final long time = System.nanoTime();
-    return (double) (time - start) / delta;
-  }
-
   /**
-   * Create a new copy of this class witht the same delay
+   * Returns the delay.
    *
-   * @return new BombFireDelay instance
+   * @return the delay in nanoseconds
    */
-  public ThorFireDelay copy() {
-    return new ThorFireDelay(delta / 1000000);
+  public long getDelay() {
+    return delta;
   }
 
   @Override
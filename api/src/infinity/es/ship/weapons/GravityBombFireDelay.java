@@ -28,36 +28,29 @@ package infinity.es.ship.weapons;
 import com.simsilica.es.EntityComponent;
 
 /**
+ * The time between two gravity bombs.
  *
  * @author Asser
  */
 public class GravityBombFireDelay implements EntityComponent {
 
-    private final long start;
     private final long delta;
 
     public GravityBombFireDelay() {
-        start = System.nanoTime();
         delta = 1000000 * 10;
     }
 
     public GravityBombFireDelay(final long deltaMillis) {
-        start = System.nanoTime();
         delta = deltaMillis * 1000000;
     }
 
-    public double getPercent() {
-        final long time = System.nanoTime();
-        return (double) (time - start) / delta;
-    }
-
     /**
-     * Create a new copy of this class witht the same delay
+     * Returns the delay.
      *
-     * @return new BombFireDelay instance
+     * @return the delay in nanoseconds
      */
-    public GravityBombFireDelay copy() {
-        return new GravityBombFireDelay(delta / 1000000);
+    public long getDelay() {
+        return delta;
     }
 
     @Override
@@ -28,36 +28,29 @@ package infinity.es.ship.weapons;
 import com.simsilica.es.EntityComponent;
 
 /**
+ * The time between laying two mines.
  *
  * @author Asser
  */
 public class MineFireDelay implements EntityComponent {
 
-    private final long start;
     private final long delta;
 
     public MineFireDelay() {
-        start = System.nanoTime();
         delta = 1000000 * 10;
     }
 
     public MineFireDelay(final long deltaMillis) {
-        start = System.nanoTime();
         delta = deltaMillis * 1000000;
     }
 
-    public double getPercent() {
-        final long time = System.nanoTime();
-        return (double) (time - start) / delta;
-    }
-
     /**
-     * Create a new copy of this class witht the same delay
+     * Returns the delay.
      *
-     * @return new BombFireDelay instance
+     * @return the delay in nanoseconds
      */
-    public MineFireDelay copy() {
-        return new MineFireDelay(delta / 1000000);
+    public long getDelay() {
+        return delta;
     }
 
     @Override
@@ -31,18 +31,18 @@ package infinity.sim;
 public class CollisionFilters {
 
   /** Static bodies collides with all bodies except other static bodies. */
-  private static final long COLLISION_CATEGORY_STATIC_BODIES = 1;
+  public static final long COLLISION_CATEGORY_STATIC_BODIES = 1;
 
-  private static final long COLLISION_CATEGORY_STATIC_GRAVITY = 2;
-  private static final long COLLISION_CATEGORY_DYNAMICS_PLAYERS = 4;
-  private static final long COLLISION_CATEGORY_DYNAMICS_PROJECTILES = 8;
-  private static final long COLLISION_CATEGORY_DYNAMICS_MAPOBJECTS = 16;
-  private static final long COLLISION_CATEGORY_SENSOR_FLAGS = 32;
+  public static final long COLLISION_CATEGORY_STATIC_GRAVITY = 2;
+  public static final long COLLISION_CATEGORY_DYNAMICS_PLAYERS = 4;
+  public static final long COLLISION_CATEGORY_DYNAMICS_PROJECTILES = 8;
+  public static final long COLLISION_CATEGORY_DYNAMICS_MAPOBJECTS = 16;
+  public static final long COLLISION_CATEGORY_SENSOR_FLAGS = 32;
   /** Flags collide only with players */
   public static final CategoryFilter FILTER_CATEGORY_SENSOR_FLAGS =
       new CategoryFilter(COLLISION_CATEGORY_SENSOR_FLAGS, COLLISION_CATEGORY_DYNAMICS_PLAYERS);
-  private static final long COLLISION_CATEGORY_STATIC_TOWERS = 64;
-  private static final long COLLISION_CATEGORY_DYNAMICS_MOBS = 128;
+  public static final long COLLISION_CATEGORY_STATIC_TOWERS = 64;
+  public static final long COLLISION_CATEGORY_DYNAMICS_MOBS = 128;
   /** Static bodies collides with all dynamics */
   public static final CategoryFilter FILTER_CATEGORY_STATIC_BODIES =
       new CategoryFilter(
@@ -67,7 +67,7 @@ public class CollisionFilters {
               | COLLISION_CATEGORY_DYNAMICS_MOBS
               | COLLISION_CATEGORY_DYNAMICS_PROJECTILES
               | COLLISION_CATEGORY_STATIC_TOWERS);
-  private static final long COLLISION_CATEGORY_STATIC_BASE = 256;
+  public static final long COLLISION_CATEGORY_STATIC_BASE = 256;
   /** Dynamic projectiles collide with everything except other projectiles */
   public static final CategoryFilter FILTER_CATEGORY_DYNAMIC_PROJECTILES =
       new CategoryFilter(
@@ -98,10 +98,10 @@ public class CollisionFilters {
           COLLISION_CATEGORY_DYNAMICS_PLAYERS
               | COLLISION_CATEGORY_DYNAMICS_MOBS
               | COLLISION_CATEGORY_DYNAMICS_PROJECTILES);
-  private static final long COLLISION_CATEGORY_SENSOR_TOWERS = 512;
+  public static final long COLLISION_CATEGORY_SENSOR_TOWERS = 512;
   public static final CategoryFilter FILTER_CATEGORY_SENSOR_TOWERS =
       new CategoryFilter(COLLISION_CATEGORY_SENSOR_TOWERS, COLLISION_CATEGORY_DYNAMICS_MOBS);
-  private static final long COLLISION_CATEGORY_SENSOR_REPEL = 1024;
+  public static final long COLLISION_CATEGORY_SENSOR_REPEL = 1024;
   public static final CategoryFilter FILTER_CATEGORY_SENSOR_REPEL =
       new CategoryFilter(
           COLLISION_CATEGORY_SENSOR_REPEL,
@@ -109,12 +109,12 @@ public class CollisionFilters {
               | COLLISION_CATEGORY_DYNAMICS_PLAYERS
               | COLLISION_CATEGORY_DYNAMICS_PROJECTILES
               | COLLISION_CATEGORY_DYNAMICS_MAPOBJECTS);
-  private static final long COLLISION_CATEGORY_DYNAMICS_SHIP_PROJECTILES = 2048;
+  public static final long COLLISION_CATEGORY_DYNAMICS_SHIP_PROJECTILES = 2048;
   public static final CategoryFilter FILTER_CATEGORY_DYNAMIC_SHIP_PROJECTILES =
       new CategoryFilter(
           COLLISION_CATEGORY_DYNAMICS_SHIP_PROJECTILES, COLLISION_CATEGORY_DYNAMICS_PLAYERS);
-  private static final long COLLISION_CATEGORY_PRIZES = 4096;
-  private static final long COLLISION_CATEGORY_WORMHOLES = 8192;
+  public static final long COLLISION_CATEGORY_PRIZES = 4096;
+  public static final long COLLISION_CATEGORY_WORMHOLES = 8192;
   public static final CategoryFilter FILTER_CATEGORY_PRIZES =
       new CategoryFilter(
           COLLISION_CATEGORY_PRIZES,
@@ -135,7 +135,14 @@ public class CollisionFilters {
               | COLLISION_CATEGORY_DYNAMICS_MOBS
               | COLLISION_CATEGORY_PRIZES
               | COLLISION_CATEGORY_WORMHOLES);
-  private static final long COLLISION_CATEGORY_ALL = Long.MAX_VALUE;
+  public static final long COLLISION_CATEGORY_ALL = Long.MAX_VALUE;
+  /**
+   * Not given to any body, this is the category of the world side of a contact with the world when
+   * contacts are routed, see ContactSystem.
+   */
+  public static final long COLLISION_CATEGORY_WORLD = 1L << 62;
+  /** Not given to any body, the category of bodies without a CollisionCategory when routing. */
+  public static final long COLLISION_CATEGORY_NONE = 1L << 61;
   /** Dynamic map objects collide with everything */
   public static final CategoryFilter FILTER_CATEGORY_DYNAMIC_MAPOBJECTS =
       new CategoryFilter(COLLISION_CATEGORY_DYNAMICS_MAPOBJECTS, COLLISION_CATEGORY_ALL);
@@ -279,6 +279,17 @@ public class GameEntities {
       final long createdTime,
       final long intervalTime,
       final Vec3d pos) {
+    return createDoor(ed, owner, phys, createdTime, intervalTime, 0, pos);
+  }
+
+  public static EntityId createDoor(
+      final EntityData ed,
+      EntityId owner,
+      final PhysicsSpace<?, ?> phys,
+      final long createdTime,
+      final long intervalTime,
+      final int door,
+      final Vec3d pos) {
     final EntityId lastDoor = ed.createEntity();
     ed.setComponents(lastDoor, new SpawnPosition(phys.getGrid(), pos), new Mass(0), new Door());
     ed.setComponent(lastDoor, new Meta(createdTime));
@@ -288,7 +299,7 @@ public class GameEntities {
     }
     // ed.setComponent(lastDoor, ShapeInfo.create(ShapeNames.DOOR, CorePhysicsConstants.DOORWIDTH,
     // ed));
-    ed.setComponent(lastDoor, new Door(createdTime, intervalTime));
+    ed.setComponent(lastDoor, new Door(createdTime, intervalTime, door));
 
     return lastDoor;
   }
@@ -52,6 +52,8 @@ import com.simsilica.mathd.Vec3d;
 import infinity.es.input.MovementInput;
 import infinity.net.GameSession;
 import infinity.net.GameSessionListener;
+import infinity.net.ProjectileHit;
+import infinity.net.ProjectileSpawn;
 
 /**
  *
@@ -203,5 +205,19 @@ public class GameSessionClientService extends AbstractClientService implements G
                 l.setAvatar(avatar);
             }
         }
+
+        @Override
+        public void projectilesSpawned(final ProjectileSpawn[] spawns) {
+            for (final GameSessionListener l : listeners) {
+                l.projectilesSpawned(spawns);
+            }
+        }
+
+        @Override
+        public void projectilesHit(final ProjectileHit[] hits) {
+            for (final GameSessionListener l : listeners) {
+                l.projectilesHit(hits);
+            }
+        }
     }
 }
@@ -62,6 +62,7 @@ import infinity.client.states.LocalViewState;
 import infinity.client.states.MapState;
 import infinity.client.states.ModelViewState;
 import infinity.client.states.PhysicsDebugState;
+import infinity.client.states.ProjectileState;
 import infinity.client.states.SpaceGridState;
 import infinity.client.view.SkyState;
 
@@ -89,6 +90,7 @@ public class GameSessionState extends CompositeAppState {
         new BuilderState(4, 4),
         new LocalViewState(),
         new ModelViewState(),
+        new ProjectileState(),
         new AudioState(new SIAudioFactory()),
         new SpaceGridState(InfinityConstants.GRID_CELL_SIZE, 2, new ColorRGBA(0.8f, 1f, 1f, 0.5f)),
         new LightState(),
@@ -159,6 +159,32 @@ public class ModelViewState extends BaseAppState {
     // Nothing to do here
   }
 
+  /**
+   * Creates the model of something that is not an entity, like a pooled projectile, and adds it to
+   * the view. Translations are relative to getCenterCellWorld().
+   *
+   * @param shapeName the shape to create
+   * @return the spatial
+   */
+  public Spatial createDetachedModel(String shapeName) {
+    Spatial spatial = SImodelFactory.createModel(null, shapeName, null);
+    viewRoot.attachChild(spatial);
+    return spatial;
+  }
+
+  /**
+   * Adds a model made with createDetachedModel() back to the view after it was removed.
+   *
+   * @param spatial the spatial
+   */
+  public void attachDetachedModel(Spatial spatial) {
+    viewRoot.attachChild(spatial);
+  }
+
+  public Vec3i getCenterCellWorld() {
+    return centerWorld;
+  }
+
   public Spatial getModel(EntityId entityId) {
     Model model = modelIndex.get(entityId);
     return model == null ? null : model.spatial;
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.client.states;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.scene.Spatial;
+import com.simsilica.es.EntityId;
+import com.simsilica.ethereal.TimeSource;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mblock.MaskUtils;
+import com.simsilica.mworld.World;
+import com.simsilica.mworld.net.client.WorldClientService;
+import infinity.client.ConnectionState;
+import infinity.client.GameSessionClientService;
+import infinity.net.GameSessionListener;
+import infinity.net.ProjectileHit;
+import infinity.net.ProjectileSpawn;
+import infinity.sim.ProjectilePool;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flies and shows the pooled projectiles the server tells us about. Each spawn is held back until
+ * the remote time source reaches the time it was fired at, so projectiles line up with the
+ * interpolated entities, and is then moved by its own pool against the cells of the world. The
+ * server decides what is hit, here a projectile ends at a wall, when its time is up or when the
+ * server tells us it hit a ship. Hits are held back to their time like the spawns.
+ *
+ * <p>Spatials are kept per shape and reused.
+ *
+ * @author Asser
+ */
+public class ProjectileState extends BaseAppState implements GameSessionListener {
+
+  private static final double NANOS_PER_SECOND = 1000000000.0;
+
+  // Filled on the networking thread
+  private final ConcurrentLinkedQueue<ProjectileSpawn> incoming = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<ProjectileHit> incomingHits = new ConcurrentLinkedQueue<>();
+  private final List<ProjectileSpawn> waiting = new ArrayList<>();
+  private final List<ProjectileHit> waitingHits = new ArrayList<>();
+
+  private final ProjectilePool pool = new ProjectilePool();
+  private final Map<Integer, Spatial> spatials = new HashMap<>();
+  private final Map<String, ArrayDeque<Spatial>> freeSpatials = new HashMap<>();
+  private final Vec3d probe = new Vec3d();
+
+  private final ProjectilePool.CellTest cells = this::isSolid;
+  private final ProjectilePool.ProjectileListener ended = new Ended();
+
+  private TimeSource timeSource;
+  private ModelViewState modelView;
+  private World world;
+  private GameSessionClientService session;
+  private long lastTime;
+
+  @Override
+  protected void initialize(Application app) {
+    this.timeSource = getState(ConnectionState.class).getRemoteTimeSource();
+    this.modelView = getState(ModelViewState.class);
+    this.world = getState(ConnectionState.class).getService(WorldClientService.class);
+    this.session = getState(ConnectionState.class).getService(GameSessionClientService.class);
+    session.addGameSessionListener(this);
+  }
+
+  @Override
+  protected void cleanup(Application app) {
+    session.removeGameSessionListener(this);
+  }
+
+  @Override
+  protected void onEnable() {
+    lastTime = timeSource.getTime();
+  }
+
+  @Override
+  protected void onDisable() {
+    for (Spatial spatial : spatials.values()) {
+      spatial.removeFromParent();
+    }
+    spatials.clear();
+    freeSpatials.clear();
+    pool.clear();
+    waiting.clear();
+    waitingHits.clear();
+  }
+
+  @Override
+  public void update(float tpf) {
+    long time = timeSource.getTime();
+    double step = Math.max(0, time - lastTime) / NANOS_PER_SECOND;
+    lastTime = time;
+
+    pool.step(time, step, cells, null, ended);
+
+    ProjectileSpawn spawn;
+    while ((spawn = incoming.poll()) != null) {
+      waiting.add(spawn);
+    }
+    for (Iterator<ProjectileSpawn> it = waiting.iterator(); it.hasNext(); ) {
+      spawn = it.next();
+      if (spawn.getTime() <= time) {
+        it.remove();
+        launch(spawn, time);
+      }
+    }
+    // A hit is never earlier than the spawn it belongs to, which is launched by now
+    ProjectileHit hit;
+    while ((hit = incomingHits.poll()) != null) {
+      waitingHits.add(hit);
+    }
+    for (Iterator<ProjectileHit> it = waitingHits.iterator(); it.hasNext(); ) {
+      hit = it.next();
+      if (hit.getTime() <= time) {
+        it.remove();
+        int i = pool.indexOf(hit.getId());
+        if (i >= 0) {
+          release(hit.getId());
+          pool.remove(i);
+        }
+      }
+    }
+
+    Vec3i center = modelView.getCenterCellWorld();
+    for (int i = 0; i < pool.size(); i++) {
+      Spatial spatial = spatials.get(pool.getId(i));
+      spatial.setLocalTranslation(
+          (float) (pool.getX(i) - center.x),
+          (float) (pool.getY(i) - center.y),
+          (float) (pool.getZ(i) - center.z));
+    }
+  }
+
+  private void launch(ProjectileSpawn spawn, long time) {
+    long expiry =
+        spawn.getTime() + TimeUnit.NANOSECONDS.convert(spawn.getLifetime(), TimeUnit.MILLISECONDS);
+    if (expiry <= time) {
+      return;
+    }
+    // Catch up with the time that passed since it was fired, walls on the way are missed
+    double elapsed = (time - spawn.getTime()) / NANOS_PER_SECOND;
+    // Under the server's id, so that its hits can find it
+    int id = spawn.getId();
+    pool.add(
+        id,
+        spawn.getOwner(),
+        spawn.getType(),
+        spawn.getLevel(),
+        spawn.getX() + spawn.getVx() * elapsed,
+        spawn.getY(),
+        spawn.getZ() + spawn.getVz() * elapsed,
+        spawn.getVx(),
+        spawn.getVz(),
+        0,
+        0,
+        spawn.getBounces(),
+        expiry);
+
+    String shapeName = ProjectilePool.getShapeName(spawn.getType(), spawn.getLevel());
+    ArrayDeque<Spatial> free = freeSpatials.get(shapeName);
+    Spatial spatial = free == null ? null : free.poll();
+    if (spatial == null) {
+      spatial = modelView.createDetachedModel(shapeName);
+      spatial.setUserData("shapeName", shapeName);
+    } else {
+      modelView.attachDetachedModel(spatial);
+    }
+    spatials.put(id, spatial);
+  }
+
+  /** Puts the spatial of an ended projectile back for reuse. */
+  private void release(int id) {
+    Spatial spatial = spatials.remove(id);
+    if (spatial != null) {
+      spatial.removeFromParent();
+      String shapeName = spatial.getUserData("shapeName");
+      freeSpatials.computeIfAbsent(shapeName, k -> new ArrayDeque<>()).add(spatial);
+    }
+  }
+
+  private boolean isSolid(int x, int y, int z) {
+    probe.set(x, y, z);
+    int cell = world.getWorldCell(probe);
+    // -1 is a leaf we do not have (yet)
+    return cell != -1 && MaskUtils.getType(cell) != 0;
+  }
+
+  @Override
+  public void setAvatar(EntityId avatar) {
+    // Not our concern
+  }
+
+  @Override
+  public void projectilesSpawned(ProjectileSpawn[] spawns) {
+    for (ProjectileSpawn spawn : spawns) {
+      incoming.add(spawn);
+    }
+  }
+
+  @Override
+  public void projectilesHit(ProjectileHit[] hits) {
+    for (ProjectileHit hit : hits) {
+      incomingHits.add(hit);
+    }
+  }
+
+  /** Puts the spatials of ended projectiles back for reuse. */
+  private class Ended implements ProjectilePool.ProjectileListener {
+
+    @Override
+    public void targetHit(ProjectilePool pool, int projectile, long target, double x, double z) {
+      release(pool.getId(projectile));
+    }
+
+    @Override
+    public void projectileEnded(
+        ProjectilePool pool, int projectile, double x, double z, boolean wall) {
+      release(pool.getId(projectile));
+    }
+  }
+}
@@ -29,8 +29,11 @@ import java.awt.Image;
 import java.awt.image.MemoryImageSource;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Vector;
 
 import javax.swing.JOptionPane;
@@ -60,12 +63,11 @@ public class LevelFile extends JPanel {
     // Vector of loaded regions
     public Vector<Region> loadedRegions;
 
-    // unknown ELVL chunks read in on load
-    public Vector<Byte> unknownELVLData = new Vector<>();
+    // unknown ELVL chunks read in on load, headers and padding included
+    public byte[] unknownELVLData = new byte[0];
 
-    // the actual data we're going to save, as a Vector of Bytes... saved by
-    // makeELvlDataForSaving
-    public Vector<Byte> eLVLData;
+    // the actual data we're going to save... made by makeELvlDataForSaving
+    public byte[] eLVLData;
 
     // private String m_type;
     // private int m_size;
@@ -76,7 +78,10 @@ public class LevelFile extends JPanel {
     // private int m_compressionType;
     // private int m_colorsUsed;
 
-    private final short[][] m_level = new short[1024][1024];
+    // one unsigned byte per tile, indexed by y * MAP_SIZE + x
+    private final byte[] m_tiles;
+    // expanded lazily from m_tiles for callers that still want the 2D view
+    private short[][] m_level;
 
     /**
      * Reads in a *.lvl file.
@@ -96,6 +101,26 @@ public class LevelFile extends JPanel {
         hasELVLData = hasELVL;
         m_stream = bufferedStream;
         m_file = file;
+        m_tiles = new byte[LevelParser.MAP_SIZE * LevelParser.MAP_SIZE];
+    }
+
+    /**
+     * Creates a lvl file from an already parsed level.
+     *
+     * @param b      The tileset bitmap (either the one in the file or the default
+     *               one)
+     * @param parsed the parsed level
+     * @param file   string representation of the file (path)
+     */
+    public LevelFile(final BitMap b, final LevelParser parsed, final String file) {
+        m_bitmap = b;
+        m_containsBM = parsed.hasBitmap();
+        hasELVLData = parsed.hasELVL();
+        m_file = file;
+        m_tiles = parsed.getTiles();
+        eLvlAttrs = parsed.getAttributes();
+        loadedRegions = parsed.getRegions();
+        unknownELVLData = parsed.getUnknownELVLData();
     }
 
     /**
@@ -106,6 +131,7 @@ public class LevelFile extends JPanel {
      */
     public LevelFile(final BitMap b) {
         m_bitmap = b;
+        m_tiles = new byte[LevelParser.MAP_SIZE * LevelParser.MAP_SIZE];
     }
 
     /**
@@ -156,6 +182,7 @@ public class LevelFile extends JPanel {
     private String readELvlData() {
         String error = null;
         loadedRegions = new Vector<>();
+        final ByteArrayOutputStream unknown = new ByteArrayOutputStream();
 
         if (!available(12)) {
             error = "File ended before we could read the eLVL header.";
@@ -199,11 +226,11 @@ public class LevelFile extends JPanel {
                             row.add(keyTag[1]);
                             eLvlAttrs.add(row);
                         } else if (type.equals("REGN")) { // region chunk
-                            curData = new ByteArray(readIn(chunkLength));
+                            final byte[] encoded = readIn(chunkLength);
                             current += chunkLength;
 
                             final Region r = new Region();
-                            final String rv = r.decodeRegion(curData);
+                            final String rv = r.decodeRegion(ByteBuffer.wrap(encoded));
 
                             if (rv != null) {
                                 error = rv;
@@ -217,25 +244,20 @@ public class LevelFile extends JPanel {
                             curData = new ByteArray(readIn(chunkLength));
 
                             // encode header
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(0)));
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(1)));
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(2)));
-                            unknownELVLData.add(Byte.valueOf((byte) type.charAt(3)));
-                            final byte[] dword = BitmapSaving.toDWORD(chunkLength);
                             for (int c = 0; c < 4; ++c) {
-                                unknownELVLData.add(Byte.valueOf(dword[c]));
+                                unknown.write(type.charAt(c));
                             }
+                            final byte[] dword = BitmapSaving.toDWORD(chunkLength);
+                            unknown.write(dword, 0, 4);
 
                             // encode data
                             for (int c = 0; c < chunkLength; ++c) {
-                                final byte b = curData.readByte(c);
-                                unknownELVLData.add(Byte.valueOf(b));
+                                unknown.write(curData.readByte(c));
                             }
 
                             // encode padding
-                            final int padding = 4 - chunkLength % 4;
-                            if (padding != 4) {
-                                unknownELVLData.add(Byte.valueOf((byte) 0));
+                            for (int c = chunkLength; c % 4 != 0; ++c) {
+                                unknown.write(0);
                             }
                         }
 
@@ -255,6 +277,7 @@ public class LevelFile extends JPanel {
                 }
             }
         }
+        unknownELVLData = unknown.toByteArray();
 
         return error;
     }
@@ -287,7 +310,7 @@ public class LevelFile extends JPanel {
                 final int tile = i >> 24 & 0x00ff;
                 final int y = (i >> 12) & 0x03FF;
                 final int x = i & 0x03FF;
-                m_level[x][y] = (short) tile;
+                m_tiles[y * LevelParser.MAP_SIZE + x] = (byte) tile;
             }
         }
 
@@ -312,80 +335,75 @@ public class LevelFile extends JPanel {
     }
 
     /**
-     * make the eLVL data and store it as a Vector of Bytes in eLVLData, not
-     * including the header
+     * make the eLVL data and store it in eLVLData, not including the header. The
+     * chunks are encoded first so the data can be written into one buffer of the
+     * exact size.
      *
      * @param regions the vector of Regions
      */
     private void makeELvlDataForSaving(final Vector<Region> regions) {
-        eLVLData = new Vector<>();
-
-        // first save the ATTR tags
-        final int size = eLvlAttrs.size();
-        for (int x = 0; x < size; ++x) {
+        // first the ATTR tags
+        final int attrCount = eLvlAttrs.size();
+        final String[] attrs = new String[attrCount];
+        int size = 0;
+        for (int x = 0; x < attrCount; ++x) {
             final Vector<String> row = eLvlAttrs.get(x);
             final String one = row.get(0).replace('=', '-');
             final String two = row.get(1).replace('=', '-');
-            final String save = one + "=" + two;
-
-            // save chunk header
-            eLVLData.add(Byte.valueOf((byte) 'A'));
-            eLVLData.add(Byte.valueOf((byte) 'T'));
-            eLVLData.add(Byte.valueOf((byte) 'T'));
-            eLVLData.add(Byte.valueOf((byte) 'R'));
-
-            final int chunkLength = save.length();
-            final byte[] chunkSizeBytes = BitmapSaving.toDWORD(chunkLength);
-            for (int c = 0; c < 4; ++c) {
-                eLVLData.add(Byte.valueOf(chunkSizeBytes[c]));
-            }
+            attrs[x] = one + "=" + two;
+            size += 8 + padded(attrs[x].length());
+        }
+
+        // then the REGN tags
+        final byte[][] encodedRegions = new byte[regions.size()][];
+        for (int x = 0; x < encodedRegions.length; ++x) {
+            encodedRegions[x] = regions.get(x).getEncodedRegion();
+            size += 8 + encodedRegions[x].length;
+        }
 
+        // and any unknown tags we enocuntered while loading
+        size += unknownELVLData.length;
+
+        final ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (final String save : attrs) {
+            putChunkHeader(out, "ATTR", save.length());
             final int len = save.length();
             for (int c = 0; c < len; ++c) {
-                final byte letter = (byte) save.charAt(c);
-                eLVLData.add(Byte.valueOf(letter));
+                out.put((byte) save.charAt(c));
             }
-
             // padding
-            final int padding = 4 - (chunkLength % 4);
-            if (padding != 4) {
-                for (int c = 0; c < padding; ++c) {
-                    eLVLData.add(Byte.valueOf((byte) 0)); // padding byte
-                }
-            }
+            out.position(out.position() + padded(len) - len);
         }
+        for (final byte[] region : encodedRegions) {
+            putChunkHeader(out, "REGN", region.length);
+            out.put(region);
+        }
+        out.put(unknownELVLData);
+        eLVLData = out.array();
+    }
 
-        // now the REGN tags
-        for (final Object region : regions) {
-            final Region r = (Region) region;
-
-            eLVLData.add(Byte.valueOf((byte) 'R'));
-            eLVLData.add(Byte.valueOf((byte) 'E'));
-            eLVLData.add(Byte.valueOf((byte) 'G'));
-            eLVLData.add(Byte.valueOf((byte) 'N'));
-
-            final Vector<Byte> curRegionEncoded = r.getEncodedRegion();
-            final byte[] dword = BitmapSaving.toDWORD(curRegionEncoded.size());
-            for (int c = 0; c < 4; ++c) {
-                eLVLData.add(Byte.valueOf(dword[c]));
-            }
-
-            eLVLData.addAll(curRegionEncoded);
+    private static void putChunkHeader(final ByteBuffer out, final String type, final int length) {
+        for (int c = 0; c < 4; ++c) {
+            out.put((byte) type.charAt(c));
         }
+        out.putInt(length);
+    }
 
-        // now any unknown tags we enocuntered while loading
-        eLVLData.addAll(unknownELVLData);
+    /**
+     * @return the length rounded up to a 4 byte boundry
+     */
+    private static int padded(final int length) {
+        return (length + 3) & ~3;
     }
 
     /**
-     * Save the ELVL data to the current position in the stream. It's stored in a
-     * vector of Bytes in eLVLData
+     * Save the ELVL data to the current position in the stream. It's stored in
+     * eLVLData
      *
      * @param out the output stream to save to
      */
     private void saveELvlData(final BufferedOutputStream out) throws IOException {
-        final int size = eLVLData.size();
-        final byte[] array = new byte[size];
+        final int size = eLVLData.length;
         byte[] dword = new byte[4];
         final byte[] word = new byte[2];
         word[0] = word[1] = 0;
@@ -407,13 +425,9 @@ public class LevelFile extends JPanel {
         out.write(dword);
 
         // save data
-        for (int x = 0; x < size; ++x) {
-            array[x] = eLVLData.get(x).byteValue();
-        }
-
-        out.write(array);
+        out.write(eLVLData);
 
-        eLVLData.clear();
+        eLVLData = null;
     }
 
     /**
@@ -430,10 +444,10 @@ public class LevelFile extends JPanel {
             makeELvlDataForSaving(regions);
 
             // save bitmap
-            BitmapSaving.saveAs256ColorBitmap(out, tileset, eLVLData.size());
+            BitmapSaving.saveAs256ColorBitmap(out, tileset, eLVLData.length);
 
             // save eLVL data
-            if (eLVLData.size() > 0) {
+            if (eLVLData.length > 0) {
                 saveELvlData(out);
             }
 
@@ -502,7 +516,27 @@ public class LevelFile extends JPanel {
         return tiles;
     }
 
+    /**
+     * @return the tiles as map[x][y]
+     */
     public short[][] getMap() {
+        if (m_level == null) {
+            final int size = LevelParser.MAP_SIZE;
+            m_level = new short[size][size];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    m_level[x][y] = (short) (m_tiles[y * size + x] & 0xff);
+                }
+            }
+        }
         return m_level;
     }
+
+    /**
+     * @return the tiles, one unsigned byte per tile, indexed by
+     *         <code>y * LevelParser.MAP_SIZE + x</code>
+     */
+    public byte[] getTileData() {
+        return m_tiles;
+    }
 }
@@ -55,7 +55,7 @@ public class LevelLoader implements AssetLoader {
     public Vector<Region> regions;
 
     // unknown ELVL chunks read in on load
-    public Vector<Byte> unknownELVLData = new Vector<>();
+    public byte[] unknownELVLData = new byte[0];
 
     // the actual data we're going to save, as a Vector of Bytes... saved by
     // makeELvlDataForSaving
@@ -71,7 +71,6 @@ public class LevelLoader implements AssetLoader {
     // private int m_colorsUsed;
     protected Image m_tileset;
     protected Image[] m_tiles;
-    protected short[][] m_map;
 
     // private final short[][] m_level = new short[1024][1024];
     private AssetManager am;
@@ -84,54 +83,31 @@ public class LevelLoader implements AssetLoader {
         am = assetInfo.getManager();
         m_file = assetInfo.getKey().getName();
 
-        String errorWithELVL = null;
-        BitMap bmp;
+        try (InputStream is = assetInfo.openStream()) {
+            // The asset is only opened and read once, everything else works on
+            // the parsed buffer
+            final LevelParser parsed = LevelParser.parse(is);
 
-        try (InputStream is = assetInfo.openStream(); BufferedInputStream bis = new BufferedInputStream(is)) {
-            bmp = new BitMap(bis);
-            bmp.readBitMap(false);
-        }
-        try (InputStream is = assetInfo.openStream(); BufferedInputStream bis = new BufferedInputStream(is)) {
-            if (bmp.isBitMap()) {
-                m_lvlFile = new LevelFile(bis, bmp, true, bmp.hasELVL, m_file);
+            BitMap bmp;
+            if (parsed.hasBitmap()) {
+                bmp = new BitMap(new BufferedInputStream(parsed.openBitmap()));
+                bmp.readBitMap(false);
             } else {
                 bmp = loadDefaultTileset();
-                m_lvlFile = new LevelFile(bis, bmp, false, bmp.hasELVL, m_file);
-            }
-            errorWithELVL = m_lvlFile.readLevel();
-
-            if (errorWithELVL != null) {
-
-                m_lvlFile = new LevelFile(bis, bmp, false, false, m_file); // attempt load without meta data
-                final String error = m_lvlFile.readLevel();
-
-                if (error != null) { // I give up
-                    System.out.println("First error = " + errorWithELVL);
-                    System.out.println("NON eLVL Load: " + error);
-                    throw new IOException("Corrupt LVL File");
-                }
-                System.out.println("NON eLVL Load sucessful! Previous error: " + errorWithELVL);
             }
+            m_lvlFile = new LevelFile(bmp, parsed, m_file);
 
-            m_tileset = m_lvlFile.getTileSet();
-
-            m_map = m_lvlFile.getMap();
-            m_tiles = m_lvlFile.getTiles();
-
-            if (errorWithELVL != null) {
-                System.out.println("Error with eLVL Data!");
+            if (parsed.getELVLError() != null) {
+                System.out.println("Error with eLVL Data! " + parsed.getELVLError());
             }
-
         } catch (@SuppressWarnings("unused") final IOException e) {
             // Create our lvl file
-            bmp = loadDefaultTileset();
-            m_lvlFile = new LevelFile(bmp);
-
-            m_tileset = m_lvlFile.getTileSet();
-            m_map = m_lvlFile.getMap();
-            m_tiles = m_lvlFile.getTiles();
+            m_lvlFile = new LevelFile(loadDefaultTileset());
         }
 
+        m_tileset = m_lvlFile.getTileSet();
+        m_tiles = m_lvlFile.getTiles();
+
         return m_lvlFile;
     }
 
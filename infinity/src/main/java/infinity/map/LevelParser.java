@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Vector;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Single pass parser for *.lvl files. The whole file is read once into a
+ * ByteBuffer (memory-mapped when it is a file on disk) and the bitmap header,
+ * the eLVL chunks and the tile records are all read with absolute little endian
+ * reads. Tiles end up in a compact byte array with one entry per map tile,
+ * indexed by <code>y * MAP_SIZE + x</code>.
+ *
+ * @author Asser
+ */
+public class LevelParser {
+
+    public static final int MAP_SIZE = 1024;
+
+    private static final int BMP_HEADER_SIZE = 14;
+    private static final int ELVL_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 8;
+
+    private final ByteBuffer data;
+    private final byte[] tiles = new byte[MAP_SIZE * MAP_SIZE];
+
+    private boolean hasBitmap;
+    private int bitmapSize;
+    private int elvlOffset = -1;
+    private String elvlError;
+
+    // eLVL ATTR tags... vector of vector of Strings
+    private final Vector<Vector<String>> attributes = new Vector<>();
+    private final Vector<Region> regions = new Vector<>();
+    // unknown ELVL chunks, kept so the level can be saved again
+    private final ByteArrayOutputStream unknownELVLData = new ByteArrayOutputStream();
+
+    private LevelParser(final ByteBuffer data) {
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Parses a level from a stream. The stream is read fully, exactly once.
+     *
+     * @param in the stream to read
+     * @return the parsed level
+     * @throws IOException if the stream could not be read or the file is corrupt
+     */
+    public static LevelParser parse(final InputStream in) throws IOException {
+        return parse(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+    }
+
+    /**
+     * Parses a level file by memory-mapping it.
+     *
+     * @param file the *.lvl file
+     * @return the parsed level
+     * @throws IOException if the file could not be mapped or is corrupt
+     */
+    public static LevelParser parse(final Path file) throws IOException {
+        return parse(map(file));
+    }
+
+    /**
+     * Memory-maps a level file read-only. The mapping stays valid after the
+     * channel is closed.
+     *
+     * @param file the *.lvl file
+     * @return the mapped contents
+     * @throws IOException if the file could not be mapped
+     */
+    public static ByteBuffer map(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Parses a level held in a buffer. The buffer's position and limit are left
+     * untouched.
+     *
+     * @param data the level file contents
+     * @return the parsed level
+     * @throws IOException if the file is corrupt
+     */
+    public static LevelParser parse(final ByteBuffer data) throws IOException {
+        final LevelParser parser = new LevelParser(data);
+        parser.read();
+        return parser;
+    }
+
+    private void read() throws IOException {
+        final int base = data.position();
+        final int length = data.remaining();
+        int tileStart = 0;
+
+        if (length >= BMP_HEADER_SIZE && data.get(base) == 'B' && data.get(base + 1) == 'M') {
+            hasBitmap = true;
+            bitmapSize = data.getInt(base + 2);
+            tileStart = bitmapSize;
+            if (bitmapSize != 49718) { // possible elvl header... check reserved bits to confirm
+                final int offset = Short.toUnsignedInt(data.getShort(base + 6));
+                if (offset == 49720) { // currently this is the only place for the eLvl Header
+                    elvlOffset = offset;
+                }
+            }
+        } else if (length >= 4 && readString(base, 4).equals("elvl")) {
+            elvlOffset = 0;
+        }
+
+        if (elvlOffset >= 0) {
+            final int elvlEnd = readELvlData(base, elvlOffset, length);
+            if (elvlError == null) {
+                tileStart = elvlEnd;
+            } else if (!hasBitmap) {
+                if (elvlEnd < 0) {
+                    throw new IOException("Corrupt LVL File: " + elvlError);
+                }
+                // Skip the meta data and try the tiles anyway
+                tileStart = elvlEnd;
+            }
+        }
+
+        if (tileStart < 0 || tileStart > length) {
+            throw new IOException("Corrupt LVL File, tile data starts at " + tileStart + " of " + length);
+        }
+        readTiles(base + tileStart, base + length);
+    }
+
+    /**
+     * Reads the eLVL section.
+     *
+     * @return the relative offset right after the section, or -1 if the header
+     *         could not be read
+     */
+    private int readELvlData(final int base, final int offset, final int length) {
+        if (length - offset < ELVL_HEADER_SIZE) {
+            elvlError = "File ended before we could read the eLVL header.";
+            return -1;
+        }
+        final int start = base + offset;
+        if (!readString(start, 4).equals("elvl")) {
+            elvlError = "The elvl header tag was not detected at the start of " + " the eLVL data section.";
+            return -1;
+        }
+        final int size = data.getInt(start + 4); // total size of the metadata section
+        final int end = Math.min(offset + size, length);
+        int current = ELVL_HEADER_SIZE;
+
+        while (current < size) {
+            if (size - current < CHUNK_HEADER_SIZE || offset + current + CHUNK_HEADER_SIZE > length) {
+                elvlError = "File ended while expecting a generic chunk header.";
+                break;
+            }
+            final int chunk = start + current;
+            final String type = readString(chunk, 4);
+            final int chunkLength = data.getInt(chunk + 4);
+            current += CHUNK_HEADER_SIZE;
+
+            if (chunkLength < 0 || offset + current + chunkLength > length) {
+                elvlError = "EOF while reading in a eLVL chunk of type " + type;
+                break;
+            }
+            final int chunkData = start + current;
+
+            if (type.equals("ATTR")) { // attribute chunk
+                final String attr = readString(chunkData, chunkLength);
+                final String[] keyTag = attr.split("=");
+                if (keyTag.length != 2) {
+                    elvlError = "ATTR tag does not contain exactly " + "one '=' sign: " + attr;
+                    break;
+                }
+                final Vector<String> row = new Vector<>();
+                row.add(keyTag[0]);
+                row.add(keyTag[1]);
+                attributes.add(row);
+            } else if (type.equals("REGN")) { // region chunk
+                // decoded in place, straight from the file buffer
+                final ByteBuffer encoded = data.duplicate();
+                encoded.limit(chunkData + chunkLength).position(chunkData);
+
+                final Region r = new Region();
+                final String rv = r.decodeRegion(encoded);
+                if (rv != null) {
+                    elvlError = rv;
+                    break;
+                }
+                regions.add(r);
+            } else { // unknown chunk
+                // header and data are copied as is, then padded up to 4 bytes
+                final byte[] raw = new byte[(CHUNK_HEADER_SIZE + chunkLength + 3) & ~3];
+                final ByteBuffer src = data.duplicate();
+                src.position(chunk);
+                src.get(raw, 0, CHUNK_HEADER_SIZE + chunkLength);
+                unknownELVLData.write(raw, 0, raw.length);
+            }
+            current += chunkLength;
+
+            // skip padding up to 4 byte boundry
+            final int padding = 4 - (chunkLength % 4);
+            if (padding != 4) {
+                current += padding;
+            }
+        }
+
+        return end;
+    }
+
+    private void readTiles(final int start, final int end) {
+        // Trailing bytes that don't make up a whole record are ignored
+        for (int pos = start; pos + 4 <= end; pos += 4) {
+            final int i = data.getInt(pos);
+            final int x = i & 0x03FF;
+            final int y = (i >> 12) & 0x03FF;
+            tiles[y * MAP_SIZE + x] = (byte) (i >>> 24);
+        }
+    }
+
+    private void copy(final int index, final byte[] dst) {
+        final ByteBuffer view = data.duplicate();
+        view.position(index);
+        view.get(dst);
+    }
+
+    private String readString(final int index, final int length) {
+        final byte[] b = new byte[length];
+        copy(index, b);
+        return new String(b, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    /**
+     * @return true if the file starts with a tileset bitmap
+     */
+    public boolean hasBitmap() {
+        return hasBitmap;
+    }
+
+    /**
+     * @return true if the file contained an eLVL section
+     */
+    public boolean hasELVL() {
+        return elvlOffset >= 0;
+    }
+
+    /**
+     * @return the error encountered while reading the eLVL data, or null
+     */
+    public String getELVLError() {
+        return elvlError;
+    }
+
+    /**
+     * Opens a stream over the tileset bitmap part of the file, without copying
+     * when the file is held on the heap.
+     *
+     * @return a stream over the bitmap bytes
+     */
+    public InputStream openBitmap() {
+        final int start = data.position();
+        final int length = Math.min(bitmapSize, data.remaining());
+        if (data.hasArray()) {
+            return new ByteArrayInputStream(data.array(), data.arrayOffset() + start, length);
+        }
+        final byte[] b = new byte[length];
+        copy(start, b);
+        return new ByteArrayInputStream(b);
+    }
+
+    /**
+     * @return the tiles, one unsigned byte per tile, indexed by
+     *         <code>y * MAP_SIZE + x</code>
+     */
+    public byte[] getTiles() {
+        return tiles;
+    }
+
+    public Vector<Vector<String>> getAttributes() {
+        return attributes;
+    }
+
+    public Vector<Region> getRegions() {
+        return regions;
+    }
+
+    public byte[] getUnknownELVLData() {
+        return unknownELVLData.toByteArray();
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infinity.map;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The run length code of the eLVL rTIL region sub chunk, working on a packed
+ * bitmap of the region tiles and a ByteBuffer cursor, so no boxed bytes or
+ * per row buffers are created while loading or saving a level.
+ *
+ * The bitmap has one bit per map tile, row by row:
+ * <code>bitmap[y * WORDS_PER_ROW + (x >> 6)]</code> bit <code>x & 63</code>.
+ *
+ * The code itself, one or two bytes per entry:
+ *
+ * <pre>
+ * 000n nnnn            - n+1 (1-32) empty tiles in a row
+ * 0010 00nn nnnn nnnn  - n+1 (1-1024) empty tiles in a row
+ * 010n nnnn            - n+1 (1-32) present tiles in a row
+ * 0110 00nn nnnn nnnn  - n+1 (1-1024) present tiles in a row
+ * 100n nnnn            - n+1 (1-32) rows of all empty
+ * 1010 00nn nnnn nnnn  - n+1 (1-1024) rows of all empty
+ * 110n nnnn            - repeat last row n+1 (1-32) times
+ * 1110 00nn nnnn nnnn  - repeat last row n+1 (1-1024) times
+ * </pre>
+ *
+ * @author Asser
+ */
+public final class RegionCodec {
+
+    public static final int MAP_SIZE = LevelParser.MAP_SIZE;
+    public static final int WORDS_PER_ROW = MAP_SIZE / 64;
+    /** The number of longs in a region bitmap. */
+    public static final int BITMAP_WORDS = WORDS_PER_ROW * MAP_SIZE;
+
+    private static final int EMPTY_RUN = 0;
+    private static final int PRESENT_RUN = 2;
+    private static final int EMPTY_ROWS = 4;
+    private static final int REPEAT = 6;
+
+    private RegionCodec() {
+    }
+
+    /**
+     * @return a new, empty region bitmap
+     */
+    public static long[] newBitmap() {
+        return new long[BITMAP_WORDS];
+    }
+
+    /**
+     * Decodes rTIL data into a bitmap. The buffer position is moved past what was
+     * read.
+     *
+     * @param in     the encoded tiles, positioned at the start of the data
+     * @param length the number of bytes of encoded tiles
+     * @param bitmap the bitmap to fill, it is expected to be empty
+     * @return the error String, or null
+     */
+    public static String decode(final ByteBuffer in, final int length, final long[] bitmap) {
+        final int end = in.position() + length;
+        int curX = 0;
+        int curY = 0;
+
+        while (in.position() < end) {
+            final int one = in.get() & 0xff;
+            final int type = one >> 5;
+            int len;
+            if ((type & 1) == 0) { // short
+                len = (one & 0x1f) + 1;
+            } else { // long
+                if (in.position() >= end) {
+                    return "rTIL data ends in the middle of an entry";
+                }
+                len = (((one & 0x03) << 8) | (in.get() & 0xff)) + 1;
+            }
+
+            switch (type & ~1) {
+            case EMPTY_RUN:
+            case PRESENT_RUN:
+                if (len + curX > MAP_SIZE) {
+                    return (type & ~1) == EMPTY_RUN ? "empty run extends past end" : "present run extends past end";
+                }
+                if (curY >= MAP_SIZE) {
+                    return "run occured after the last row";
+                }
+                if ((type & ~1) == PRESENT_RUN) {
+                    setRange(bitmap, curY, curX, curX + len);
+                }
+                curX += len;
+                break;
+            case EMPTY_ROWS:
+                if (curX != 0) {
+                    return "empty row occured before a run was over, curX = " + curX;
+                }
+                curY += len;
+                break;
+            default: // REPEAT
+                if (curX != 0) {
+                    return "repeat occured before a run was over.";
+                }
+                if (curY == 0) {
+                    return "repeat occured in the first row.";
+                }
+                if (curY + len > MAP_SIZE) {
+                    return "repeat extends past the last row";
+                }
+                final int copyFrom = (curY - 1) * WORDS_PER_ROW;
+                for (int y = curY; y < curY + len; ++y) {
+                    System.arraycopy(bitmap, copyFrom, bitmap, y * WORDS_PER_ROW, WORDS_PER_ROW);
+                }
+                curY += len;
+                break;
+            }
+
+            if (curX == MAP_SIZE) {
+                ++curY;
+                curX = 0;
+            }
+        }
+
+        if (curY != MAP_SIZE) {
+            return "Encoded rTIL does NOT contain 1024 rows... it has " + curY;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of bytes encode() writes for a bitmap.
+     *
+     * @param bitmap the region bitmap
+     * @return the encoded size
+     */
+    public static int encodedLength(final long[] bitmap) {
+        return encode(bitmap, null);
+    }
+
+    /**
+     * Encodes a bitmap. Whole rows that are empty or the same as the row before
+     * are collapsed.
+     *
+     * @param bitmap the region bitmap
+     * @param out    where to write, or null to only count the bytes
+     * @return the number of bytes written
+     */
+    public static int encode(final long[] bitmap, final ByteBuffer out) {
+        int size = 0;
+        int lastRow = -1;
+        int lastRowSameCount = 0;
+        int emptyRowCount = 0;
+
+        for (int row = 0; row < MAP_SIZE; ++row) {
+            if (isRowEmpty(bitmap, row)) {
+                emptyRowCount++;
+                if (lastRowSameCount > 0) {
+                    size += put(out, REPEAT, lastRowSameCount);
+                }
+                lastRow = -1;
+                lastRowSameCount = 0;
+                if (row == MAP_SIZE - 1) {
+                    size += put(out, EMPTY_ROWS, emptyRowCount);
+                }
+                continue;
+            }
+
+            if (emptyRowCount > 0) {
+                size += put(out, EMPTY_ROWS, emptyRowCount);
+                emptyRowCount = 0;
+            }
+
+            if (lastRow >= 0 && isSameRow(bitmap, lastRow, row)) {
+                lastRowSameCount++;
+                if (row == MAP_SIZE - 1) {
+                    size += put(out, REPEAT, lastRowSameCount);
+                }
+                continue;
+            }
+
+            if (lastRowSameCount != 0) {
+                size += put(out, REPEAT, lastRowSameCount);
+                lastRowSameCount = 0;
+            }
+
+            // Alternate runs of empty and present tiles over the whole row
+            int x = 0;
+            while (x < MAP_SIZE) {
+                final boolean present = isSet(bitmap, row, x);
+                final int next = present ? nextClear(bitmap, row, x) : nextSet(bitmap, row, x);
+                size += put(out, present ? PRESENT_RUN : EMPTY_RUN, next - x);
+                x = next;
+            }
+            lastRow = row;
+        }
+        return size;
+    }
+
+    /** Writes one entry, short when the count fits. */
+    private static int put(final ByteBuffer out, final int type, final int count) {
+        final int n = count - 1;
+        if (n < 32) {
+            if (out != null) {
+                out.put((byte) ((type << 5) | n));
+            }
+            return 1;
+        }
+        if (out != null) {
+            out.put((byte) (((type | 1) << 5) | (n >> 8)));
+            out.put((byte) n);
+        }
+        return 2;
+    }
+
+    /**
+     * Sets the tiles covered by a list of rectangles.
+     *
+     * @param rects  the rectangles, clipped to the map
+     * @param bitmap the bitmap to set the tiles in
+     */
+    public static void fill(final List<Rectangle> rects, final long[] bitmap) {
+        for (final Rectangle r : rects) {
+            final int x0 = Math.max(0, r.x);
+            final int x1 = Math.min(MAP_SIZE, r.x + r.width);
+            final int y1 = Math.min(MAP_SIZE, r.y + r.height);
+            for (int y = Math.max(0, r.y); y < y1 && x0 < x1; ++y) {
+                setRange(bitmap, y, x0, x1);
+            }
+        }
+    }
+
+    /**
+     * Splits the tiles of a bitmap into rectangles. Scanning row by row, every
+     * tile not yet covered starts a rectangle that is made as wide as the run it
+     * is in, then as high as the rows below have that whole run set.
+     *
+     * @param bitmap the region bitmap, left untouched
+     * @param rects  where to add the rectangles
+     */
+    public static void toRectangles(final long[] bitmap, final List<Rectangle> rects) {
+        final long[] left = bitmap.clone();
+        for (int y = 0; y < MAP_SIZE; ++y) {
+            int x = nextSet(left, y, 0);
+            while (x < MAP_SIZE) {
+                final int endX = nextClear(left, y, x);
+                int endY = y + 1;
+                while (endY < MAP_SIZE && isRangeSet(left, endY, x, endX)) {
+                    ++endY;
+                }
+                for (int yPos = y; yPos < endY; ++yPos) {
+                    clearRange(left, yPos, x, endX);
+                }
+                rects.add(new Rectangle(x, y, endX - x, endY - y));
+                x = nextSet(left, y, endX);
+            }
+        }
+    }
+
+    public static boolean isSet(final long[] bitmap, final int y, final int x) {
+        return (bitmap[y * WORDS_PER_ROW + (x >> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Sets the tiles from x0 (inclusive) to x1 (exclusive) of a row.
+     */
+    public static void setRange(final long[] bitmap, final int y, final int x0, final int x1) {
+        final int row = y * WORDS_PER_ROW;
+        for (int w = x0 >> 6; w <= (x1 - 1) >> 6; ++w) {
+            bitmap[row + w] |= rangeMask(w, x0, x1);
+        }
+    }
+
+    private static void clearRange(final long[] bitmap, final int y, final int x0, final int x1) {
+        final int row = y * WORDS_PER_ROW;
+        for (int w = x0 >> 6; w <= (x1 - 1) >> 6; ++w) {
+            bitmap[row + w] &= ~rangeMask(w, x0, x1);
+        }
+    }
+
+    private static boolean isRangeSet(final long[] bitmap, final int y, final int x0, final int x1) {
+        final int row = y * WORDS_PER_ROW;
+        for (int w = x0 >> 6; w <= (x1 - 1) >> 6; ++w) {
+            final long mask = rangeMask(w, x0, x1);
+            if ((bitmap[row + w] & mask) != mask) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The bits of word w that fall between x0 (inclusive) and x1 (exclusive). */
+    private static long rangeMask(final int w, final int x0, final int x1) {
+        final int from = Math.max(x0 - (w << 6), 0);
+        final int to = Math.min(x1 - (w << 6), 64);
+        final long high = to == 64 ? -1L : (1L << to) - 1;
+        return high & (-1L << from);
+    }
+
+    /** Returns the first set tile at or after x, or MAP_SIZE. */
+    private static int nextSet(final long[] bitmap, final int y, final int x) {
+        final int row = y * WORDS_PER_ROW;
+        int w = x >> 6;
+        if (w >= WORDS_PER_ROW) {
+            return MAP_SIZE;
+        }
+        long word = bitmap[row + w] & (-1L << x);
+        while (word == 0) {
+            if (++w == WORDS_PER_ROW) {
+                return MAP_SIZE;
+            }
+            word = bitmap[row + w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /** Returns the first empty tile at or after x, or MAP_SIZE. */
+    private static int nextClear(final long[] bitmap, final int y, final int x) {
+        final int row = y * WORDS_PER_ROW;
+        int w = x >> 6;
+        if (w >= WORDS_PER_ROW) {
+            return MAP_SIZE;
+        }
+        long word = ~bitmap[row + w] & (-1L << x);
+        while (word == 0) {
+            if (++w == WORDS_PER_ROW) {
+                return MAP_SIZE;
+            }
+            word = ~bitmap[row + w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    private static boolean isRowEmpty(final long[] bitmap, final int y) {
+        final int row = y * WORDS_PER_ROW;
+        for (int w = 0; w < WORDS_PER_ROW; ++w) {
+            if (bitmap[row + w] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameRow(final long[] bitmap, final int a, final int b) {
+        final int rowA = a * WORDS_PER_ROW;
+        final int rowB = b * WORDS_PER_ROW;
+        for (int w = 0; w < WORDS_PER_ROW; ++w) {
+            if (bitmap[rowA + w] != bitmap[rowB + w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
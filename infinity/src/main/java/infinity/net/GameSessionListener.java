@@ -54,4 +54,17 @@ public interface GameSessionListener {
      */
     @Asynchronous
     void setAvatar(EntityId avatar);
+
+    /**
+     * Called with the pooled projectiles fired since the last call, so the
+     * client can fly them itself.
+     */
+    @Asynchronous
+    void projectilesSpawned(ProjectileSpawn[] spawns);
+
+    /**
+     * Called with the pooled projectiles that hit a ship since the last call.
+     */
+    @Asynchronous
+    void projectilesHit(ProjectileHit[] hits);
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.net;
+
+/**
+ * The few numbers a client needs to fly a pooled projectile on its own, sent in batches instead of
+ * replicating an entity and a physics body per shot. Positions and velocities are floats, which is
+ * plenty for the short flight of a bullet.
+ *
+ * @author Asser
+ */
+public class ProjectileSpawn {
+
+    private long time;
+    private int id;
+    private long owner;
+    private byte type;
+    private byte level;
+    private float x;
+    private float y;
+    private float z;
+    private float vx;
+    private float vz;
+    private int bounces;
+    private int lifetime;
+
+    public ProjectileSpawn() {
+        // For serialization
+    }
+
+    /**
+     * Creates a spawn event.
+     *
+     * @param time the server time it was fired at, in nanoseconds
+     * @param id the id of the projectile in the server's pool
+     * @param owner the entity that fired it
+     * @param type the ProjectilePool type
+     * @param level the weapon level
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @param vx the x velocity
+     * @param vz the z velocity
+     * @param bounces the number of bounces
+     * @param lifetime the time it flies, in milliseconds
+     */
+    public ProjectileSpawn(final long time, final int id, final long owner, final byte type,
+            final byte level, final double x, final double y, final double z, final double vx,
+            final double vz, final int bounces, final int lifetime) {
+        this.time = time;
+        this.id = id;
+        this.owner = owner;
+        this.type = type;
+        this.level = level;
+        this.x = (float) x;
+        this.y = (float) y;
+        this.z = (float) z;
+        this.vx = (float) vx;
+        this.vz = (float) vz;
+        this.bounces = bounces;
+        this.lifetime = lifetime;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the id of the projectile in the server's pool, which a {@link ProjectileHit} refers
+     * to.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public long getOwner() {
+        return owner;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getLevel() {
+        return level;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    public float getVx() {
+        return vx;
+    }
+
+    public float getVz() {
+        return vz;
+    }
+
+    public int getBounces() {
+        return bounces;
+    }
+
+    public int getLifetime() {
+        return lifetime;
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectileSpawn[id=" + id + ", type=" + type + ", level=" + level + ", owner="
+                + owner + ", x=" + x + ", z=" + z + ", vx=" + vx + ", vz=" + vz + "]";
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import infinity.systems.CompiledArena;
+import infinity.systems.RegionIndex;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of compiled arenas, so that loading a map the server has seen before skips the
+ * tile decoding and mask calculation entirely. Entries are keyed by a hash of the level file
+ * contents plus the tile mapping version, and are stored as flat int records that are read back
+ * through a memory-mapped buffer.
+ *
+ * <p>File layout, all ints:
+ *
+ * <pre>
+ *   magic, format version, tile mapping version, leaf size, leaf count, spawn count
+ *   leaf count * (origin x, origin y, origin z, cell count)
+ *   per leaf: cell count * cell index, then cell count * cell value
+ *   spawn count * (type, x, y, z)
+ *   the region index, see {@link RegionIndex#write(IntBuffer)}
+ * </pre>
+ *
+ * @author Asser
+ */
+public class ArenaCache {
+
+  static Logger log = LoggerFactory.getLogger(ArenaCache.class);
+
+  private static final int MAGIC = 0x53494152; // SIAR
+  private static final int FORMAT_VERSION = 2;
+  private static final int HEADER_INTS = 6;
+
+  private final File root;
+
+  public ArenaCache(File root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the cache key for a level file.
+   *
+   * @param levelData the raw contents of the level file
+   * @return the key
+   */
+  public static String key(byte[] levelData) {
+    return key(ByteBuffer.wrap(levelData));
+  }
+
+  /**
+   * Returns the cache key for a level file held in a buffer, such as a memory-mapped file. The
+   * position of the buffer is left untouched.
+   *
+   * @param levelData the raw contents of the level file
+   * @return the key
+   */
+  public static String key(ByteBuffer levelData) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(levelData.duplicate());
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.append("-v").append(CompiledArena.TILE_MAPPING_VERSION).toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Error hashing level data", e);
+    }
+  }
+
+  protected File getFile(String key) {
+    return new File(root, key + ".arena");
+  }
+
+  /**
+   * Loads a compiled arena.
+   *
+   * @param key the cache key
+   * @return the compiled arena or null if it is not cached
+   */
+  public CompiledArena load(String key) {
+    File f = getFile(key);
+    if (!f.exists()) {
+      return null;
+    }
+    long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      CompiledArena result = read(buffer.asIntBuffer());
+      if (log.isDebugEnabled()) {
+        log.debug(
+            "Read arena ["
+                + key
+                + "] "
+                + result
+                + " in "
+                + ((System.nanoTime() - start) / 1000000.0)
+                + " ms");
+      }
+      return result;
+    } catch (IOException | RuntimeException e) {
+      // A broken entry is just a cache miss, it will be rewritten
+      log.warn("Error reading cached arena:" + f, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores a compiled arena.
+   *
+   * @param key the cache key
+   * @param arena the compiled arena
+   */
+  public void store(String key, CompiledArena arena) {
+    if (!root.exists() && !root.mkdirs()) {
+      log.warn("Could not create arena cache directory:" + root);
+      return;
+    }
+    int leafCount = arena.getLeafCount();
+    int size =
+        HEADER_INTS
+            + leafCount * 4
+            + arena.getCellCount() * 2
+            + arena.getSpawns().length
+            + arena.getRegions().getIntSize();
+
+    ByteBuffer buffer = ByteBuffer.allocate(size * 4);
+    IntBuffer ints = buffer.asIntBuffer();
+    ints.put(MAGIC);
+    ints.put(FORMAT_VERSION);
+    ints.put(CompiledArena.TILE_MAPPING_VERSION);
+    ints.put(CompiledArena.LEAF_SIZE);
+    ints.put(leafCount);
+    ints.put(arena.getSpawnCount());
+
+    int[] origins = arena.getLeafOrigins();
+    for (int i = 0; i < leafCount; i++) {
+      ints.put(origins, i * 3, 3);
+      ints.put(arena.getCellIndexes(i).length);
+    }
+    for (int i = 0; i < leafCount; i++) {
+      ints.put(arena.getCellIndexes(i));
+      ints.put(arena.getCellValues(i));
+    }
+    ints.put(arena.getSpawns());
+    arena.getRegions().write(ints);
+
+    // Write to a temp file first so that a crash never leaves a half written entry
+    File f = getFile(key);
+    File temp = new File(root, key + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            temp.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing arena:" + f, e);
+    }
+    if (f.exists() && !f.delete()) {
+      log.warn("Could not replace cached arena:" + f);
+      return;
+    }
+    if (!temp.renameTo(f)) {
+      log.warn("Could not move arena into place:" + f);
+    }
+  }
+
+  protected CompiledArena read(IntBuffer ints) {
+    if (ints.get() != MAGIC) {
+      throw new IllegalStateException("Not a compiled arena");
+    }
+    int format = ints.get();
+    int mapping = ints.get();
+    int leafSize = ints.get();
+    if (format != FORMAT_VERSION
+        || mapping != CompiledArena.TILE_MAPPING_VERSION
+        || leafSize != CompiledArena.LEAF_SIZE) {
+      throw new IllegalStateException(
+          "Stale compiled arena, format:" + format + " mapping:" + mapping + " leaf:" + leafSize);
+    }
+    int leafCount = ints.get();
+    int spawnCount = ints.get();
+
+    int[] origins = new int[leafCount * 3];
+    int[][] indexes = new int[leafCount][];
+    int[][] values = new int[leafCount][];
+    for (int i = 0; i < leafCount; i++) {
+      ints.get(origins, i * 3, 3);
+      int count = ints.get();
+      indexes[i] = new int[count];
+      values[i] = new int[count];
+    }
+    for (int i = 0; i < leafCount; i++) {
+      ints.get(indexes[i]);
+      ints.get(values[i]);
+    }
+    int[] spawns = new int[spawnCount * 4];
+    ints.get(spawns);
+    RegionIndex regions = RegionIndex.read(ints);
+
+    return new CompiledArena(origins, indexes, values, spawns, regions);
+  }
+}
@@ -5,6 +5,7 @@
  */
 package infinity.server;
 
+import com.jme3.asset.AssetInfo;
 import com.jme3.asset.AssetKey;
 import com.jme3.asset.AssetLoader;
 import com.jme3.asset.AssetManager;
@@ -12,6 +13,15 @@ import com.jme3.network.service.AbstractHostedService;
 import com.jme3.network.service.HostedServiceManager;
 import com.jme3.system.JmeSystem;
 
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Centralized server asset system. Used to loads settings files and resources
  * (like maps) that the server needs to create the game
@@ -57,4 +67,43 @@ public class AssetLoaderService extends AbstractHostedService {
         return am.loadAsset(name);
     }
 
+    /**
+     * Reads the raw contents of an asset without running it through a loader.
+     *
+     * @param name the asset path
+     * @return the bytes of the asset or null if it could not be found
+     */
+    public byte[] readAsset(final String name) {
+        final AssetInfo info = am.locateAsset(new AssetKey<>(name));
+        if (info == null) {
+            return null;
+        }
+        try (InputStream is = info.openStream()) {
+            return ByteStreams.toByteArray(is);
+        } catch (final IOException e) {
+            throw new RuntimeException("Error reading asset:" + name, e);
+        }
+    }
+
+    /**
+     * Returns the file an asset is loaded from, if it is a plain file on disk
+     * rather than an entry in a jar. The asset manager finds assets on the
+     * classpath, so the asset is resolved the same way.
+     *
+     * @param name the asset path
+     * @return the file or null if the asset is not a file on disk
+     */
+    public Path findAssetFile(final String name) {
+        final String resource = name.startsWith("/") ? name.substring(1) : name;
+        final URL url = Thread.currentThread().getContextClassLoader().getResource(resource);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI());
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
 }
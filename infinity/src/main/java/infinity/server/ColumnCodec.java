@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the serialized form of a column. Every stored payload starts with a small header
+ * naming the codec it was written with, so a store can switch codecs without rewriting what is
+ * already on disk:
+ *
+ * <pre>
+ *   codec tag (1 byte), raw length (4 bytes, big endian), encoded bytes
+ * </pre>
+ *
+ * <p>Payloads without a header are plain zlib streams, which is how columns were stored before
+ * codecs existed. They are recognized by the zlib header byte, which no codec tag uses.
+ *
+ * @author Asser
+ */
+public abstract class ColumnCodec {
+
+  public static final int HEADER_SIZE = 5;
+
+  public static final int TAG_NONE = 0;
+  public static final int TAG_DEFLATE = 1;
+  public static final int TAG_LZ = 2;
+
+  // First byte of a zlib stream with the default 32K window
+  private static final int ZLIB_HEADER = 0x78;
+
+  public static final ColumnCodec NONE = new NoneCodec();
+  public static final ColumnCodec LZ = new LzCodec();
+
+  private final int tag;
+  private final String name;
+
+  protected ColumnCodec(int tag, String name) {
+    this.tag = tag;
+    this.name = name;
+  }
+
+  public int getTag() {
+    return tag;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns a deflate codec.
+   *
+   * @param level the java.util.zip.Deflater level, 1 to 9
+   * @return the codec
+   */
+  public static ColumnCodec deflate(int level) {
+    return new DeflateCodec(level);
+  }
+
+  /**
+   * Looks up a codec by name, for configuration: none, lz, deflate or deflate:level.
+   *
+   * @param name the codec name
+   * @return the codec
+   */
+  public static ColumnCodec forName(String name) {
+    if ("none".equals(name)) {
+      return NONE;
+    } else if ("lz".equals(name)) {
+      return LZ;
+    } else if ("deflate".equals(name)) {
+      return deflate(Deflater.DEFAULT_COMPRESSION);
+    } else if (name.startsWith("deflate:")) {
+      return deflate(Integer.parseInt(name.substring("deflate:".length())));
+    }
+    throw new IllegalArgumentException("Unknown codec:" + name);
+  }
+
+  /**
+   * Returns the largest number of bytes encode() can produce for the given input length.
+   *
+   * @param length the raw length
+   * @return the upper bound
+   */
+  public abstract int maxEncodedLength(int length);
+
+  /**
+   * Encodes src[0, length) into dst starting at offset.
+   *
+   * @param src the raw bytes
+   * @param length the number of raw bytes
+   * @param dst the destination, at least offset + maxEncodedLength(length) long
+   * @param offset the first byte to write in dst
+   * @return the number of bytes written
+   */
+  public abstract int encode(byte[] src, int length, byte[] dst, int offset);
+
+  /**
+   * Decodes exactly dst.length raw bytes.
+   *
+   * @param src the encoded bytes
+   * @param offset the first encoded byte
+   * @param length the number of encoded bytes
+   * @param dst the destination, sized to the raw length
+   * @throws IOException if the encoded bytes are corrupt
+   */
+  public abstract void decode(byte[] src, int offset, int length, byte[] dst) throws IOException;
+
+  /**
+   * Encodes raw bytes and writes the header in front of them.
+   *
+   * @param src the raw bytes
+   * @param length the number of raw bytes
+   * @param dst the destination, at least HEADER_SIZE + maxEncodedLength(length) long
+   * @return the payload length, header included
+   */
+  public int pack(byte[] src, int length, byte[] dst) {
+    dst[0] = (byte) tag;
+    dst[1] = (byte) (length >>> 24);
+    dst[2] = (byte) (length >>> 16);
+    dst[3] = (byte) (length >>> 8);
+    dst[4] = (byte) length;
+    return HEADER_SIZE + encode(src, length, dst, HEADER_SIZE);
+  }
+
+  /**
+   * Decodes a payload written by any codec.
+   *
+   * @param payload the stored payload
+   * @return the raw bytes
+   * @throws IOException if the payload is corrupt or uses an unknown codec
+   */
+  public static byte[] unpack(byte[] payload) throws IOException {
+    if (payload.length == 0) {
+      throw new IOException("Empty payload");
+    }
+    int tag = payload[0] & 0xff;
+    if (tag == ZLIB_HEADER) {
+      return DeflateCodec.inflate(payload);
+    }
+    if (payload.length < HEADER_SIZE) {
+      throw new IOException("Truncated payload, length:" + payload.length);
+    }
+    int length =
+        ((payload[1] & 0xff) << 24)
+            | ((payload[2] & 0xff) << 16)
+            | ((payload[3] & 0xff) << 8)
+            | (payload[4] & 0xff);
+    byte[] result = new byte[length];
+    forTag(tag).decode(payload, HEADER_SIZE, payload.length - HEADER_SIZE, result);
+    return result;
+  }
+
+  protected static ColumnCodec forTag(int tag) throws IOException {
+    switch (tag) {
+      case TAG_NONE:
+        return NONE;
+      case TAG_DEFLATE:
+        // The level only matters when encoding
+        return DeflateCodec.DECODER;
+      case TAG_LZ:
+        return LZ;
+      default:
+        throw new IOException("Unknown codec tag:" + tag);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /** Stores the bytes as they are. */
+  private static class NoneCodec extends ColumnCodec {
+
+    NoneCodec() {
+      super(TAG_NONE, "none");
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+      return length;
+    }
+
+    @Override
+    public int encode(byte[] src, int length, byte[] dst, int offset) {
+      System.arraycopy(src, 0, dst, offset, length);
+      return length;
+    }
+
+    @Override
+    public void decode(byte[] src, int offset, int length, byte[] dst) throws IOException {
+      if (length != dst.length) {
+        throw new IOException("Length mismatch, stored:" + length + " expected:" + dst.length);
+      }
+      System.arraycopy(src, offset, dst, 0, length);
+    }
+  }
+
+  /** Plain zlib at a configurable level. */
+  private static class DeflateCodec extends ColumnCodec {
+
+    static final DeflateCodec DECODER = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+    private final int level;
+
+    DeflateCodec(int level) {
+      super(TAG_DEFLATE, level == Deflater.DEFAULT_COMPRESSION ? "deflate" : "deflate:" + level);
+      this.level = level;
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+      // zlib's deflateBound() plus some slack for the stream wrapper
+      return length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 64;
+    }
+
+    @Override
+    public int encode(byte[] src, int length, byte[] dst, int offset) {
+      Deflater deflater = new Deflater(level);
+      try {
+        deflater.setInput(src, 0, length);
+        deflater.finish();
+        int pos = offset;
+        while (!deflater.finished()) {
+          int n = deflater.deflate(dst, pos, dst.length - pos);
+          if (n == 0 && pos == dst.length) {
+            throw new IllegalStateException("Deflate output exceeded its bound");
+          }
+          pos += n;
+        }
+        return pos - offset;
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    public void decode(byte[] src, int offset, int length, byte[] dst) throws IOException {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(src, offset, length);
+        int pos = 0;
+        while (pos < dst.length) {
+          int n = inflater.inflate(dst, pos, dst.length - pos);
+          if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+            throw new IOException("Truncated deflate data at:" + pos + " of " + dst.length);
+          }
+          pos += n;
+        }
+        // The raw bytes can all be there before the end of the stream and its checksum
+        if (!inflater.finished()) {
+          if (inflater.inflate(new byte[1]) > 0) {
+            throw new IOException("Deflate data longer than:" + dst.length);
+          }
+          if (!inflater.finished()) {
+            throw new IOException("Truncated deflate data, the end of the stream is missing");
+          }
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt deflate data", e);
+      } finally {
+        inflater.end();
+      }
+    }
+
+    /** Inflates a headerless payload whose raw length is unknown. */
+    static byte[] inflate(byte[] src) throws IOException {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(src);
+        byte[] result = new byte[Math.max(1024, src.length * 4)];
+        int pos = 0;
+        while (!inflater.finished()) {
+          if (pos == result.length) {
+            result = Arrays.copyOf(result, result.length * 2);
+          }
+          int n = inflater.inflate(result, pos, result.length - pos);
+          if (n == 0 && inflater.needsInput()) {
+            throw new IOException("Truncated deflate data at:" + pos);
+          }
+          pos += n;
+        }
+        return Arrays.copyOf(result, pos);
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt deflate data", e);
+      } finally {
+        inflater.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import com.simsilica.mworld.ColumnData;
+import com.simsilica.mworld.io.ColumnDataProtocol;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies every column of a DefaultColumnDb directory into a SegmentedColumnDb. Columns keep the
+ * version they were stored with. The source directory is only read, so it can be kept around until
+ * the new store has been checked.
+ *
+ * <p>The server calls {@link #migrateIfNeeded(File, File, ColumnCodec)} on startup, so an existing
+ * world carries over on its own. Running it by hand is only needed for other directories or codecs.
+ *
+ * <p>Usage: ColumnDbMigration [source, default world.db] [target, default world.seg] [codec,
+ * default lz]
+ *
+ * @author Asser
+ */
+public class ColumnDbMigration {
+
+  static Logger log = LoggerFactory.getLogger(ColumnDbMigration.class);
+
+  private final ColumnDataProtocol protocol = new ColumnDataProtocol();
+  private int migrated;
+  private int failed;
+  private long bytes;
+
+  public static void main(String... args) throws IOException {
+    File source = new File(args.length > 0 ? args[0] : "world.db");
+    File target = new File(args.length > 1 ? args[1] : "world.seg");
+    ColumnCodec codec = args.length > 2 ? ColumnCodec.forName(args[2]) : ColumnCodec.LZ;
+    new ColumnDbMigration().migrate(source, target, codec);
+  }
+
+  /**
+   * Migrates an old world when there is one and it has not been migrated yet. The columns are
+   * written to a temporary directory that is only renamed to the target when the copy is complete,
+   * so a migration that is cut short is started over on the next run.
+   *
+   * @param source the root of the DefaultColumnDb
+   * @param target the root of the SegmentedColumnDb
+   * @param codec the codec to store the columns with
+   * @return true if the world was migrated
+   * @throws IOException if the migration could not be completed
+   */
+  public static boolean migrateIfNeeded(File source, File target, ColumnCodec codec)
+      throws IOException {
+    if (!source.isDirectory() || target.exists()) {
+      return false;
+    }
+    log.info("Found " + source + " without " + target + ", migrating the world");
+    File temp = new File(target.getPath() + ".tmp");
+    if (temp.exists()) {
+      log.info("Removing the unfinished migration in " + temp);
+      delete(temp);
+    }
+    new ColumnDbMigration().migrate(source, temp, codec);
+    if (!temp.renameTo(target)) {
+      throw new IOException("Could not rename " + temp + " to " + target);
+    }
+    log.info("Migrated " + source + " to " + target + ", " + source + " can be removed");
+    return true;
+  }
+
+  private static void delete(File file) throws IOException {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    if (!file.delete()) {
+      throw new IOException("Could not delete:" + file);
+    }
+  }
+
+  /**
+   * Migrates all columns found below the source directory.
+   *
+   * @param source the root of the DefaultColumnDb
+   * @param target the root of the SegmentedColumnDb
+   * @param codec the codec to store the columns with
+   * @throws IOException if the target could not be synced
+   */
+  public void migrate(File source, File target, ColumnCodec codec) throws IOException {
+    if (!source.isDirectory()) {
+      throw new IOException("Not a column directory:" + source);
+    }
+    long start = System.nanoTime();
+    SegmentedColumnDb db = new SegmentedColumnDb(target, codec);
+    db.initialize();
+    try {
+      copy(source, db);
+      db.sync();
+    } finally {
+      db.terminate();
+    }
+    log.info(
+        String.format(
+            "Migrated %d columns (%.1f MB gzip) from %s to %s in %.1f ms, %d failed",
+            migrated,
+            bytes / (1024.0 * 1024.0),
+            source,
+            target,
+            (System.nanoTime() - start) / 1000000.0,
+            failed));
+  }
+
+  protected void copy(File dir, SegmentedColumnDb db) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File f : files) {
+      if (f.isDirectory()) {
+        copy(f, db);
+      } else if (f.getName().endsWith(".col")) {
+        ColumnData col = readColumn(f);
+        if (col == null) {
+          failed++;
+          continue;
+        }
+        db.storeColumn(col);
+        migrated++;
+        bytes += f.length();
+        if (migrated % 1000 == 0) {
+          log.info("Migrated " + migrated + " columns");
+        }
+      }
+    }
+  }
+
+  protected ColumnData readColumn(File f) {
+    try (InputStream in = new BufferedInputStream(new GZIPInputStream(new FileInputStream(f)))) {
+      return protocol.read(in);
+    } catch (IOException e) {
+      // Skip it, a missing column is regenerated empty just like it would have been before
+      log.warn("Error reading column:" + f, e);
+      return null;
+    }
+  }
+}
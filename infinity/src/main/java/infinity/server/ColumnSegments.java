@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only record store spread over a few large segment files. Every write appends a new
+ * version of a record to the active segment and an in-memory index points at the newest version of
+ * each id. Sealed segments are read through memory-mapped buffers, the active one with positional
+ * reads.
+ *
+ * <p>A background thread syncs the active segment to disk in batches instead of after every write,
+ * and compacts sealed segments that are mostly stale versions by copying their live records to the
+ * active segment and deleting them.
+ *
+ * <p>Record layout, little endian: int magic, long id, int payload length, int payload crc32, then
+ * the payload. The index is rebuilt on open by scanning the segments, later records win, and a torn
+ * record at the end of the last segment is cut off.
+ *
+ * @author Asser
+ */
+public class ColumnSegments {
+
+  static Logger log = LoggerFactory.getLogger(ColumnSegments.class);
+
+  public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+  private static final int RECORD_MAGIC = 0x534c4f43; // COLS
+  private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+  private static final String SUFFIX = ".seg";
+  private static final long SYNC_INTERVAL = 200;
+  private static final long COMPACT_INTERVAL = 5000;
+  // Sealed segments with less than this fraction of live data get compacted
+  private static final double COMPACT_THRESHOLD = 0.5;
+
+  private final File root;
+  private final long maxSegmentSize;
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final Map<Long, Location> index = new HashMap<>();
+  private Segment active;
+  private boolean unsynced;
+  private ScheduledExecutorService background;
+
+  private long writes;
+  private long syncs;
+  private long compactions;
+
+  public ColumnSegments(File root) {
+    this(root, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public ColumnSegments(File root, long maxSegmentSize) {
+    if (maxSegmentSize <= 0 || maxSegmentSize > Integer.MAX_VALUE) {
+      // Sealed segments are mapped as a whole
+      throw new IllegalArgumentException("Invalid segment size:" + maxSegmentSize);
+    }
+    this.root = root;
+    this.maxSegmentSize = maxSegmentSize;
+  }
+
+  /**
+   * Opens the segments, rebuilds the index and starts the background sync and compaction.
+   *
+   * @throws IOException if the segments could not be opened
+   */
+  public synchronized void open() throws IOException {
+    if (!root.exists() && !root.mkdirs()) {
+      throw new IOException("Could not create segment directory:" + root);
+    }
+    File[] files = root.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    if (files != null) {
+      for (File f : files) {
+        String name = f.getName();
+        int number = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        segments.put(number, new Segment(number, f));
+      }
+    }
+    long start = System.nanoTime();
+    for (Segment segment : segments.values()) {
+      scan(segment, segment == segments.lastEntry().getValue());
+    }
+    if (segments.isEmpty()) {
+      roll();
+    } else {
+      active = segments.lastEntry().getValue();
+    }
+    for (Segment segment : segments.values()) {
+      if (segment != active) {
+        segment.seal();
+      }
+    }
+    log.info(
+        "Opened "
+            + segments.size()
+            + " segments with "
+            + index.size()
+            + " records in "
+            + ((System.nanoTime() - start) / 1000000.0)
+            + " ms");
+
+    background =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "ColumnSegments");
+              t.setDaemon(true);
+              return t;
+            });
+    background.scheduleWithFixedDelay(
+        this::syncQuietly, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+    background.scheduleWithFixedDelay(
+        this::compactQuietly, COMPACT_INTERVAL, COMPACT_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the background work, syncs and closes every segment. */
+  public void close() {
+    if (background != null) {
+      background.shutdown();
+      try {
+        background.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      syncQuietly();
+      for (Segment segment : segments.values()) {
+        segment.close();
+      }
+      segments.clear();
+      index.clear();
+      active = null;
+    }
+  }
+
+  /**
+   * Reads the newest version of a record.
+   *
+   * @param id the record id
+   * @return the payload or null if there is no such record
+   */
+  public byte[] read(long id) {
+    Location loc;
+    Segment segment;
+    synchronized (this) {
+      loc = index.get(id);
+      if (loc == null) {
+        return null;
+      }
+      segment = segments.get(loc.segment);
+      segment.readers++;
+    }
+    try {
+      return segment.read(loc.offset + HEADER_SIZE, loc.length);
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading record:" + id + " from:" + segment.file, e);
+    } finally {
+      synchronized (this) {
+        segment.readers--;
+      }
+    }
+  }
+
+  /**
+   * Appends a new version of a record. It is durable once the next batched sync has run, or after
+   * {@link #sync()}.
+   *
+   * @param id the record id
+   * @param payload the record data
+   * @param length the number of bytes of payload to write
+   */
+  public synchronized void write(long id, byte[] payload, int length) {
+    try {
+      int size = HEADER_SIZE + length;
+      if (active.size > 0 && active.size + size > maxSegmentSize) {
+        roll();
+      }
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, length);
+
+      ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(RECORD_MAGIC);
+      buffer.putLong(id);
+      buffer.putInt(length);
+      buffer.putInt((int) crc.getValue());
+      buffer.put(payload, 0, length);
+      buffer.flip();
+
+      long offset = active.size;
+      active.write(buffer, offset);
+      put(id, new Location(active.number, offset, length));
+      unsynced = true;
+      writes++;
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing record:" + id + " to:" + active.file, e);
+    }
+  }
+
+  /**
+   * Forces everything written so far to disk.
+   *
+   * @throws IOException if the sync failed
+   */
+  public synchronized void sync() throws IOException {
+    if (unsynced && active != null) {
+      active.channel.force(false);
+      unsynced = false;
+      syncs++;
+    }
+  }
+
+  /**
+   * Compacts every sealed segment that is mostly stale versions.
+   *
+   * @return the number of segments that were compacted
+   */
+  public int compact() {
+    List<Segment> candidates = new ArrayList<>();
+    synchronized (this) {
+      for (Segment segment : segments.values()) {
+        if (segment != active && segment.live < segment.size * COMPACT_THRESHOLD) {
+          candidates.add(segment);
+        }
+      }
+    }
+    for (Segment segment : candidates) {
+      compact(segment);
+    }
+    return candidates.size();
+  }
+
+  private void compact(Segment segment) {
+    long start = System.nanoTime();
+    List<Long> ids = new ArrayList<>();
+    synchronized (this) {
+      for (Map.Entry<Long, Location> e : index.entrySet()) {
+        if (e.getValue().segment == segment.number) {
+          ids.add(e.getKey());
+        }
+      }
+    }
+    // Copy one record at a time so that writers only ever wait for a single copy
+    for (Long id : ids) {
+      synchronized (this) {
+        Location loc = index.get(id);
+        if (loc == null || loc.segment != segment.number) {
+          // Rewritten in the meantime
+          continue;
+        }
+        try {
+          byte[] payload = segment.read(loc.offset + HEADER_SIZE, loc.length);
+          write(id, payload, payload.length);
+        } catch (IOException e) {
+          throw new RuntimeException("Error compacting record:" + id + " from:" + segment.file, e);
+        }
+      }
+    }
+    synchronized (this) {
+      if (segment.live > 0 || segment.readers > 0) {
+        // Try again next round
+        return;
+      }
+      try {
+        // The copies must be on disk before the originals go away
+        active.channel.force(false);
+      } catch (IOException e) {
+        throw new RuntimeException("Error syncing:" + active.file, e);
+      }
+      segments.remove(segment.number);
+      segment.close();
+      if (!segment.file.delete()) {
+        log.warn("Could not delete compacted segment:" + segment.file);
+      }
+      compactions++;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Compacted "
+              + segment.file
+              + ", moved "
+              + ids.size()
+              + " records in "
+              + ((System.nanoTime() - start) / 1000000.0)
+              + " ms");
+    }
+  }
+
+  private void put(long id, Location loc) {
+    Location old = index.put(id, loc);
+    if (old != null) {
+      segments.get(old.segment).live -= HEADER_SIZE + old.length;
+    }
+    segments.get(loc.segment).live += HEADER_SIZE + loc.length;
+  }
+
+  private void roll() throws IOException {
+    if (active != null) {
+      active.channel.force(false);
+      active.seal();
+    }
+    int number = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+    active = new Segment(number, new File(root, String.format("%08d%s", number, SUFFIX)));
+    segments.put(number, active);
+  }
+
+  /** Reads the records of a segment into the index. */
+  private void scan(Segment segment, boolean last) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    long fileSize = segment.channel.size();
+    long offset = 0;
+    while (offset + HEADER_SIZE <= fileSize) {
+      header.clear();
+      segment.channel.read(header, offset);
+      header.flip();
+      int magic = header.getInt();
+      long id = header.getLong();
+      int length = header.getInt();
+      int crc = header.getInt();
+      if (magic != RECORD_MAGIC || length < 0 || offset + HEADER_SIZE + length > fileSize) {
+        break;
+      }
+      byte[] payload = segment.read(offset + HEADER_SIZE, length);
+      CRC32 check = new CRC32();
+      check.update(payload, 0, length);
+      if ((int) check.getValue() != crc) {
+        break;
+      }
+      segment.size = offset + HEADER_SIZE + length;
+      put(id, new Location(segment.number, offset, length));
+      offset = segment.size;
+    }
+    if (offset < fileSize) {
+      if (last) {
+        // A write that was cut short by a crash, drop it
+        log.warn("Truncating " + segment.file + " from " + fileSize + " to " + offset + " bytes");
+        segment.channel.truncate(offset);
+      } else {
+        log.warn(
+            "Ignoring " + (fileSize - offset) + " unreadable bytes at the end of " + segment.file);
+      }
+    }
+    segment.size = offset;
+  }
+
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (IOException | RuntimeException e) {
+      log.error("Error syncing segments", e);
+    }
+  }
+
+  private void compactQuietly() {
+    try {
+      compact();
+    } catch (RuntimeException e) {
+      log.error("Error compacting segments", e);
+    }
+  }
+
+  /**
+   * Returns a one line summary of the store, for logging.
+   *
+   * @return the summary
+   */
+  public synchronized String getStats() {
+    long size = 0;
+    long live = 0;
+    for (Segment segment : segments.values()) {
+      size += segment.size;
+      live += segment.live;
+    }
+    return String.format(
+        "Column segments: %d records in %d segments, %.1f MB (%.1f MB live), writes: %d,"
+            + " syncs: %d, compactions: %d",
+        index.size(),
+        segments.size(),
+        size / (1024.0 * 1024.0),
+        live / (1024.0 * 1024.0),
+        writes,
+        syncs,
+        compactions);
+  }
+
+  private static class Location {
+    final int segment;
+    final long offset;
+    final int length;
+
+    Location(int segment, long offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class Segment {
+    final int number;
+    final File file;
+    final FileChannel channel;
+    long size;
+    // Bytes of records that are still the newest version
+    long live;
+    // Reads in progress, a segment is not deleted while it is being read
+    int readers;
+    // Only set once the segment is sealed and will not grow anymore
+    MappedByteBuffer map;
+
+    Segment(int number, File file) throws IOException {
+      this.number = number;
+      this.file = file;
+      this.channel =
+          FileChannel.open(
+              file.toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      this.size = channel.size();
+    }
+
+    void seal() throws IOException {
+      if (size > 0) {
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+    }
+
+    void write(ByteBuffer buffer, long offset) throws IOException {
+      long pos = offset;
+      while (buffer.hasRemaining()) {
+        pos += channel.write(buffer, pos);
+      }
+      size = pos;
+    }
+
+    byte[] read(long offset, int length) throws IOException {
+      byte[] result = new byte[length];
+      MappedByteBuffer mapped = map;
+      if (mapped != null) {
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) offset);
+        view.get(result);
+        return result;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(result);
+      long pos = offset;
+      while (buffer.hasRemaining()) {
+        int read = channel.read(buffer, pos);
+        if (read < 0) {
+          throw new IOException("Unexpected end of segment at:" + pos);
+        }
+        pos += read;
+      }
+      return result;
+    }
+
+    void close() {
+      map = null;
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Error closing segment:" + file, e);
+      }
+    }
+  }
+}
@@ -36,6 +36,9 @@
 
 package infinity.server;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 import org.slf4j.*;
 
 import com.simsilica.mathd.*;
@@ -47,6 +50,14 @@ import com.simsilica.mworld.db.LeafDb;
 /**
  *  Represents a double sine wave.
  *
+ *  <p>By default the leaves are all empty.  With setGenerating(true) the
+ *  sine wave terrain is generated instead, which is used for test arenas and
+ *  soak runs.  Elevation only depends on x and z so each leaf works from a
+ *  2D elevation tile that is computed once, with a one cell border so
+ *  that the side masks along the leaf edges can be worked out without going
+ *  back to the function.  Leaves can be generated in bulk on the common
+ *  ForkJoin pool with preload().</p>
+ *
  *  @author    Paul Speed
  */
 public class EmptyLeafDb implements LeafDb {
@@ -55,6 +66,9 @@ public class EmptyLeafDb implements LeafDb {
 
     public static final int LEAF_SIZE = LeafInfo.SIZE;
 
+    // The elevation tile covers the leaf plus one cell on every side
+    private static final int TILE_SIZE = LEAF_SIZE + 2;
+
     private double yMin = 0; //-64;
     private double yMax; // = 128;
     private double seaLevel = 64;
@@ -68,6 +82,18 @@ public class EmptyLeafDb implements LeafDb {
     private int landType = 32;
     private int snowType = 43;
 
+    private volatile boolean generating = false;
+
+    // Leaves generated ahead of time by preload(), handed out once by loadLeaf().
+    // Leaves that are never asked for are dropped oldest first once the limit is hit.
+    private volatile int preloadLimit = 512;
+    private final Map<LeafId, LeafData> preloaded = new LinkedHashMap<LeafId, LeafData>() {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<LeafId, LeafData> eldest ) {
+            return size() > preloadLimit;
+        }
+    };
+
     public EmptyLeafDb() {
         this(64);
     }
@@ -88,39 +114,158 @@ public class EmptyLeafDb implements LeafDb {
         this.snowType = snowType;
     }
 
+    /**
+     *  Turns terrain generation on or off.  When off, every leaf is empty.
+     */
+    public void setGenerating( boolean generating ) {
+        this.generating = generating;
+    }
+
+    public boolean isGenerating() {
+        return generating;
+    }
+
+    /**
+     *  Returns the function-generated world data, mostly useful for checking
+     *  the generated leaves against.
+     */
+    public CellData getWorldData() {
+        return worldData;
+    }
+
+    /**
+     *  Sets the most leaves preload() keeps around for loadLeaf().  Each one
+     *  holds a full CellArray so this bounds the memory of leaves that were
+     *  preloaded but never loaded.  Defaults to 512.
+     */
+    public void setPreloadLimit( int preloadLimit ) {
+        this.preloadLimit = preloadLimit;
+        synchronized( preloaded ) {
+            Iterator<LeafId> it = preloaded.keySet().iterator();
+            while( preloaded.size() > preloadLimit && it.hasNext() ) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    public int getPreloadLimit() {
+        return preloadLimit;
+    }
+
     @Override
     public LeafData loadLeaf( LeafId leafId ) {
+        LeafData result;
+        synchronized( preloaded ) {
+            result = preloaded.remove(leafId);
+        }
+        if( result != null ) {
+            return result;
+        }
+        if( !generating ) {
+            Vec3i world = leafId.getWorld(null);
+            CellArray cells = new CellArray(LEAF_SIZE);
+            return new LeafData(new LeafInfo(world, leafId, new DataVersion(0)), cells, LeafInfo.CELL_COUNT);
+        }
+        return generateLeaf(leafId);
+    }
+
+    /**
+     *  Generates a batch of leaves in parallel on the common ForkJoin pool so
+     *  that the loadLeaf() calls for them that follow are just a lookup.  Does
+     *  nothing unless generating.  Blocks until the whole batch is done.
+     *  At most the preload limit of leaves is generated, the rest are left
+     *  for loadLeaf().
+     *
+     *  @return the number of leaves generated
+     */
+    public int preload( Collection<LeafId> leafIds ) {
+        if( !generating || leafIds.isEmpty() ) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int limit = preloadLimit;
+        List<Callable<LeafData>> tasks = new ArrayList<>(Math.min(leafIds.size(), limit));
+        synchronized( preloaded ) {
+            for( LeafId leafId : leafIds ) {
+                if( tasks.size() == limit ) {
+                    break;
+                }
+                if( !preloaded.containsKey(leafId) ) {
+                    tasks.add(() -> generateLeaf(leafId));
+                }
+            }
+        }
+        try {
+            for( Future<LeafData> f : ForkJoinPool.commonPool().invokeAll(tasks) ) {
+                LeafData leaf = f.get();
+                synchronized( preloaded ) {
+                    preloaded.put(leaf.getInfo().leafId, leaf);
+                }
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted preloading leaves", e);
+        } catch( ExecutionException e ) {
+            throw new RuntimeException("Error preloading leaves", e.getCause());
+        }
+        if( log.isDebugEnabled() ) {
+            log.debug("Preloaded " + tasks.size() + " leaves in "
+                      + ((System.nanoTime() - start) / 1000000.0) + " ms");
+        }
+        return tasks.size();
+    }
+
+    /**
+     *  Generates one leaf from its elevation tile.  Cells are written a column
+     *  at a time and the side mask of every solid cell is calculated in the
+     *  same pass.  Cells that are surrounded by the same type on all six sides
+     *  all get the same mask, so that is only calculated once per type.
+     */
+    protected LeafData generateLeaf( LeafId leafId ) {
         Vec3i world = leafId.getWorld(null);
+        ElevationTile tile = new ElevationTile(world);
 
-        // Create the CellArray for the leaf
         CellArray cells = new CellArray(LEAF_SIZE);
-
-        // Copy the world data into the local cells array
         int empty = LeafInfo.CELL_COUNT;
-        /*
-        for( int i = 0; i < LEAF_SIZE; i++ ) {
-            for( int j = 0; j < LEAF_SIZE; j++ ) {
+        if( tile.maxElevation > world.y ) {
+            Map<Integer, Integer> buriedMasks = new HashMap<>();
+            for( int i = 0; i < LEAF_SIZE; i++ ) {
                 for( int k = 0; k < LEAF_SIZE; k++ ) {
-                    int x = world.x + i;
-                    int y = world.y + j;
-                    int z = world.z + k;
-                    int val = worldData.getCell(x, y, z);
-                    if( val == 0 ) {
-                        // No need to set it or to calculate masks... 0 is always empty
+                    int elevation = tile.getElevation(i, k);
+                    int top = Math.min(LEAF_SIZE, elevation - world.y);
+                    if( top <= 0 ) {
                         continue;
                     }
+                    int val = tile.getType(i, k);
 
-                    // Calculate the world mask for this cell
-                    int sideMask = MaskUtils.calculateSideMask(x, y, z, worldData);
-
-                    int cell = MaskUtils.setSideMask(val, sideMask);
-                    cells.setCell(i, j, k, cell);
+                    // The lowest height at which a side neighbor is no longer the same
+                    int sameBelow = elevation;
+                    sameBelow = Math.min(sameBelow, tile.getSameElevation(i - 1, k, val));
+                    sameBelow = Math.min(sameBelow, tile.getSameElevation(i + 1, k, val));
+                    sameBelow = Math.min(sameBelow, tile.getSameElevation(i, k - 1, val));
+                    sameBelow = Math.min(sameBelow, tile.getSameElevation(i, k + 1, val));
 
-                    empty--;
+                    for( int j = 0; j < top; j++ ) {
+                        int y = world.y + j;
+                        int sideMask;
+                        if( y + 1 < sameBelow ) {
+                            // Buried, the cell above and below and all four sides are the same
+                            Integer mask = buriedMasks.get(val);
+                            if( mask == null ) {
+                                mask = MaskUtils.calculateSideMask(i, j, k, tile);
+                                buriedMasks.put(val, mask);
+                            }
+                            sideMask = mask;
+                        } else {
+                            sideMask = MaskUtils.calculateSideMask(i, j, k, tile);
+                        }
+                        cells.setCell(i, j, k, MaskUtils.setSideMask(val, sideMask));
+                    }
+                    empty -= top;
                 }
             }
         }
-        */
         return new LeafData(new LeafInfo(world, leafId, new DataVersion(0)), cells, empty);
     }
 
@@ -128,6 +273,108 @@ public class EmptyLeafDb implements LeafDb {
     public void storeLeaf( LeafData leaf ) {
     }
 
+    /**
+     *  Returns the terrain elevation of a column, every cell below it is
+     *  solid.
+     */
+    protected int getElevation( double xSin, double zSin ) {
+        double sin = xSin * zSin;
+        sin = sin * sin * sin;
+
+        //double elevation = Math.round(yMin + sin * yRange * 0.5 + yRange * 0.5);
+        if( sin < 0 ) {
+            return (int)Math.round(yMin + sin * seaLevel + seaLevel);
+        } else {
+            return (int)Math.round(yMin + sin * (yRange - seaLevel) + seaLevel);
+        }
+    }
+
+    /**
+     *  Returns the cell type of the solid cells in a column.
+     */
+    protected int getType( int elevation ) {
+        int val = elevation < seaLevel ? underWaterType : landType; //21;
+        if( elevation > snowElevation ) {
+            val = snowType;
+        }
+        return val;
+    }
+
+    /**
+     *  The elevation and cell type of every column of a leaf and its direct
+     *  neighbors.  The sines are separable, so the tile only takes
+     *  2 * TILE_SIZE of them.  Also acts as the CellData the masks are
+     *  calculated against, in leaf local coordinates.
+     */
+    private class ElevationTile implements CellData {
+        private final int baseY;
+        private final int[] elevations = new int[TILE_SIZE * TILE_SIZE];
+        private final int[] types = new int[TILE_SIZE * TILE_SIZE];
+        private int maxElevation = Integer.MIN_VALUE;
+
+        public ElevationTile( Vec3i world ) {
+            this.baseY = world.y;
+            double[] xSin = new double[TILE_SIZE];
+            double[] zSin = new double[TILE_SIZE];
+            for( int i = 0; i < TILE_SIZE; i++ ) {
+                xSin[i] = Math.sin(Math.PI * (world.x + i - 1)/xScale);
+                zSin[i] = Math.sin(Math.PI * (world.z + i - 1)/zScale);
+            }
+            for( int k = 0; k < TILE_SIZE; k++ ) {
+                for( int i = 0; i < TILE_SIZE; i++ ) {
+                    int elevation = EmptyLeafDb.this.getElevation(xSin[i], zSin[k]);
+                    elevations[k * TILE_SIZE + i] = elevation;
+                    types[k * TILE_SIZE + i] = EmptyLeafDb.this.getType(elevation);
+                    maxElevation = Math.max(maxElevation, elevation);
+                }
+            }
+        }
+
+        /**
+         *  Returns the elevation of a column, x and z from -1 to LEAF_SIZE.
+         */
+        public int getElevation( int x, int z ) {
+            return elevations[(z + 1) * TILE_SIZE + x + 1];
+        }
+
+        public int getType( int x, int z ) {
+            return types[(z + 1) * TILE_SIZE + x + 1];
+        }
+
+        /**
+         *  Returns the elevation of a column if its type is the given one,
+         *  else the lowest possible elevation.
+         */
+        public int getSameElevation( int x, int z, int type ) {
+            int index = (z + 1) * TILE_SIZE + x + 1;
+            return types[index] == type ? elevations[index] : Integer.MIN_VALUE;
+        }
+
+        @Override
+        public int getCell( int x, int y, int z ) {
+            if( baseY + y >= getElevation(x, z) ) {
+                return 0;
+            }
+            return getType(x, z);
+        }
+
+        @Override
+        public int getCell( int x, int y, int z, int defaultValue ) {
+            return getCell(x, y, z);
+        }
+
+        @Override
+        public int getCell( int x, int y, int z, Direction dir, int defaultValue ) {
+            Vec3i v = dir.getVec3i();
+            return getCell(x + v.x, y + v.y, z + v.z, defaultValue);
+        }
+
+        @Override
+        public void setCell( int x, int y, int z, int type ) {
+            throw new UnsupportedOperationException("Cannot set values back to function-generated data.");
+        }
+    }
+
     /**
      *  Convenient for looking up masks if we generate the data in the context
      *  of the CellData interface.  I'm not sure this translates well to real
@@ -140,27 +387,13 @@ public class EmptyLeafDb implements LeafDb {
 
             double xSin = Math.sin(Math.PI * x/xScale);
             double zSin = Math.sin(Math.PI * z/zScale);
-            double sin = xSin * zSin;
-            sin = sin * sin * sin;
-
-            //double elevation = Math.round(yMin + sin * yRange * 0.5 + yRange * 0.5);
-            double elevation;
-            if( sin < 0 ) {
-                elevation = Math.round(yMin + sin * seaLevel + seaLevel);
-            } else {
-                elevation = Math.round(yMin + sin * (yRange - seaLevel) + seaLevel);
-            }
+            int elevation = getElevation(xSin, zSin);
 
             if( y >= elevation ) {
                 return 0;
             }
 
-            int val = elevation < seaLevel ? underWaterType : landType; //21;
-            if( elevation > snowElevation ) {
-                val = snowType;
-            }
-
-            return val;
+            return getType(elevation);
         }
 
         @Override
@@ -76,7 +76,6 @@ import com.simsilica.mblock.phys.collision.ColliderFactories;
 import com.simsilica.mphys.PhysicsSpace;
 import com.simsilica.mworld.World;
 import com.simsilica.mworld.WorldGrids;
-import com.simsilica.mworld.base.DefaultLeafWorld;
 import com.simsilica.mworld.db.ColumnDbLeafDbAdapter;
 import com.simsilica.mworld.db.LeafDb;
 import com.simsilica.mworld.net.server.WorldHostedService;
@@ -95,16 +94,22 @@ import infinity.es.ShapeNames;
 import infinity.es.TileType;
 import infinity.es.input.MovementInput;
 import infinity.es.ship.Player;
+import infinity.net.ProjectileHit;
+import infinity.net.ProjectileSpawn;
 import infinity.server.chat.InfinityChatHostedService;
 import infinity.sim.CorePhysicsConstants;
 import infinity.sim.CubeFactory;
+import infinity.sim.InfinityDefaultLeafWorld;
 import infinity.sim.InfinityEntityBodyFactory;
 import infinity.sim.InfinityPhysicsManager;
 import infinity.sim.util.InfinityRunTimeException;
 import infinity.systems.ActionSystem;
+import infinity.systems.AreaDamageSystem;
 import infinity.systems.ArenaSystem;
 import infinity.systems.AvatarSystem;
 import infinity.systems.ContactSystem;
+import infinity.systems.CooldownSystem;
+import infinity.systems.DoorSystem;
 import infinity.systems.EnergySystem;
 import infinity.systems.FrequencySystem;
 import infinity.systems.GravitySystem;
@@ -112,7 +117,10 @@ import infinity.systems.InfinityTimeSystem;
 import infinity.systems.MapSystem;
 import infinity.systems.MovementSystem;
 import infinity.systems.PrizeSystem;
+import infinity.systems.ProjectileSystem;
 import infinity.systems.SettingsSystem;
+import infinity.systems.TargetGridSystem;
+import infinity.systems.TerrainPhysicsSystem;
 import infinity.systems.WarpSystem;
 import infinity.systems.WeaponsSystem;
 import infinity.systems.WorldSystem;
@@ -134,10 +142,18 @@ public class GameServer {
 
   static Logger log = LoggerFactory.getLogger(GameServer.class);
 
+  /**
+   * System property that runs the server on generated terrain instead of the saved world, for test
+   * arenas and soak runs: {@code -Dinfinity.generatedWorld=true}.
+   */
+  public static final String GENERATED_WORLD_PROPERTY = "infinity.generatedWorld";
+
   private final Server server;
   private final GameSystemManager systems;
   private final GameLoop loop;
-  private final DefaultColumnDb colDb;
+  // Null when the world is generated, see GENERATED_WORLD_PROPERTY
+  private final SegmentedColumnDb colDb;
+  private final InfinityDefaultLeafWorld world;
 
   /**
    * Creates a new GameServer that will listen on the specified port.
@@ -210,12 +226,27 @@ public class GameServer {
     systems.register(EntityData.class, ed);
     server.getServices().addService(new EntityDataHostedService(InfinityConstants.ES_CHANNEL, ed));
 
-    colDb = new DefaultColumnDb(new File("world.db"));
-    colDb.initialize();
-    LeafDb leafDb = new ColumnDbLeafDbAdapter(colDb);
+    LeafDb leafDb;
+    if (Boolean.getBoolean(GENERATED_WORLD_PROPERTY)) {
+      // Test arenas and soak runs play on generated terrain, which is never saved. MapSystem
+      // preloads the leaves of every arena it loads from it.
+      EmptyLeafDb generated = new EmptyLeafDb();
+      generated.setGenerating(true);
+      systems.register(EmptyLeafDb.class, generated);
+      colDb = null;
+      leafDb = generated;
+    } else {
+      // Columns are appended to segment files, an old world.db is converted the first time around
+      File worldDir = new File("world.seg");
+      ColumnDbMigration.migrateIfNeeded(new File("world.db"), worldDir, ColumnCodec.LZ);
+      colDb = new SegmentedColumnDb(worldDir);
+      colDb.initialize();
+      leafDb = new ColumnDbLeafDbAdapter(colDb);
+    }
 
-    // LeafDb leafDb = new LeafDbCache(new EmptyLeafDb());
-    World world = new DefaultLeafWorld(leafDb, 10);
+    world = new InfinityDefaultLeafWorld(leafDb, 10);
+    // Compiled arenas, so maps that were loaded before don't need to be decoded again
+    systems.register(ArenaCache.class, new ArenaCache(new File("arenas.db")));
 
     systems.register(World.class, world);
     server
@@ -278,6 +309,10 @@ public class GameServer {
     systems.register(AvatarSystem.class, new AvatarSystem());
     systems.register(MovementSystem.class, new MovementSystem());
     systems.register(MobSystem.class, new MobSystem());
+    systems.register(CooldownSystem.class, new CooldownSystem());
+    systems.register(TargetGridSystem.class, new TargetGridSystem());
+    systems.register(ProjectileSystem.class, new ProjectileSystem());
+    systems.register(AreaDamageSystem.class, new AreaDamageSystem());
     systems.register(WeaponsSystem.class, new WeaponsSystem());
     systems.register(ActionSystem.class, new ActionSystem());
     systems.register(ArenaSystem.class, new ArenaSystem());
@@ -298,8 +333,11 @@ public class GameServer {
     systems.register(WarpSystem.class, new WarpSystem());
     systems.register(FrequencySystem.class, new FrequencySystem());
 
+    systems.register(DoorSystem.class, new DoorSystem());
+    // Commits the frame's cell edits, so it goes after the systems that edit cells
     systems.register(WorldSystem.class, new WorldSystem());
-    // systems.register(DoorSystem.class, new DoorSystem());
+    // Wakes the bodies next to the cells the WorldSystem commits
+    systems.register(TerrainPhysicsSystem.class, new TerrainPhysicsSystem());
 
     systems.register(BasicEnvironment.class, new BasicEnvironment());
     // <--
@@ -475,6 +513,8 @@ public class GameServer {
     Serializer.registerClass(PointLightComponent.class, new FieldSerializer());
     Serializer.registerClass(Decay.class, new FieldSerializer());
     Serializer.registerClass(Player.class, new FieldSerializer());
+    Serializer.registerClass(ProjectileSpawn.class, new FieldSerializer());
+    Serializer.registerClass(ProjectileHit.class, new FieldSerializer());
     Serializer.registerClass(MovementInput.class, new FieldSerializer());
   }
 
@@ -514,7 +554,11 @@ public class GameServer {
       systems.stop();
       systems.terminate();
     }
-    colDb.terminate();
+    // Write back any leaves the cache is still holding before the db goes away
+    world.close();
+    if (colDb != null) {
+      colDb.terminate();
+    }
 
     log.info("Game server stopped.");
   }
@@ -527,9 +571,17 @@ public class GameServer {
     close(null);
   }
 
-  /** Logs the current connection statistics for each connection. */
+  /**
+   * Logs the leaf cache and column segment counters and the current connection statistics for each
+   * connection.
+   */
   public void logStats() {
 
+    log.info(world.getLeafCache().getStats());
+    if (colDb != null) {
+      log.info(colDb.getStats());
+    }
+
     final EtherealHost host = server.getServices().getService(EtherealHost.class);
 
     for (final HostedConnection conn : server.getConnections()) {
@@ -59,12 +59,15 @@ import infinity.es.input.MovementInput;
 import infinity.es.ship.Player;
 import infinity.net.GameSession;
 import infinity.net.GameSessionListener;
+import infinity.net.ProjectileHit;
+import infinity.net.ProjectileSpawn;
 import infinity.sim.GameEntities;
 import infinity.sim.util.InfinityRunTimeException;
 import infinity.systems.ActionSystem;
 import infinity.systems.ActionSystem.Action;
 import infinity.systems.AvatarSystem;
 import infinity.systems.MapSystem;
+import infinity.systems.ProjectileSystem;
 import infinity.systems.WarpSystem;
 import infinity.systems.WeaponsSystem;
 import java.util.List;
@@ -204,6 +207,19 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
     private WarpSystem warpSys;
     private ActionSystem actionSys;
     private GameSessionListener callback;
+    private ProjectileSystem projectileSystem;
+    private final ProjectileSystem.ProjectileSpawnListener projectileForwarder =
+        new ProjectileSystem.ProjectileSpawnListener() {
+          @Override
+          public void projectilesSpawned(final ProjectileSpawn[] spawns) {
+            sendProjectiles(spawns);
+          }
+
+          @Override
+          public void projectilesHit(final ProjectileHit[] hits) {
+            sendHits(hits);
+          }
+        };
     // private final MPhysSystem mphys;
     private boolean spawned;
     // private final Vec3d relativeLoc = null;
@@ -267,10 +283,19 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
 
       warpSys = gameSystems.get(WarpSystem.class);
       actionSys = gameSystems.get(ActionSystem.class);
+
+      // Pooled projectiles have no entity, the client flies them from their spawns
+      projectileSystem = gameSystems.get(ProjectileSystem.class);
+      if (projectileSystem != null) {
+        projectileSystem.addProjectileSpawnListener(projectileForwarder);
+      }
     }
 
     public void close() {
       log.debug("Closing game session for:" + conn);
+      if (projectileSystem != null) {
+        projectileSystem.removeProjectileSpawnListener(projectileForwarder);
+      }
       // Remove our physics body
       //// physics.removeBody(shipEntity);
       // Physics body is now removed as a side-effect of the entity
@@ -323,6 +348,20 @@ public class GameSessionHostedService extends AbstractHostedConnectionService {
       ed.setComponent(avatarEntityId, input);
     }
 
+    private void sendProjectiles(final ProjectileSpawn[] spawns) {
+      final GameSessionListener listener = getCallback(false);
+      if (listener != null) {
+        listener.projectilesSpawned(spawns);
+      }
+    }
+
+    private void sendHits(final ProjectileHit[] hits) {
+      final GameSessionListener listener = getCallback(false);
+      if (listener != null) {
+        listener.projectilesHit(hits);
+      }
+    }
+
     protected GameSessionListener getCallback(final boolean failFast) {
       if (callback == null) {
         final RmiRegistry rmi = rmiService.getRmiRegistry(conn);
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import java.io.IOException;
+
+/**
+ * A small byte oriented LZ77 codec in the style of LZ4. It only looks for 4 byte matches through a
+ * single hash table, so it compresses less than deflate but is several times faster, and the long
+ * zero runs of mostly empty space maps collapse into a single overlapping match.
+ *
+ * <p>The stream is a series of sequences:
+ *
+ * <pre>
+ *   token: literal count (high nibble), match length - 4 (low nibble)
+ *   [255...] literal count extension when the nibble is 15
+ *   literals
+ *   match offset (2 bytes, little endian), only if the raw length has not been reached
+ *   [255...] match length extension when the nibble is 15
+ * </pre>
+ *
+ * @author Asser
+ */
+public class LzCodec extends ColumnCodec {
+
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET = 0xffff;
+  private static final int HASH_BITS = 14;
+
+  public LzCodec() {
+    super(TAG_LZ, "lz");
+  }
+
+  @Override
+  public int maxEncodedLength(int length) {
+    // Incompressible input is one long literal run
+    return length + length / 255 + 16;
+  }
+
+  @Override
+  public int encode(byte[] src, int length, byte[] dst, int offset) {
+    int[] table = new int[1 << HASH_BITS];
+    int pos = offset;
+    int anchor = 0;
+    int i = 0;
+    int limit = length - MIN_MATCH;
+    while (i <= limit) {
+      int value = readInt(src, i);
+      int h = hash(value);
+      // Table entries are position + 1 so that 0 means empty
+      int ref = table[h] - 1;
+      table[h] = i + 1;
+      if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != value) {
+        i++;
+        continue;
+      }
+      int matchLength = MIN_MATCH;
+      while (i + matchLength < length && src[ref + matchLength] == src[i + matchLength]) {
+        matchLength++;
+      }
+      pos = writeSequence(src, anchor, i - anchor, dst, pos, i - ref, matchLength);
+      i += matchLength;
+      anchor = i;
+    }
+    if (anchor < length) {
+      pos = writeSequence(src, anchor, length - anchor, dst, pos, 0, 0);
+    }
+    return pos - offset;
+  }
+
+  @Override
+  public void decode(byte[] src, int offset, int length, byte[] dst) throws IOException {
+    int in = offset;
+    int end = offset + length;
+    int out = 0;
+    try {
+      while (out < dst.length) {
+        int token = src[in++] & 0xff;
+        int literals = token >>> 4;
+        if (literals == 15) {
+          int b;
+          do {
+            b = src[in++] & 0xff;
+            literals += b;
+          } while (b == 255);
+        }
+        if (in + literals > end || out + literals > dst.length) {
+          throw new IOException("Literal run out of bounds at:" + out);
+        }
+        System.arraycopy(src, in, dst, out, literals);
+        in += literals;
+        out += literals;
+        if (out == dst.length) {
+          break;
+        }
+
+        int matchOffset = (src[in++] & 0xff) | ((src[in++] & 0xff) << 8);
+        int matchLength = token & 0xf;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[in++] & 0xff;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        int from = out - matchOffset;
+        if (matchOffset == 0 || from < 0 || out + matchLength > dst.length) {
+          throw new IOException("Match out of bounds at:" + out + " offset:" + matchOffset);
+        }
+        if (matchOffset >= matchLength) {
+          System.arraycopy(dst, from, dst, out, matchLength);
+          out += matchLength;
+        } else {
+          // Overlapping match, a repeat of the last matchOffset bytes. Everything from 'from' on
+          // repeats with that period, so each copy can be twice as long as the one before.
+          int remaining = matchLength;
+          int chunk = matchOffset;
+          while (remaining > 0) {
+            int n = Math.min(chunk, remaining);
+            System.arraycopy(dst, from, dst, out, n);
+            out += n;
+            remaining -= n;
+            chunk += n;
+          }
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Truncated lz data at:" + out, e);
+    }
+    if (in > end) {
+      throw new IOException("Truncated lz data at:" + out);
+    }
+  }
+
+  private static int writeSequence(
+      byte[] src,
+      int literalStart,
+      int literals,
+      byte[] dst,
+      int pos,
+      int matchOffset,
+      int matchLength) {
+    int tokenPos = pos++;
+    int token = Math.min(literals, 15) << 4;
+    if (literals >= 15) {
+      pos = writeLength(dst, pos, literals - 15);
+    }
+    System.arraycopy(src, literalStart, dst, pos, literals);
+    pos += literals;
+    if (matchLength > 0) {
+      dst[pos++] = (byte) matchOffset;
+      dst[pos++] = (byte) (matchOffset >>> 8);
+      int extra = matchLength - MIN_MATCH;
+      token |= Math.min(extra, 15);
+      if (extra >= 15) {
+        pos = writeLength(dst, pos, extra - 15);
+      }
+    }
+    dst[tokenPos] = (byte) token;
+    return pos;
+  }
+
+  private static int writeLength(byte[] dst, int pos, int length) {
+    while (length >= 255) {
+      dst[pos++] = (byte) 255;
+      length -= 255;
+    }
+    dst[pos++] = (byte) length;
+    return pos;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+  }
+
+  private static int hash(int value) {
+    return (value * -1640531535) >>> (32 - HASH_BITS);
+  }
+}
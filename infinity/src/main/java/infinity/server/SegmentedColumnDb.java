@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.simsilica.mworld.ColumnData;
+import com.simsilica.mworld.ColumnId;
+import com.simsilica.mworld.db.AbstractColumnDb;
+import com.simsilica.mworld.db.SpoolingObjectDb;
+import com.simsilica.mworld.io.ColumnDataProtocol;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A column db that appends compressed columns to a few large segment files instead of writing one
+ * gzip file per column, which is what DefaultColumnDb does. Writes become sequential appends that
+ * are synced in batches, reads come from a memory-mapped segment through an in-memory index, and
+ * superseded column versions are compacted away in the background. See ColumnSegments for the
+ * on-disk format.
+ *
+ * <p>Columns are compressed with a ColumnCodec, the fast LZ codec unless told otherwise. Every
+ * payload is tagged with its codec so changing the codec leaves existing columns readable.
+ *
+ * <p>Existing DefaultColumnDb directories can be converted with ColumnDbMigration.
+ *
+ * @author Asser
+ */
+public class SegmentedColumnDb extends AbstractColumnDb {
+
+  static Logger log = LoggerFactory.getLogger(SegmentedColumnDb.class);
+
+  private final ColumnSegments segments;
+  private final ColumnDataProtocol protocol = new ColumnDataProtocol();
+  private final ColumnCodec codec;
+
+  private final LoadingCache<ColumnId, ColumnData> cache;
+
+  private final SpoolingObjectDb<ColumnId, ColumnData> storage;
+
+  public SegmentedColumnDb(File root) {
+    this(root, ColumnSegments.DEFAULT_SEGMENT_SIZE, ColumnCodec.LZ);
+  }
+
+  public SegmentedColumnDb(File root, ColumnCodec codec) {
+    this(root, ColumnSegments.DEFAULT_SEGMENT_SIZE, codec);
+  }
+
+  public SegmentedColumnDb(File root, long segmentSize, ColumnCodec codec) {
+    this.segments = new ColumnSegments(root, segmentSize);
+    this.codec = codec;
+
+    this.cache = CacheBuilder.newBuilder().maximumSize(1024).build(new ColumnLoader());
+
+    this.storage =
+        new SpoolingObjectDb<ColumnId, ColumnData>("columns") {
+          @Override
+          protected ColumnData loadObject(ColumnId id) {
+            return loadColumn(id);
+          }
+
+          @Override
+          protected void storeObject(ColumnId id, ColumnData data) {
+            synchronized (data) {
+              writeColumn(data);
+            }
+          }
+        };
+  }
+
+  @Override
+  public void initialize() {
+    try {
+      segments.open();
+    } catch (IOException e) {
+      throw new RuntimeException("Error opening column segments", e);
+    }
+    storage.initialize();
+  }
+
+  @Override
+  public void terminate() {
+    // Spool out the pending columns before the segments are synced and closed
+    storage.terminate();
+    segments.close();
+  }
+
+  @Override
+  public ColumnData getColumn(ColumnId columnId) {
+    return cache.getUnchecked(columnId);
+  }
+
+  @Override
+  public void markChanged(ColumnData col) {
+    storage.update(col.getColumnId(), col);
+  }
+
+  public ColumnCodec getCodec() {
+    return codec;
+  }
+
+  /**
+   * Returns the segment counters for logging.
+   *
+   * @return a one line summary of the segments
+   */
+  public String getStats() {
+    return segments.getStats();
+  }
+
+  protected ColumnData loadColumn(ColumnId columnId) {
+    byte[] payload = segments.read(columnId.getId());
+    if (payload == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("generate column(" + columnId + ")");
+      }
+      return new ColumnData(columnId, 1);
+    }
+    try {
+      return protocol.read(new ByteArrayInputStream(ColumnCodec.unpack(payload)));
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading column:" + columnId, e);
+    }
+  }
+
+  protected void writeColumn(ColumnData col) {
+    // Reset the version first so that we write the new version value
+    col.resetChanged(System.currentTimeMillis());
+    storeColumn(col);
+  }
+
+  /**
+   * Appends a column as is, without touching its version. Used by the migration so that columns
+   * keep the version they were written with.
+   *
+   * @param col the column to store
+   */
+  protected void storeColumn(ColumnData col) {
+    long start = System.nanoTime();
+    RawBytes raw = new RawBytes();
+    try {
+      protocol.write(col, raw);
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing column:" + col.getColumnId(), e);
+    }
+    byte[] payload = new byte[ColumnCodec.HEADER_SIZE + codec.maxEncodedLength(raw.size())];
+    int length = codec.pack(raw.getBuffer(), raw.size(), payload);
+    segments.write(col.getColumnId().getId(), payload, length);
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Wrote column ["
+              + col
+              + "] "
+              + raw.size()
+              + " -> "
+              + length
+              + " bytes with "
+              + codec
+              + " in "
+              + ((System.nanoTime() - start) / 1000000.0)
+              + " ms");
+    }
+  }
+
+  /**
+   * Forces all appended columns to disk.
+   *
+   * @throws IOException if the sync failed
+   */
+  public void sync() throws IOException {
+    segments.sync();
+  }
+
+  /** Gives the codec the serialized column without copying it out first. */
+  private static class RawBytes extends ByteArrayOutputStream {
+
+    RawBytes() {
+      super(16 * 1024);
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+
+  protected class ColumnLoader extends CacheLoader<ColumnId, ColumnData> {
+    @Override
+    public ColumnData load(ColumnId id) {
+      return storage.get(id);
+    }
+  }
+}
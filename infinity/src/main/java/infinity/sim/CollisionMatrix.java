@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The answers of {@link CategoryFilter#isAllowed} between every pair of filters, worked out once
+ * per filter. Filters get a small index the first time they are seen, and checking a pair is then
+ * a single bit test instead of two mask compares behind an instanceof.
+ *
+ * <p>Only the first 64 distinct filters get an index, there are far fewer than that in
+ * CollisionFilters. Not thread safe.
+ *
+ * @author Asser
+ */
+public class CollisionMatrix {
+
+  public static final int MAX_FILTERS = 64;
+  /** The index of filters that did not fit, they have to be checked with isAllowed(). */
+  public static final int NO_INDEX = -1;
+
+  private final Map<CategoryFilter, Integer> indexes = new HashMap<>();
+  private final List<CategoryFilter> filters = new ArrayList<>();
+  // Bit b of row a is set when filters a and b may collide
+  private final long[] rows = new long[MAX_FILTERS];
+
+  /**
+   * Returns the index of a filter, adding it to the matrix the first time.
+   *
+   * @param filter the filter
+   * @return the index, or NO_INDEX if the matrix is full
+   */
+  public int getIndex(CategoryFilter filter) {
+    Integer index = indexes.get(filter);
+    if (index != null) {
+      return index;
+    }
+    if (filters.size() == MAX_FILTERS) {
+      return NO_INDEX;
+    }
+    int added = filters.size();
+    filters.add(filter);
+    indexes.put(filter, added);
+    for (int i = 0; i <= added; i++) {
+      if (filters.get(i).isAllowed(filter)) {
+        rows[i] |= 1L << added;
+        rows[added] |= 1L << i;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Returns true if the filters with the given indexes may collide.
+   *
+   * @param one the index of one filter
+   * @param two the index of the other filter
+   * @return true if the pair is allowed
+   */
+  public boolean isAllowed(int one, int two) {
+    return (rows[one] & (1L << two)) != 0;
+  }
+
+  public int getFilterCount() {
+    return filters.size();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import java.util.Arrays;
+
+/**
+ * Sums int deltas per entity id without boxing. The ids are kept in the order they were first
+ * added, so the totals can be walked by index, and clearing only touches the slots that were used,
+ * which makes a ledger cheap to fill and empty once per frame.
+ *
+ * <p>Not thread safe.
+ *
+ * @author Asser
+ */
+public class DeltaLedger {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private long[] ids = new long[INITIAL_CAPACITY];
+  private int[] deltas = new int[INITIAL_CAPACITY];
+  private int count;
+
+  // Open addressed, an entry is the index of its id + 1 so that 0 means empty
+  private int[] table = new int[INITIAL_CAPACITY * 2];
+  private int mask = table.length - 1;
+
+  /**
+   * Adds a delta to the total of an id.
+   *
+   * @param id the id
+   * @param delta the delta
+   */
+  public void add(long id, int delta) {
+    int slot = hash(id) & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      if (ids[entry - 1] == id) {
+        deltas[entry - 1] += delta;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (count == ids.length) {
+      grow();
+      add(id, delta);
+      return;
+    }
+    ids[count] = id;
+    deltas[count] = delta;
+    table[slot] = ++count;
+  }
+
+  /**
+   * Returns the number of ids with a total.
+   *
+   * @return the number of ids
+   */
+  public int size() {
+    return count;
+  }
+
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  public int getDelta(int index) {
+    return deltas[index];
+  }
+
+  /** Forgets all the totals. */
+  public void clear() {
+    if (count == 0) {
+      return;
+    }
+    if (count > table.length >> 3) {
+      Arrays.fill(table, 0);
+    } else {
+      // Few enough to find them again, linear probing keeps each one before any empty slot
+      for (int i = 0; i < count; i++) {
+        int slot = hash(ids[i]) & mask;
+        while (table[slot] != 0) {
+          table[slot] = 0;
+          slot = (slot + 1) & mask;
+        }
+      }
+    }
+    count = 0;
+  }
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    deltas = Arrays.copyOf(deltas, capacity);
+    table = new int[capacity * 2];
+    mask = table.length - 1;
+    for (int i = 0; i < count; i++) {
+      int slot = hash(ids[i]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+  }
+
+  private static int hash(long id) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import java.util.Arrays;
+
+/**
+ * Works out the pull and push of gravity wells on bodies in the x/z plane. Bodies and wells are
+ * added as plain coordinates, the bodies are then sorted into the buckets of a uniform grid as
+ * large as the widest well, and every well only looks at the few buckets its circle covers.
+ *
+ * <p>The bodies of a bucket lie next to each other in primitive arrays, so the inner loop over them
+ * is a straight, branch free loop the JIT can vectorize. A well of strength s and radius r adds
+ * s * step * r / d to a body at distance d within r, pointing at the well for a positive strength
+ * and away from it for a negative one.
+ *
+ * <p>Meant to be filled and solved once per physics frame. Not thread safe.
+ *
+ * @author Asser
+ */
+public class GravityField {
+
+  // Bodies closer than this to a well have no direction to be pulled in, like the well itself
+  private static final double MIN_DISTANCE_SQ = 1e-9;
+  private static final int INITIAL_CAPACITY = 64;
+
+  // The bodies in the order they were added
+  private double[] bodyX = new double[INITIAL_CAPACITY];
+  private double[] bodyZ = new double[INITIAL_CAPACITY];
+  private double[] forceX = new double[INITIAL_CAPACITY];
+  private double[] forceZ = new double[INITIAL_CAPACITY];
+  private int[] bodyBucket = new int[INITIAL_CAPACITY];
+  private int bodyCount;
+
+  // The bodies sorted by bucket, bucket b holds bucketStart[b] up to bucketStart[b + 1]
+  private int[] sorted = new int[INITIAL_CAPACITY];
+  private double[] sortedX = new double[INITIAL_CAPACITY];
+  private double[] sortedZ = new double[INITIAL_CAPACITY];
+  private double[] sortedForceX = new double[INITIAL_CAPACITY];
+  private double[] sortedForceZ = new double[INITIAL_CAPACITY];
+  private int[] bucketStart = new int[INITIAL_CAPACITY + 1];
+  private int bucketMask;
+
+  private double[] wellX = new double[INITIAL_CAPACITY];
+  private double[] wellZ = new double[INITIAL_CAPACITY];
+  private double[] wellRadius = new double[INITIAL_CAPACITY];
+  private double[] wellStrength = new double[INITIAL_CAPACITY];
+  private int wellCount;
+
+  // A well spans 3 cells per axis, or 4 when rounding pushes its edges over cell borders
+  private final int[] wellBuckets = new int[16];
+
+  /** Removes all bodies and wells. */
+  public void clear() {
+    bodyCount = 0;
+    wellCount = 0;
+  }
+
+  /**
+   * Adds a body.
+   *
+   * @param x the x coordinate
+   * @param z the z coordinate
+   * @return the index of the body, to get its force with after solve()
+   */
+  public int addBody(double x, double z) {
+    if (bodyCount == bodyX.length) {
+      int capacity = bodyCount * 2;
+      bodyX = Arrays.copyOf(bodyX, capacity);
+      bodyZ = Arrays.copyOf(bodyZ, capacity);
+      forceX = Arrays.copyOf(forceX, capacity);
+      forceZ = Arrays.copyOf(forceZ, capacity);
+      bodyBucket = Arrays.copyOf(bodyBucket, capacity);
+      sorted = Arrays.copyOf(sorted, capacity);
+      sortedX = Arrays.copyOf(sortedX, capacity);
+      sortedZ = Arrays.copyOf(sortedZ, capacity);
+      sortedForceX = Arrays.copyOf(sortedForceX, capacity);
+      sortedForceZ = Arrays.copyOf(sortedForceZ, capacity);
+    }
+    bodyX[bodyCount] = x;
+    bodyZ[bodyCount] = z;
+    return bodyCount++;
+  }
+
+  /**
+   * Adds a well.
+   *
+   * @param x the x coordinate
+   * @param z the z coordinate
+   * @param radius the distance the well reaches
+   * @param strength the force, positive to pull and negative to push
+   */
+  public void addWell(double x, double z, double radius, double strength) {
+    if (radius <= 0 || strength == 0) {
+      return;
+    }
+    if (wellCount == wellX.length) {
+      int capacity = wellCount * 2;
+      wellX = Arrays.copyOf(wellX, capacity);
+      wellZ = Arrays.copyOf(wellZ, capacity);
+      wellRadius = Arrays.copyOf(wellRadius, capacity);
+      wellStrength = Arrays.copyOf(wellStrength, capacity);
+    }
+    wellX[wellCount] = x;
+    wellZ[wellCount] = z;
+    wellRadius[wellCount] = radius;
+    wellStrength[wellCount] = strength;
+    wellCount++;
+  }
+
+  public int getBodyCount() {
+    return bodyCount;
+  }
+
+  public int getWellCount() {
+    return wellCount;
+  }
+
+  public double getForceX(int body) {
+    return forceX[body];
+  }
+
+  public double getForceZ(int body) {
+    return forceZ[body];
+  }
+
+  /**
+   * Works out the force on every body.
+   *
+   * @param step the length of the step in seconds
+   */
+  public void solve(double step) {
+    Arrays.fill(forceX, 0, bodyCount, 0);
+    Arrays.fill(forceZ, 0, bodyCount, 0);
+    if (bodyCount == 0 || wellCount == 0) {
+      return;
+    }
+
+    // With cells as large as the widest well, a well covers at most 4x4 cells
+    double cellSize = 0;
+    for (int w = 0; w < wellCount; w++) {
+      cellSize = Math.max(cellSize, wellRadius[w]);
+    }
+    double inverseCellSize = 1 / cellSize;
+    sortBodies(inverseCellSize);
+
+    for (int w = 0; w < wellCount; w++) {
+      double x = wellX[w];
+      double z = wellZ[w];
+      double radius = wellRadius[w];
+      long minX = cell(x - radius, inverseCellSize);
+      long maxX = cell(x + radius, inverseCellSize);
+      long minZ = cell(z - radius, inverseCellSize);
+      long maxZ = cell(z + radius, inverseCellSize);
+
+      // Different cells can share a bucket, each bucket must only be visited once
+      int buckets = 0;
+      for (long cx = minX; cx <= maxX; cx++) {
+        for (long cz = minZ; cz <= maxZ; cz++) {
+          int bucket = bucket(cx, cz);
+          boolean seen = false;
+          for (int i = 0; i < buckets; i++) {
+            seen |= wellBuckets[i] == bucket;
+          }
+          if (!seen) {
+            wellBuckets[buckets++] = bucket;
+          }
+        }
+      }
+
+      double radiusSq = radius * radius;
+      double scale = wellStrength[w] * step * radius;
+      for (int i = 0; i < buckets; i++) {
+        int bucket = wellBuckets[i];
+        applyWell(x, z, radiusSq, scale, bucketStart[bucket], bucketStart[bucket + 1]);
+      }
+    }
+
+    for (int j = 0; j < bodyCount; j++) {
+      int body = sorted[j];
+      forceX[body] = sortedForceX[j];
+      forceZ[body] = sortedForceZ[j];
+    }
+  }
+
+  private void applyWell(double x, double z, double radiusSq, double scale, int from, int to) {
+    final double[] xs = sortedX;
+    final double[] zs = sortedZ;
+    final double[] fx = sortedForceX;
+    final double[] fz = sortedForceZ;
+    for (int j = from; j < to; j++) {
+      double dx = x - xs[j];
+      double dz = z - zs[j];
+      double distanceSq = dx * dx + dz * dz;
+      double f = distanceSq <= radiusSq && distanceSq > MIN_DISTANCE_SQ ? scale / distanceSq : 0;
+      fx[j] += dx * f;
+      fz[j] += dz * f;
+    }
+  }
+
+  /** Counting sort of the bodies into their buckets. */
+  private void sortBodies(double inverseCellSize) {
+    int buckets = Integer.highestOneBit(Math.max(1, bodyCount - 1)) << 1;
+    if (bucketStart.length < buckets + 1) {
+      bucketStart = new int[buckets + 1];
+    } else {
+      Arrays.fill(bucketStart, 0, buckets + 1, 0);
+    }
+    bucketMask = buckets - 1;
+
+    for (int i = 0; i < bodyCount; i++) {
+      int bucket = bucket(cell(bodyX[i], inverseCellSize), cell(bodyZ[i], inverseCellSize));
+      bodyBucket[i] = bucket;
+      bucketStart[bucket + 1]++;
+    }
+    for (int b = 0; b < buckets; b++) {
+      bucketStart[b + 1] += bucketStart[b];
+    }
+    // Fill from the back of each bucket, so bucketStart ends up where it started
+    for (int i = bodyCount - 1; i >= 0; i--) {
+      int bucket = bodyBucket[i];
+      int j = --bucketStart[bucket + 1];
+      sorted[j] = i;
+      sortedX[j] = bodyX[i];
+      sortedZ[j] = bodyZ[i];
+    }
+    // Every bucket end was walked back to its start, shift them back into place
+    System.arraycopy(bucketStart, 1, bucketStart, 0, buckets);
+    bucketStart[0] = 0;
+    bucketStart[buckets] = bodyCount;
+    Arrays.fill(sortedForceX, 0, bodyCount, 0);
+    Arrays.fill(sortedForceZ, 0, bodyCount, 0);
+  }
+
+  private static long cell(double coordinate, double inverseCellSize) {
+    return (long) Math.floor(coordinate * inverseCellSize);
+  }
+
+  private int bucket(long cx, long cz) {
+    long h = cx * 0x9E3779B97F4A7C15L + cz * 0xC2B2AE3D27D4EB4FL;
+    return (int) (h ^ (h >>> 29)) & bucketMask;
+  }
+}
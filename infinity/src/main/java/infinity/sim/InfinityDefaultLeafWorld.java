@@ -45,6 +45,7 @@ import com.simsilica.mworld.FluidData;
 import com.simsilica.mworld.LeafChangeListener;
 import com.simsilica.mworld.LeafData;
 import com.simsilica.mworld.LeafId;
+import com.simsilica.mworld.LeafInfo;
 import com.simsilica.mworld.LightData;
 import com.simsilica.mworld.TileId;
 import com.simsilica.mworld.World;
@@ -58,7 +59,13 @@ import com.simsilica.mworld.tile.TileListener;
 import com.simsilica.mworld.tile.pc.PointCloudLayer;
 import com.simsilica.mworld.tile.tree.TreeLayer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,7 +79,10 @@ public class InfinityDefaultLeafWorld implements World {
 
   static Logger log = LoggerFactory.getLogger(InfinityDefaultLeafWorld.class);
 
-  private final LeafDb leafDb;
+  /** The default memory budget of the leaf cache, enough for a few fully loaded arenas. */
+  public static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+  private final LeafCache leafDb;
   private final int yMax;
 
   private final List<CellChangeListener> cellListeners = new ArrayList<>();
@@ -80,12 +90,38 @@ public class InfinityDefaultLeafWorld implements World {
   private final CellChangeListener[] emptyCellListenerArray = new CellChangeListener[0];
 
   private final LeafChangeListenerSupport leafListeners = new LeafChangeListenerSupport();
+  private final List<LeafEditListener> editListeners = new CopyOnWriteArrayList<>();
+
+  // The open edit batch and how deeply it is nested, guarded by the write lock
+  private EditBatch batch;
+  private int batchDepth;
 
   public InfinityDefaultLeafWorld(LeafDb leafDb, int yMax) {
-    this.leafDb = leafDb;
+    this(leafDb, yMax, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Creates a world that caches leaves in memory and writes changed leaves back to the db in the
+   * background.
+   *
+   * @param leafDb the db holding the leaves
+   * @param yMax the maximum y-coordinate of the world
+   * @param cacheSize roughly how many bytes of leaves to keep in memory
+   */
+  public InfinityDefaultLeafWorld(LeafDb leafDb, int yMax, long cacheSize) {
+    this.leafDb = new LeafCache(leafDb, cacheSize);
     this.yMax = yMax;
   }
 
+  public LeafCache getLeafCache() {
+    return leafDb;
+  }
+
+  /** Writes all changed leaves back to the db and stops the background writer. */
+  public void close() {
+    leafDb.close();
+  }
+
   @Override
   public void addCellChangeListener(CellChangeListener l) {
     cellListeners.add(l);
@@ -108,6 +144,80 @@ public class InfinityDefaultLeafWorld implements World {
     leafListeners.remove(l);
   }
 
+  public void addLeafEditListener(LeafEditListener l) {
+    editListeners.add(l);
+  }
+
+  public void removeLeafEditListener(LeafEditListener l) {
+    editListeners.remove(l);
+  }
+
+  /**
+   * Opens an edit batch. Until the matching commitEdits(), cell writes from any thread only change
+   * the cells. Side masks, storing the leaves and all change events are deferred to the commit, so
+   * a leaf that is edited many times in a frame is settled, stored and announced once. Batches
+   * nest, only the outermost commit applies them.
+   *
+   * <p>Batched edits are announced per leaf only, cell change listeners do not see them. Code that
+   * needs to know what changed listens for {@link LeafEdit}s instead.
+   */
+  public void beginEdits() {
+    synchronized (leafDb.getWriteLock()) {
+      if (batchDepth++ == 0) {
+        batch = new EditBatch();
+      }
+    }
+  }
+
+  /**
+   * Closes the edit batch opened by beginEdits(). For the outermost batch the side masks around
+   * every edited cell are recalculated once, each modified leaf is stored once, and each leaf gets
+   * one {@link LeafEdit} followed by one leaf change.
+   *
+   * @return the number of leaves that were modified
+   */
+  public int commitEdits() {
+    List<LeafEdit> edits = new ArrayList<>();
+    synchronized (leafDb.getWriteLock()) {
+      if (batchDepth == 0) {
+        throw new IllegalStateException("No edit batch is open");
+      }
+      if (--batchDepth > 0) {
+        return 0;
+      }
+      EditBatch done = batch;
+      batch = null;
+      try {
+        if (done.data == null) {
+          return 0;
+        }
+        done.settle(edits);
+      } finally {
+        done.unpinLeaves();
+      }
+    }
+
+    for (LeafEdit edit : edits) {
+      for (LeafEditListener l : editListeners) {
+        l.leafEdited(edit);
+      }
+      // For the World listeners, like the terrain channel that has clients reload the leaf
+      leafListeners.fireLeafChanged(edit.getLeafId(), edit.getVersion());
+    }
+    return edits.size();
+  }
+
+  /**
+   * Returns true while an edit batch is open.
+   *
+   * @return true if cell writes are being deferred
+   */
+  public boolean isBatching() {
+    synchronized (leafDb.getWriteLock()) {
+      return batch != null;
+    }
+  }
+
   @Override
   public int getMaxY() {
     return yMax;
@@ -136,12 +246,19 @@ public class InfinityDefaultLeafWorld implements World {
     }
   }
 
+  /**
+   * Sets one world cell. Inside an edit batch the masks are not calculated yet, so the value
+   * returned is the plain type.
+   */
   @Override
   public int setWorldCell(Vec3d world, int type) {
-    //TODO: Implement some kind of batching here so that we don't
-    // have to do a full recalculation for every cell change. Maybe
-    // a 'setWorldCells' that takes a list of cells to change and
-    // then does a single recalculation.
+    // Bulk changes should go through setWorldCells() so that leaves are
+    // only stored and announced once.
+    synchronized (leafDb.getWriteLock()) {
+      if (batch != null) {
+        return batch.setCell(world, type);
+      }
+    }
 
     // log.info("setWorldCell(" + world + ", " + type + ")");
     LeafId id = LeafId.fromWorld(world);
@@ -156,17 +273,22 @@ public class InfinityDefaultLeafWorld implements World {
     int y = Coordinates.worldToCell(world.y);
     int z = Coordinates.worldToCell(world.z);
 
-    data.setCell(x, y, z, type);
-    MaskUtils.recalculateSideMasks(data, x, y, z, -1); // -1 so that 'outside the world' is badType
-    //MaskUtils.oldRecalculateSideMasks(data, x, y, z);
-
-    // Get the newly masked value to fire in the event
-    int value = data.getCell(x, y, z);
-    // log.info("set cell:" + x + ", " + y + ", " + z + "  to: " + MaskUtils.valueToString(value));
-
-    // Push the changes back to the DB
-    for (LeafData mod : data.getModified()) {
-      leafDb.storeLeaf(mod);
+    int value;
+    synchronized (leafDb.getWriteLock()) {
+      data.setCell(x, y, z, type);
+      // -1 so that 'outside the world' is badType
+      MaskUtils.recalculateSideMasks(data, x, y, z, -1);
+      //MaskUtils.oldRecalculateSideMasks(data, x, y, z);
+
+      // Get the newly masked value to fire in the event
+      value = data.getCell(x, y, z);
+      // log.info("set cell:" + x + ", " + y + ", " + z + "  to: "
+      //     + MaskUtils.valueToString(value));
+
+      // Push the changes back to the DB, the cache writes them behind
+      for (LeafData mod : data.getModified()) {
+        leafDb.storeLeaf(mod);
+      }
     }
 
     // Notify the listeners
@@ -182,6 +304,148 @@ public class InfinityDefaultLeafWorld implements World {
     return value;
   }
 
+  /**
+   * Sets a batch of world cells in one pass. The writes are grouped by leaf so that every touched
+   * leaf is loaded once, side masks are recalculated after all cells have been written, each
+   * modified leaf is stored once and only one leaf change event is fired per leaf. Cells that fall
+   * outside of the world are skipped.
+   *
+   * @param locations the world locations of the cells to set
+   * @param types the cell type for each location
+   * @return the number of cells that were written
+   */
+  public int setWorldCells(List<Vec3d> locations, int[] types) {
+    if (locations.size() != types.length) {
+      throw new IllegalArgumentException(
+          "Mismatched batch sizes, locations:" + locations.size() + " types:" + types.length);
+    }
+    synchronized (leafDb.getWriteLock()) {
+      if (batch != null) {
+        int written = 0;
+        for (int i = 0; i < types.length; i++) {
+          if (batch.setCell(locations.get(i), types[i]) != -1) {
+            written++;
+          }
+        }
+        return written;
+      }
+    }
+
+    // Resolve each leaf only once, null means the leaf is outside the world
+    Map<LeafId, LeafData> leaves = new LinkedHashMap<>();
+    int[] cells = new int[locations.size() * 3];
+    boolean[] skip = new boolean[locations.size()];
+    WorldCellData data = null;
+    int written = 0;
+
+    synchronized (leafDb.getWriteLock()) {
+      for (int i = 0; i < locations.size(); i++) {
+        Vec3d world = locations.get(i);
+        LeafId id = LeafId.fromWorld(world);
+        LeafData leaf;
+        if (leaves.containsKey(id)) {
+          leaf = leaves.get(id);
+        } else {
+          leaf = getLeaf(id);
+          leaves.put(id, leaf);
+        }
+        if (leaf == null) {
+          skip[i] = true;
+          continue;
+        }
+        if (data == null) {
+          data = new WorldCellData(leaf, this);
+        }
+
+        int x = Coordinates.worldToCell(world.x);
+        int y = Coordinates.worldToCell(world.y);
+        int z = Coordinates.worldToCell(world.z);
+        cells[i * 3] = x;
+        cells[i * 3 + 1] = y;
+        cells[i * 3 + 2] = z;
+
+        data.setCell(x, y, z, types[i]);
+        written++;
+      }
+
+      if (data == null) {
+        return 0;
+      }
+
+      // Now that every cell is in place, the masks only need to settle once
+      for (int i = 0; i < skip.length; i++) {
+        if (skip[i]) {
+          continue;
+        }
+        // -1 so that 'outside the world' is badType
+        MaskUtils.recalculateSideMasks(data, cells[i * 3], cells[i * 3 + 1], cells[i * 3 + 2], -1);
+      }
+
+      // Push the changes back to the DB, once per leaf
+      for (LeafData mod : data.getModified()) {
+        leafDb.storeLeaf(mod);
+      }
+    }
+
+    // Notify the listeners
+    for (LeafData mod : data.getModified()) {
+      leafListeners.fireLeafChanged(mod.getInfo().leafId, mod.getInfo().version.getVersion());
+    }
+
+    for (CellChangeEvent event : data.getChanges()) {
+      fireCellChanged(event);
+    }
+
+    return written;
+  }
+
+  /**
+   * Copies precomputed cell values into a leaf. The values are written as they are, side masks
+   * included, so no masks are recalculated. The leaf is stored once and one leaf change event is
+   * fired.
+   *
+   * @param leafId the leaf to write to
+   * @param indexes the cells to write, as x + (y + z * size) * size within the leaf
+   * @param values the final cell values
+   * @return the number of cells that were written
+   */
+  public int setLeafCells(LeafId leafId, int[] indexes, int[] values) {
+    LeafData leaf = getLeaf(leafId);
+    if (leaf == null || indexes.length == 0) {
+      return 0;
+    }
+    int size = LeafInfo.SIZE;
+    int baseX = leaf.getInfo().location.x;
+    int baseY = leaf.getInfo().location.y;
+    int baseZ = leaf.getInfo().location.z;
+
+    WorldCellData data = new WorldCellData(leaf, this);
+    synchronized (leafDb.getWriteLock()) {
+      if (batch != null) {
+        batch.copyCells(leaf, indexes, values);
+        return indexes.length;
+      }
+      for (int i = 0; i < indexes.length; i++) {
+        int index = indexes[i];
+        int x = index % size;
+        int y = (index / size) % size;
+        int z = index / (size * size);
+        data.setCell(baseX + x, baseY + y, baseZ + z, values[i]);
+      }
+
+      for (LeafData mod : data.getModified()) {
+        leafDb.storeLeaf(mod);
+      }
+    }
+    for (LeafData mod : data.getModified()) {
+      leafListeners.fireLeafChanged(mod.getInfo().leafId, mod.getInfo().version.getVersion());
+    }
+    for (CellChangeEvent event : data.getChanges()) {
+      fireCellChanged(event);
+    }
+    return indexes.length;
+  }
+
   @Override
   public int getWorldCell(Vec3d world) {
     LeafId id = LeafId.fromWorld(world);
@@ -241,4 +505,131 @@ public class InfinityDefaultLeafWorld implements World {
     log.error("removeTileListener() unsupported");
     // throw new UnsupportedOperationException();
   }
+
+  /** Cell edits collected between beginEdits() and commitEdits(), guarded by the write lock. */
+  private class EditBatch {
+    private WorldCellData data;
+    // The leaves touched so far, null for leaves outside the world
+    private final Map<LeafId, LeafData> leaves = new HashMap<>();
+    // Cells whose side masks need recalculating, see pack()
+    private final Set<Long> dirty = new LinkedHashSet<>();
+    // Per leaf, see pack(), the changed cells as min x, y, z, max x, y, z in world cells
+    private final Map<Long, int[]> bounds = new HashMap<>();
+
+    int setCell(Vec3d world, int type) {
+      if (touch(LeafId.fromWorld(world)) == null) {
+        return -1;
+      }
+      int x = Coordinates.worldToCell(world.x);
+      int y = Coordinates.worldToCell(world.y);
+      int z = Coordinates.worldToCell(world.z);
+      data.setCell(x, y, z, type);
+      dirty.add(pack(x, y, z));
+      return type;
+    }
+
+    void copyCells(LeafData leaf, int[] indexes, int[] values) {
+      touch(leaf.getInfo().leafId);
+      int size = LeafInfo.SIZE;
+      int baseX = leaf.getInfo().location.x;
+      int baseY = leaf.getInfo().location.y;
+      int baseZ = leaf.getInfo().location.z;
+      for (int i = 0; i < indexes.length; i++) {
+        int index = indexes[i];
+        int x = baseX + index % size;
+        int y = baseY + (index / size) % size;
+        int z = baseZ + index / (size * size);
+        // Precomputed values already carry their masks
+        data.setCell(x, y, z, values[i]);
+        include(x, y, z);
+      }
+    }
+
+    private LeafData touch(LeafId id) {
+      if (leaves.containsKey(id)) {
+        return leaves.get(id);
+      }
+      // Pinned until the commit, so the cache keeps the instance that is being edited and anyone
+      // loading the leaf in the meantime gets that same instance
+      leafDb.pin(id);
+      LeafData leaf = getLeaf(id);
+      leaves.put(id, leaf);
+      if (leaf != null && data == null) {
+        data = new WorldCellData(leaf, InfinityDefaultLeafWorld.this);
+      }
+      return leaf;
+    }
+
+    void unpinLeaves() {
+      for (LeafId id : leaves.keySet()) {
+        leafDb.unpin(id);
+      }
+    }
+
+    void settle(List<LeafEdit> edits) {
+      for (long key : dirty) {
+        int x = (int) (key >> 38);
+        int y = (int) (key & 0xfff);
+        int z = (int) ((key << 26) >> 38);
+        // -1 so that 'outside the world' is badType
+        MaskUtils.recalculateSideMasks(data, x, y, z, -1);
+        // The masks of the six neighbours may have changed too
+        include(x, y, z);
+        include(x - 1, y, z);
+        include(x + 1, y, z);
+        include(x, y - 1, z);
+        include(x, y + 1, z);
+        include(x, y, z - 1);
+        include(x, y, z + 1);
+      }
+
+      int size = LeafInfo.SIZE;
+      for (LeafData mod : data.getModified()) {
+        leafDb.storeLeaf(mod);
+
+        LeafInfo info = mod.getInfo();
+        int ox = info.location.x;
+        int oy = info.location.y;
+        int oz = info.location.z;
+        int[] b = bounds.get(pack(ox / size, oy / size, oz / size));
+        long version = info.version.getVersion();
+        if (b == null) {
+          edits.add(new LeafEdit(info.leafId, version, 0, 0, 0, size - 1, size - 1, size - 1));
+        } else {
+          edits.add(
+              new LeafEdit(
+                  info.leafId,
+                  version,
+                  b[0] - ox,
+                  b[1] - oy,
+                  b[2] - oz,
+                  b[3] - ox,
+                  b[4] - oy,
+                  b[5] - oz));
+        }
+      }
+    }
+
+    private void include(int x, int y, int z) {
+      int size = LeafInfo.SIZE;
+      long leaf = pack(Math.floorDiv(x, size), Math.floorDiv(y, size), Math.floorDiv(z, size));
+      int[] b = bounds.get(leaf);
+      if (b == null) {
+        b = new int[] {x, y, z, x, y, z};
+        bounds.put(leaf, b);
+        return;
+      }
+      b[0] = Math.min(b[0], x);
+      b[1] = Math.min(b[1], y);
+      b[2] = Math.min(b[2], z);
+      b[3] = Math.max(b[3], x);
+      b[4] = Math.max(b[4], y);
+      b[5] = Math.max(b[5], z);
+    }
+  }
+
+  /** Packs cell or leaf coordinates into a key, 26 bits for x and z and 12 bits for y. */
+  private static long pack(int x, int y, int z) {
+    return ((long) x << 38) | (((long) z & 0x3ffffffL) << 12) | (y & 0xfff);
+  }
 }
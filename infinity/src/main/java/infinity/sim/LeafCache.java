@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import com.simsilica.mblock.CellArray;
+import com.simsilica.mworld.LeafData;
+import com.simsilica.mworld.LeafId;
+import com.simsilica.mworld.LeafInfo;
+import com.simsilica.mworld.db.LeafDb;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, memory weighted LRU cache in front of a LeafDb that writes behind. Stored leaves are
+ * only marked dirty and a background thread writes them to the backing LeafDb later, so a leaf that
+ * is stored many times before it gets written is only written once.
+ *
+ * <p>Cached leaves are handed out as they are, which means changes made through the world are
+ * visible to the next lookup without a round trip through the db. The writer holds {@link
+ * #getWriteLock()} only while it copies a leaf, the copy is written to the backing db after the
+ * lock is released. Code that changes cached leaves must hold it as well so that a leaf is never
+ * copied half changed.
+ *
+ * <p>A leaf stays pending until the backing db has taken it, so a lookup that misses the cache in
+ * the meantime still finds the newest copy. A write that fails is queued again and retried. The db
+ * is never read or written with the lock held, so the simulation does not wait on disk I/O.
+ *
+ * @author Asser
+ */
+public class LeafCache implements LeafDb {
+
+  static Logger log = LoggerFactory.getLogger(LeafCache.class);
+
+  // The cell array dominates the size of a leaf
+  private static final long LEAF_BYTES = LeafInfo.CELL_COUNT * 4L;
+  private static final long EMPTY_LEAF_BYTES = 256;
+  // How long the writer waits after a failed write before it goes on
+  private static final long RETRY_DELAY_MS = 1000;
+  // The number of stripes the finished writes are counted in, see loadLeaf()
+  private static final int WRITE_STRIPES = 64;
+
+  private final LeafDb leafDb;
+  private final long maxBytes;
+  private final Object writeLock = new Object();
+
+  // Access ordered, so the eldest entry is the least recently used one
+  private final LinkedHashMap<LeafId, Entry> cache = new LinkedHashMap<>(256, 0.75f, true);
+  private long cachedBytes;
+  // Leaves that are not evicted, with the number of times each is pinned. Guarded by cache.
+  private final Map<LeafId, int[]> pinned = new HashMap<>();
+
+  // Leaves waiting to be written. An id is only queued when it is not pending already, that is
+  // what coalesces repeated stores of the same leaf. Every store puts a new Pending, so the writer
+  // can tell whether the leaf was stored again while it was being written.
+  private final Map<LeafId, Pending> dirty = new ConcurrentHashMap<>();
+  private final LinkedBlockingQueue<LeafId> flushQueue = new LinkedBlockingQueue<>();
+  // Leaves being written right now, at most one write per leaf at a time. Guarded by writeLock.
+  private final Set<LeafId> inFlight = new HashSet<>();
+  // Finished writes, counted per stripe of leaf ids
+  private final AtomicLongArray written = new AtomicLongArray(WRITE_STRIPES);
+  private final Thread writer;
+  private volatile boolean closed;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * Creates a cache and starts its writer thread.
+   *
+   * @param leafDb the db to read from and write behind to
+   * @param maxBytes roughly how much memory the cached leaves may use
+   */
+  public LeafCache(LeafDb leafDb, long maxBytes) {
+    this.leafDb = leafDb;
+    this.maxBytes = maxBytes;
+    this.writer = new Thread(this::writeLoop, "LeafCacheWriter");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Returns the lock the writer holds while it writes a leaf to the backing db.
+   *
+   * @return the lock
+   */
+  public Object getWriteLock() {
+    return writeLock;
+  }
+
+  /**
+   * Keeps a leaf in the cache until it is unpinned, so that everyone who loads it gets the same
+   * instance. Pins nest. A leaf that is not cached yet is kept from the next time it is loaded.
+   *
+   * @param leafId the leaf
+   */
+  public void pin(LeafId leafId) {
+    synchronized (cache) {
+      int[] count = pinned.get(leafId);
+      if (count == null) {
+        pinned.put(leafId, new int[] {1});
+      } else {
+        count[0]++;
+      }
+    }
+  }
+
+  /**
+   * Releases a pin taken with pin(). The leaf can be evicted again once every pin is released.
+   *
+   * @param leafId the leaf
+   */
+  public void unpin(LeafId leafId) {
+    synchronized (cache) {
+      int[] count = pinned.get(leafId);
+      if (count != null && --count[0] == 0) {
+        pinned.remove(leafId);
+      }
+    }
+  }
+
+  @Override
+  public LeafData loadLeaf(LeafId leafId) {
+    synchronized (cache) {
+      Entry entry = cache.get(leafId);
+      if (entry != null) {
+        hits.incrementAndGet();
+        return entry.leaf;
+      }
+    }
+
+    // A leaf that was evicted before it got written is newer than what the db has
+    Pending pending = dirty.get(leafId);
+    if (pending != null) {
+      hits.incrementAndGet();
+      return admit(leafId, pending.leaf, false);
+    }
+    misses.incrementAndGet();
+    // A leaf is only taken out of the dirty map once the db has it, so a store during the read is
+    // still pending afterwards. The read can only miss a write that started and finished while it
+    // ran, which the write counter of the stripe shows, and then it is read again.
+    int stripe = stripe(leafId);
+    while (true) {
+      long seen = written.get(stripe);
+      LeafData leaf = leafDb.loadLeaf(leafId);
+      pending = dirty.get(leafId);
+      if (pending != null) {
+        return admit(leafId, pending.leaf, false);
+      }
+      if (written.get(stripe) == seen) {
+        return leaf == null ? null : admit(leafId, leaf, false);
+      }
+    }
+  }
+
+  @Override
+  public void storeLeaf(LeafData leaf) {
+    LeafId leafId = leaf.getInfo().leafId;
+    stores.incrementAndGet();
+    admit(leafId, leaf, true);
+    if (dirty.put(leafId, new Pending(leaf)) == null) {
+      flushQueue.add(leafId);
+    } else {
+      coalesced.incrementAndGet();
+    }
+  }
+
+  /**
+   * Puts a leaf in the cache.
+   *
+   * @param replace true to replace a different cached instance, false to keep it
+   * @return the cached leaf
+   */
+  private LeafData admit(LeafId leafId, LeafData leaf, boolean replace) {
+    synchronized (cache) {
+      // When loading, someone else may have loaded it in the meantime and the first one wins
+      Entry existing = cache.get(leafId);
+      if (existing != null && (existing.leaf == leaf || !replace)) {
+        return existing.leaf;
+      }
+      Entry entry = new Entry(leaf, leaf.getRawCells() == null ? EMPTY_LEAF_BYTES : LEAF_BYTES);
+      cache.put(leafId, entry);
+      cachedBytes += entry.bytes - (existing == null ? 0 : existing.bytes);
+
+      Iterator<Map.Entry<LeafId, Entry>> it = cache.entrySet().iterator();
+      while (cachedBytes > maxBytes && it.hasNext()) {
+        // Dirty leaves stay in the dirty map until they are written, so dropping them is safe
+        Map.Entry<LeafId, Entry> eldest = it.next();
+        if (eldest.getValue() == entry || pinned.containsKey(eldest.getKey())) {
+          continue;
+        }
+        it.remove();
+        cachedBytes -= eldest.getValue().bytes;
+        evictions.incrementAndGet();
+      }
+      return leaf;
+    }
+  }
+
+  /**
+   * Writes every pending leaf to the backing db before returning. Stops at the first round with a
+   * failed write, the failed leaves stay pending. A leaf the writer thread is writing at the same
+   * time is left to it.
+   */
+  public void flush() {
+    List<LeafId> batch = new ArrayList<>();
+    boolean failed = false;
+    while (!failed && flushQueue.drainTo(batch) > 0) {
+      for (LeafId leafId : batch) {
+        failed |= !write(leafId);
+      }
+      batch.clear();
+    }
+  }
+
+  /** Stops the writer thread and writes whatever is still pending. */
+  public void close() {
+    closed = true;
+    try {
+      writer.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    if (!dirty.isEmpty()) {
+      log.error(dirty.size() + " leaves could not be written");
+    }
+  }
+
+  private void writeLoop() {
+    while (!closed) {
+      try {
+        LeafId leafId = flushQueue.poll(100, TimeUnit.MILLISECONDS);
+        if (leafId != null && !write(leafId)) {
+          Thread.sleep(RETRY_DELAY_MS);
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Writes a pending leaf to the backing db. The leaf is copied under the write lock and the copy
+   * is written without it.
+   *
+   * @return false if the write failed and the leaf was queued again
+   */
+  private boolean write(LeafId leafId) {
+    Pending pending;
+    LeafData snapshot;
+    synchronized (writeLock) {
+      pending = dirty.get(leafId);
+      // A leaf that is being written is queued again by its writer if it changes in the meantime
+      if (pending == null || !inFlight.add(leafId)) {
+        return true;
+      }
+      snapshot = snapshot(pending.leaf);
+    }
+    try {
+      leafDb.storeLeaf(snapshot);
+      flushes.incrementAndGet();
+    } catch (RuntimeException e) {
+      // Still in the dirty map, so reads keep seeing it and the next store does not queue it
+      failures.incrementAndGet();
+      log.error("Error writing leaf:" + leafId + ", will retry", e);
+      synchronized (writeLock) {
+        inFlight.remove(leafId);
+        flushQueue.add(leafId);
+      }
+      return false;
+    }
+    synchronized (writeLock) {
+      inFlight.remove(leafId);
+      written.incrementAndGet(stripe(leafId));
+      // Only the copy that was written is dropped. A store that came in during the write found the
+      // leaf pending and did not queue it, so it is queued here.
+      if (!dirty.remove(leafId, pending)) {
+        flushQueue.add(leafId);
+      }
+    }
+    return true;
+  }
+
+  /** Copies the cells of a leaf, the caller holds the write lock. */
+  private static LeafData snapshot(LeafData leaf) {
+    CellArray cells = leaf.getRawCells();
+    if (cells == null) {
+      return leaf;
+    }
+    CellArray copy = new CellArray(LeafInfo.SIZE);
+    for (int x = 0; x < LeafInfo.SIZE; x++) {
+      for (int y = 0; y < LeafInfo.SIZE; y++) {
+        for (int z = 0; z < LeafInfo.SIZE; z++) {
+          copy.setCell(x, y, z, cells.getCell(x, y, z));
+        }
+      }
+    }
+    return new LeafData(leaf.getInfo(), copy, leaf.getEmptyCellCount());
+  }
+
+  private static int stripe(LeafId leafId) {
+    return leafId.hashCode() & (WRITE_STRIPES - 1);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getFlushes() {
+    return flushes.get();
+  }
+
+  /**
+   * Returns a one line summary of the cache counters, for the server stats command.
+   *
+   * @return the summary
+   */
+  public String getStats() {
+    int size;
+    long bytes;
+    synchronized (cache) {
+      size = cache.size();
+      bytes = cachedBytes;
+    }
+    long hitCount = hits.get();
+    long total = hitCount + misses.get();
+    return String.format(
+        "Leaf cache: %d leaves, %.1f/%.1f MB, hits: %d, misses: %d (%.1f%% hit), stores: %d,"
+            + " coalesced: %d, flushes: %d, failures: %d, pending: %d, evictions: %d",
+        size,
+        bytes / (1024.0 * 1024.0),
+        maxBytes / (1024.0 * 1024.0),
+        hitCount,
+        misses.get(),
+        total == 0 ? 0.0 : hitCount * 100.0 / total,
+        stores.get(),
+        coalesced.get(),
+        flushes.get(),
+        failures.get(),
+        dirty.size(),
+        evictions.get());
+  }
+
+  /** One store of a leaf that has not been written yet. */
+  private static class Pending {
+    final LeafData leaf;
+
+    Pending(LeafData leaf) {
+      this.leaf = leaf;
+    }
+  }
+
+  private static class Entry {
+    final LeafData leaf;
+    final long bytes;
+
+    Entry(LeafData leaf, long bytes) {
+      this.leaf = leaf;
+      this.bytes = bytes;
+    }
+  }
+}
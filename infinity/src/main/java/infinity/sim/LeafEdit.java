@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import com.simsilica.mworld.LeafId;
+
+/**
+ * One consolidated change to a leaf, covering every cell edit that was made to it during an edit
+ * batch. The bounds are in leaf local cell coordinates, inclusive, and include the neighbouring
+ * cells whose side masks were recalculated.
+ *
+ * @author Asser
+ */
+public class LeafEdit {
+
+  private final LeafId leafId;
+  private final long version;
+  private final int minX;
+  private final int minY;
+  private final int minZ;
+  private final int maxX;
+  private final int maxY;
+  private final int maxZ;
+
+  public LeafEdit(
+      LeafId leafId, long version, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+    this.leafId = leafId;
+    this.version = version;
+    this.minX = minX;
+    this.minY = minY;
+    this.minZ = minZ;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    this.maxZ = maxZ;
+  }
+
+  public LeafId getLeafId() {
+    return leafId;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public int getMinX() {
+    return minX;
+  }
+
+  public int getMinY() {
+    return minY;
+  }
+
+  public int getMinZ() {
+    return minZ;
+  }
+
+  public int getMaxX() {
+    return maxX;
+  }
+
+  public int getMaxY() {
+    return maxY;
+  }
+
+  public int getMaxZ() {
+    return maxZ;
+  }
+
+  @Override
+  public String toString() {
+    return "LeafEdit["
+        + leafId
+        + ", version="
+        + version
+        + ", min=("
+        + minX
+        + ", "
+        + minY
+        + ", "
+        + minZ
+        + "), max=("
+        + maxX
+        + ", "
+        + maxY
+        + ", "
+        + maxZ
+        + ")]";
+  }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import infinity.es.ShapeNames;
+import java.util.Arrays;
+
+/**
+ * Bullets, bursts and other small, short lived projectiles kept in plain arrays instead of as
+ * entities with physics bodies. Every step moves each projectile along its velocity and sweeps the
+ * segment it moved through the solid cells of the world and through a {@link TargetHash} of ships.
+ * Projectiles with bounces left bounce off walls, the others end there.
+ *
+ * <p>Projectiles move in the x/z plane at the height they were fired at. The server and the
+ * clients run the same pool, the server with targets and the clients only against the world, so
+ * a client only needs the spawn and, if it hit a ship, the hit to show the whole flight.
+ *
+ * <p>Removing a projectile moves the last one into its place, so indexes are only good until the
+ * next step. Not thread safe.
+ *
+ * @author Asser
+ */
+public class ProjectilePool {
+
+  public static final byte TYPE_BULLET = 0;
+  public static final byte TYPE_BURST = 1;
+
+  private static final int INITIAL_CAPACITY = 256;
+  // How far from a wall a bounced projectile is put back, so it does not start inside the cell
+  private static final double BOUNCE_OFFSET = 1e-4;
+
+  /** Tells whether a world cell stops projectiles. */
+  public interface CellTest {
+    boolean isSolid(int x, int y, int z);
+  }
+
+  /** Hears about projectiles that end. The projectile is still in the pool during the call. */
+  public interface ProjectileListener {
+
+    /** The projectile hit a target at x, z. */
+    void targetHit(ProjectilePool pool, int projectile, long target, double x, double z);
+
+    /** The projectile hit a wall at x, z without bounces left, or ran out of time. */
+    void projectileEnded(ProjectilePool pool, int projectile, double x, double z, boolean wall);
+  }
+
+  private int[] ids = new int[INITIAL_CAPACITY];
+  private long[] owners = new long[INITIAL_CAPACITY];
+  private byte[] types = new byte[INITIAL_CAPACITY];
+  private byte[] levels = new byte[INITIAL_CAPACITY];
+  private double[] xs = new double[INITIAL_CAPACITY];
+  private double[] ys = new double[INITIAL_CAPACITY];
+  private double[] zs = new double[INITIAL_CAPACITY];
+  private double[] vxs = new double[INITIAL_CAPACITY];
+  private double[] vzs = new double[INITIAL_CAPACITY];
+  private double[] radii = new double[INITIAL_CAPACITY];
+  private int[] damages = new int[INITIAL_CAPACITY];
+  private int[] bounces = new int[INITIAL_CAPACITY];
+  private long[] expiries = new long[INITIAL_CAPACITY];
+  private int count;
+  private int nextId = 1;
+
+  private final double[] hit = new double[1];
+
+  /**
+   * Adds a projectile.
+   *
+   * @param owner the id of the entity that fired it, it cannot hit its owner
+   * @param type TYPE_BULLET or TYPE_BURST
+   * @param level the weapon level, picks the look of bullets
+   * @param x the x coordinate
+   * @param y the y coordinate, the height it flies at
+   * @param z the z coordinate
+   * @param vx the x velocity in units per second
+   * @param vz the z velocity in units per second
+   * @param radius the radius of the projectile
+   * @param damage the damage it does to what it hits
+   * @param bounceCount the number of times it bounces off walls
+   * @param expiry the time it ends at, in the time unit passed to step()
+   * @return the id of the projectile
+   */
+  public int add(
+      long owner,
+      byte type,
+      byte level,
+      double x,
+      double y,
+      double z,
+      double vx,
+      double vz,
+      double radius,
+      int damage,
+      int bounceCount,
+      long expiry) {
+    int id = nextId++;
+    add(id, owner, type, level, x, y, z, vx, vz, radius, damage, bounceCount, expiry);
+    return id;
+  }
+
+  /**
+   * Adds a projectile under an id of its own, like the one it has in the server's pool, see
+   * {@link #add(long, byte, byte, double, double, double, double, double, double, int, int, long)}.
+   * Ids are not checked, a pool should only be filled one way or the other.
+   */
+  public void add(
+      int id,
+      long owner,
+      byte type,
+      byte level,
+      double x,
+      double y,
+      double z,
+      double vx,
+      double vz,
+      double radius,
+      int damage,
+      int bounceCount,
+      long expiry) {
+    if (count == ids.length) {
+      grow(count * 2);
+    }
+    int i = count++;
+    ids[i] = id;
+    owners[i] = owner;
+    types[i] = type;
+    levels[i] = level;
+    xs[i] = x;
+    ys[i] = y;
+    zs[i] = z;
+    vxs[i] = vx;
+    vzs[i] = vz;
+    radii[i] = radius;
+    damages[i] = damage;
+    bounces[i] = bounceCount;
+    expiries[i] = expiry;
+  }
+
+  /**
+   * Moves every projectile.
+   *
+   * @param time the current time, projectiles expiring at or before it end
+   * @param tpf the length of the step in seconds
+   * @param cells the solid cells of the world
+   * @param targets the targets, or null to only collide with the world
+   * @param listener hears about the projectiles that end
+   */
+  public void step(
+      long time, double tpf, CellTest cells, TargetHash targets, ProjectileListener listener) {
+    int i = 0;
+    while (i < count) {
+      double x0 = xs[i];
+      double z0 = zs[i];
+      if (expiries[i] <= time) {
+        listener.projectileEnded(this, i, x0, z0, false);
+        remove(i);
+        continue;
+      }
+      double x1 = x0 + vxs[i] * tpf;
+      double z1 = z0 + vzs[i] * tpf;
+
+      double targetT = Double.MAX_VALUE;
+      int target = -1;
+      if (targets != null) {
+        target = targets.sweep(x0, z0, x1, z1, radii[i], owners[i], hit);
+        if (target >= 0) {
+          targetT = hit[0];
+        }
+      }
+
+      int axis = traceCells(cells, x0, z0, x1, z1, (int) Math.floor(ys[i]), targetT);
+      if (axis >= 0) {
+        double t = hit[0];
+        double x = x0 + (x1 - x0) * t;
+        double z = z0 + (z1 - z0) * t;
+        if (bounces[i] > 0) {
+          bounces[i]--;
+          // Back off the wall a little and mirror the velocity across it
+          if (axis == 0) {
+            vxs[i] = -vxs[i];
+            x -= Math.copySign(BOUNCE_OFFSET, x1 - x0);
+          } else {
+            vzs[i] = -vzs[i];
+            z -= Math.copySign(BOUNCE_OFFSET, z1 - z0);
+          }
+          xs[i] = x;
+          zs[i] = z;
+          i++;
+        } else {
+          listener.projectileEnded(this, i, x, z, true);
+          remove(i);
+        }
+      } else if (target >= 0) {
+        listener.targetHit(
+            this, i, targets.getId(target), x0 + (x1 - x0) * targetT, z0 + (z1 - z0) * targetT);
+        remove(i);
+      } else {
+        xs[i] = x1;
+        zs[i] = z1;
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Walks the cells the segment passes through, in order, until a solid one comes up before the
+   * given fraction of the way.
+   *
+   * @return -1 if no solid cell is hit, 0 if the hit cell was entered through an x side and 1 if
+   *     through a z side. The fraction of the way is put in hit[0].
+   */
+  private int traceCells(
+      CellTest cells, double x0, double z0, double x1, double z1, int y, double maxT) {
+    int cx = (int) Math.floor(x0);
+    int cz = (int) Math.floor(z0);
+    int endX = (int) Math.floor(x1);
+    int endZ = (int) Math.floor(z1);
+    double dx = x1 - x0;
+    double dz = z1 - z0;
+    int stepX = dx > 0 ? 1 : -1;
+    int stepZ = dz > 0 ? 1 : -1;
+    // The fraction of the way to the next x and z cell sides, and between sides
+    double deltaX = dx != 0 ? Math.abs(1 / dx) : Double.MAX_VALUE;
+    double deltaZ = dz != 0 ? Math.abs(1 / dz) : Double.MAX_VALUE;
+    double nextX = dx != 0 ? (dx > 0 ? cx + 1 - x0 : x0 - cx) * deltaX : Double.MAX_VALUE;
+    double nextZ = dz != 0 ? (dz > 0 ? cz + 1 - z0 : z0 - cz) * deltaZ : Double.MAX_VALUE;
+
+    while (cx != endX || cz != endZ) {
+      int axis;
+      double t;
+      if (nextX < nextZ) {
+        t = nextX;
+        cx += stepX;
+        nextX += deltaX;
+        axis = 0;
+      } else {
+        t = nextZ;
+        cz += stepZ;
+        nextZ += deltaZ;
+        axis = 1;
+      }
+      if (t > 1 || t >= maxT) {
+        return -1;
+      }
+      if (cells.isSolid(cx, y, cz)) {
+        hit[0] = t;
+        return axis;
+      }
+    }
+    return -1;
+  }
+
+  /** Removes a projectile, the last one takes its index. */
+  public void remove(int i) {
+    int last = --count;
+    if (i != last) {
+      ids[i] = ids[last];
+      owners[i] = owners[last];
+      types[i] = types[last];
+      levels[i] = levels[last];
+      xs[i] = xs[last];
+      ys[i] = ys[last];
+      zs[i] = zs[last];
+      vxs[i] = vxs[last];
+      vzs[i] = vzs[last];
+      radii[i] = radii[last];
+      damages[i] = damages[last];
+      bounces[i] = bounces[last];
+      expiries[i] = expiries[last];
+    }
+  }
+
+  /** Removes all projectiles. */
+  public void clear() {
+    count = 0;
+  }
+
+  private void grow(int capacity) {
+    ids = Arrays.copyOf(ids, capacity);
+    owners = Arrays.copyOf(owners, capacity);
+    types = Arrays.copyOf(types, capacity);
+    levels = Arrays.copyOf(levels, capacity);
+    xs = Arrays.copyOf(xs, capacity);
+    ys = Arrays.copyOf(ys, capacity);
+    zs = Arrays.copyOf(zs, capacity);
+    vxs = Arrays.copyOf(vxs, capacity);
+    vzs = Arrays.copyOf(vzs, capacity);
+    radii = Arrays.copyOf(radii, capacity);
+    damages = Arrays.copyOf(damages, capacity);
+    bounces = Arrays.copyOf(bounces, capacity);
+    expiries = Arrays.copyOf(expiries, capacity);
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public int getId(int i) {
+    return ids[i];
+  }
+
+  /**
+   * Finds a projectile by its id.
+   *
+   * @param id the id
+   * @return the index of the projectile, or -1 if it is not in the pool
+   */
+  public int indexOf(int id) {
+    for (int i = 0; i < count; i++) {
+      if (ids[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public long getOwner(int i) {
+    return owners[i];
+  }
+
+  public byte getType(int i) {
+    return types[i];
+  }
+
+  public byte getLevel(int i) {
+    return levels[i];
+  }
+
+  public double getX(int i) {
+    return xs[i];
+  }
+
+  public double getY(int i) {
+    return ys[i];
+  }
+
+  public double getZ(int i) {
+    return zs[i];
+  }
+
+  public int getDamage(int i) {
+    return damages[i];
+  }
+
+  /**
+   * Returns the name of the shape projectiles of a type and level are shown with.
+   *
+   * @param type the projectile type
+   * @param level the weapon level
+   * @return the shape name
+   */
+  public static String getShapeName(byte type, byte level) {
+    if (type == TYPE_BURST) {
+      return ShapeNames.BURST;
+    }
+    return CoreGameConstants.BULLETLEVELPREPENDTEXT + level;
+  }
+}
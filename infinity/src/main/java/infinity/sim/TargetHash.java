@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid of round targets in the x/z plane that segments can be swept through, for things
+ * that move too fast or are too many to be physics bodies. Targets are added once per frame and
+ * counting sorted into hashed buckets, a sweep then only looks at the buckets around the segment.
+ *
+ * <p>Not thread safe.
+ *
+ * @author Asser
+ */
+public class TargetHash {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final double cellSize;
+  private final double inverseCellSize;
+
+  private long[] ids = new long[INITIAL_CAPACITY];
+  private double[] xs = new double[INITIAL_CAPACITY];
+  private double[] zs = new double[INITIAL_CAPACITY];
+  private double[] radii = new double[INITIAL_CAPACITY];
+  private int[] buckets = new int[INITIAL_CAPACITY];
+  private int count;
+  private double maxRadius;
+
+  // Target indexes sorted by bucket, bucket b holds bucketStart[b] up to bucketStart[b + 1]
+  private int[] sorted = new int[INITIAL_CAPACITY];
+  private int[] bucketStart = new int[INITIAL_CAPACITY + 1];
+  private int bucketMask;
+  private boolean built;
+
+  // The query a target was last visited by, so forEachWithin() visits each target once
+  private int[] visited = new int[INITIAL_CAPACITY];
+  private int query;
+
+  /** Visits the targets found by forEachWithin(). */
+  public interface TargetVisitor {
+
+    /**
+     * Called for a target in reach.
+     *
+     * @param target the index of the target
+     * @param distance the distance from the point to the edge of the target, 0 when inside it
+     */
+    void visit(int target, double distance);
+  }
+
+  /**
+   * Creates a hash.
+   *
+   * @param cellSize the size of the grid cells, a little more than the distance things move in a
+   *     frame works well
+   */
+  public TargetHash(double cellSize) {
+    this.cellSize = cellSize;
+    this.inverseCellSize = 1 / cellSize;
+  }
+
+  /** Removes all targets. */
+  public void clear() {
+    count = 0;
+    maxRadius = 0;
+    built = false;
+  }
+
+  /**
+   * Adds a target. build() has to be called before the next sweep.
+   *
+   * @param id the id of the target
+   * @param x the x coordinate
+   * @param z the z coordinate
+   * @param radius the radius
+   */
+  public void add(long id, double x, double z, double radius) {
+    if (count == ids.length) {
+      int capacity = count * 2;
+      ids = Arrays.copyOf(ids, capacity);
+      xs = Arrays.copyOf(xs, capacity);
+      zs = Arrays.copyOf(zs, capacity);
+      radii = Arrays.copyOf(radii, capacity);
+      buckets = Arrays.copyOf(buckets, capacity);
+      sorted = Arrays.copyOf(sorted, capacity);
+      visited = Arrays.copyOf(visited, capacity);
+    }
+    ids[count] = id;
+    xs[count] = x;
+    zs[count] = z;
+    radii[count] = radius;
+    maxRadius = Math.max(maxRadius, radius);
+    count++;
+    built = false;
+  }
+
+  /** Sorts the targets into their buckets. */
+  public void build() {
+    int bucketCount = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+    if (bucketStart.length < bucketCount + 1) {
+      bucketStart = new int[bucketCount + 1];
+    } else {
+      Arrays.fill(bucketStart, 0, bucketCount + 1, 0);
+    }
+    bucketMask = bucketCount - 1;
+
+    for (int i = 0; i < count; i++) {
+      int bucket = bucket(cell(xs[i]), cell(zs[i]));
+      buckets[i] = bucket;
+      bucketStart[bucket + 1]++;
+    }
+    for (int b = 0; b < bucketCount; b++) {
+      bucketStart[b + 1] += bucketStart[b];
+    }
+    for (int i = count - 1; i >= 0; i--) {
+      sorted[--bucketStart[buckets[i] + 1]] = i;
+    }
+    System.arraycopy(bucketStart, 1, bucketStart, 0, bucketCount);
+    bucketStart[0] = 0;
+    bucketStart[bucketCount] = count;
+    built = true;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public long getId(int target) {
+    return ids[target];
+  }
+
+  public double getX(int target) {
+    return xs[target];
+  }
+
+  public double getZ(int target) {
+    return zs[target];
+  }
+
+  /**
+   * Finds a target that reaches within a distance of a point.
+   *
+   * @param x the x coordinate
+   * @param z the z coordinate
+   * @param distance the distance
+   * @param ignore the id of a target to leave out
+   * @return the index of the first target found, or -1
+   */
+  public int findWithin(double x, double z, double distance, long ignore) {
+    if (count == 0) {
+      return -1;
+    }
+    checkBuilt();
+    double reach = distance + maxRadius;
+    for (long cx = cell(x - reach), maxX = cell(x + reach); cx <= maxX; cx++) {
+      for (long cz = cell(z - reach), maxZ = cell(z + reach); cz <= maxZ; cz++) {
+        int bucket = bucket(cx, cz);
+        for (int j = bucketStart[bucket], end = bucketStart[bucket + 1]; j < end; j++) {
+          int i = sorted[j];
+          if (ids[i] != ignore && edgeDistance(i, x, z) <= distance) {
+            return i;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Visits every target that reaches within a distance of a point, each once.
+   *
+   * @param x the x coordinate
+   * @param z the z coordinate
+   * @param distance the distance
+   * @param ignore the id of a target to leave out
+   * @param visitor the visitor
+   */
+  public void forEachWithin(
+      double x, double z, double distance, long ignore, TargetVisitor visitor) {
+    if (count == 0) {
+      return;
+    }
+    checkBuilt();
+    if (++query == 0) {
+      // Wrapped around, older stamps could match again
+      Arrays.fill(visited, 0);
+      query = 1;
+    }
+    double reach = distance + maxRadius;
+    for (long cx = cell(x - reach), maxX = cell(x + reach); cx <= maxX; cx++) {
+      for (long cz = cell(z - reach), maxZ = cell(z + reach); cz <= maxZ; cz++) {
+        int bucket = bucket(cx, cz);
+        for (int j = bucketStart[bucket], end = bucketStart[bucket + 1]; j < end; j++) {
+          int i = sorted[j];
+          if (visited[i] == query || ids[i] == ignore) {
+            continue;
+          }
+          visited[i] = query;
+          double d = edgeDistance(i, x, z);
+          if (d <= distance) {
+            visitor.visit(i, d);
+          }
+        }
+      }
+    }
+  }
+
+  private double edgeDistance(int target, double x, double z) {
+    double dx = xs[target] - x;
+    double dz = zs[target] - z;
+    return Math.max(0, Math.sqrt(dx * dx + dz * dz) - radii[target]);
+  }
+
+  private void checkBuilt() {
+    if (!built) {
+      throw new IllegalStateException("Targets added since the last build()");
+    }
+  }
+
+  /**
+   * Finds the first target a moving circle touches on its way from one point to another.
+   *
+   * @param x0 the start x coordinate
+   * @param z0 the start z coordinate
+   * @param x1 the end x coordinate
+   * @param z1 the end z coordinate
+   * @param radius the radius of the moving circle
+   * @param ignore the id of a target that cannot be hit, like the owner of a projectile
+   * @param hit receives the fraction of the way at which the target is touched, at index 0
+   * @return the index of the target, or -1 when nothing is touched
+   */
+  public int sweep(
+      double x0, double z0, double x1, double z1, double radius, long ignore, double[] hit) {
+    if (count == 0) {
+      return -1;
+    }
+    checkBuilt();
+    double reach = radius + maxRadius;
+    long minX = cell(Math.min(x0, x1) - reach);
+    long maxX = cell(Math.max(x0, x1) + reach);
+    long minZ = cell(Math.min(z0, z1) - reach);
+    long maxZ = cell(Math.max(z0, z1) + reach);
+    double dx = x1 - x0;
+    double dz = z1 - z0;
+    double a = dx * dx + dz * dz;
+
+    int best = -1;
+    double bestT = Double.MAX_VALUE;
+    // Cells sharing a bucket make a target come up more than once, that only costs a test
+    for (long cx = minX; cx <= maxX; cx++) {
+      for (long cz = minZ; cz <= maxZ; cz++) {
+        int bucket = bucket(cx, cz);
+        for (int j = bucketStart[bucket], end = bucketStart[bucket + 1]; j < end; j++) {
+          int i = sorted[j];
+          if (ids[i] == ignore) {
+            continue;
+          }
+          double t = intersect(x0 - xs[i], z0 - zs[i], dx, dz, a, radius + radii[i]);
+          if (t < bestT) {
+            bestT = t;
+            best = i;
+          }
+        }
+      }
+    }
+    if (best >= 0) {
+      hit[0] = bestT;
+    }
+    return best;
+  }
+
+  /** Returns where on the segment a circle at the origin is first touched, or MAX_VALUE. */
+  private static double intersect(double fx, double fz, double dx, double dz, double a, double r) {
+    double c = fx * fx + fz * fz - r * r;
+    if (c <= 0) {
+      // Already touching at the start
+      return 0;
+    }
+    if (a == 0) {
+      return Double.MAX_VALUE;
+    }
+    double b = fx * dx + fz * dz;
+    double discriminant = b * b - a * c;
+    if (b >= 0 || discriminant < 0) {
+      return Double.MAX_VALUE;
+    }
+    double t = (-b - Math.sqrt(discriminant)) / a;
+    return t <= 1 ? t : Double.MAX_VALUE;
+  }
+
+  private long cell(double coordinate) {
+    return (long) Math.floor(coordinate * inverseCellSize);
+  }
+
+  private int bucket(long cx, long cz) {
+    long h = cx * 0x9E3779B97F4A7C15L + cz * 0xC2B2AE3D27D4EB4FL;
+    return (int) (h ^ (h >>> 29)) & bucketMask;
+  }
+
+  @Override
+  public String toString() {
+    return "TargetHash[cellSize=" + cellSize + ", targets=" + count + "]";
+  }
+}
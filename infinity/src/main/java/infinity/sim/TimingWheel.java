@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.sim;
+
+import java.util.List;
+
+/**
+ * A hashed timing wheel. Items are scheduled for a tick and hashed into one of a fixed number of
+ * slots, so scheduling is O(1) and advancing the wheel only looks at the slots of the ticks that
+ * passed, no matter how many items are waiting. Items further away than one turn of the wheel
+ * simply stay in their slot until their tick comes around.
+ *
+ * <p>Ticks are whatever unit the caller uses, they only have to increase. Not thread safe, meant
+ * to be driven from the simulation thread.
+ *
+ * @param <T> the scheduled item type
+ * @author Asser
+ */
+public class TimingWheel<T> {
+
+  private final Entry<T>[] slots;
+  private final int mask;
+  private long current = Long.MIN_VALUE;
+  private int size;
+
+  /**
+   * Creates a wheel.
+   *
+   * @param slotCount the number of slots, rounded up to a power of two
+   */
+  @SuppressWarnings("unchecked")
+  public TimingWheel(int slotCount) {
+    int count = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+    this.slots = (Entry<T>[]) new Entry[count];
+    this.mask = count - 1;
+  }
+
+  /**
+   * Schedules an item. An item scheduled for a tick that has already been passed fires on the next
+   * advance().
+   *
+   * @param item the item
+   * @param tick the tick to fire on
+   */
+  public void schedule(T item, long tick) {
+    if (current != Long.MIN_VALUE && tick <= current) {
+      tick = current + 1;
+    }
+    int slot = (int) (tick & mask);
+    slots[slot] = new Entry<>(item, tick, slots[slot]);
+    size++;
+  }
+
+  /**
+   * Advances the wheel and collects every item that is due at or before the given tick. Items are
+   * handed out after the sweep, so rescheduling from the caller never fires twice in one advance.
+   *
+   * @param tick the new current tick
+   * @param due receives the due items
+   * @return the number of due items
+   */
+  public int advance(long tick, List<? super T> due) {
+    if (current != Long.MIN_VALUE && tick <= current) {
+      return 0;
+    }
+    int fired = 0;
+    // Past one full turn every slot has to be looked at anyway, as on the first advance
+    long first =
+        current == Long.MIN_VALUE || tick - current > slots.length
+            ? tick - slots.length + 1
+            : current + 1;
+    for (long t = first; t <= tick; t++) {
+      int slot = (int) (t & mask);
+      Entry<T> prev = null;
+      Entry<T> e = slots[slot];
+      while (e != null) {
+        Entry<T> next = e.next;
+        if (e.tick <= tick) {
+          if (prev == null) {
+            slots[slot] = next;
+          } else {
+            prev.next = next;
+          }
+          due.add(e.item);
+          fired++;
+        } else {
+          prev = e;
+        }
+        e = next;
+      }
+    }
+    current = tick;
+    size -= fired;
+    return fired;
+  }
+
+  /**
+   * Returns the number of scheduled items.
+   *
+   * @return the number of items waiting in the wheel
+   */
+  public int size() {
+    return size;
+  }
+
+  private static class Entry<T> {
+    final T item;
+    final long tick;
+    Entry<T> next;
+
+    Entry(T item, long tick, Entry<T> next) {
+      this.item = item;
+      this.tick = tick;
+      this.next = next;
+    }
+  }
+}
@@ -26,7 +26,7 @@ import infinity.es.Damage;
 import infinity.es.ShapeNames;
 import infinity.es.ship.actions.Thor;
 import infinity.es.ship.actions.ThorCurrentCount;
-import infinity.es.ship.actions.ThorFireDelay;
+import infinity.sim.CollisionFilters;
 import infinity.sim.CoreGameConstants;
 import infinity.sim.CorePhysicsConstants;
 import infinity.sim.CoreViewConstants;
@@ -60,6 +60,8 @@ public class ActionSystem extends AbstractGameSystem
   private PhysicsSpace<EntityId, MBlockShape> physicsSpace;
   private MPhysSystem<MBlockShape> physics;
   private EntitySet thorProjectiles;
+  private AreaDamageSystem areaDamageSystem;
+  private CooldownSystem cooldowns;
 
   @Override
   protected void initialize() {
@@ -75,11 +77,22 @@ public class ActionSystem extends AbstractGameSystem
     }
 
     physicsSpace = physics.getPhysicsSpace();
+    areaDamageSystem = getSystem(AreaDamageSystem.class);
+    cooldowns = getSystem(CooldownSystem.class);
+    if (cooldowns == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the CooldownSystem system.");
+    }
     // Here we find the ships that have a thor weapon
     thorOwners = ed.getEntities(ThorCurrentCount.class);
     thorProjectiles = ed.getEntities(Thor.class);
 
-    getSystem(ContactSystem.class).addListener(this);
+    // Only thors going through the world
+    getSystem(ContactSystem.class)
+        .addListener(
+            this,
+            CollisionFilters.COLLISION_CATEGORY_DYNAMICS_PROJECTILES,
+            CollisionFilters.COLLISION_CATEGORY_WORLD);
   }
 
   @Override
@@ -132,9 +145,9 @@ public class ActionSystem extends AbstractGameSystem
 
   private void actOut(final Entity requester, final byte flag, long time) {
 
-    boolean canAttack = canAct(requester, flag);
+    boolean canAttack = canAct(requester, flag, time);
     if (canAttack) {
-      boolean cooldownSet = setCoolDown(requester, flag);
+      boolean cooldownSet = setCoolDown(requester, flag, time);
       if (cooldownSet) {
         boolean costDeducted = deductCostOfAction(requester, flag);
         if (costDeducted) {
@@ -168,8 +181,14 @@ public class ActionSystem extends AbstractGameSystem
             info.attackVelocity,
             CoreGameConstants.BULLETDECAY);
 
-    ed.setComponent(gunProjectile, new Damage(CoreViewConstants.EXPLOSION1DECAY, CoreGameConstants.THORDAMAGE, ShapeInfo.create(
-        ShapeNames.EXPLODE_1, 1, ed)));
+    ed.setComponents(
+        gunProjectile,
+        new Damage(
+            CoreViewConstants.EXPLOSION1DECAY,
+            CoreGameConstants.THORDAMAGE,
+            ShapeInfo.create(ShapeNames.EXPLODE_1, 1, ed)),
+        // A thor blasts like a level 3 bomb
+        areaDamageSystem.createBlast(info.location, 3, false));
   }
 
   private boolean createSound(Entity requesterEntity, byte flag, long time, ActionPosition info) {
@@ -198,51 +217,48 @@ public class ActionSystem extends AbstractGameSystem
     return true;
   }
 
-  private boolean canAct(Entity requester, byte actionType) {
+  private boolean canAct(Entity requester, byte actionType, long time) {
     if (requester == null) {
       return false;
     }
     if (actionType == FIRETHOR) {
-      return canFireThor(requester);
+      return canFireThor(requester, time);
     }
     return false;
   }
 
   /**
    * Checks if an entity can fire a thor. For now the only check is to make sure the entity has a
-   * ThorCurrentCount component with count > 0.
+   * ThorCurrentCount component with count > 0 and that its thor is not cooling down.
    *
    * @param requester The entity that is requesting to fire a thor
+   * @param time the sim time
    * @return true if the entity can fire a thor, false otherwise
    */
-  private boolean canFireThor(Entity requester) {
+  private boolean canFireThor(Entity requester, long time) {
     EntityId requesterId = requester.getId();
 
     if (thorOwners.containsId(requesterId)) {
       ThorCurrentCount tcc = ed.getComponent(requesterId, ThorCurrentCount.class);
-      ThorFireDelay tfd = ed.getComponent(requesterId, ThorFireDelay.class);
-      return tcc.getCount() > 0 && tfd.getPercent() >= 1;
+      return tcc.getCount() > 0 && cooldowns.isReady(requesterId, CooldownSystem.SLOT_THOR, time);
     }
 
     return false;
   }
 
-  private boolean setCoolDown(final Entity requester, final byte flag) {
+  private boolean setCoolDown(final Entity requester, final byte flag, long time) {
 
     if (requester == null) {
       return false;
     }
     if (flag == FIRETHOR) {
-      return setCoolDownThor(requester);
+      return setCoolDownThor(requester, time);
     }
     return false;
   }
 
-  private boolean setCoolDownThor(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    final ThorFireDelay gfd = ed.getComponent(requesterId, ThorFireDelay.class);
-    ed.setComponent(requesterId, gfd.copy());
-    return true;
+  private boolean setCoolDownThor(final Entity requester, long time) {
+    return cooldowns.start(requester.getId(), CooldownSystem.SLOT_THOR, time);
   }
 
   /**
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.es.common.Decay;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.AbstractBody;
+import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+import infinity.es.Blast;
+import infinity.es.Damage;
+import infinity.es.Parent;
+import infinity.es.arena.ArenaMap;
+import infinity.es.arena.ArenaSettings;
+import infinity.sim.GameEntities;
+import infinity.sim.TargetHash;
+import infinity.sim.util.InfinityRunTimeException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.ini4j.Ini;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the damage of bombs, mines and thors to every ship within their blast radius.
+ *
+ * <p>Anything with a {@link Blast} goes off in one of three ways: it hits something (the
+ * WeaponsSystem hands the contact over through {@link #detonate}), a ship comes within its
+ * proximity distance, or it decays. The detonations of an update are resolved together against the
+ * ship grid of the TargetGridSystem. Each finds the ships within its radius, and the damage, full
+ * at the center and falling off to nothing at the edge, is summed per ship so every ship gets one
+ * energy change no matter how many blasts reached it.
+ *
+ * <p>The radius and proximity distance come from the Bomb:BombExplodePixels and
+ * Bomb:ProximityDistance settings of the arena the blast is created in.
+ *
+ * @author Asser
+ */
+public class AreaDamageSystem extends AbstractGameSystem {
+
+  static Logger log = LoggerFactory.getLogger(AreaDamageSystem.class);
+
+  private static final String BOMB_SECTION = "Bomb";
+  private static final double PIXELS_PER_TILE = 16;
+  // Used when a blast is not inside an arena with settings, the same as the Continuum defaults
+  private static final int DEFAULT_EXPLODE_PIXELS = 80;
+  private static final int DEFAULT_PROXIMITY = 3;
+
+  private EntityData ed;
+  private PhysicsSpace<EntityId, MBlockShape> physicsSpace;
+  private EnergySystem energySystem;
+  private TargetGridSystem targetGrid;
+  private EntitySet blasts;
+  private EntitySet arenas;
+
+  // Where each blast was last seen, for the ones that decay
+  private final Map<EntityId, Vec3d> lastPositions = new HashMap<>();
+  // The blasts that went off by contact or proximity, their removal is not a decay
+  private final Set<EntityId> detonated = new HashSet<>();
+  private final List<Detonation> detonations = new ArrayList<>();
+
+  // The damage each ship takes this update, by target index, and the targets that take any
+  private int[] damages = new int[64];
+  private int[] damaged = new int[64];
+  private int damagedCount;
+  private final TargetHash.TargetVisitor collector = this::collect;
+  private Detonation current;
+
+  @Override
+  protected void initialize() {
+    ed = getSystem(EntityData.class);
+    if (ed == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires an EntityData object.");
+    }
+    @SuppressWarnings("unchecked")
+    final MPhysSystem<MBlockShape> mphys = getSystem(MPhysSystem.class);
+    if (mphys == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the MPhysSystem system.");
+    }
+    physicsSpace = mphys.getPhysicsSpace();
+
+    targetGrid = getSystem(TargetGridSystem.class);
+    if (targetGrid == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the TargetGridSystem system.");
+    }
+    energySystem = getSystem(EnergySystem.class);
+
+    blasts = ed.getEntities(Blast.class, Damage.class, Parent.class);
+    arenas = ed.getEntities(ArenaMap.class, ArenaSettings.class);
+  }
+
+  @Override
+  protected void terminate() {
+    blasts.release();
+    blasts = null;
+    arenas.release();
+    arenas = null;
+    lastPositions.clear();
+    detonated.clear();
+    detonations.clear();
+  }
+
+  /**
+   * Creates the blast of a bomb or mine from the settings of the arena it is fired in. The radius
+   * grows with every level, as does the proximity distance.
+   *
+   * @param location where it is fired
+   * @param level the bomb level, 1 and up
+   * @param proximity true if ships coming close set it off
+   * @return the blast
+   */
+  public Blast createBlast(Vec3d location, int level, boolean proximity) {
+    int explodePixels = DEFAULT_EXPLODE_PIXELS;
+    int proximityTiles = DEFAULT_PROXIMITY;
+    Ini ini = findSettings(location);
+    if (ini != null) {
+      explodePixels = Math.max(0, getInt(ini, "BombExplodePixels", explodePixels));
+      proximityTiles = Math.max(0, getInt(ini, "ProximityDistance", proximityTiles));
+    }
+    level = Math.max(1, level);
+    double radius = explodePixels / PIXELS_PER_TILE * level;
+    return new Blast(radius, proximity ? proximityTiles + level - 1 : 0);
+  }
+
+  /**
+   * Sets off a blast where it hit something. Called from the contact handling, the damage is
+   * applied at the next update.
+   *
+   * @param id the entity of the blast
+   * @param location where it went off
+   * @param blast its blast
+   * @param damage its damage
+   * @param owner the entity that fired it, its own blasts do not hurt it
+   * @return false if the blast had already gone off
+   */
+  public boolean detonate(EntityId id, Vec3d location, Blast blast, Damage damage, EntityId owner) {
+    if (!detonated.add(id)) {
+      return false;
+    }
+    // The location may be reused by the caller, so keep a copy
+    detonations.add(new Detonation(new Vec3d(location), blast, damage, owner));
+    return true;
+  }
+
+  @Override
+  public void update(SimTime time) {
+    arenas.applyChanges();
+    if (blasts.applyChanges()) {
+      for (Entity e : blasts.getRemovedEntities()) {
+        Vec3d location = lastPositions.remove(e.getId());
+        if (!detonated.remove(e.getId()) && location != null) {
+          // It decayed, removed entities still have their last components
+          detonations.add(
+              new Detonation(
+                  location,
+                  e.get(Blast.class),
+                  e.get(Damage.class),
+                  e.get(Parent.class).getParentEntityId()));
+        }
+      }
+    }
+
+    TargetHash targets = targetGrid.getTargets();
+    for (Entity e : blasts) {
+      AbstractBody<EntityId, MBlockShape> body = findBody(e.getId());
+      if (body == null) {
+        // Not in the physics yet
+        continue;
+      }
+      Vec3d position = lastPositions.get(e.getId());
+      if (position == null) {
+        lastPositions.put(e.getId(), new Vec3d(body.position));
+      } else {
+        position.set(body.position);
+      }
+
+      Blast blast = e.get(Blast.class);
+      if (blast.getProximity() <= 0 || detonated.contains(e.getId())) {
+        continue;
+      }
+      EntityId owner = e.get(Parent.class).getParentEntityId();
+      if (targets.findWithin(body.position.x, body.position.z, blast.getProximity(), owner.getId())
+          >= 0) {
+        detonate(e.getId(), body.position, blast, e.get(Damage.class), owner);
+        ed.setComponent(e.getId(), Decay.duration(time.getTime(), 0));
+      }
+    }
+
+    if (!detonations.isEmpty()) {
+      applyDetonations(targets, time.getTime());
+    }
+  }
+
+  private void applyDetonations(TargetHash targets, long time) {
+    if (damages.length < targets.size()) {
+      int capacity = Math.max(targets.size(), damages.length * 2);
+      damages = new int[capacity];
+      damaged = new int[capacity];
+    }
+    for (Detonation detonation : detonations) {
+      current = detonation;
+      Vec3d location = detonation.location;
+      double radius = detonation.blast.getRadius();
+      targets.forEachWithin(location.x, location.z, radius, detonation.owner.getId(), collector);
+
+      Damage damage = detonation.damage;
+      GameEntities.createExplosion(
+          ed,
+          EntityId.NULL_ID,
+          physicsSpace,
+          time,
+          location,
+          damage.getExplosionDecay(),
+          damage.getExplosionShape());
+    }
+    current = null;
+    detonations.clear();
+
+    // One energy change per ship
+    for (int i = 0; i < damagedCount; i++) {
+      int target = damaged[i];
+      energySystem.damage(new EntityId(targets.getId(target)), -damages[target]);
+      damages[target] = 0;
+    }
+    if (log.isTraceEnabled()) {
+      log.trace("Blasts damaged " + damagedCount + " ships");
+    }
+    damagedCount = 0;
+  }
+
+  private void collect(int target, double distance) {
+    double radius = current.blast.getRadius();
+    double scale = radius > 0 ? 1 - distance / radius : 1;
+    int amount = (int) Math.round(current.damage.getIntendedDamage() * scale);
+    if (amount <= 0) {
+      return;
+    }
+    if (damages[target] == 0) {
+      damaged[damagedCount++] = target;
+    }
+    damages[target] += amount;
+  }
+
+  private AbstractBody<EntityId, MBlockShape> findBody(EntityId id) {
+    AbstractBody<EntityId, MBlockShape> body = physicsSpace.getBinIndex().getRigidBody(id);
+    if (body == null) {
+      body = physicsSpace.getBinIndex().getStaticBody(id);
+    }
+    return body;
+  }
+
+  /** Returns the settings of the arena the location is in, or null. */
+  private Ini findSettings(Vec3d location) {
+    for (Entity arena : arenas) {
+      ArenaMap map = arena.get(ArenaMap.class);
+      Vec3d min = map.getMin();
+      Vec3d max = map.getMax();
+      if (location.x >= min.x && location.x < max.x && location.z >= min.z && location.z < max.z) {
+        return arena.get(ArenaSettings.class).getSettings();
+      }
+    }
+    return null;
+  }
+
+  private static int getInt(Ini ini, String setting, int defaultValue) {
+    String value = ini.get(BOMB_SECTION, setting);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      log.warn("Invalid " + BOMB_SECTION + ":" + setting + " value:" + value);
+      return defaultValue;
+    }
+  }
+
+  /** A blast that went off this update. */
+  private static class Detonation {
+    final Vec3d location;
+    final Blast blast;
+    final Damage damage;
+    final EntityId owner;
+
+    Detonation(Vec3d location, Blast blast, Damage damage, EntityId owner) {
+      this.location = location;
+      this.blast = blast;
+      this.damage = damage;
+      this.owner = owner;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The cells a loaded arena occupies in the world. The per leaf cell indexes are shared with the
+ * compiled arena, so keeping track of a loaded arena costs a few objects instead of one per cell,
+ * and clearing it again touches each occupied leaf once.
+ *
+ * <p>Door cells are not part of the compiled cells, doors spawn open and the DoorSystem closes them
+ * later. They are kept separately, together with the door entities, so that an unload can take the
+ * doors out and open their cells as well.
+ *
+ * @author Asser
+ */
+public class ArenaFootprint {
+
+  private final CompiledArena arena;
+  private final Vec3d offset;
+  // x, y, z of each door cell, relative to the offset
+  private final int[] doorCells;
+  private final List<EntityId> doors = new ArrayList<>();
+
+  public ArenaFootprint(CompiledArena arena, Vec3d offset) {
+    this.arena = arena;
+    this.offset = offset;
+
+    int[] spawns = arena.getSpawns();
+    int count = 0;
+    for (int i = 0; i < spawns.length; i += 4) {
+      if (CompiledArena.getSpawnType(spawns[i]) == CompiledArena.SPAWN_DOOR) {
+        count++;
+      }
+    }
+    doorCells = new int[count * 3];
+    int d = 0;
+    for (int i = 0; i < spawns.length; i += 4) {
+      if (CompiledArena.getSpawnType(spawns[i]) == CompiledArena.SPAWN_DOOR) {
+        doorCells[d++] = spawns[i + 1];
+        doorCells[d++] = spawns[i + 2];
+        doorCells[d++] = spawns[i + 3];
+      }
+    }
+  }
+
+  public Vec3d getOffset() {
+    return offset;
+  }
+
+  public int getLeafCount() {
+    return arena.getLeafCount();
+  }
+
+  /**
+   * Returns the world location of a leaf origin.
+   *
+   * @param leaf the leaf index
+   * @return the world location
+   */
+  public Vec3d getLeafWorld(int leaf) {
+    Vec3i origin = arena.getLeafOrigin(leaf, null);
+    return new Vec3d(origin.x, origin.y, origin.z).addLocal(offset);
+  }
+
+  /**
+   * Returns the occupied cells of a leaf, see {@link CompiledArena#cellIndex(int, int, int)}.
+   *
+   * @param leaf the leaf index
+   * @return the cell indexes, must not be modified
+   */
+  public int[] getCellIndexes(int leaf) {
+    return arena.getCellIndexes(leaf);
+  }
+
+  public int getCellCount() {
+    return arena.getCellCount();
+  }
+
+  public int getDoorCount() {
+    return doorCells.length / 3;
+  }
+
+  /**
+   * Returns the world location of a door cell.
+   *
+   * @param door the door index
+   * @return the world location
+   */
+  public Vec3d getDoorWorld(int door) {
+    int i = door * 3;
+    return new Vec3d(doorCells[i], doorCells[i + 1], doorCells[i + 2]).addLocal(offset);
+  }
+
+  /**
+   * Records a door entity spawned for the arena.
+   *
+   * @param door the door entity
+   */
+  public void addDoor(EntityId door) {
+    doors.add(door);
+  }
+
+  /**
+   * Returns the door entities spawned for the arena.
+   *
+   * @return the door entities
+   */
+  public List<EntityId> getDoors() {
+    return doors;
+  }
+
+  /**
+   * Returns the regions of the arena, in coordinates relative to the offset.
+   *
+   * @return the region index
+   */
+  public RegionIndex getRegions() {
+    return arena.getRegions();
+  }
+
+  @Override
+  public String toString() {
+    return "ArenaFootprint[offset="
+        + offset
+        + ", leaves="
+        + getLeafCount()
+        + ", cells="
+        + getCellCount()
+        + "]";
+  }
+}
@@ -0,0 +1,675 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.github.czyzby.noise4j.map.Grid;
+import com.github.czyzby.noise4j.map.generator.cellular.CellularAutomataGenerator;
+import com.github.czyzby.noise4j.map.generator.room.RoomType.DefaultRoomType;
+import com.github.czyzby.noise4j.map.generator.room.dungeon.DungeonGenerator;
+import com.github.czyzby.noise4j.map.generator.util.Generators;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates an arena from a seed. A noise4j dungeon or cave grid is scaled up to fill the arena,
+ * each grid cell becoming a square block of tiles, and only the walls that face open space are
+ * drawn so the result looks like a hand made map. The same seed, size and style always give the
+ * same tiles, so generated arenas can be cached by their {@link #getCacheKey()}.
+ *
+ * <p>Doors, turf flags and the prize spawner are placed from the room graph: rooms are the floor
+ * areas of the dungeon and two rooms are linked when a corridor connects them. The best connected
+ * room gets the prize spawner, and the dead end rooms get a flag each with doors on their
+ * entrances. A cave is a single room, its flags go to the spots farthest from the spawner and from
+ * each other.
+ *
+ * @author Asser
+ */
+public class ArenaGenerator {
+
+  /** Bump this whenever the tiles generated for a seed change, so cached arenas get rebuilt. */
+  public static final int GENERATOR_VERSION = 1;
+
+  /** The smallest grid, in cells per side. */
+  public static final int MIN_SIZE = 16;
+  /** The largest grid, in cells per side. Each cell is at least three tiles wide at this size. */
+  public static final int MAX_SIZE = 256;
+
+  /** The kind of arena to generate. */
+  public enum Style {
+    /** Rooms joined by corridors. */
+    DUNGEON,
+    /** One open cave grown by a cellular automaton. */
+    CAVE
+  }
+
+  private static final int MAP_SIZE = MapSystem.MAP_SIZE;
+
+  // What a grid cell is
+  private static final byte WALL = 0;
+  private static final byte FLOOR = 1;
+  private static final byte CORRIDOR = 2;
+
+  private static final byte WALL_TILE = (byte) MapTypes.vieNormalStart;
+
+  // Caves below this many cells between flags do not get more of them
+  private static final int MIN_FLAG_DISTANCE = 8;
+
+  // noise4j draws from one shared Random, so grids are generated one at a time to keep it seeded
+  private static final Object NOISE_LOCK = new Object();
+
+  private final long seed;
+  private final int size;
+  private final Style style;
+  // Tiles per grid cell, and the empty tiles around the grid
+  private final int scale;
+  private final int margin;
+
+  /**
+   * Creates a generator.
+   *
+   * @param seed the seed
+   * @param size the number of grid cells per side, MIN_SIZE to MAX_SIZE
+   * @param style the kind of arena
+   */
+  public ArenaGenerator(long seed, int size, Style style) {
+    if (size < MIN_SIZE || size > MAX_SIZE) {
+      throw new IllegalArgumentException(
+          "Arena size must be between " + MIN_SIZE + " and " + MAX_SIZE + ":" + size);
+    }
+    this.seed = seed;
+    this.size = size;
+    this.style = style;
+    this.scale = (MAP_SIZE - 2) / size;
+    this.margin = (MAP_SIZE - size * scale) / 2;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public Style getStyle() {
+    return style;
+  }
+
+  /**
+   * Returns the map name of the generated arena, for example dungeon_42_128.gen.
+   *
+   * @return the map name
+   */
+  public String getName() {
+    return style.name().toLowerCase(Locale.ROOT) + "_" + seed + "_" + size + ".gen";
+  }
+
+  /**
+   * Returns the key of the generated arena in the ArenaCache.
+   *
+   * @return the cache key
+   */
+  public String getCacheKey() {
+    return "gen-"
+        + style.name().toLowerCase(Locale.ROOT)
+        + "-"
+        + seed
+        + "-"
+        + size
+        + "-g"
+        + GENERATOR_VERSION
+        + "-v"
+        + CompiledArena.TILE_MAPPING_VERSION;
+  }
+
+  /**
+   * Generates the arena and compiles it.
+   *
+   * @return the compiled arena
+   */
+  public CompiledArena generate() {
+    return CompiledArena.compile(generateTiles());
+  }
+
+  /**
+   * Generates the tiles of the arena. The walls are drawn in parallel bands of grid rows on the
+   * common ForkJoin pool.
+   *
+   * @return one unsigned byte per tile, indexed by y * MAP_SIZE + x like LevelParser.getTiles()
+   */
+  public byte[] generateTiles() {
+    final byte[] cells = generateCells();
+    final List<Room> rooms = style == Style.DUNGEON ? findRooms(cells) : findCave(cells);
+
+    final byte[] tiles = new byte[MAP_SIZE * MAP_SIZE];
+    ForkJoinPool.commonPool().invoke(new RasterTask(cells, tiles, 0, size));
+
+    if (!rooms.isEmpty()) {
+      final Random random = new Random(seed);
+      if (style == Style.DUNGEON) {
+        placeDungeonObjects(rooms, tiles, random);
+      } else {
+        placeCaveObjects(cells, rooms.get(0), tiles);
+      }
+    }
+    return tiles;
+  }
+
+  /** Runs the noise4j generator and turns its grid into cell kinds, walled in along the edge. */
+  private byte[] generateCells() {
+    final Grid grid = new Grid(size, size);
+    synchronized (NOISE_LOCK) {
+      final Random previous = Generators.getRandom();
+      Generators.setRandom(new Random(seed));
+      try {
+        if (style == Style.DUNGEON) {
+          createDungeonGenerator().generate(grid);
+        } else {
+          createCaveGenerator().generate(grid);
+        }
+      } finally {
+        Generators.setRandom(previous);
+      }
+    }
+
+    final byte[] cells = new byte[size * size];
+    for (int y = 1; y < size - 1; y++) {
+      for (int x = 1; x < size - 1; x++) {
+        final float value = grid.get(x, y);
+        if (style == Style.CAVE) {
+          // The living cells are the rock
+          cells[y * size + x] = value < 0.5f ? FLOOR : WALL;
+        } else if (value == MapSystem.NOISE4J_FLOOR) {
+          cells[y * size + x] = FLOOR;
+        } else if (value == MapSystem.NOISE4J_CORRIDOR) {
+          cells[y * size + x] = CORRIDOR;
+        }
+      }
+    }
+    return cells;
+  }
+
+  private DungeonGenerator createDungeonGenerator() {
+    final DungeonGenerator dungeonGenerator = new DungeonGenerator();
+
+    dungeonGenerator.setCorridorThreshold(MapSystem.NOISE4J_CORRIDOR);
+    dungeonGenerator.setFloorThreshold(MapSystem.NOISE4J_FLOOR);
+    dungeonGenerator.setWallThreshold(MapSystem.NOISE4J_WALL);
+
+    // Ten rooms of 9-21 cells on a 100 cell grid, scaled to the grid size
+    final int maxRooms = Math.max(4, size * size / 1000);
+    dungeonGenerator.setRoomGenerationAttempts(maxRooms * 10);
+    dungeonGenerator.setMaxRoomsAmount(maxRooms);
+    dungeonGenerator.addRoomTypes(DefaultRoomType.values());
+
+    // Max first, then min. Only odd values
+    final int maxRoomSize = Math.max(5, Math.min(21, size / 5)) | 1;
+    dungeonGenerator.setMaxRoomSize(maxRoomSize);
+    dungeonGenerator.setMinRoomSize(Math.max(3, maxRoomSize / 2) | 1);
+    return dungeonGenerator;
+  }
+
+  private CellularAutomataGenerator createCaveGenerator() {
+    final CellularAutomataGenerator caveGenerator = new CellularAutomataGenerator();
+    caveGenerator.setAliveChance(0.45f);
+    caveGenerator.setIterationsAmount(4);
+    return caveGenerator;
+  }
+
+  /**
+   * Finds the rooms of a dungeon and links the rooms that share a corridor.
+   *
+   * @param cells the grid cells
+   * @return the rooms, in grid order
+   */
+  private List<Room> findRooms(final byte[] cells) {
+    final int[] labels = new int[cells.length];
+    Arrays.fill(labels, -1);
+    final int[] queue = new int[cells.length];
+    final List<Room> rooms = new ArrayList<>();
+    for (int cell = 0; cell < cells.length; cell++) {
+      if (cells[cell] == FLOOR && labels[cell] < 0) {
+        final Room room = new Room(rooms.size());
+        fill(cells, FLOOR, labels, room.id, cell, queue, room);
+        rooms.add(room);
+      }
+    }
+
+    // Every corridor links all the rooms it opens into
+    final int corridorBase = rooms.size();
+    int corridors = 0;
+    final BitSet touched = new BitSet();
+    for (int cell = 0; cell < cells.length; cell++) {
+      if (cells[cell] != CORRIDOR || labels[cell] >= 0) {
+        continue;
+      }
+      final int label = corridorBase + corridors++;
+      final int count = fill(cells, CORRIDOR, labels, label, cell, queue, null);
+      touched.clear();
+      for (int i = 0; i < count; i++) {
+        final int c = queue[i];
+        for (int dir = 0; dir < 4; dir++) {
+          final int n = neighbour(c, dir);
+          if (n >= 0 && cells[n] == FLOOR) {
+            final Room room = rooms.get(labels[n]);
+            touched.set(room.id);
+            room.entrances.add(c * 4 + dir);
+          }
+        }
+      }
+      for (int a = touched.nextSetBit(0); a >= 0; a = touched.nextSetBit(a + 1)) {
+        rooms.get(a).links.or(touched);
+        rooms.get(a).links.clear(a);
+      }
+    }
+
+    for (Room room : rooms) {
+      room.center = findCenter(labels, room);
+    }
+    return rooms;
+  }
+
+  /**
+   * Keeps the largest open area of a cave and fills in the rest, so nothing spawns in a pocket
+   * that cannot be reached.
+   *
+   * @param cells the grid cells, changed in place
+   * @return the cave as a single room, or nothing if the cave is solid
+   */
+  private List<Room> findCave(final byte[] cells) {
+    final int[] labels = new int[cells.length];
+    Arrays.fill(labels, -1);
+    final int[] queue = new int[cells.length];
+    Room largest = null;
+    int areas = 0;
+    for (int cell = 0; cell < cells.length; cell++) {
+      if (cells[cell] == FLOOR && labels[cell] < 0) {
+        final Room area = new Room(areas++);
+        fill(cells, FLOOR, labels, area.id, cell, queue, area);
+        if (largest == null || area.area > largest.area) {
+          largest = area;
+        }
+      }
+    }
+    if (largest == null) {
+      return new ArrayList<>();
+    }
+    for (int cell = 0; cell < cells.length; cell++) {
+      if (cells[cell] == FLOOR && labels[cell] != largest.id) {
+        cells[cell] = WALL;
+      }
+    }
+    largest.center = findCenter(labels, largest);
+    List<Room> result = new ArrayList<>();
+    result.add(largest);
+    return result;
+  }
+
+  /**
+   * Labels the 4-connected cells of one kind, starting from a cell.
+   *
+   * @param cells the grid cells
+   * @param kind the cell kind to fill
+   * @param labels the labels, -1 for unlabeled
+   * @param label the label to give
+   * @param start the cell to start from
+   * @param queue receives the filled cells
+   * @param room gets the area and bounds of the filled cells, may be null
+   * @return the number of filled cells
+   */
+  private int fill(
+      byte[] cells, byte kind, int[] labels, int label, int start, int[] queue, Room room) {
+    int head = 0;
+    int tail = 0;
+    labels[start] = label;
+    queue[tail++] = start;
+    while (head < tail) {
+      final int c = queue[head++];
+      if (room != null) {
+        room.add(c % size, c / size);
+      }
+      for (int dir = 0; dir < 4; dir++) {
+        final int n = neighbour(c, dir);
+        if (n >= 0 && cells[n] == kind && labels[n] < 0) {
+          labels[n] = label;
+          queue[tail++] = n;
+        }
+      }
+    }
+    return tail;
+  }
+
+  /** Returns the cell of a room closest to its middle, rooms are not always convex. */
+  private int findCenter(final int[] labels, final Room room) {
+    final double cx = room.sumX / (double) room.area;
+    final double cy = room.sumY / (double) room.area;
+    int best = -1;
+    double bestDistance = Double.MAX_VALUE;
+    for (int y = room.minY; y <= room.maxY; y++) {
+      for (int x = room.minX; x <= room.maxX; x++) {
+        if (labels[y * size + x] != room.id) {
+          continue;
+        }
+        final double distance = (x - cx) * (x - cx) + (y - cy) * (y - cy);
+        if (distance < bestDistance) {
+          bestDistance = distance;
+          best = y * size + x;
+        }
+      }
+    }
+    return best;
+  }
+
+  private void placeDungeonObjects(
+      final List<Room> rooms, final byte[] tiles, final Random random) {
+    // The best connected room is the hub, ties go to the larger room
+    Room hub = rooms.get(0);
+    for (Room room : rooms) {
+      final int links = room.links.cardinality();
+      final int hubLinks = hub.links.cardinality();
+      if (links > hubLinks || (links == hubLinks && room.area > hub.area)) {
+        hub = room;
+      }
+    }
+    setCenterTile(tiles, hub.center, MapTypes.ssbPrize);
+
+    final List<Room> flagRooms = new ArrayList<>();
+    for (Room room : rooms) {
+      if (room != hub && room.links.cardinality() <= 1) {
+        flagRooms.add(room);
+      }
+    }
+    if (flagRooms.isEmpty()) {
+      for (Room room : rooms) {
+        if (room != hub) {
+          flagRooms.add(room);
+        }
+      }
+    }
+
+    for (Room room : flagRooms) {
+      setCenterTile(tiles, room.center, MapTypes.vieTurfFlag);
+      // All the doors of a room open and close together
+      final int door = random.nextInt(4);
+      for (int i = 0; i < room.entrances.size(); i++) {
+        final int entrance = room.entrances.get(i);
+        placeDoor(tiles, entrance / 4, entrance % 4, door);
+      }
+    }
+  }
+
+  /**
+   * Draws a door across the side of a corridor cell that opens into a room.
+   *
+   * @param tiles the tiles
+   * @param cell the corridor cell
+   * @param dir the direction of the room, see neighbour()
+   * @param door the door number, 0-3
+   */
+  private void placeDoor(byte[] tiles, int cell, int dir, int door) {
+    final int x0 = margin + (cell % size) * scale;
+    final int y0 = margin + (cell / size) * scale;
+    final int x1 = x0 + scale - 1;
+    final int y1 = y0 + scale - 1;
+    switch (dir) {
+      case 0:
+        hline(tiles, y0, x0, x1, (byte) (MapTypes.vieHDoorStart + door));
+        break;
+      case 1:
+        vline(tiles, x1, y0, y1, (byte) (MapTypes.vieVDoorStart + door));
+        break;
+      case 2:
+        hline(tiles, y1, x0, x1, (byte) (MapTypes.vieHDoorStart + door));
+        break;
+      default:
+        vline(tiles, x0, y0, y1, (byte) (MapTypes.vieVDoorStart + door));
+        break;
+    }
+  }
+
+  private void placeCaveObjects(final byte[] cells, final Room cave, final byte[] tiles) {
+    setCenterTile(tiles, cave.center, MapTypes.ssbPrize);
+
+    // Each flag goes to the open cell farthest from the spawner and the flags placed so far
+    final int[] distances = new int[cells.length];
+    Arrays.fill(distances, Integer.MAX_VALUE);
+    final int[] queue = new int[cells.length];
+    final int flags = Math.max(2, size / 32);
+    int source = cave.center;
+    for (int f = 0; f < flags; f++) {
+      int farthest = relax(cells, distances, queue, source);
+      if (farthest < 0 || distances[farthest] < MIN_FLAG_DISTANCE) {
+        break;
+      }
+      setCenterTile(tiles, farthest, MapTypes.vieTurfFlag);
+      source = farthest;
+    }
+  }
+
+  /**
+   * Lowers the distances to the open cells that are closer to a new source than to any before it.
+   *
+   * @return the open cell that is now farthest from every source, or -1
+   */
+  private int relax(byte[] cells, int[] distances, int[] queue, int source) {
+    int head = 0;
+    int tail = 0;
+    distances[source] = 0;
+    queue[tail++] = source;
+    while (head < tail) {
+      final int c = queue[head++];
+      for (int dir = 0; dir < 4; dir++) {
+        final int n = neighbour(c, dir);
+        if (n >= 0 && cells[n] != WALL && distances[c] + 1 < distances[n]) {
+          distances[n] = distances[c] + 1;
+          queue[tail++] = n;
+        }
+      }
+    }
+    int farthest = -1;
+    for (int c = 0; c < cells.length; c++) {
+      if (cells[c] != WALL && (farthest < 0 || distances[c] > distances[farthest])) {
+        farthest = c;
+      }
+    }
+    return farthest;
+  }
+
+  private void setCenterTile(byte[] tiles, int cell, int tile) {
+    final int x = margin + (cell % size) * scale + scale / 2;
+    final int y = margin + (cell / size) * scale + scale / 2;
+    tiles[y * MAP_SIZE + x] = (byte) tile;
+  }
+
+  /**
+   * Returns the neighbour of a cell.
+   *
+   * @param cell the cell
+   * @param dir 0 for north (-y), 1 for east (+x), 2 for south (+y), 3 for west (-x)
+   * @return the neighbour, or -1 if it is outside the grid
+   */
+  private int neighbour(int cell, int dir) {
+    final int x = cell % size;
+    final int y = cell / size;
+    switch (dir) {
+      case 0:
+        return y > 0 ? cell - size : -1;
+      case 1:
+        return x < size - 1 ? cell + 1 : -1;
+      case 2:
+        return y < size - 1 ? cell + size : -1;
+      default:
+        return x > 0 ? cell - 1 : -1;
+    }
+  }
+
+  private boolean isOpen(byte[] cells, int x, int y) {
+    return x >= 0 && y >= 0 && x < size && y < size && cells[y * size + x] != WALL;
+  }
+
+  /** Draws the sides of a wall cell that face open cells. */
+  private void rasterCell(byte[] cells, byte[] tiles, int x, int y) {
+    if (cells[y * size + x] != WALL) {
+      return;
+    }
+    final boolean n = isOpen(cells, x, y - 1);
+    final boolean e = isOpen(cells, x + 1, y);
+    final boolean s = isOpen(cells, x, y + 1);
+    final boolean w = isOpen(cells, x - 1, y);
+    final int x0 = margin + x * scale;
+    final int y0 = margin + y * scale;
+    final int x1 = x0 + scale - 1;
+    final int y1 = y0 + scale - 1;
+    if (n) {
+      hline(tiles, y0, x0, x1, WALL_TILE);
+    }
+    if (s) {
+      hline(tiles, y1, x0, x1, WALL_TILE);
+    }
+    if (w) {
+      vline(tiles, x0, y0, y1, WALL_TILE);
+    }
+    if (e) {
+      vline(tiles, x1, y0, y1, WALL_TILE);
+    }
+    // An opening only on the diagonal needs just the corner closed
+    if (!n && !w && isOpen(cells, x - 1, y - 1)) {
+      tiles[y0 * MAP_SIZE + x0] = WALL_TILE;
+    }
+    if (!n && !e && isOpen(cells, x + 1, y - 1)) {
+      tiles[y0 * MAP_SIZE + x1] = WALL_TILE;
+    }
+    if (!s && !w && isOpen(cells, x - 1, y + 1)) {
+      tiles[y1 * MAP_SIZE + x0] = WALL_TILE;
+    }
+    if (!s && !e && isOpen(cells, x + 1, y + 1)) {
+      tiles[y1 * MAP_SIZE + x1] = WALL_TILE;
+    }
+  }
+
+  private static void hline(byte[] tiles, int y, int x0, int x1, byte tile) {
+    Arrays.fill(tiles, y * MAP_SIZE + x0, y * MAP_SIZE + x1 + 1, tile);
+  }
+
+  private static void vline(byte[] tiles, int x, int y0, int y1, byte tile) {
+    for (int y = y0; y <= y1; y++) {
+      tiles[y * MAP_SIZE + x] = tile;
+    }
+  }
+
+  /** A room of the generated arena, or the whole cave. */
+  private static class Room {
+    final int id;
+    // The rooms that share a corridor with this one
+    final BitSet links = new BitSet();
+    // Corridor cell * 4 + the direction of this room from it
+    final IntList entrances = new IntList();
+    int area;
+    long sumX;
+    long sumY;
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = -1;
+    int maxY = -1;
+    int center;
+
+    Room(int id) {
+      this.id = id;
+    }
+
+    void add(int x, int y) {
+      area++;
+      sumX += x;
+      sumY += y;
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+    }
+  }
+
+  /** Growable list of ints. */
+  private static class IntList {
+    private int[] data = new int[4];
+    private int size;
+
+    void add(int value) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, size * 2);
+      }
+      data[size++] = value;
+    }
+
+    int get(int i) {
+      return data[i];
+    }
+
+    int size() {
+      return size;
+    }
+  }
+
+  /** Draws the walls of a band of grid rows, splitting it up until the bands are small. */
+  private class RasterTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int ROWS_PER_TASK = 8;
+
+    private final transient byte[] cells;
+    private final transient byte[] tiles;
+    private final int start;
+    private final int end;
+
+    RasterTask(byte[] cells, byte[] tiles, int start, int end) {
+      this.cells = cells;
+      this.tiles = tiles;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= ROWS_PER_TASK) {
+        // Each cell only draws inside its own block, so bands never touch the same tiles
+        for (int y = start; y < end; y++) {
+          for (int x = 0; x < size; x++) {
+            rasterCell(cells, tiles, x, y);
+          }
+        }
+        return;
+      }
+      final int mid = (start + end) >>> 1;
+      invokeAll(
+          new RasterTask(cells, tiles, start, mid), new RasterTask(cells, tiles, mid, end));
+    }
+  }
+}
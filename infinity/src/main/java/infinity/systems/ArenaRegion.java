@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package infinity.systems;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A region of a compiled arena, the name and properties from the map's REGN chunk and the tiles it
+ * covers. The tiles are kept as runs: per row of the arena a sorted list of [x0, x1) spans, so
+ * finding out whether a point is inside takes a binary search in one row no matter how the region
+ * was drawn.
+ *
+ * <p>Coordinates are arena positions like everything else in {@link CompiledArena}, so x and z go
+ * from 0 to MAP_SIZE - 1 and are mirrored relative to the tile coordinates of the map file.
+ *
+ * @author Asser
+ */
+public class ArenaRegion {
+
+  private static final int MAP_SIZE = MapSystem.MAP_SIZE;
+
+  private final String name;
+  private final int flags;
+  private final int warpX;
+  private final int warpY;
+  private final String warpArena;
+  // Spans of row z are spans[rowStart[z] * 2] up to spans[rowStart[z + 1] * 2], as x0, x1 pairs
+  private final int[] rowStart;
+  private final int[] spans;
+  // Bounding rows, for a quick reject
+  private final int minZ;
+  private final int maxZ;
+
+  public ArenaRegion(
+      String name, int flags, int warpX, int warpY, String warpArena, int[] rowStart, int[] spans) {
+    this.name = name;
+    this.flags = flags;
+    this.warpX = warpX;
+    this.warpY = warpY;
+    this.warpArena = warpArena;
+    this.rowStart = rowStart;
+    this.spans = spans;
+    int min = MAP_SIZE;
+    int max = -1;
+    for (int z = 0; z < MAP_SIZE; z++) {
+      if (rowStart[z + 1] > rowStart[z]) {
+        min = Math.min(min, z);
+        max = z;
+      }
+    }
+    this.minZ = min;
+    this.maxZ = max;
+  }
+
+  /**
+   * Creates a region from the tiles set in a bitmap.
+   *
+   * @param name the region name
+   * @param flags the RegionIndex flags of the region
+   * @param warpX the auto-warp destination x tile
+   * @param warpY the auto-warp destination y tile
+   * @param warpArena the auto-warp destination arena, empty for this arena
+   * @param tiles one bit per arena position, indexed by z * MAP_SIZE + x
+   * @return the region
+   */
+  public static ArenaRegion fromBits(
+      String name, int flags, int warpX, int warpY, String warpArena, BitSet tiles) {
+    int[] rowStart = new int[MAP_SIZE + 1];
+    int[] spans = new int[16];
+    int count = 0;
+    for (int z = 0; z < MAP_SIZE; z++) {
+      rowStart[z] = count;
+      int rowEnd = (z + 1) * MAP_SIZE;
+      int i = tiles.nextSetBit(z * MAP_SIZE);
+      while (i >= 0 && i < rowEnd) {
+        int end = Math.min(tiles.nextClearBit(i), rowEnd);
+        if (count * 2 == spans.length) {
+          spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[count * 2] = i - z * MAP_SIZE;
+        spans[count * 2 + 1] = end - z * MAP_SIZE;
+        count++;
+        i = end < rowEnd ? tiles.nextSetBit(end) : -1;
+      }
+    }
+    rowStart[MAP_SIZE] = count;
+    return new ArenaRegion(
+        name, flags, warpX, warpY, warpArena, rowStart, Arrays.copyOf(spans, count * 2));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the properties of this region.
+   *
+   * @return a combination of the RegionIndex flags
+   */
+  public int getFlags() {
+    return flags;
+  }
+
+  public boolean isAutoWarp() {
+    return (flags & RegionIndex.AUTOWARP) != 0;
+  }
+
+  /**
+   * Returns the x tile an auto-warp region sends ships to, in the tile coordinates of the map.
+   *
+   * @return the destination x tile
+   */
+  public int getWarpX() {
+    return warpX;
+  }
+
+  /**
+   * Returns the y tile an auto-warp region sends ships to, in the tile coordinates of the map.
+   *
+   * @return the destination y tile
+   */
+  public int getWarpY() {
+    return warpY;
+  }
+
+  /**
+   * Returns the arena an auto-warp region sends ships to.
+   *
+   * @return the destination arena, empty for this arena
+   */
+  public String getWarpArena() {
+    return warpArena;
+  }
+
+  /**
+   * Checks whether an arena position is inside this region.
+   *
+   * @param x the arena x position
+   * @param z the arena z position
+   * @return true if the tile at the position belongs to the region
+   */
+  public boolean contains(int x, int z) {
+    if (z < minZ || z > maxZ || x < 0 || x >= MAP_SIZE) {
+      return false;
+    }
+    // Find the last span starting at or before x
+    int lo = rowStart[z];
+    int hi = rowStart[z + 1] - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (spans[mid * 2] <= x) {
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return hi >= rowStart[z] && x < spans[hi * 2 + 1];
+  }
+
+  /**
+   * Ors a value into every tile of this region.
+   *
+   * @param tiles one byte per arena position, indexed by z * MAP_SIZE + x
+   * @param value the bits to set
+   */
+  void fill(byte[] tiles, int value) {
+    for (int z = minZ; z <= maxZ; z++) {
+      for (int s = rowStart[z]; s < rowStart[z + 1]; s++) {
+        int row = z * MAP_SIZE;
+        for (int x = spans[s * 2]; x < spans[s * 2 + 1]; x++) {
+          tiles[row + x] |= value;
+        }
+      }
+    }
+  }
+
+  public int getSpanCount() {
+    return spans.length / 2;
+  }
+
+  /**
+   * Returns the number of ints write() takes.
+   *
+   * @return the size in ints
+   */
+  public int getIntSize() {
+    return 6 + nameSize(name) + nameSize(warpArena) + getSpanCount() * 3;
+  }
+
+  /**
+   * Writes this region as: flags, warp x, warp y, name, warp arena, span count, then span count *
+   * (z, x0, x1). Strings are a length followed by one int per char.
+   *
+   * @param ints where to write
+   */
+  public void write(IntBuffer ints) {
+    ints.put(flags);
+    ints.put(warpX);
+    ints.put(warpY);
+    writeName(ints, name);
+    writeName(ints, warpArena);
+    ints.put(getSpanCount());
+    for (int z = 0; z < MAP_SIZE; z++) {
+      for (int s = rowStart[z]; s < rowStart[z + 1]; s++) {
+        ints.put(z);
+        ints.put(spans[s * 2]);
+        ints.put(spans[s * 2 + 1]);
+      }
+    }
+  }
+
+  /**
+   * Reads a region written by write().
+   *
+   * @param ints where to read from
+   * @return the region
+   */
+  public static ArenaRegion read(IntBuffer ints) {
+    int flags = ints.get();
+    int warpX = ints.get();
+    int warpY = ints.get();
+    String name = readName(ints);
+    String warpArena = readName(ints);
+    int count = ints.get();
+    int[] rowStart = new int[MAP_SIZE + 1];
+    int[] spans = new int[count * 2];
+    int lastZ = 0;
+    for (int s = 0; s < count; s++) {
+      int z = ints.get();
+      if (z < lastZ || z >= MAP_SIZE) {
+        throw new IllegalStateException("Region spans out of order at:" + s + " z:" + z);
+      }
+      // Rows without spans start where the next row does
+      while (lastZ < z) {
+        rowStart[++lastZ] = s;
+      }
+      spans[s * 2] = ints.get();
+      spans[s * 2 + 1] = ints.get();
+    }
+    while (lastZ < MAP_SIZE) {
+      rowStart[++lastZ] = count;
+    }
+    return new ArenaRegion(name, flags, warpX, warpY, warpArena, rowStart, spans);
+  }
+
+  private static int nameSize(String s) {
+    return s == null ? 0 : s.length();
+  }
+
+  private static void writeName(IntBuffer ints, String s) {
+    if (s == null) {
+      ints.put(-1);
+      return;
+    }
+    ints.put(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      ints.put(s.charAt(i));
+    }
+  }
+
+  private static String readName(IntBuffer ints) {
+    int length = ints.get();
+    if (length < 0) {
+      return null;
+    }
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) ints.get();
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public String toString() {
+    return "ArenaRegion[name="
+        + name
+        + ", flags="
+        + Integer.toHexString(flags)
+        + ", spans="
+        + getSpanCount()
+        + "]";
+  }
+}
@@ -49,8 +49,11 @@ import infinity.sim.ArenaManager;
 import infinity.sim.ChatHostedPoster;
 import infinity.sim.CommandTriFunction;
 import infinity.sim.CoreGameConstants;
+import infinity.sim.MessageTypes;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.ini4j.Ini;
@@ -70,16 +73,20 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
   private final java.util.Map<Vec3d, EntityId> index = new ConcurrentHashMap<>();
   private final HashMap<String, EntityId> currentOpenArenas = new HashMap<>();
   private final HashMap<EntityId, GridCell> arenaCells = new HashMap<>();
+  private static final String MESSAGE_SENDER = "Arena";
   private EntityData ed;
+  private ChatHostedPoster chat;
   private EntitySet arenaEntities;
   private EntitySet playerEntities;
   private final Pattern loadMap = Pattern.compile("\\~loadMap\\s(\\w+.(?:lvl|lvz))");
-  private final Pattern unloadMap = Pattern.compile("\\~unloadMap\\s(\\w+.(?:lvl|lvz))");
+  private final Pattern unloadMap = Pattern.compile("\\~unloadMap\\s(\\w+.(?:lvl|lvz|gen))");
+  private final Pattern genMap =
+      Pattern.compile("\\~genMap\\s(\\d{1,18})\\s(\\d{1,3})(?:\\s(dungeon|cave))?");
 
   @Override
   protected void initialize() {
 
-    ChatHostedPoster chat = getSystem(InfinityChatHostedService.class);
+    chat = getSystem(InfinityChatHostedService.class);
 
     ed = getSystem(EntityData.class);
     // This filters all entities that are in arenas
@@ -100,6 +107,14 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
         "The command to unload a new map is ~unloadMap <mapName>, where <mapName> is the "
             + "name of the map you want to unload",
         new CommandTriFunction<>(AccessLevel.PLAYER_LEVEL, this::unloadArena));
+    chat.registerPatternTriConsumer(
+        genMap,
+        "The command to generate a new map is ~genMap <seed> <size> [dungeon|cave], where <size> "
+            + "is the number of cells per side, "
+            + ArenaGenerator.MIN_SIZE
+            + "-"
+            + ArenaGenerator.MAX_SIZE,
+        new CommandTriFunction<>(AccessLevel.PLAYER_LEVEL, this::generateArena));
   }
 
   /**
@@ -111,21 +126,75 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
    */
   private String loadArena(final EntityId playerEntityId, EntityId avatarEntityId, final Matcher matcher) {
     String map = matcher.group(1);
+    return createArena(
+        playerEntityId,
+        map,
+        arena ->
+            getSystem(MapSystem.class)
+                .loadMap(playerEntityId, avatarEntityId, map, new MapLoadReporter(arena)));
+  }
+
+  /**
+   * This method generates a new map from a seed and sets it up as an arena like loadArena() does.
+   * The same seed and size always give the same map.
+   *
+   * @param playerEntityId EntityId of the player that sent the command
+   * @param matcher Matcher that contains the seed, the size and optionally the style
+   */
+  private String generateArena(
+      final EntityId playerEntityId, EntityId avatarEntityId, final Matcher matcher) {
+    long seed = Long.parseLong(matcher.group(1));
+    int size = Integer.parseInt(matcher.group(2));
+    if (size < ArenaGenerator.MIN_SIZE || size > ArenaGenerator.MAX_SIZE) {
+      return "Map size must be between "
+          + ArenaGenerator.MIN_SIZE
+          + " and "
+          + ArenaGenerator.MAX_SIZE;
+    }
+    ArenaGenerator.Style style =
+        matcher.group(3) == null
+            ? ArenaGenerator.Style.DUNGEON
+            : ArenaGenerator.Style.valueOf(matcher.group(3).toUpperCase(Locale.ROOT));
+    ArenaGenerator generator = new ArenaGenerator(seed, size, style);
+    return createArena(
+        playerEntityId,
+        generator.getName(),
+        arena ->
+            getSystem(MapSystem.class)
+                .generateMap(
+                    playerEntityId, avatarEntityId, generator, new MapLoadReporter(arena)));
+  }
+
+  /**
+   * Creates the arena entity for a map and starts loading the map, then attaches the bounds and the
+   * settings of the arena.
+   *
+   * @param playerEntityId EntityId of the player that sent the command
+   * @param map the map name
+   * @param loader starts loading the map for the arena entity, returns the minimum corner of the
+   *     map or null if it could not
+   */
+  private String createArena(
+      final EntityId playerEntityId, final String map, final Function<EntityId, Vec3d> loader) {
     // First create the map entity
     EntityId arena = ed.createEntity();
     ed.setComponent(arena, new ArenaId(map, playerEntityId));
 
-    // Then load the map
-    getSystem(MapSystem.class).loadMap(playerEntityId, avatarEntityId, map);
-    Vec3d mapBoundsMax = getSystem(MapSystem.class).getMapBoundsMax(map);
-    Vec3d mapBoundsMin = getSystem(MapSystem.class).getMapBoundsMin(map);
+    // Then load the map, it streams into the world over the next frames
+    Vec3d mapBoundsMin = loader.apply(arena);
+    if (mapBoundsMin == null) {
+      ed.removeEntity(arena);
+      return "Map " + map + " could not be loaded";
+    }
+    // Not looked up in MapSystem, a load that fails fast has already given its slot back
+    Vec3d mapBoundsMax = mapBoundsMin.add(MapSystem.MAP_SIZE, 0, MapSystem.MAP_SIZE);
     // Add mapbounds information to the arena entity
-    ed.setComponent(arena, new ArenaMap(mapBoundsMax, mapBoundsMin));
+    ed.setComponent(arena, new ArenaMap(mapBoundsMin, mapBoundsMax));
 
-    // Then load the settings (remove file ending first)
-    getSystem(SettingsSystem.class)
-        .loadSettings(playerEntityId, map.substring(0, map.lastIndexOf('.')));
-    Ini ini = getSystem(SettingsSystem.class).getIni(map);
+    // Then load the settings (remove file ending first), they are stored under the same name
+    String settingsName = map.lastIndexOf('.') < 0 ? map : map.substring(0, map.lastIndexOf('.'));
+    getSystem(SettingsSystem.class).loadSettings(playerEntityId, settingsName);
+    Ini ini = getSystem(SettingsSystem.class).getIni(settingsName);
     // Add settings information to the arena entity
     ed.setComponents(arena, new ArenaSettings(map, ini));
 
@@ -140,7 +209,7 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
     ed.setComponent(arena, new SpawnPosition(WorldGrids.LEAF_GRID, new Vec3d()));
     ed.setComponent(arena, ShapeInfo.create(ShapeNames.ARENA, 1, ed));
 
-    return "Map " + map + " loaded";
+    return "Loading map " + map;
   }
 
   /**
@@ -201,4 +270,41 @@ public class ArenaSystem extends AbstractGameSystem implements ArenaManager {
   public String getDefaultArenaId() {
     return CoreGameConstants.DEFAULTARENAID;
   }
+
+  /** Reports the progress of a map load in chat, in steps of a quarter. */
+  private final class MapLoadReporter implements MapSystem.MapLoadListener {
+
+    private final EntityId arena;
+    private int reported;
+
+    MapLoadReporter(EntityId arena) {
+      this.arena = arena;
+    }
+
+    @Override
+    public void progress(String mapName, int done, int total) {
+      int quarter = done * 4 / total;
+      if (quarter > reported) {
+        reported = quarter;
+        chat.postPublicMessage(
+            MESSAGE_SENDER,
+            MessageTypes.MESSAGE,
+            "Loading map " + mapName + ": " + quarter * 25 + "%");
+      }
+    }
+
+    @Override
+    public void loaded(String mapName) {
+      chat.postPublicMessage(MESSAGE_SENDER, MessageTypes.MESSAGE, "Map " + mapName + " loaded");
+    }
+
+    @Override
+    public void failed(String mapName, Throwable cause) {
+      ed.removeEntity(arena);
+      chat.postPublicMessage(
+          MESSAGE_SENDER,
+          MessageTypes.ERROR,
+          "Map " + mapName + " could not be loaded: " + cause.getMessage());
+    }
+  }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import infinity.Bombs;
+import infinity.Guns;
+import infinity.es.ship.actions.Burst;
+import infinity.es.ship.weapons.BombCost;
+import infinity.es.ship.weapons.BombCurrentLevel;
+import infinity.es.ship.weapons.BombFireDelay;
+import infinity.es.ship.weapons.GravityBomb;
+import infinity.es.ship.weapons.GravityBombCost;
+import infinity.es.ship.weapons.GravityBombFireDelay;
+import infinity.es.ship.weapons.GunCost;
+import infinity.es.ship.weapons.GunCurrentLevel;
+import infinity.es.ship.weapons.GunFireDelay;
+import infinity.es.ship.weapons.MineCost;
+import infinity.es.ship.weapons.MineCurrentLevel;
+import infinity.es.ship.weapons.MineFireDelay;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What every armed ship can fire, kept as one {@link Armament} per ship. The records are brought up
+ * to date from the added, changed and removed entities of one entity set per weapon, so firing only
+ * has to read a record instead of asking the EntityData for each component it needs.
+ *
+ * <p>Not thread safe, meant to be updated and read from the simulation thread.
+ *
+ * @author Asser
+ */
+public class ArmamentCache {
+
+  private final EntitySet guns;
+  private final EntitySet bombs;
+  private final EntitySet gravityBombs;
+  private final EntitySet mines;
+  private final EntitySet bursts;
+  private final Map<EntityId, Armament> armaments = new HashMap<>();
+
+  /**
+   * Creates a cache over the armed entities of an EntityData. Call release() when done with it.
+   *
+   * @param ed the entity data
+   */
+  public ArmamentCache(EntityData ed) {
+    guns = ed.getEntities(GunCurrentLevel.class, GunFireDelay.class, GunCost.class);
+    bombs = ed.getEntities(BombCurrentLevel.class, BombFireDelay.class, BombCost.class);
+    gravityBombs =
+        ed.getEntities(GravityBomb.class, GravityBombFireDelay.class, GravityBombCost.class);
+    mines = ed.getEntities(MineCurrentLevel.class, MineFireDelay.class, MineCost.class);
+    bursts = ed.getEntities(Burst.class);
+  }
+
+  /** Brings the records up to date with the entity sets. */
+  public void update() {
+    if (guns.applyChanges()) {
+      for (Entity e : guns.getRemovedEntities()) {
+        Armament a = armaments.get(e.getId());
+        if (a != null) {
+          a.gunLevel = null;
+          dropIfUnarmed(a);
+        }
+      }
+      for (Entity e : guns.getAddedEntities()) {
+        setGun(e);
+      }
+      for (Entity e : guns.getChangedEntities()) {
+        setGun(e);
+      }
+    }
+    if (bombs.applyChanges()) {
+      for (Entity e : bombs.getRemovedEntities()) {
+        Armament a = armaments.get(e.getId());
+        if (a != null) {
+          a.bombLevel = null;
+          dropIfUnarmed(a);
+        }
+      }
+      for (Entity e : bombs.getAddedEntities()) {
+        setBomb(e);
+      }
+      for (Entity e : bombs.getChangedEntities()) {
+        setBomb(e);
+      }
+    }
+    if (gravityBombs.applyChanges()) {
+      for (Entity e : gravityBombs.getRemovedEntities()) {
+        Armament a = armaments.get(e.getId());
+        if (a != null) {
+          a.gravityBombLevel = null;
+          dropIfUnarmed(a);
+        }
+      }
+      for (Entity e : gravityBombs.getAddedEntities()) {
+        setGravityBomb(e);
+      }
+      for (Entity e : gravityBombs.getChangedEntities()) {
+        setGravityBomb(e);
+      }
+    }
+    if (mines.applyChanges()) {
+      for (Entity e : mines.getRemovedEntities()) {
+        Armament a = armaments.get(e.getId());
+        if (a != null) {
+          a.mineLevel = null;
+          dropIfUnarmed(a);
+        }
+      }
+      for (Entity e : mines.getAddedEntities()) {
+        setMine(e);
+      }
+      for (Entity e : mines.getChangedEntities()) {
+        setMine(e);
+      }
+    }
+    if (bursts.applyChanges()) {
+      for (Entity e : bursts.getRemovedEntities()) {
+        Armament a = armaments.get(e.getId());
+        if (a != null) {
+          a.burstCount = -1;
+          dropIfUnarmed(a);
+        }
+      }
+      for (Entity e : bursts.getAddedEntities()) {
+        getOrCreate(e.getId()).burstCount = e.get(Burst.class).getCount();
+      }
+      for (Entity e : bursts.getChangedEntities()) {
+        getOrCreate(e.getId()).burstCount = e.get(Burst.class).getCount();
+      }
+    }
+  }
+
+  /**
+   * Returns the armament of a ship.
+   *
+   * @param id the ship
+   * @return its armament, or null if it has no weapons
+   */
+  public Armament get(EntityId id) {
+    return armaments.get(id);
+  }
+
+  /** Releases the entity sets. */
+  public void release() {
+    guns.release();
+    bombs.release();
+    gravityBombs.release();
+    mines.release();
+    bursts.release();
+    armaments.clear();
+  }
+
+  private void setGun(Entity e) {
+    Armament a = getOrCreate(e.getId());
+    a.gunLevel = e.get(GunCurrentLevel.class).getLevel();
+    a.gunCost = e.get(GunCost.class).getCost();
+  }
+
+  private void setBomb(Entity e) {
+    Armament a = getOrCreate(e.getId());
+    a.bombLevel = e.get(BombCurrentLevel.class).getLevel();
+    a.bombCost = e.get(BombCost.class).getCost();
+  }
+
+  private void setGravityBomb(Entity e) {
+    Armament a = getOrCreate(e.getId());
+    a.gravityBombLevel = e.get(GravityBomb.class).getLevel();
+    a.gravityBombCost = e.get(GravityBombCost.class).getCost();
+  }
+
+  private void setMine(Entity e) {
+    Armament a = getOrCreate(e.getId());
+    a.mineLevel = e.get(MineCurrentLevel.class).getLevel();
+    a.mineCost = e.get(MineCost.class).getCost();
+  }
+
+  private Armament getOrCreate(EntityId id) {
+    Armament a = armaments.get(id);
+    if (a == null) {
+      a = new Armament(id);
+      armaments.put(id, a);
+    }
+    return a;
+  }
+
+  private void dropIfUnarmed(Armament a) {
+    if (a.gunLevel == null
+        && a.bombLevel == null
+        && a.gravityBombLevel == null
+        && a.mineLevel == null
+        && a.burstCount < 0) {
+      armaments.remove(a.id);
+    }
+  }
+
+  /** The weapons of one ship, their levels and what they cost to fire. */
+  public static class Armament {
+    private final EntityId id;
+    private Guns gunLevel;
+    private int gunCost;
+    private Bombs bombLevel;
+    private int bombCost;
+    private Bombs gravityBombLevel;
+    private int gravityBombCost;
+    private Bombs mineLevel;
+    private int mineCost;
+    private int burstCount = -1;
+
+    Armament(EntityId id) {
+      this.id = id;
+    }
+
+    public EntityId getId() {
+      return id;
+    }
+
+    /**
+     * Returns true if the ship has a weapon.
+     *
+     * @param weapon one of the WeaponsSystem weapon flags
+     * @return true if the ship can fire it
+     */
+    public boolean has(byte weapon) {
+      switch (weapon) {
+        case WeaponsSystem.GUN:
+          return gunLevel != null;
+        case WeaponsSystem.BOMB:
+          return bombLevel != null;
+        case WeaponsSystem.GRAVBOMB:
+          return gravityBombLevel != null;
+        case WeaponsSystem.MINE:
+          return mineLevel != null;
+        case WeaponsSystem.BURST:
+          return burstCount >= 0;
+        default:
+          return false;
+      }
+    }
+
+    /**
+     * Returns the energy it costs to fire a weapon.
+     *
+     * @param weapon one of the WeaponsSystem weapon flags
+     * @return the cost, 0 for weapons that cost nothing
+     */
+    public int getCost(byte weapon) {
+      switch (weapon) {
+        case WeaponsSystem.GUN:
+          return gunCost;
+        case WeaponsSystem.BOMB:
+          return bombCost;
+        case WeaponsSystem.GRAVBOMB:
+          return gravityBombCost;
+        case WeaponsSystem.MINE:
+          return mineCost;
+        default:
+          return 0;
+      }
+    }
+
+    public Guns getGunLevel() {
+      return gunLevel;
+    }
+
+    public Bombs getBombLevel() {
+      return bombLevel;
+    }
+
+    public Bombs getGravityBombLevel() {
+      return gravityBombLevel;
+    }
+
+    public Bombs getMineLevel() {
+      return mineLevel;
+    }
+
+    public int getBurstCount() {
+      return burstCount;
+    }
+  }
+}
@@ -0,0 +1,634 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mblock.CellData;
+import com.simsilica.mblock.Direction;
+import com.simsilica.mblock.MaskUtils;
+import com.simsilica.mworld.LeafInfo;
+import infinity.map.Region;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A legacy map compiled into the cells it places in the world and the special objects it spawns.
+ * Cells are stored per leaf with their side masks already calculated, so placing a compiled arena
+ * is a straight copy into the leaves. Everything is relative to the arena origin, which means the
+ * same compiled arena can be placed in any arena slot.
+ *
+ * @author Asser
+ */
+public class CompiledArena {
+
+  /**
+   * Bump this whenever the tile to cell mapping in {@link #compile(byte[])} changes, so that cached
+   * arenas get rebuilt.
+   */
+  public static final int TILE_MAPPING_VERSION = 3;
+
+  public static final int SPAWN_FLAG = 0;
+  public static final int SPAWN_ASTEROID_SMALL = 1;
+  public static final int SPAWN_ASTEROID_MEDIUM = 2;
+  public static final int SPAWN_WORMHOLE_SMALL = 3;
+  public static final int SPAWN_DOOR = 4;
+  public static final int SPAWN_WORMHOLE = 5;
+  public static final int SPAWN_PRIZES = 6;
+
+  // The spawn type is in the low byte of a spawn record type, the variant above it. Doors use the
+  // variant for their door number, 0-7 for the tiles vieVDoorStart to vieHDoorEnd.
+  private static final int SPAWN_VARIANT_SHIFT = 8;
+  private static final int SPAWN_TYPE_MASK = (1 << SPAWN_VARIANT_SHIFT) - 1;
+
+  /** The cell type that solid map tiles are turned into. */
+  public static final int SOLID_CELL = 10;
+
+  public static final int LEAF_SIZE = LeafInfo.SIZE;
+
+  private static final int MAP_SIZE = MapSystem.MAP_SIZE;
+  private static final int LEAVES_PER_SIDE = MAP_SIZE / LEAF_SIZE;
+
+  // Tile classes, spawns are CLASS_SPAWN + the spawn type
+  private static final int CLASS_EMPTY = 0;
+  private static final int CLASS_SOLID = 1;
+  private static final int CLASS_FLYOVER = 2;
+  private static final int CLASS_FLYUNDER = 3;
+  private static final int CLASS_SPAWN = 16;
+
+  // The class of each of the 256 tile values, so compiling does one lookup per tile instead of
+  // going through the ranges in MapTypes
+  private static final byte[] TILE_CLASSES = new byte[256];
+
+  static {
+    for (int s = 0; s < TILE_CLASSES.length; s++) {
+      TILE_CLASSES[s] = (byte) classify(s);
+    }
+  }
+
+  // x, y, z triplets of each leaf origin, relative to the arena origin
+  private final int[] leafOrigins;
+  // Per leaf, the local cell index (see cellIndex()) and the final cell value
+  private final int[][] cellIndexes;
+  private final int[][] cellValues;
+  // type, x, y, z quads relative to the arena origin
+  private final int[] spawns;
+  private final RegionIndex regions;
+
+  public CompiledArena(int[] leafOrigins, int[][] cellIndexes, int[][] cellValues, int[] spawns) {
+    this(leafOrigins, cellIndexes, cellValues, spawns, RegionIndex.EMPTY);
+  }
+
+  public CompiledArena(
+      int[] leafOrigins,
+      int[][] cellIndexes,
+      int[][] cellValues,
+      int[] spawns,
+      RegionIndex regions) {
+    this.leafOrigins = leafOrigins;
+    this.cellIndexes = cellIndexes;
+    this.cellValues = cellValues;
+    this.spawns = spawns;
+    this.regions = regions;
+  }
+
+  /**
+   * Returns the local index of a cell within a leaf.
+   *
+   * @param x the x-coordinate within the leaf
+   * @param y the y-coordinate within the leaf
+   * @param z the z-coordinate within the leaf
+   * @return the index
+   */
+  public static int cellIndex(int x, int y, int z) {
+    return x + (y + z * LEAF_SIZE) * LEAF_SIZE;
+  }
+
+  /**
+   * Compiles the tiles of a legacy map. The map is split into leaf sized columns that are compiled
+   * in parallel on the common ForkJoin pool. The result does not depend on how the work was split,
+   * leaves and their spawns always come out in leaf order.
+   *
+   * @param tiles one unsigned byte per tile, indexed by y * MAP_SIZE + x as produced by {@link
+   *     infinity.map.LevelParser}
+   * @return the compiled arena
+   */
+  public static CompiledArena compile(final byte[] tiles) {
+    final LeafResult[] leaves = new LeafResult[LEAVES_PER_SIDE * LEAVES_PER_SIDE];
+    final TileCells cells = new TileCells(tiles);
+    ForkJoinPool.commonPool().invoke(new CompileTask(cells, leaves, 0, leaves.length));
+    return merge(leaves);
+  }
+
+  /**
+   * Compiles the tiles of a legacy map and indexes its regions, see {@link #compile(byte[])}.
+   *
+   * @param tiles the map tiles
+   * @param regions the regions from {@link infinity.map.LevelParser#getRegions()}
+   * @return the compiled arena
+   */
+  public static CompiledArena compile(final byte[] tiles, final List<Region> regions) {
+    final CompiledArena arena = compile(tiles);
+    return new CompiledArena(
+        arena.leafOrigins,
+        arena.cellIndexes,
+        arena.cellValues,
+        arena.spawns,
+        RegionIndex.build(regions, tiles));
+  }
+
+  /**
+   * Works out what a tile value turns into. Only used to fill TILE_CLASSES.
+   *
+   * @param s the tile value
+   * @return the tile class
+   */
+  private static int classify(final int s) {
+    if (s == 0) {
+      return CLASS_EMPTY;
+    }
+
+    /*
+    TILE STATUS
+    Row 2, tile 1 - Border tile
+    Row 9, tile 10 - Vertical warpgate (Mostly open)
+    Row 9, tile 11 - Vertical warpgate (Frequently open)
+    Row 9, tile 12 - Vertical warpgate (Frequently closed)
+    Row 9, tile 13 - Vertical warpgate (Mostly closed)
+    Row 9, tile 14 - Horizontal warpgate (Mostly open)
+    Row 9, tile 15 - Horizontal warpgate (Frequently open)
+    Row 9, tile 16 - Horizontal warpgate (Frequently closed)
+    Row 9, tile 17 - Horizontal warpgate (Mostly closed)
+    Row 9, tile 18 - Flag for turf [DONE]
+    Row 9, tile 19 - Safezone
+    Row 10, tile 1 - Soccer goal (leave blank if you want)
+    Row 10, tile 2 - Flyover tile
+    Row 10, tile 3 - Flyover tile
+    Row 10, tile 4 - Flyover tile
+    Row 10, tile 5 - Flyunder (opaque) tile
+    Row 10, tile 6 - Flyunder (opaque) tile
+    Row 10, tile 7 - Flyunder (opaque) tile
+    Row 10, tile 8 - Flyunder (opaque) tile
+    Row 10, tile 9 - Flyunder (opaque) tile
+    Row 10, tile 10 - Flunder (opaque) tile
+    Row 10, tile 11 - Flyunder (opaque) tile
+    Row 10, tile 12 - Flyunder (opaque) tile
+    Row 10, tile 13 - Flyunder (black = transparent) tile
+    Row 10, tile 14 - Flyunder (black = transparent) tile
+    Row 10, tile 15 - Flyunder (black = transparent) tile
+    Row 10, tile 16 - Flyunder (black = transparent) tile
+    Row 10, tile 17 - Flyunder (black = transparent) tile
+    Row 10, tile 18 - Flyunder (black = transparent) tile
+    Row 10, tile 19 - Flyunder (black = transparent) tile
+    */
+    /* VIE tile constants.
+
+    public static final char vieNoTile = 0;
+    public static final char vieNormalStart = 1;
+    public static final char vieBorder = 20; // Borders are not included in the .lvl files
+    public static final char vieNormalEnd = 161; // Tiles up to this point are part of sec.chk
+    public static final char vieVDoorStart = 162;
+    public static final char vieVDoorEnd = 165;
+    public static final char vieHDoorStart = 166;
+    public static final char vieHDoorEnd = 169;
+    public static final char vieTurfFlag = 170; [DONE]
+    public static final char vieSafeZone = 171; // Also included in sec.chk
+    public static final char vieGoalArea = 172;
+    public static final char vieFlyOverStart = 173;
+    public static final char vieFlyOverEnd = 175;
+    public static final char vieFlyUnderStart = 176;
+    public static final char vieFlyUnderEnd = 190;
+    public static final char vieAsteroidStart = 216;
+    public static final char vieAsteroidEnd = 218;
+    public static final char vieStation = 219;
+    public static final char vieWormhole = 220;
+    public static final char ssbTeamBrick = 221; // These are internal
+    public static final char ssbEnemyBrick = 222;
+    public static final char ssbTeamGoal = 223;
+    public static final char ssbEnemyGoal = 224;
+    public static final char ssbTeamFlag = 225;
+    public static final char ssbEnemyFlag = 226;
+    public static final char ssbPrize = 227;
+    public static final char ssbBorder = 228; // Use ssbBorder instead of vieBorder to fill border
+    20: Border
+    162: Door Horizontal 1
+    163: Door Horizontal 2
+    164: Door Horizontal 3
+    165: Door Horizontal 4
+    166: Door Vertical 1
+    167: Door Vertical 2
+    168: Door Vertical 3
+    169: Door Vertical 4
+    170: flag [DONE]
+    171: safe
+    172: goal
+    173: fly over 1
+    174: fly over 2
+    175: fly over 3
+    176: fly Under 1
+    177: fly Under 2
+    178: fly Under 3
+    179: fly Under 4
+    180: fly Under 5
+    181: fly Under 6
+    182: fly Under 7
+    183: fly Under 8
+    184: fly Under 9
+    185: fly Under 10
+    186: fly Under 11
+    187: fly Under 12
+    188: fly Under 13
+    189: fly Under 14
+    190: fly Under 15
+    191: invisible, Ships go through, items bounce off, Thors go through if you fire an item while in it, it will float suspended in space.
+    192: invisible
+    193: invisible
+    194: invisible
+    195: invisible
+    196: invisible
+    197: invisible
+    198: invisible
+    199: invisible
+    200: invisible
+    201: invisible
+    202: invisible
+    203: invisible
+    204: invisible
+    205: invisible
+    206: invisible
+    207: invisible
+    216: small Asteroid
+    217: large Asteroid
+    218: small Asteroid 2
+    219: space Station
+    220: wormhole
+    240: invisible
+    241: absorbs weapons, invisible
+    242: warp on contact, not on radar, invisible
+    242: not on radar, invisible
+    243: not on radar, invisible
+    244: not on radar, invisible
+    245: not on radar, invisible
+    246: not on radar, invisible
+    247: not on radar, invisible
+    248: not on radar, invisible
+    249: not on radar, invisible
+    250: not on radar, invisible
+    251: invisible, not on radar, warps ship on contact, items bounce off, thors  dissappear
+    252: animated enemy brick, visible, not on radar. Items go through, ship gets warped after 0-2 seconds
+    253: animated team brick. Visible, invisible on radar. Items and ship go through.
+    254: invisible, not on radar. Impossible to lay bricks while on/near it.
+    255: animated green. visible, not on radar. Items and ship go through.
+    */
+    // TODO: add more special cases here:
+    // TODO: Fetch settings for the given coordinates and create the right gravity
+    if (s == MapTypes.vieTurfFlag) {
+      return CLASS_SPAWN + SPAWN_FLAG;
+    } else if (s == MapTypes.vieAsteroidSmall) {
+      return CLASS_SPAWN + SPAWN_ASTEROID_SMALL;
+    } else if (s == MapTypes.vieAsteroidMedium) {
+      return CLASS_SPAWN + SPAWN_ASTEROID_MEDIUM;
+    } else if (s == MapTypes.vieAsteroidEnd) {
+      return CLASS_SPAWN + SPAWN_WORMHOLE_SMALL;
+    } else if (MapTypes.vieFlyOverStart <= s && s <= MapTypes.vieFlyOverEnd) {
+      return CLASS_FLYOVER;
+    } else if (MapTypes.vieFlyUnderStart <= s && s <= MapTypes.vieFlyUnderEnd) {
+      return CLASS_FLYUNDER;
+    } else if (MapTypes.vieVDoorStart <= s && s <= MapTypes.vieHDoorEnd) {
+      return CLASS_SPAWN + SPAWN_DOOR;
+    } else if (s == MapTypes.vieWormhole) {
+      return CLASS_SPAWN + SPAWN_WORMHOLE;
+    } else if (s == MapTypes.ssbPrize) {
+      // Internal tile, only put down by the ArenaGenerator
+      return CLASS_SPAWN + SPAWN_PRIZES;
+    }
+    return CLASS_SOLID;
+  }
+
+  /**
+   * Compiles the tiles of one leaf sized column of the map.
+   *
+   * @param cells the whole map, also used as the neighbourhood for the side masks
+   * @param leaf the leaf number, row by row
+   * @return the cells and spawns of the leaf
+   */
+  private static LeafResult compileLeaf(final TileCells cells, final int leaf) {
+    final int x0 = (leaf % LEAVES_PER_SIDE) * LEAF_SIZE;
+    final int z0 = (leaf / LEAVES_PER_SIDE) * LEAF_SIZE;
+    final int[] indexes = new int[LEAF_SIZE * LEAF_SIZE];
+    final int[] values = new int[LEAF_SIZE * LEAF_SIZE];
+    final SpawnList spawns = new SpawnList();
+    int count = 0;
+
+    for (int z = 0; z < LEAF_SIZE; z++) {
+      for (int x = 0; x < LEAF_SIZE; x++) {
+        final int xpos = x0 + x;
+        final int zpos = z0 + z;
+        final int tileClass = TILE_CLASSES[cells.getTile(xpos, zpos)];
+        if (tileClass == CLASS_EMPTY) {
+          continue;
+        }
+        if (tileClass >= CLASS_SPAWN) {
+          int spawn = tileClass - CLASS_SPAWN;
+          if (spawn == SPAWN_DOOR) {
+            int door = cells.getTile(xpos, zpos) - MapTypes.vieVDoorStart;
+            spawn |= door << SPAWN_VARIANT_SHIFT;
+          }
+          spawns.add(spawn, xpos, getBaseY(xpos, zpos), zpos);
+          continue;
+        }
+        final int y = cells.getCellY(xpos, zpos);
+        final int sideMask = MaskUtils.calculateSideMask(xpos, y, zpos, cells);
+        indexes[count] = cellIndex(x, y, z);
+        values[count] = MaskUtils.setSideMask(SOLID_CELL, sideMask);
+        count++;
+      }
+    }
+    return new LeafResult(
+        Arrays.copyOf(indexes, count), Arrays.copyOf(values, count), spawns.toArray());
+  }
+
+  /** Puts the compiled leaves together, dropping the ones without cells. */
+  private static CompiledArena merge(final LeafResult[] leaves) {
+    int used = 0;
+    int spawnInts = 0;
+    for (LeafResult leaf : leaves) {
+      if (leaf.indexes.length > 0) {
+        used++;
+      }
+      spawnInts += leaf.spawns.length;
+    }
+
+    final int[] origins = new int[used * 3];
+    final int[][] indexes = new int[used][];
+    final int[][] values = new int[used][];
+    final int[] spawns = new int[spawnInts];
+    int next = 0;
+    int spawn = 0;
+    for (int i = 0; i < leaves.length; i++) {
+      final LeafResult leaf = leaves[i];
+      System.arraycopy(leaf.spawns, 0, spawns, spawn, leaf.spawns.length);
+      spawn += leaf.spawns.length;
+      if (leaf.indexes.length == 0) {
+        continue;
+      }
+      origins[next * 3] = (i % LEAVES_PER_SIDE) * LEAF_SIZE;
+      origins[next * 3 + 2] = (i / LEAVES_PER_SIDE) * LEAF_SIZE;
+      indexes[next] = leaf.indexes;
+      values[next] = leaf.values;
+      next++;
+    }
+    return new CompiledArena(origins, indexes, values, spawns);
+  }
+
+  private static int getBaseY(int xpos, int zpos) {
+    return isCorner(xpos) && isCorner(zpos) ? 5 : 1;
+  }
+
+  private static boolean isCorner(int pos) {
+    return pos <= 2 || pos >= MAP_SIZE - 3;
+  }
+
+  public int getLeafCount() {
+    return cellIndexes.length;
+  }
+
+  /**
+   * Returns the origin of a leaf, relative to the arena origin.
+   *
+   * @param leaf the leaf number
+   * @param store where to store the result, or null
+   * @return the leaf origin in cells
+   */
+  public Vec3i getLeafOrigin(int leaf, Vec3i store) {
+    if (store == null) {
+      store = new Vec3i();
+    }
+    store.x = leafOrigins[leaf * 3];
+    store.y = leafOrigins[leaf * 3 + 1];
+    store.z = leafOrigins[leaf * 3 + 2];
+    return store;
+  }
+
+  public int[] getLeafOrigins() {
+    return leafOrigins;
+  }
+
+  public int[] getCellIndexes(int leaf) {
+    return cellIndexes[leaf];
+  }
+
+  public int[] getCellValues(int leaf) {
+    return cellValues[leaf];
+  }
+
+  public int getCellCount() {
+    int count = 0;
+    for (int[] leaf : cellIndexes) {
+      count += leaf.length;
+    }
+    return count;
+  }
+
+  public int getSpawnCount() {
+    return spawns.length / 4;
+  }
+
+  /**
+   * Returns the spawn type of a spawn record type.
+   *
+   * @param spawn the first int of a spawn record
+   * @return one of the SPAWN_* types
+   */
+  public static int getSpawnType(int spawn) {
+    return spawn & SPAWN_TYPE_MASK;
+  }
+
+  /**
+   * Returns the variant of a spawn record type, the door number for doors.
+   *
+   * @param spawn the first int of a spawn record
+   * @return the variant
+   */
+  public static int getSpawnVariant(int spawn) {
+    return spawn >>> SPAWN_VARIANT_SHIFT;
+  }
+
+  /**
+   * Returns the spawn records as type, x, y, z quads relative to the arena origin. Use
+   * getSpawnType() and getSpawnVariant() to take the type apart.
+   *
+   * @return the spawn records
+   */
+  public int[] getSpawns() {
+    return spawns;
+  }
+
+  /**
+   * Returns the regions and safe zones of the arena.
+   *
+   * @return the region index, never null
+   */
+  public RegionIndex getRegions() {
+    return regions;
+  }
+
+  @Override
+  public String toString() {
+    return "CompiledArena[leaves="
+        + getLeafCount()
+        + ", cells="
+        + getCellCount()
+        + ", spawns="
+        + getSpawnCount()
+        + ", regions="
+        + regions.getRegionCount()
+        + "]";
+  }
+
+  /** Growable list of spawn records. */
+  private static class SpawnList {
+    private int[] data = new int[16];
+    private int size;
+
+    void add(int type, int x, int y, int z) {
+      if (size + 4 > data.length) {
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      data[size++] = type;
+      data[size++] = x;
+      data[size++] = y;
+      data[size++] = z;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+  /** The cells and spawns of one leaf, as compiled by a worker. */
+  private static class LeafResult {
+    final int[] indexes;
+    final int[] values;
+    final int[] spawns;
+
+    LeafResult(int[] indexes, int[] values, int[] spawns) {
+      this.indexes = indexes;
+      this.values = values;
+      this.spawns = spawns;
+    }
+  }
+
+  /** Compiles a range of leaves, splitting it up until the pieces are small. */
+  private static class CompileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int LEAVES_PER_TASK = 8;
+
+    private final transient TileCells cells;
+    private final transient LeafResult[] results;
+    private final int start;
+    private final int end;
+
+    CompileTask(TileCells cells, LeafResult[] results, int start, int end) {
+      this.cells = cells;
+      this.results = results;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= LEAVES_PER_TASK) {
+        for (int i = start; i < end; i++) {
+          results[i] = compileLeaf(cells, i);
+        }
+        return;
+      }
+      int mid = (start + end) >>> 1;
+      invokeAll(
+          new CompileTask(cells, results, start, mid), new CompileTask(cells, results, mid, end));
+    }
+  }
+
+  /**
+   * Read only view of the map tiles as cells. Each tile turns into at most one cell, so whether a
+   * cell exists can be worked out from the tile alone. This lets every worker calculate side masks
+   * across leaf borders without any shared mutable state.
+   */
+  private static class TileCells implements CellData {
+    private final byte[] tiles;
+
+    TileCells(byte[] tiles) {
+      this.tiles = tiles;
+    }
+
+    /** Returns the tile value at the given arena position, the map is stored mirrored. */
+    int getTile(int xpos, int zpos) {
+      return tiles[(MAP_SIZE - zpos - 1) * MAP_SIZE + (MAP_SIZE - xpos - 1)] & 0xff;
+    }
+
+    /** Returns the y-coordinate of the cell the tile turns into, or -1 if it is not a cell. */
+    int getCellY(int xpos, int zpos) {
+      switch (TILE_CLASSES[getTile(xpos, zpos)]) {
+        case CLASS_SOLID:
+          return getBaseY(xpos, zpos);
+        case CLASS_FLYOVER:
+          return getBaseY(xpos, zpos) - 1;
+        case CLASS_FLYUNDER:
+          return getBaseY(xpos, zpos) + 1;
+        default:
+          return -1;
+      }
+    }
+
+    @Override
+    public int getCell(int x, int y, int z) {
+      return getCell(x, y, z, 0);
+    }
+
+    @Override
+    public int getCell(int x, int y, int z, int defaultValue) {
+      if (x < 0 || z < 0 || x >= MAP_SIZE || z >= MAP_SIZE || y < 0 || y >= LEAF_SIZE) {
+        // Outside the arena is empty space
+        return defaultValue;
+      }
+      return getCellY(x, z) == y ? SOLID_CELL : 0;
+    }
+
+    @Override
+    public int getCell(int x, int y, int z, Direction dir, int defaultValue) {
+      Vec3i v = dir.getVec3i();
+      return getCell(x + v.x, y + v.y, z + v.z, defaultValue);
+    }
+
+    @Override
+    public void setCell(int x, int y, int z, int type) {
+      throw new UnsupportedOperationException("Map tiles are read only");
+    }
+  }
+}
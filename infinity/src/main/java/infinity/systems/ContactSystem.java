@@ -6,7 +6,8 @@
 
 package infinity.systems;
 
-import com.google.common.reflect.TypeToken;
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
@@ -16,53 +17,91 @@ import com.simsilica.mphys.AbstractBody;
 import com.simsilica.mphys.AbstractShape;
 import com.simsilica.mphys.Contact;
 import com.simsilica.mphys.ContactListener;
-import com.simsilica.mphys.DynArray;
+import com.simsilica.mphys.PhysicsListener;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 import infinity.es.CollisionCategory;
 import infinity.es.Parent;
 import infinity.sim.CategoryFilter;
+import infinity.sim.CollisionFilters;
+import infinity.sim.CollisionMatrix;
+import infinity.sim.ComponentTable;
 import infinity.sim.util.InfinityRunTimeException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A conctact system to handle the contacts we want to disable as the last delegate in the line.
  *
+ * <p>The contacts that make it through are routed to the listeners by the categories of the two
+ * bodies, see {@link CollisionFilters}. Listeners register for the pairs of categories they handle
+ * and a routing table from category pair to listeners is built whenever the listeners change, so a
+ * contact only costs a lookup and the listeners that care about it. Contacts with the world have
+ * COLLISION_CATEGORY_WORLD on the world side, and bodies without a CollisionCategory are
+ * COLLISION_CATEGORY_NONE.
+ *
+ * <p>Everything the filtering needs is kept per body, mirrored from the CollisionCategory and
+ * Parent components, and the category filters are checked through a {@link CollisionMatrix}. So
+ * the contacts that get thrown away, most of them in a fight with lots of bullets, cost two map
+ * lookups and a bit test instead of entity and component lookups. Bodies with neither component
+ * are remembered as unfiltered until the next frame starts, so they are looked up once a frame
+ * instead of once per contact.
+ *
+ * <p>Listeners that need components of the bodies can get a {@link ComponentTable} of the types
+ * they read from createComponentTable(). The tables are refreshed at the start of every physics
+ * frame, together with the filters and parents above.
+ *
  * @author AFahrenholz
  */
 public class ContactSystem<K, S extends AbstractShape> extends AbstractGameSystem
-    implements ContactListener<EntityId, MBlockShape> {
+    implements ContactListener<EntityId, MBlockShape>, PhysicsListener<EntityId, MBlockShape> {
 
   static Logger log = LoggerFactory.getLogger(ContactSystem.class);
-  private final DynArray<ContactListener<K, S>> listeners =
-      new DynArray<>(new TypeToken<ContactListener<K, S>>() {});
+  private static final ContactListener[] NO_LISTENERS = new ContactListener[0];
+  private final List<Route> routes = new ArrayList<>();
+  // The listeners of each pair of single category bits, indexed by bit one * 64 + bit two
+  private ContactListener[][] routingTable = buildRoutingTable();
+  private final CollisionMatrix matrix = new CollisionMatrix();
+  // The filter and parent of every body that has either
+  private final Map<EntityId, ContactBody> bodies = new HashMap<>();
+  // The bodies cached as UNFILTERED since the last refresh, they are not in the entity sets
+  private final Set<EntityId> unfiltered = new HashSet<>();
+  private final List<ComponentTable> componentTables = new ArrayList<>();
   EntitySet categoryFilters;
+  private EntitySet parents;
   private EntityData ed;
-  private MPhysSystem<?> physics;
+  private MPhysSystem<MBlockShape> physics;
 
   @Override
   public void newContact(Contact contact) {
     final RigidBody<EntityId, MBlockShape> bodyOne = contact.body1;
     final AbstractBody<EntityId, MBlockShape> bodyTwo = contact.body2;
 
+    final ContactBody one = getBody(bodyOne.id);
+    final long categoryTwo;
     // Body1 is always a rigidbody
     // If body two is not null, we are dealing with a collision between a rigidbody (body1) and a
     // rigidbody or a staticbody (body2)
     if (bodyTwo != null) {
-      final EntityId one = bodyOne.id;
-      final EntityId two = bodyTwo.id;
+      final ContactBody two = getBody(bodyTwo.id);
 
       if (!categoryFilterAllowsContact(one, two)) {
         contact.disable();
         return;
       }
 
-      if (parentChildContact(one, two)) {
+      if (parentChildContact(bodyOne.id, one, bodyTwo.id, two)) {
         contact.disable();
         return;
       }
+      categoryTwo = two.category;
 
       // log.debug("Collision between: " + bodyOne + " and " + bodyTwo);
 
@@ -70,61 +109,146 @@ public class ContactSystem<K, S extends AbstractShape> extends AbstractGameSyste
       // log.debug("Collided: {1}  with null", bodyOne);
       // Restitution should make sure the bounce conserves the energy completely
       contact.restitution = 1;
+      categoryTwo = CollisionFilters.COLLISION_CATEGORY_WORLD;
     }
 
-    // Now that we have filtered the basics, lets send it to the various systems listening for
-    // contacts
-    for (ContactListener l : listeners) {
+    // Now that we have filtered the basics, lets send it to the systems listening for contacts
+    // between these categories
+    for (ContactListener l : getListeners(one.category, categoryTwo)) {
       l.newContact(contact);
     }
   }
 
+  /**
+   * Returns what the filtering needs to know about a body.
+   *
+   * @param id the entity of the body
+   * @return the body, UNFILTERED if the entity has neither a category nor a parent
+   */
+  private ContactBody getBody(EntityId id) {
+    ContactBody body = bodies.get(id);
+    if (body == null) {
+      // Not seen by the entity sets yet, like a projectile touching its ship on its first step
+      body =
+          createBody(
+              ed.getComponent(id, CollisionCategory.class), ed.getComponent(id, Parent.class));
+      bodies.put(id, body);
+      if (body == ContactBody.UNFILTERED) {
+        unfiltered.add(id);
+      }
+    }
+    return body;
+  }
+
+  private ContactBody createBody(CollisionCategory category, Parent parent) {
+    if (category == null && parent == null) {
+      return ContactBody.UNFILTERED;
+    }
+    final CategoryFilter filter = category == null ? null : category.getFilter();
+    return new ContactBody(
+        filter,
+        filter == null ? CollisionMatrix.NO_INDEX : matrix.getIndex(filter),
+        parent == null ? null : parent.getParentEntityId());
+  }
+
+  /** Brings the mirrored body of an entity up to date with its entity sets. */
+  private void refreshBody(EntityId id) {
+    final Entity category = categoryFilters.getEntity(id);
+    final Entity parent = parents.getEntity(id);
+    final ContactBody body =
+        createBody(
+            category == null ? null : category.get(CollisionCategory.class),
+            parent == null ? null : parent.get(Parent.class));
+    if (body == ContactBody.UNFILTERED) {
+      bodies.remove(id);
+    } else {
+      bodies.put(id, body);
+    }
+  }
+
+  private void refreshBodies(Set<Entity> entities) {
+    for (Entity e : entities) {
+      refreshBody(e.getId());
+    }
+  }
+
   /**
    * This method checks if the two entities are allowed to collide based on their category filters.
-   * We only return false if the filters explicity disallow the collision. If the filters do not
-   * contain the entities, we return true.
+   * We only return false if the filters explicity disallow the collision. If either entity has no
+   * filter, we return true.
    *
-   * @param one The first entity
-   * @param two The second entity
+   * @param one The first body
+   * @param two The second body
    * @return false if the filters disallow the collision, true otherwise
    */
-  private boolean categoryFilterAllowsContact(EntityId one, EntityId two) {
-    if (categoryFilters.containsId(two) && categoryFilters.containsId(one)) {
-      final CategoryFilter filterOne =
-          categoryFilters.getEntity(one).get(CollisionCategory.class).getFilter();
-      final CategoryFilter filterTwo =
-          categoryFilters.getEntity(two).get(CollisionCategory.class).getFilter();
-      if (!filterTwo.isAllowed(filterOne)) {
-        log.debug(
-            "Disabling contact because of category filters:" + filterOne + " and: " + filterTwo);
+  private boolean categoryFilterAllowsContact(ContactBody one, ContactBody two) {
+    if (one.filter == null || two.filter == null) {
+      return true;
+    }
+    final boolean allowed =
+        one.filterIndex != CollisionMatrix.NO_INDEX && two.filterIndex != CollisionMatrix.NO_INDEX
+            ? matrix.isAllowed(one.filterIndex, two.filterIndex)
+            : two.filter.isAllowed(one.filter);
+    if (!allowed && log.isDebugEnabled()) {
+      log.debug(
+          "Disabling contact because of category filters:" + one.filter + " and: " + two.filter);
+    }
+    return allowed;
+  }
+
+  /**
+   * Returns the listeners for a contact between two categories.
+   *
+   * @param categoryOne the category of body one
+   * @param categoryTwo the category of body two
+   * @return the listeners, in the order they were added
+   */
+  private ContactListener[] getListeners(long categoryOne, long categoryTwo) {
+    if (Long.bitCount(categoryOne) == 1 && Long.bitCount(categoryTwo) == 1) {
+      return routingTable[
+          Long.numberOfTrailingZeros(categoryOne) * 64 + Long.numberOfTrailingZeros(categoryTwo)];
+    }
+    // A body in several categories, none of ours are, so it is fine to work it out each time
+    return route(categoryOne, categoryTwo);
+  }
+
+  private ContactListener[] route(long categoryOne, long categoryTwo) {
+    final List<ContactListener> result = new ArrayList<>();
+    for (Route route : routes) {
+      if (route.matches(categoryOne, categoryTwo) && !result.contains(route.listener)) {
+        result.add(route.listener);
+      }
+    }
+    return result.isEmpty() ? NO_LISTENERS : result.toArray(NO_LISTENERS);
+  }
+
+  private ContactListener[][] buildRoutingTable() {
+    final ContactListener[][] table = new ContactListener[64 * 64][];
+    for (int one = 0; one < 64; one++) {
+      for (int two = 0; two < 64; two++) {
+        table[one * 64 + two] = route(1L << one, 1L << two);
       }
-      return filterTwo.isAllowed(filterOne);
     }
-    return true;
+    return table;
   }
 
   /**
    * This method checks if the two entities are parent and child of each other. If they are, we
    * return true, otherwise false.
    *
-   * @param one The first entity
-   * @param two The second entity
+   * @param idOne The first entity
+   * @param one The body of the first entity
+   * @param idTwo The second entity
+   * @param two The body of the second entity
    * @return true if the entities are parent and child of each other, false otherwise
    */
-  private boolean parentChildContact(EntityId one, EntityId two) {
-    boolean res = false;
-    final Parent parentOfOne = ed.getComponent(one, Parent.class);
-    if (parentOfOne != null && parentOfOne.getParentEntityId().compareTo(two) == 0) {
-      res = true;
-    }
-
-    final Parent parentOfTwo = ed.getComponent(two, Parent.class);
-    if (parentOfTwo != null && parentOfTwo.getParentEntityId().compareTo(one) == 0) {
-      res = true;
-    }
+  private boolean parentChildContact(
+      EntityId idOne, ContactBody one, EntityId idTwo, ContactBody two) {
+    final boolean res = idTwo.equals(one.parent) || idOne.equals(two.parent);
 
-    if (res) {
-      log.debug("Disabling contact because of parent child relationship: " + one + " and: " + two);
+    if (res && log.isDebugEnabled()) {
+      log.debug(
+          "Disabling contact because of parent child relationship: " + idOne + " and: " + idTwo);
     }
 
     return res;
@@ -134,7 +258,66 @@ public class ContactSystem<K, S extends AbstractShape> extends AbstractGameSyste
   public void update(final SimTime time) {
     super.update(time); // To change body of generated methods, choose Tools | Templates.
 
-    categoryFilters.applyChanges();
+    refresh();
+  }
+
+  @Override
+  public void startFrame(final long frameTime, final double stepSize) {
+    // Contacts of this frame should see the components as they are now
+    refresh();
+  }
+
+  @Override
+  public void endFrame() {
+    // Nothing to do
+  }
+
+  @Override
+  public void update(final RigidBody<EntityId, MBlockShape> body) {
+    // Nothing to do
+  }
+
+  private void refresh() {
+    // The entity sets do not tell us when these get a component or go away
+    for (EntityId id : unfiltered) {
+      if (bodies.get(id) == ContactBody.UNFILTERED) {
+        bodies.remove(id);
+      }
+    }
+    unfiltered.clear();
+    if (categoryFilters.applyChanges()) {
+      refreshBodies(categoryFilters.getAddedEntities());
+      refreshBodies(categoryFilters.getChangedEntities());
+      refreshBodies(categoryFilters.getRemovedEntities());
+    }
+    if (parents.applyChanges()) {
+      refreshBodies(parents.getAddedEntities());
+      refreshBodies(parents.getChangedEntities());
+      refreshBodies(parents.getRemovedEntities());
+    }
+    for (ComponentTable table : componentTables) {
+      table.refresh();
+    }
+  }
+
+  /**
+   * Creates a table of components that is kept up to date for contact handling. Release it with
+   * releaseComponentTable().
+   *
+   * @param types the component types the contact handler reads
+   * @return the table
+   */
+  @SafeVarargs
+  public final ComponentTable createComponentTable(Class<? extends EntityComponent>... types) {
+    final ComponentTable table = new ComponentTable(ed, types);
+    componentTables.add(table);
+    return table;
+  }
+
+  public void releaseComponentTable(ComponentTable table) {
+    if (componentTables.remove(table)) {
+      table.release();
+    }
   }
 
   @Override
@@ -144,26 +327,96 @@ public class ContactSystem<K, S extends AbstractShape> extends AbstractGameSyste
       throw new InfinityRunTimeException(
           getClass().getName() + " system requires an EntityData object.");
     }
-    physics = getSystem(MPhysSystem.class);
+    @SuppressWarnings("unchecked")
+    final MPhysSystem<MBlockShape> mphys = getSystem(MPhysSystem.class);
+    physics = mphys;
     if (physics == null) {
       throw new InfinityRunTimeException(
           getClass().getName() + " system requires the MPhysSystem system.");
     }
+    physics.addPhysicsListener(this);
 
     categoryFilters = ed.getEntities(CollisionCategory.class);
+    parents = ed.getEntities(Parent.class);
   }
 
   @Override
   protected void terminate() {
+    physics.removePhysicsListener(this);
+    for (ComponentTable table : componentTables) {
+      table.release();
+    }
+    componentTables.clear();
     categoryFilters.release();
     categoryFilters = null;
+    parents.release();
+    parents = null;
+    bodies.clear();
+    unfiltered.clear();
   }
 
+  /**
+   * Adds a listener for every contact that gets through the filters.
+   *
+   * @param listener the listener
+   */
   public void addListener(ContactListener listener) {
-    this.listeners.add(listener);
+    addListener(
+        listener, CollisionFilters.COLLISION_CATEGORY_ALL, CollisionFilters.COLLISION_CATEGORY_ALL);
+  }
+
+  /**
+   * Adds a listener for the contacts between a body in one of the first categories and a body in
+   * one of the second categories, whichever is body one. A listener can be added several times to
+   * listen to more pairs, it still gets each contact once.
+   *
+   * @param listener the listener
+   * @param categoriesOne the COLLISION_CATEGORY_* bits of one body
+   * @param categoriesTwo the COLLISION_CATEGORY_* bits of the other body
+   */
+  public void addListener(ContactListener listener, long categoriesOne, long categoriesTwo) {
+    this.routes.add(new Route(listener, categoriesOne, categoriesTwo));
+    this.routingTable = buildRoutingTable();
   }
 
   public void removeListener(ContactListener listener) {
-    this.listeners.remove(listener);
+    this.routes.removeIf(route -> route.listener == listener);
+    this.routingTable = buildRoutingTable();
+  }
+
+  /** The filter and parent of a body, mirrored from its components. */
+  private static final class ContactBody {
+    static final ContactBody UNFILTERED = new ContactBody(null, CollisionMatrix.NO_INDEX, null);
+
+    final CategoryFilter filter;
+    final int filterIndex;
+    final long category;
+    final EntityId parent;
+
+    ContactBody(CategoryFilter filter, int filterIndex, EntityId parent) {
+      this.filter = filter;
+      this.filterIndex = filterIndex;
+      this.category =
+          filter == null ? CollisionFilters.COLLISION_CATEGORY_NONE : filter.getCategory();
+      this.parent = parent;
+    }
+  }
+
+  /** The category pairs a listener was added for. */
+  private static class Route {
+    final ContactListener listener;
+    final long categoriesOne;
+    final long categoriesTwo;
+
+    Route(ContactListener listener, long categoriesOne, long categoriesTwo) {
+      this.listener = listener;
+      this.categoriesOne = categoriesOne;
+      this.categoriesTwo = categoriesTwo;
+    }
+
+    boolean matches(long categoryOne, long categoryTwo) {
+      return ((categoriesOne & categoryOne) != 0 && (categoriesTwo & categoryTwo) != 0)
+          || ((categoriesOne & categoryTwo) != 0 && (categoriesTwo & categoryOne) != 0);
+    }
   }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+import infinity.es.ship.actions.ThorFireDelay;
+import infinity.es.ship.weapons.BombFireDelay;
+import infinity.es.ship.weapons.GravityBombFireDelay;
+import infinity.es.ship.weapons.GunFireDelay;
+import infinity.es.ship.weapons.MineFireDelay;
+import infinity.sim.util.InfinityRunTimeException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the weapon cooldowns of every ship in sim time. Each ship has one array with the time each
+ * of its weapon slots is ready again, so checking a cooldown is an array read and starting one is
+ * an array write. The fire delay components only say how long a cooldown is, they are not touched
+ * when a ship fires.
+ *
+ * <p>Because the times are sim times, cooldowns stand still while the sim is paused and come out
+ * the same when it is replayed.
+ *
+ * @author Asser
+ */
+public class CooldownSystem extends AbstractGameSystem {
+
+  public static final int SLOT_GUN = 0;
+  public static final int SLOT_BOMB = 1;
+  public static final int SLOT_GRAVBOMB = 2;
+  public static final int SLOT_MINE = 3;
+  public static final int SLOT_THOR = 4;
+  private static final int SLOT_COUNT = 5;
+
+  private EntityData ed;
+  // The ships with a fire delay, by slot
+  private final EntitySet[] delays = new EntitySet[SLOT_COUNT];
+  private final Map<EntityId, long[]> readyTimes = new HashMap<>();
+
+  @Override
+  protected void initialize() {
+    ed = getSystem(EntityData.class);
+    if (ed == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires an EntityData object.");
+    }
+    delays[SLOT_GUN] = ed.getEntities(GunFireDelay.class);
+    delays[SLOT_BOMB] = ed.getEntities(BombFireDelay.class);
+    delays[SLOT_GRAVBOMB] = ed.getEntities(GravityBombFireDelay.class);
+    delays[SLOT_MINE] = ed.getEntities(MineFireDelay.class);
+    delays[SLOT_THOR] = ed.getEntities(ThorFireDelay.class);
+  }
+
+  @Override
+  protected void terminate() {
+    for (int slot = 0; slot < SLOT_COUNT; slot++) {
+      delays[slot].release();
+      delays[slot] = null;
+    }
+    readyTimes.clear();
+  }
+
+  @Override
+  public void update(SimTime time) {
+    for (int slot = 0; slot < SLOT_COUNT; slot++) {
+      if (delays[slot].applyChanges()) {
+        for (Entity e : delays[slot].getRemovedEntities()) {
+          clear(e.getId(), slot);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true if a weapon slot is not cooling down. A ship without the fire delay of the slot is
+   * never ready.
+   *
+   * @param id the ship
+   * @param slot one of the SLOT_ constants
+   * @param time the sim time in nanoseconds
+   * @return true if the ship can fire
+   */
+  public boolean isReady(EntityId id, int slot, long time) {
+    if (!delays[slot].containsId(id)) {
+      return false;
+    }
+    long[] ready = readyTimes.get(id);
+    return ready == null || ready[slot] <= time;
+  }
+
+  /**
+   * Starts the cooldown of a weapon slot, for as long as the fire delay of the ship says.
+   *
+   * @param id the ship
+   * @param slot one of the SLOT_ constants
+   * @param time the sim time in nanoseconds
+   * @return false if the ship has no fire delay for the slot
+   */
+  public boolean start(EntityId id, int slot, long time) {
+    Entity e = delays[slot].getEntity(id);
+    if (e == null) {
+      return false;
+    }
+    long[] ready = readyTimes.get(id);
+    if (ready == null) {
+      ready = new long[SLOT_COUNT];
+      readyTimes.put(id, ready);
+    }
+    ready[slot] = time + getDelay(e, slot);
+    return true;
+  }
+
+  /**
+   * Returns when a weapon slot is ready again, for showing the cooldown.
+   *
+   * @param id the ship
+   * @param slot one of the SLOT_ constants
+   * @return the sim time in nanoseconds, 0 if it is not cooling down
+   */
+  public long getReadyTime(EntityId id, int slot) {
+    long[] ready = readyTimes.get(id);
+    return ready == null ? 0 : ready[slot];
+  }
+
+  private void clear(EntityId id, int slot) {
+    long[] ready = readyTimes.get(id);
+    if (ready == null) {
+      return;
+    }
+    ready[slot] = 0;
+    for (long t : ready) {
+      if (t != 0) {
+        return;
+      }
+    }
+    readyTimes.remove(id);
+  }
+
+  private static long getDelay(Entity e, int slot) {
+    switch (slot) {
+      case SLOT_GUN:
+        return e.get(GunFireDelay.class).getDelay();
+      case SLOT_BOMB:
+        return e.get(BombFireDelay.class).getDelay();
+      case SLOT_GRAVBOMB:
+        return e.get(GravityBombFireDelay.class).getDelay();
+      case SLOT_MINE:
+        return e.get(MineFireDelay.class).getDelay();
+      case SLOT_THOR:
+        return e.get(ThorFireDelay.class).getDelay();
+      default:
+        throw new IllegalArgumentException("Unknown slot: " + slot);
+    }
+  }
+}
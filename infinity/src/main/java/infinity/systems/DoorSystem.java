@@ -5,17 +5,84 @@ import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.mathd.Vec3d;
 import com.simsilica.mworld.World;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 import infinity.es.Door;
+import infinity.es.arena.ArenaMap;
+import infinity.es.arena.ArenaSettings;
+import infinity.sim.InfinityDefaultLeafWorld;
+import infinity.sim.TimingWheel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.ini4j.Ini;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-/** This system will open and close doors based on the delay setting. */
+/**
+ * This system will open and close doors based on the arena's Door:DoorDelay and Door:DoorMode
+ * settings.
+ *
+ * <p>Doors with the same delay and mode are kept in one group, and each group is a single event
+ * on a timing wheel that runs on sim time in SubSpace ticks (hundredths of a second), so a frame
+ * where no group is due costs nothing no matter how many doors there are. When a group fires it
+ * rolls a new door state byte, bit n set meaning door n is closed, as the mode says:
+ *
+ * <ul>
+ *   <li>-2: every door is random
+ *   <li>-1: weighted random, each door is closed as often as its tile says (mostly open, frequently
+ *       open, frequently closed, mostly closed)
+ *   <li>0-255: fixed, the mode is the state
+ * </ul>
+ *
+ * <p>A new door waits for the settings of the arena it is in, which are attached on another
+ * thread and can show up after the map has spawned its doors. A door that is not in an arena with
+ * settings after a few seconds uses the Continuum defaults.
+ *
+ * <p>All the doors that change in a frame are written to the world in one batch, removed doors are
+ * opened in the same batch.
+ */
 public class DoorSystem extends AbstractGameSystem {
 
+  static Logger log = LoggerFactory.getLogger(DoorSystem.class);
+
+  public static final int MODE_RANDOM = -2;
+  public static final int MODE_WEIGHTED = -1;
+
+  private static final String DOOR_SECTION = "Door";
+  private static final double TICKS_PER_SECOND = 100;
+  // Used when a door is not inside an arena with settings, the same as the Continuum defaults
+  private static final int DEFAULT_DELAY = 500;
+  private static final int DEFAULT_MODE = MODE_RANDOM;
+  // How long a new door waits for the settings of its arena, in ticks
+  private static final long SETTINGS_WAIT = 300;
+  // Chance of a door being closed in weighted mode, by the door number. Doors 0-3 are the vertical
+  // and 4-7 the horizontal door tiles, each going from mostly open to mostly closed.
+  private static final double[] WEIGHTS = {0.125, 0.375, 0.625, 0.875};
+
   EntitySet doors;
   EntityData ed;
   private World world;
+  private EntitySet arenas;
+
+  private final TimingWheel<DoorGroup> wheel = new TimingWheel<>(1024);
+  private final Map<Long, DoorGroup> groups = new HashMap<>();
+  private final Map<EntityId, DoorRef> doorRefs = new HashMap<>();
+  // Doors waiting for their arena settings, in the order they were added
+  private final Map<EntityId, PendingDoor> pending = new LinkedHashMap<>();
+  private final List<DoorGroup> due = new ArrayList<>();
+  private final Random random = new Random();
+
+  // The cells to write this frame
+  private final List<Vec3d> flipLocations = new ArrayList<>();
+  private int[] flipTypes = new int[64];
 
   /** Creates a new DoorSystem. */
   public DoorSystem() {
@@ -26,15 +93,18 @@ public class DoorSystem extends AbstractGameSystem {
   protected void initialize() {
     ed = getSystem(EntityData.class);
     doors = ed.getEntities(Door.class, SpawnPosition.class);
+    arenas = ed.getEntities(ArenaMap.class, ArenaSettings.class);
 
     world = getSystem(World.class);
   }
 
   @Override
   protected void terminate() {
-    // Release the entity set
+    // Release the entity sets
     doors.release();
     doors = null;
+    arenas.release();
+    arenas = null;
   }
 
   @Override
@@ -44,19 +114,39 @@ public class DoorSystem extends AbstractGameSystem {
 
   @Override
   public void update(SimTime time) {
-    // Based on the door delay setting, we'll open and close doors by removing and adding the shape
-    // component.
-    // This will remove the door from the physics and rendering systems.
-    // We'll also need to add a sound effect for opening and closing doors.
-    doors.applyChanges();
-
-    for (Entity e : doors) {
-      Door door = e.get(Door.class);
-      SpawnPosition pos = e.get(SpawnPosition.class);
-      if (door.getEndTime() < System.currentTimeMillis()) {
-        openOrCloseDoor(e.getId(), door, pos);
+    final long tick = (long) (time.getTimeInSeconds() * TICKS_PER_SECOND);
+
+    arenas.applyChanges();
+    if (doors.applyChanges()) {
+      for (Entity e : doors.getRemovedEntities()) {
+        removeDoor(e.getId());
       }
+      for (Entity e : doors.getAddedEntities()) {
+        pending.put(
+            e.getId(),
+            new PendingDoor(e.get(Door.class), e.get(SpawnPosition.class).getLocation(), tick));
+      }
+    }
+    if (!pending.isEmpty()) {
+      addPendingDoors(tick);
     }
+
+    wheel.advance(tick, due);
+    for (DoorGroup group : due) {
+      if (group.doors.isEmpty()) {
+        // The last door left, let the group go
+        groups.remove(group.key);
+        continue;
+      }
+      group.roll(random);
+      for (DoorRef door : group.doors) {
+        updateDoor(door, group.isClosed(door.door));
+      }
+      wheel.schedule(group, tick + group.delay);
+    }
+    due.clear();
+
+    applyFlips();
   }
 
   @Override
@@ -64,11 +154,177 @@ public class DoorSystem extends AbstractGameSystem {
     // Auto-generated method stub
   }
 
-  private void openOrCloseDoor(EntityId entityId, Door door, SpawnPosition pos) {
-    boolean open = world.getWorldCell(pos.getLocation()) == 0;
-    ed.setComponent(
-        entityId, new Door(System.currentTimeMillis(), door.getInterval()));
+  private void addPendingDoors(long tick) {
+    for (Iterator<Map.Entry<EntityId, PendingDoor>> it = pending.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<EntityId, PendingDoor> entry = it.next();
+      PendingDoor door = entry.getValue();
+      Ini ini = findSettings(door.location);
+      if (ini != null || tick - door.added >= SETTINGS_WAIT) {
+        it.remove();
+        addDoor(entry.getKey(), door.door, door.location, ini, tick);
+      }
+    }
+  }
+
+  private void addDoor(EntityId id, Door door, Vec3d location, Ini ini, long tick) {
+    int delay = DEFAULT_DELAY;
+    int mode = DEFAULT_MODE;
+    if (ini != null) {
+      delay = Math.max(1, getInt(ini, "DoorDelay", delay));
+      mode = getInt(ini, "DoorMode", mode);
+    } else if (door.getInterval() > 0) {
+      // The interval on the component is in milliseconds
+      delay = (int) Math.max(1, door.getInterval() / 10);
+    }
+
+    long key = ((long) delay << 32) | (mode & 0xffffffffL);
+    DoorGroup group = groups.get(key);
+    if (group == null) {
+      group = new DoorGroup(key, delay, mode);
+      group.roll(random);
+      groups.put(key, group);
+      wheel.schedule(group, tick + delay);
+    }
+    DoorRef ref = new DoorRef(id, location, door.getDoor() & 7, group);
+    group.doors.add(ref);
+    doorRefs.put(ref.id, ref);
+
+    // Doors are spawned open, bring them in line with the rest of their group
+    updateDoor(ref, group.isClosed(ref.door));
+  }
+
+  private void removeDoor(EntityId id) {
+    if (pending.remove(id) != null) {
+      return;
+    }
+    DoorRef ref = doorRefs.remove(id);
+    if (ref != null) {
+      // An empty group is dropped the next time it fires
+      ref.group.doors.remove(ref);
+      // Nothing drives the cell anymore, so it must not be left closed
+      updateDoor(ref, false);
+    }
+  }
+
+  private void updateDoor(DoorRef door, boolean closed) {
+    if (door.closed == closed) {
+      return;
+    }
+    door.closed = closed;
+    int i = flipLocations.size();
+    if (i == flipTypes.length) {
+      flipTypes = Arrays.copyOf(flipTypes, i * 2);
+    }
+    flipLocations.add(door.location);
+    flipTypes[i] = closed ? CompiledArena.SOLID_CELL : 0;
+  }
 
-    world.setWorldCell(pos.getLocation(), open ? 10 : 0);
+  private void applyFlips() {
+    int count = flipLocations.size();
+    if (count == 0) {
+      return;
+    }
+    if (world instanceof InfinityDefaultLeafWorld) {
+      ((InfinityDefaultLeafWorld) world)
+          .setWorldCells(flipLocations, Arrays.copyOf(flipTypes, count));
+    } else {
+      for (int i = 0; i < count; i++) {
+        world.setWorldCell(flipLocations.get(i), flipTypes[i]);
+      }
+    }
+    if (log.isTraceEnabled()) {
+      log.trace("Flipped " + count + " doors");
+    }
+    flipLocations.clear();
+  }
+
+  /** Returns the settings of the arena the location is in, or null. */
+  private Ini findSettings(Vec3d location) {
+    for (Entity arena : arenas) {
+      ArenaMap map = arena.get(ArenaMap.class);
+      Vec3d min = map.getMin();
+      Vec3d max = map.getMax();
+      if (location.x >= min.x && location.x < max.x && location.z >= min.z && location.z < max.z) {
+        return arena.get(ArenaSettings.class).getSettings();
+      }
+    }
+    return null;
+  }
+
+  private static int getInt(Ini ini, String setting, int defaultValue) {
+    String value = ini.get(DOOR_SECTION, setting);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      log.warn("Invalid " + DOOR_SECTION + ":" + setting + " value:" + value);
+      return defaultValue;
+    }
+  }
+
+  /** The doors that share a delay and mode, and so open and close together. */
+  private static class DoorGroup {
+    final long key;
+    final int delay;
+    final int mode;
+    final List<DoorRef> doors = new ArrayList<>();
+    int state;
+
+    DoorGroup(long key, int delay, int mode) {
+      this.key = key;
+      this.delay = delay;
+      this.mode = mode;
+    }
+
+    void roll(Random random) {
+      if (mode == MODE_RANDOM) {
+        state = random.nextInt(256);
+      } else if (mode == MODE_WEIGHTED) {
+        state = 0;
+        for (int door = 0; door < 8; door++) {
+          if (random.nextDouble() < WEIGHTS[door & 3]) {
+            state |= 1 << door;
+          }
+        }
+      } else {
+        state = mode & 0xff;
+      }
+    }
+
+    boolean isClosed(int door) {
+      return (state & (1 << door)) != 0;
+    }
+  }
+
+  /** A new door and when it was added, while it waits for its arena settings. */
+  private static class PendingDoor {
+    final Door door;
+    final Vec3d location;
+    final long added;
+
+    PendingDoor(Door door, Vec3d location, long added) {
+      this.door = door;
+      this.location = location;
+      this.added = added;
+    }
+  }
+
+  /** A door and the state it was last put in. */
+  private static class DoorRef {
+    final EntityId id;
+    final Vec3d location;
+    final int door;
+    final DoorGroup group;
+    boolean closed;
+
+    DoorRef(EntityId id, Vec3d location, int door, DoorGroup group) {
+      this.id = id;
+      this.location = location;
+      this.door = door;
+      this.group = group;
+    }
   }
 }
@@ -38,21 +38,41 @@ import infinity.es.HealthChange;
 import infinity.es.ship.Energy;
 import infinity.es.ship.EnergyMax;
 import infinity.es.ship.Recharge;
-import java.util.HashMap;
-import java.util.Map;
+import infinity.sim.DeltaLedger;
+import infinity.sim.TimingWheel;
+import java.util.ArrayList;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Watches entities with hitpoints and entities with health changes and applies them to the
- * hitpoints of an entity, possibly causing death.
+ * Keeps track of the energy of everything that has some.
  *
- * @author Paul Speed
+ * <p>Damage, costs and recharges are not entities. They are summed per entity in a
+ * {@link DeltaLedger} as they come in, and each update writes one Energy component for every entity
+ * whose energy changed. Changes that start later wait on a timing wheel in SubSpace ticks
+ * (hundredths of a second) until their start time, and go into the ledger from there.
+ *
+ * <p>Buff and HealthChange entities made elsewhere are still picked up: they are moved into the
+ * ledger or the wheel and removed as soon as they are seen.
+ *
+ * <p>Recharging costs nothing per frame. The Energy component carries the recharge rate and the
+ * maximum of its Recharge and EnergyMax components, so the current energy follows from the time,
+ * see {@link Energy#getHealth(long)}. Energy is only written when it is changed or one of those two
+ * components is, and clients work out the recharge themselves the same way.
  */
 public class EnergySystem extends AbstractGameSystem {
 
   static Logger log = LoggerFactory.getLogger(EnergySystem.class);
-  private final Map<EntityId, Integer> health = new HashMap<>();
+
+  private static final long NANOS_PER_TICK = 10000000L;
+
+  private final DeltaLedger ledger = new DeltaLedger();
+  private final TimingWheel<DelayedChange> delayed = new TimingWheel<>(1024);
+  private final List<DelayedChange> due = new ArrayList<>();
+  private long currentTick = Long.MIN_VALUE;
+  private long now;
+
   private EntityData ed;
   private EntitySet living;
   private EntitySet changes;
@@ -89,6 +109,8 @@ public class EnergySystem extends AbstractGameSystem {
 
     maxLiving.release();
     maxLiving = null;
+
+    ledger.clear();
   }
 
   @Override
@@ -99,79 +121,60 @@ public class EnergySystem extends AbstractGameSystem {
     // Make sure our entity views are up-to-date as of
     // now.
     living.applyChanges();
-    maxLiving.applyChanges();
-    changes.applyChanges();
-
-    // Collect all of the relevant health updates
-    for (final Entity e : changes) {
-      final Buff b = e.get(Buff.class);
+    now = time.getTime();
+    currentTick = now / NANOS_PER_TICK;
 
-      // Does the buff apply yet
-      if (b.getStartTime() > time.getTime()) {
-        continue;
-      }
+    // A new recharge rate or maximum is an energy change of its own
+    if (maxLiving.applyChanges()) {
+      touch(maxLiving);
+    }
+    if (recharges.applyChanges()) {
+      touch(recharges);
+    }
 
-      final HealthChange change = e.get(HealthChange.class);
-      Integer hp = health.get(b.getTarget());
-      if (hp == null) {
-        hp = Integer.valueOf(change.getDelta());
-      } else {
-        hp = Integer.valueOf(hp.intValue() + change.getDelta());
+    if (changes.applyChanges()) {
+      for (final Entity e : changes.getAddedEntities()) {
+        final Buff b = e.get(Buff.class);
+        damage(b.getTarget(), e.get(HealthChange.class).getDelta(), b.getStartTime());
+        ed.removeEntity(e.getId());
       }
-      health.put(b.getTarget(), hp);
-
-      // Delete the buff entity
-      ed.removeEntity(e.getId());
     }
 
-    // Perform recharges
-    recharges.applyChanges();
-    for (final Entity e : recharges) {
-
-      if (maxLiving.containsId(e.getId())) {
-        if (getHealth(e.getId()) < getMaxHealth(e.getId())) {
-          final double tpf = time.getTpf();
-          final Recharge recharge = e.get(Recharge.class);
-          final int charge = Math.toIntExact(Math.round(tpf * recharge.getRechargePerSecond()));
-          damage(e.getId(), charge);
-        }
-      } else {
-        final double tpf = time.getTpf();
-        final Recharge recharge = e.get(Recharge.class);
-        final int charge = Math.toIntExact(Math.round(tpf * recharge.getRechargePerSecond()));
-        damage(e.getId(), charge);
-      }
+    // Bring in the delayed changes that have started
+    delayed.advance(currentTick, due);
+    for (final DelayedChange change : due) {
+      ledger.add(change.target, change.delta);
     }
+    due.clear();
 
-    // Now apply all accumulated adjustments
-    for (final Map.Entry<EntityId, Integer> entry : health.entrySet()) {
-      final Entity target = living.getEntity(entry.getKey());
+    // Now apply all accumulated adjustments, one write per entity
+    for (int i = 0; i < ledger.size(); i++) {
+      final EntityId id = new EntityId(ledger.getId(i));
+      final Entity target = living.getEntity(id);
 
+      final int delta = ledger.getDelta(i);
       if (target == null) {
-        log.warn("No target for id: {}", entry.getKey());
+        if (delta != 0) {
+          log.warn("No target for id: {}", id);
+        }
         continue;
       }
 
-      Energy hp = target.get(Energy.class);
-
-      // If we dont have a max hitpoint, just set new hp
-      if (!maxLiving.containsId(target.getId())) {
-        hp = hp.newAdjusted(entry.getValue().intValue());
-      } else {
-        // If we do have a maximum
-        final EnergyMax maxHp = maxLiving.getEntity(target.getId()).get(EnergyMax.class);
-        // Check if we go above max hp
-        if (entry.getValue().intValue() <= maxHp.getMaxHealth()) {
-          hp = hp.newAdjusted(entry.getValue().intValue());
-        } else {
-          // Otherwise, set new hp
-          hp = hp.newAdjusted(maxHp.getMaxHealth());
-        }
+      final Energy hp = target.get(Energy.class);
+      final Entity recharge = recharges.getEntity(id);
+      final double rate =
+          recharge == null ? 0 : recharge.get(Recharge.class).getRechargePerSecond();
+      final Entity max = maxLiving.getEntity(id);
+      final int maxHealth =
+          max == null ? Integer.MAX_VALUE : max.get(EnergyMax.class).getMaxHealth();
+      if (delta == 0 && rate == hp.getRechargePerSecond() && maxHealth == hp.getMaxHealth()) {
+        continue;
       }
 
-      target.set(hp);
+      final Energy next = hp.newAdjusted(now, delta, rate, maxHealth);
+      target.set(next);
 
-      if (hp.getHealth() <= 0) {
+      if (next.getHealth() <= 0) {
         log.info("Entity " + target.getId() + " died");
         // don't set death if it is already dead.
         if (ed.getComponent(target.getId(), Dead.class) == null) {
@@ -180,8 +183,20 @@ public class EnergySystem extends AbstractGameSystem {
       }
     }
 
-    // Clear our health book-keeping map.
-    health.clear();
+    // Clear our health book-keeping.
+    ledger.clear();
+  }
+
+  private void touch(final EntitySet set) {
+    for (final Entity e : set.getAddedEntities()) {
+      ledger.add(e.getId().getId(), 0);
+    }
+    for (final Entity e : set.getChangedEntities()) {
+      ledger.add(e.getId().getId(), 0);
+    }
+    for (final Entity e : set.getRemovedEntities()) {
+      ledger.add(e.getId().getId(), 0);
+    }
   }
 
   /**
@@ -195,13 +210,14 @@ public class EnergySystem extends AbstractGameSystem {
   }
 
   /**
-   * Returns the current health of the entity.
+   * Returns the current health of the entity, including what it recharged since it was last
+   * written. Changes made since the last update are not in it yet.
    *
    * @param entityId the entityid to check
    * @return the health of the entity
    */
   public int getHealth(final EntityId entityId) {
-    return living.getEntity(entityId).get(Energy.class).getHealth();
+    return living.getEntity(entityId).get(Energy.class).getHealth(now);
   }
 
   /**
@@ -215,15 +231,32 @@ public class EnergySystem extends AbstractGameSystem {
   }
 
   /**
-   * Creates a health change for the specified entity. The health change will be applied at the next
+   * Adds a health change for the specified entity. The health change will be applied at the next
    * update.
    *
    * @param entityId the entity to create a health change for
    * @param deltaHitPoints the change in hitpoints (can be both positive an negative)
    */
   public void damage(final EntityId entityId, final int deltaHitPoints) {
-    final EntityId healthChange = ed.createEntity();
-    ed.setComponents(healthChange, new Buff(entityId, 0), new HealthChange(deltaHitPoints));
+    ledger.add(entityId.getId(), deltaHitPoints);
+  }
+
+  /**
+   * Adds a health change for the specified entity that starts at a later time. It is applied at the
+   * first update at or after the start time.
+   *
+   * @param entityId the entity to create a health change for
+   * @param deltaHitPoints the change in hitpoints (can be both positive an negative)
+   * @param startTime when the change starts, in sim time nanoseconds
+   */
+  public void damage(final EntityId entityId, final int deltaHitPoints, final long startTime) {
+    // Rounded up so that a change never starts early
+    final long startTick = (startTime + NANOS_PER_TICK - 1) / NANOS_PER_TICK;
+    if (startTick <= currentTick) {
+      damage(entityId, deltaHitPoints);
+    } else {
+      delayed.schedule(new DelayedChange(entityId.getId(), deltaHitPoints), startTick);
+    }
   }
 
   /**
@@ -234,11 +267,22 @@ public class EnergySystem extends AbstractGameSystem {
    * @return the new health of the entity
    */
   public int setHealthToMax(final EntityId entityId) {
-    final Entity e = ed.getEntity(entityId);
+    final Entity e = ed.getEntity(entityId, Energy.class, EnergyMax.class);
     final Energy hp = e.get(Energy.class);
-    final EnergyMax maxHp = e.get(EnergyMax.class);
-    final Energy newHp = hp.newAdjusted(maxHp.getMaxHealth());
+    final int maxHealth = e.get(EnergyMax.class).getMaxHealth();
+    final Energy newHp = new Energy(maxHealth, now, hp.getRechargePerSecond(), maxHealth);
     e.set(newHp);
     return newHp.getHealth();
   }
+
+  /** A health change waiting for its start time. */
+  private static class DelayedChange {
+    final long target;
+    final int delta;
+
+    DelayedChange(long target, int delta) {
+      this.target = target;
+      this.delta = delta;
+    }
+  }
 }
@@ -16,6 +16,7 @@ import infinity.es.Flag;
 import infinity.es.Frequency;
 import infinity.server.chat.InfinityChatHostedService;
 import infinity.sim.AccessLevel;
+import infinity.sim.CollisionFilters;
 import infinity.sim.CommandTriFunction;
 import infinity.sim.GameSounds;
 import java.util.regex.Matcher;
@@ -53,7 +54,11 @@ public class FrequencySystem extends AbstractGameSystem
         new CommandTriFunction<>(AccessLevel.PLAYER_LEVEL, this::changeFrequency));
 
     // Register this as a contact listener with the ContactSystem
-    getSystem(ContactSystem.class, true).addListener(this);
+    getSystem(ContactSystem.class, true)
+        .addListener(
+            this,
+            CollisionFilters.COLLISION_CATEGORY_SENSOR_FLAGS,
+            CollisionFilters.COLLISION_CATEGORY_DYNAMICS_PLAYERS);
   }
 
   /**
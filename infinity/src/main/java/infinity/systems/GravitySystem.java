@@ -1,49 +1,84 @@
 package infinity.systems;
 
-import com.simsilica.bpos.BodyPosition;
+import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
-import com.simsilica.ext.mphys.SpawnPosition;
+import com.simsilica.ext.mphys.MPhysSystem;
 import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.AbstractBody;
 import com.simsilica.mphys.Contact;
 import com.simsilica.mphys.ContactListener;
+import com.simsilica.mphys.PhysicsListener;
 import com.simsilica.mphys.PhysicsSpace;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.mphys.StaticBody;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 import infinity.es.GravityWell;
-import java.util.HashSet;
+import infinity.sim.CollisionFilters;
+import infinity.sim.GravityField;
+import infinity.sim.util.InfinityRunTimeException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A system to handle gravity wells.
  *
+ * <p>Every physics frame the wells, wormholes and gravity bombs alike, are put in a {@link
+ * GravityField} together with the rigid bodies that were active in the frame before, and every
+ * body within the distance of a well is pulled towards it, or pushed away. Positions come straight
+ * from the physics bodies, nothing is looked up in the EntityData per body and well.
+ *
  * @author AFahrenholz
  */
-public class GravitySystem extends AbstractGameSystem implements ContactListener {
-
-  private SimTime time;
+public class GravitySystem extends AbstractGameSystem
+    implements ContactListener<EntityId, MBlockShape>, PhysicsListener<EntityId, MBlockShape> {
 
   private EntityData ed;
   private EntitySet gravityWells;
-  // A set to map from the pulling gravity wells to a pushing gravity well
   private ContactSystem contactSystem;
+  private MPhysSystem<MBlockShape> physics;
+
+  private final GravityField field = new GravityField();
+  // The active bodies of the last frame, the field index of a body is its index in this list
+  private final List<RigidBody<EntityId, MBlockShape>> bodies = new ArrayList<>();
+  private final Vec3d force = new Vec3d();
 
   protected void initialize() {
     this.ed = getSystem(EntityData.class);
 
+    @SuppressWarnings("unchecked")
+    final MPhysSystem<MBlockShape> mphys = getSystem(MPhysSystem.class);
+    this.physics = mphys;
+    if (physics == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the MPhysSystem system.");
+    }
+    this.physics.addPhysicsListener(this);
+
     this.contactSystem = getSystem(ContactSystem.class);
 
-    this.contactSystem.addListener(this);
+    // Wormholes, and gravity bombs once they turn into gravity wells
+    this.contactSystem.addListener(
+        this,
+        CollisionFilters.COLLISION_CATEGORY_WORMHOLES
+            | CollisionFilters.COLLISION_CATEGORY_STATIC_GRAVITY
+            | CollisionFilters.COLLISION_CATEGORY_DYNAMICS_PROJECTILES
+            | CollisionFilters.COLLISION_CATEGORY_NONE,
+        CollisionFilters.COLLISION_CATEGORY_ALL);
 
-    gravityWells = ed.getEntities(GravityWell.class, BodyPosition.class);
+    gravityWells = ed.getEntities(GravityWell.class);
   }
 
   protected void terminate() {
+    physics.removePhysicsListener(this);
+    contactSystem.removeListener(this);
+
     gravityWells.release();
     gravityWells = null;
+    bodies.clear();
   }
 
   @Override
@@ -58,59 +93,77 @@ public class GravitySystem extends AbstractGameSystem implements ContactListener
 
   @Override
   public void update(SimTime tpf) {
-    time = tpf;
+    // The field is solved in startFrame()
   }
 
   @Override
-  public void newContact(Contact contact) {
+  public void startFrame(final long frameTime, final double stepSize) {
+    gravityWells.applyChanges();
 
-    RigidBody body1 = contact.body1;
-    AbstractBody body2 = contact.body2;
+    if (!gravityWells.isEmpty() && !bodies.isEmpty()) {
+      field.clear();
+      for (RigidBody<EntityId, MBlockShape> body : bodies) {
+        field.addBody(body.position.x, body.position.z);
+      }
+      addWells(physics.getPhysicsSpace());
+
+      field.solve(stepSize);
+
+      for (int i = 0; i < bodies.size(); i++) {
+        double x = field.getForceX(i);
+        double z = field.getForceZ(i);
+        if (x != 0 || z != 0) {
+          // Zero out the y-force
+          force.set(x, 0, z);
+          bodies.get(i).addForce(force);
+        }
+      }
+    }
 
-    // Check if body2 is null (if so we are colliding a body with the world and dont want to do
-    // anything here)
-    if (body2 instanceof StaticBody) {
-      EntityId one = (EntityId) body1.id;
-      EntityId two = (EntityId) body2.id;
+    // update() fills the list again for the next frame
+    bodies.clear();
+  }
 
-      // get GravityWell from body2
-      GravityWell gw = ed.getComponent(two, GravityWell.class);
+  @Override
+  public void endFrame() {
+    // Nothing to do
+  }
 
-      // Check if GravityWell is null, if so, this isn't a contact for us to handle
-      if (gw == null) {
-        return;
-      }
+  @Override
+  public void update(final RigidBody<EntityId, MBlockShape> body) {
+    if (!body.isSleepy()) {
+      bodies.add(body);
+    }
+  }
 
-      //For the ship we want the latest positiom
-      Vec3d bodyLocation = ed.getComponent(one, BodyPosition.class).getLastLocation();
-      //For the wormhole we want the spawn position because it is a static object
-      Vec3d wormholeLocation = ed.getComponent(two, SpawnPosition.class).getLocation();
-
-      Vec3d difference = wormholeLocation.subtract(bodyLocation);
-      Vec3d gravity = difference.normalize().multLocal(time.getTpf());
-      double distance = difference.length();
-
-      double wormholeGravity = gw.getForce();
-      double gravityDistance = gw.getDistance();
-
-      switch (gw.getGravityType()) {
-        // Note 03-02-2023: I dont understand this math right now
-        case GravityWell.PULL:
-          gravity.multLocal(Math.abs(wormholeGravity));
-          break;
-        case GravityWell.PUSH:
-          gravity.multLocal(1 * Math.abs(wormholeGravity));
-          break;
-        default:
-          break;
+  private void addWells(PhysicsSpace<EntityId, MBlockShape> space) {
+    for (Entity e : gravityWells) {
+      // Gravity bombs are rigid bodies, wormholes are static
+      AbstractBody<EntityId, MBlockShape> body = space.getBinIndex().getRigidBody(e.getId());
+      if (body == null) {
+        body = space.getBinIndex().getStaticBody(e.getId());
       }
+      if (body == null) {
+        // Not in the physics space (yet)
+        continue;
+      }
+      GravityWell gw = e.get(GravityWell.class);
+      double strength =
+          GravityWell.PUSH.equals(gw.getGravityType()) ? -gw.getForce() : gw.getForce();
+      field.addWell(body.position.x, body.position.z, gw.getDistance(), strength);
+    }
+  }
 
-      gravity.multLocal(gravityDistance / distance);
-      //Zero out the y-force
-      gravity.y = 0;
-
-      // Apply the gravity to the body
-      body1.addForce(gravity);
+  /**
+   * The pull itself comes from the field, contacts with a static gravity well are only disabled so
+   * bodies pass through it.
+   *
+   * @param contact the contact
+   */
+  @Override
+  public void newContact(Contact contact) {
+    AbstractBody<EntityId, MBlockShape> body2 = contact.body2;
+    if (body2 instanceof StaticBody && gravityWells.containsId(body2.id)) {
       contact.disable();
     }
   }
@@ -27,32 +27,44 @@
 package infinity.systems;
 
 import com.github.czyzby.noise4j.map.Grid;
-import com.github.czyzby.noise4j.map.generator.room.RoomType.DefaultRoomType;
-import com.github.czyzby.noise4j.map.generator.room.dungeon.DungeonGenerator;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.ext.mphys.MPhysSystem;
 import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.MaskUtils;
 import com.simsilica.mblock.phys.MBlockShape;
 import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mworld.LeafId;
 import com.simsilica.mworld.World;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
 import infinity.es.GravityWell;
 import infinity.es.TileTypes;
-import infinity.map.LevelFile;
 import infinity.map.LevelLoader;
+import infinity.map.LevelParser;
+import infinity.server.ArenaCache;
 import infinity.server.AssetLoaderService;
+import infinity.server.EmptyLeafDb;
 import infinity.server.chat.InfinityChatHostedService;
 import infinity.sim.GameEntities;
+import infinity.sim.InfinityDefaultLeafWorld;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,10 +90,24 @@ public class MapSystem extends AbstractGameSystem {
   private final String mapDirectory = "maps";
   private final LinkedHashSet<Vec3d> sessionTileRemovals = new LinkedHashSet<>();
   private final LinkedHashSet<Vec3d> sessionTileCreations = new LinkedHashSet<>();
-  // Map that holds all block coordinates for a given map:
-  private final HashMap<String, HashSet<Vec3d>> activeMaps = new HashMap<>();
-  // Map that holds the offset coordinates of each map:
-  private final LinkedHashMap<String, Vec3d> mapCoordinates = new LinkedHashMap<>();
+  private static final double DEFAULT_COMMIT_BUDGET = 4;
+  // Prize spawners placed by generated arenas
+  private static final double PRIZE_SPAWN_INTERVAL = 500;
+  private static final double PRIZE_SPAWN_RADIUS = 50;
+  // Map that holds the cells each loaded map occupies, only touched from the simulation thread:
+  private final HashMap<String, ArenaFootprint> activeMaps = new HashMap<>();
+  // The same loaded maps keyed by slotKey(), for finding the arena of a world position. Also only
+  // touched from the simulation thread.
+  private final HashMap<Long, ArenaFootprint> activeSlots = new HashMap<>();
+  // Map that holds the offset coordinates of each map, the slots are reserved when a load is
+  // requested so this is touched from the threads handling commands:
+  private final Map<String, Vec3d> mapCoordinates = new ConcurrentHashMap<>();
+  // The arena slots in use, keyed by slotKey(), guarded by mapCoordinates
+  private final HashMap<Long, String> arenaSlots = new HashMap<>();
+  // Loads and unloads waiting to be committed to the world, in the order they were requested
+  private final ConcurrentLinkedQueue<MapJob> mapJobs = new ConcurrentLinkedQueue<>();
+  private ExecutorService mapCompiler;
+  private long commitBudget;
   private final boolean mapCreated = false;
   private InfinityChatHostedService chat;
   private Vec3d currentMapLoc = new Vec3d(-1, 0, -1);
@@ -91,14 +117,37 @@ public class MapSystem extends AbstractGameSystem {
   private SimTime time;
   // private EntitySet tileTypes;
   private AssetLoaderService assetLoader;
+  private ArenaCache arenaCache;
+  private EmptyLeafDb generatedTerrain;
   private LinkedList<MapTileCallable> mapTileQueue;
   private World world;
-  private int y;
   private double accumulatedTime;
   // private final boolean logged = false;
   private Direction direction = Direction.S;
 
-  public MapSystem() {}
+  public MapSystem() {
+    this(DEFAULT_COMMIT_BUDGET);
+  }
+
+  /**
+   * Creates the map system.
+   *
+   * @param commitBudget the time in milliseconds each frame may spend committing map changes to
+   *     the world
+   */
+  public MapSystem(double commitBudget) {
+    setCommitBudget(commitBudget);
+  }
+
+  /**
+   * Sets the time each frame may spend committing loaded maps to the world. Larger values load maps
+   * faster at the cost of longer frames while a map streams in.
+   *
+   * @param commitBudget the budget in milliseconds
+   */
+  public void setCommitBudget(double commitBudget) {
+    this.commitBudget = (long) (commitBudget * 1000000);
+  }
 
   protected MPhysSystem<MBlockShape> getPhysicsSystem() {
     final MPhysSystem<?> s = getSystem(MPhysSystem.class);
@@ -129,6 +178,10 @@ public class MapSystem extends AbstractGameSystem {
     }
     this.chat = getSystem(InfinityChatHostedService.class);
     this.assetLoader = getSystem(AssetLoaderService.class);
+    // Optional, without it every map load compiles the level again
+    this.arenaCache = getSystem(ArenaCache.class);
+    // Only registered when the world is generated terrain, see GameServer
+    this.generatedTerrain = getSystem(EmptyLeafDb.class);
 
     physicsSpace = physics.getPhysicsSpace();
     assetLoader.registerLoader(LevelLoader.class, "lvl", "lvz");
@@ -143,12 +196,17 @@ public class MapSystem extends AbstractGameSystem {
     final short s2 = 0;
     ed.setComponent(e2, TileTypes.wangblob("empty", s2, ed));
 
-    /*
-     * Grid dungeon = this.createDungeonGrid(); dungeon =
-     * this.expandCorridors(dungeon); this.createMapTilesFromDungeonGrid(dungeon,
-     * -50f, -50f);
-     */
     mapTileQueue = new LinkedList<>();
+
+    // Parsing and compiling happens in the background, only the results are committed to the world
+    // from update()
+    mapCompiler =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread t = new Thread(r, "MapCompiler");
+              t.setDaemon(true);
+              return t;
+            });
   }
 
   /**
@@ -168,14 +226,63 @@ public class MapSystem extends AbstractGameSystem {
     return new Vec3d(centerOfArenaX, 1, centerOfArenaZ);
   }
 
+  private static long slotKey(Vec3d slot) {
+    return slotKey((int) slot.x, (int) slot.z);
+  }
+
+  private static long slotKey(int x, int z) {
+    return ((long) x << 32) | (z & 0xffffffffL);
+  }
+
+  /** Returns the slot key of the arena slot a world position is in. */
+  private static long worldSlotKey(double x, double z) {
+    return slotKey((int) Math.floor(x / MAP_SIZE), (int) Math.floor(z / MAP_SIZE));
+  }
+
+  private boolean isSlotTaken(Vec3d slot) {
+    return arenaSlots.containsKey(slotKey(slot));
+  }
+
+  /**
+   * Frees the arena slot of a map.
+   *
+   * @param mapName the map
+   * @return true if the map had a slot
+   */
+  private boolean releaseSlot(String mapName) {
+    synchronized (mapCoordinates) {
+      Vec3d slot = mapCoordinates.remove(mapName);
+      if (slot == null) {
+        return false;
+      }
+      arenaSlots.remove(slotKey(slot));
+      return true;
+    }
+  }
+
+  /**
+   * Frees an arena slot, but only if it is still the one reserved for the map. A failed load must
+   * not free a newer reservation made for the same map after an unload.
+   *
+   * @param mapName the map
+   * @param slot the slot the map was given
+   */
+  private void releaseSlot(String mapName, Vec3d slot) {
+    synchronized (mapCoordinates) {
+      if (mapCoordinates.remove(mapName, slot)) {
+        arenaSlots.remove(slotKey(slot), mapName);
+      }
+    }
+  }
+
   private Vec3d calculateNextOffset() {
     Direction testDirection = direction.next();
     Vec3d testMapLoc = testDirection.advance(currentMapLoc);
     // First time we will land here:
-    if (!mapCoordinates.containsValue(currentMapLoc)) {
+    if (!isSlotTaken(currentMapLoc)) {
       log.info("Currentmap location is:" + currentMapLoc + ", current direction is:" + direction);
       return currentMapLoc;
-    } else if (!mapCoordinates.containsValue(testMapLoc)) {
+    } else if (!isSlotTaken(testMapLoc)) {
 
       // Test if we should go new direction
       currentMapLoc = testMapLoc;
@@ -191,43 +298,133 @@ public class MapSystem extends AbstractGameSystem {
   }
 
   /**
-   * Loads a given lvz-map.
+   * Loads a given lvz-map. The map is compiled in the background and then committed to the world a
+   * bit at a time from update(), so this returns right away.
    *
    * @param playerEntityId the player requesting the load
    * @param avatarEntityId the avatar of the player requesting the load
    * @param mapName the lvz-map to load
-   * @return the lvz-map wrapped in a LevelFile
+   * @param listener notified of the progress on the simulation thread, may be null
+   * @return the world position of the minimum corner of the map, or null if the load could not be
+   *     started
    */
-  public boolean loadMap(EntityId playerEntityId, EntityId avatarEntityId, final String mapName) {
+  public Vec3d loadMap(
+      EntityId playerEntityId,
+      EntityId avatarEntityId,
+      final String mapName,
+      final MapLoadListener listener) {
     log.info("Loading map: " + mapName);
     if (!(mapName.endsWith(".lvl") || mapName.endsWith(".lvz"))) {
-      return false;
+      return null;
     }
     String fileName = mapDirectory + "/" + mapName;
-    LevelFile res = (LevelFile) assetLoader.loadAsset(fileName);
-    // The offset we get will be local based map location (0,0), (0,1), (1,0) etc. so we multiply by
-    // mapsize
-    Vec3d offset = calculateNextOffset();
-    Vec3d worldOffset = offset.mult(MAP_SIZE);
-    // FIXME add the space between maps of 1 cell size
-    log.info("Loading map at local coords: " + currentMapLoc + " in world:" + offset);
+    // Only the raw bytes are needed, they are hashed to find the compiled arena in the cache. A map
+    // that is a file on disk is memory-mapped by the compile job instead of being read here.
+    final Path levelFile = assetLoader.findAssetFile(fileName);
+    final byte[] levelData = levelFile == null ? assetLoader.readAsset(fileName) : null;
+    if (levelFile == null && levelData == null) {
+      log.warn("Could not find map: " + fileName);
+      return null;
+    }
 
-    // HashSet<Vec3d> coordinates = this.createBlocksFromLegacyMap(res,offset);
+    Vec3d slot = reserveSlot(mapName);
+    if (slot == null) {
+      return null;
+    }
 
-    // Try to do this asynchronosly (loading a map takes about 3 seconds depending on density of
-    // map)
-    CompletableFuture<HashSet<Vec3d>> completableFuture =
-        CompletableFuture.supplyAsync(() -> this.createBlocksFromLegacyMap(res, worldOffset));
-    // CompletableFuture<Void> future =
-    completableFuture.thenAccept(s -> activeMaps.put(mapName, s));
-    //
+    return queueLoad(
+        mapName,
+        slot,
+        () ->
+            compileMap(
+                mapName,
+                levelFile != null ? LevelParser.map(levelFile) : ByteBuffer.wrap(levelData)),
+        listener);
+  }
 
-    res.setMapName(mapName);
-    log.info("Done loading map: " + mapName);
-    // activeMaps.put(mapName, coordinates);
-    mapCoordinates.put(mapName, offset);
+  /**
+   * Generates an arena from a seed and loads it like a map, see {@link ArenaGenerator}. The map
+   * name is {@link ArenaGenerator#getName()}, which is also what unloads it again.
+   *
+   * @param playerEntityId the player requesting the load
+   * @param avatarEntityId the avatar of the player requesting the load
+   * @param generator the generator of the arena
+   * @param listener notified of the progress on the simulation thread, may be null
+   * @return the world position of the minimum corner of the map, or null if the load could not be
+   *     started
+   */
+  public Vec3d generateMap(
+      EntityId playerEntityId,
+      EntityId avatarEntityId,
+      final ArenaGenerator generator,
+      final MapLoadListener listener) {
+    final String mapName = generator.getName();
+    log.info("Generating map: " + mapName);
+    Vec3d slot = reserveSlot(mapName);
+    if (slot == null) {
+      return null;
+    }
 
-    return true;
+    return queueLoad(mapName, slot, () -> generateArena(generator), listener);
+  }
+
+  /**
+   * Compiles a map in the background and queues its commit into its reserved slot.
+   *
+   * @return the world position of the minimum corner of the slot
+   */
+  private Vec3d queueLoad(
+      String mapName, Vec3d slot, Callable<CompiledArena> compiler, MapLoadListener listener) {
+    // The bounds are handed back from here, the slot may already be gone again by the time the
+    // caller could look it up
+    Vec3d arenaOffset = slot.mult(MAP_SIZE);
+    Future<CompiledArena> compiled =
+        mapCompiler.submit(() -> preloadLeaves(compiler.call(), arenaOffset));
+    mapJobs.add(new ArenaLoad(mapName, slot, arenaOffset, compiled, listener));
+    return arenaOffset;
+  }
+
+  /**
+   * Generates the leaves of an arena ahead of its commit when the world is generated terrain, so
+   * that the commit on the simulation thread only has to look them up.
+   *
+   * @return the arena
+   */
+  private CompiledArena preloadLeaves(CompiledArena arena, Vec3d arenaOffset) {
+    if (generatedTerrain == null) {
+      return arena;
+    }
+    ArenaFootprint footprint = new ArenaFootprint(arena, arenaOffset);
+    List<LeafId> leafIds = new ArrayList<>(footprint.getLeafCount());
+    for (int i = 0; i < footprint.getLeafCount(); i++) {
+      leafIds.add(LeafId.fromWorld(footprint.getLeafWorld(i)));
+    }
+    generatedTerrain.preload(leafIds);
+    return arena;
+  }
+
+  /**
+   * Takes the next free arena slot for a map.
+   *
+   * @param mapName the map
+   * @return the slot, or null if the map is already loaded
+   */
+  private Vec3d reserveSlot(final String mapName) {
+    // The offset we get will be local based map location (0,0), (0,1), (1,0) etc. so we multiply by
+    // mapsize
+    Vec3d offset;
+    synchronized (mapCoordinates) {
+      if (mapCoordinates.containsKey(mapName)) {
+        log.warn("Map is already loaded: " + mapName);
+        return null;
+      }
+      offset = calculateNextOffset();
+      mapCoordinates.put(mapName, offset);
+      arenaSlots.put(slotKey(offset), mapName);
+    }
+    // FIXME add the space between maps of 1 cell size
+    log.info("Loading map at local coords: " + currentMapLoc + " in world:" + offset);
+    return offset;
   }
 
   /**
@@ -237,7 +434,8 @@ public class MapSystem extends AbstractGameSystem {
    * @return the maximum bounds of the map
    */
   public Vec3d getMapBoundsMax(String arenaId) {
-    Vec3d mapOffset = mapCoordinates.get(arenaId);
+    // The coordinates are slots, see loadMap()
+    Vec3d mapOffset = mapCoordinates.get(arenaId).mult(MAP_SIZE);
     Vec3d mapBoundsMax = mapOffset.add(MAP_SIZE, 0, MAP_SIZE);
     return mapBoundsMax;
   }
@@ -249,10 +447,64 @@ public class MapSystem extends AbstractGameSystem {
    * @return the minimum bounds of the map
    */
   public Vec3d getMapBoundsMin(String map) {
-    Vec3d mapOffset = mapCoordinates.get(map);
+    Vec3d mapOffset = mapCoordinates.get(map).mult(MAP_SIZE);
     return mapOffset;
   }
 
+  /**
+   * Returns the region flags at a world position, see {@link RegionIndex}. Only maps that have been
+   * committed to the world are looked at. Must be called from the simulation thread.
+   *
+   * @param x the world x-coordinate
+   * @param z the world z-coordinate
+   * @return the RegionIndex flags, 0 outside of any loaded map
+   */
+  public int regionFlagsAt(double x, double z) {
+    return regionFlagsAt(activeSlots.get(worldSlotKey(x, z)), x, z);
+  }
+
+  /**
+   * Returns the region flags at a world position in a given map. Must be called from the
+   * simulation thread.
+   *
+   * @param mapName the map
+   * @param x the world x-coordinate
+   * @param z the world z-coordinate
+   * @return the RegionIndex flags, 0 if the map is not loaded or the position is outside of it
+   */
+  public int regionFlagsAt(String mapName, double x, double z) {
+    return regionFlagsAt(activeMaps.get(mapName), x, z);
+  }
+
+  private static int regionFlagsAt(ArenaFootprint footprint, double x, double z) {
+    if (footprint == null) {
+      return 0;
+    }
+    Vec3d offset = footprint.getOffset();
+    return footprint
+        .getRegions()
+        .getFlags((int) Math.floor(x - offset.x), (int) Math.floor(z - offset.z));
+  }
+
+  /**
+   * Returns the named regions covering a world position. Must be called from the simulation
+   * thread.
+   *
+   * @param x the world x-coordinate
+   * @param z the world z-coordinate
+   * @return the regions, empty outside of any region
+   */
+  public List<ArenaRegion> regionsAt(double x, double z) {
+    ArenaFootprint footprint = activeSlots.get(worldSlotKey(x, z));
+    if (footprint == null) {
+      return Collections.emptyList();
+    }
+    Vec3d offset = footprint.getOffset();
+    return footprint
+        .getRegions()
+        .getRegions((int) Math.floor(x - offset.x), (int) Math.floor(z - offset.z), null);
+  }
+
   /**
    * Unloads a given lvz-map.
    *
@@ -264,299 +516,230 @@ public class MapSystem extends AbstractGameSystem {
   public boolean unloadMap(EntityId playerEntityId, EntityId avatarEntityId, Matcher matcher) {
     String mapName = matcher.group(1);
 
-    if (!activeMaps.containsKey(mapName)) {
+    // Any load that is still in progress is queued before this and will be done first
+    if (!releaseSlot(mapName)) {
       return false;
     }
-    HashSet<Vec3d> coordinates = activeMaps.get(mapName);
-    // Try to do this asynchronosly (loading a map takes about 3 seconds depending on density of
-    // map)
-    CompletableFuture<Boolean> completableFuture =
-        CompletableFuture.supplyAsync(() -> this.removeBlocksFromLegacyMap(coordinates));
-    // CompletableFuture<Void> future =
-    completableFuture.thenAccept(s -> activeMaps.remove(mapName));
-    completableFuture.thenAccept(s -> mapCoordinates.remove(mapName));
+    mapJobs.add(new ArenaUnload(mapName));
 
     return true;
   }
 
-  private boolean removeBlocksFromLegacyMap(HashSet<Vec3d> coordinates) {
-    for (Vec3d location : coordinates) {
-      world.setWorldCell(location, 0);
+  /**
+   * Reads a map and compiles it, or fetches the compiled arena from the cache if this exact map has
+   * been compiled before.
+   *
+   * @param mapName the name of the map, used for logging
+   * @param levelData the raw contents of the level file
+   * @return the compiled arena
+   */
+  private CompiledArena compileMap(final String mapName, final ByteBuffer levelData) {
+    final long start = System.nanoTime();
+    final String key = ArenaCache.key(levelData);
+    CompiledArena arena = arenaCache == null ? null : arenaCache.load(key);
+    if (arena != null) {
+      log.info(
+          "Loaded cached arena for "
+              + mapName
+              + " in "
+              + ((System.nanoTime() - start) / 1000000.0)
+              + " ms");
+      return arena;
     }
-    return true;
+
+    try {
+      LevelParser parser = LevelParser.parse(levelData);
+      arena = CompiledArena.compile(parser.getTiles(), parser.getRegions());
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading map:" + mapName, e);
+    }
+    if (arenaCache != null) {
+      arenaCache.store(key, arena);
+    }
+    log.info(
+        "Compiled "
+            + arena
+            + " for "
+            + mapName
+            + " in "
+            + ((System.nanoTime() - start) / 1000000.0)
+            + " ms");
+    return arena;
   }
 
   /**
-   * Creates map tiles for a legacy map.
+   * Generates an arena, or fetches it from the cache if this seed has been generated before.
    *
-   * @param map the lvz-based-map to create create entities from
-   * @param arenaOffset where to position the map
+   * @param generator the generator of the arena
+   * @return the compiled arena
    */
-  public HashSet<Vec3d> createBlocksFromLegacyMap(final LevelFile map, final Vec3d arenaOffset) {
-    final Set<Integer> tileSet = new HashSet<>();
-
-    HashSet<Vec3d> coordinates = new HashSet<>();
-
-    final short[][] tiles = map.getMap();
-    // int count = 0;
-
-    // for (int xpos = 510; xpos < 516; xpos++) {
-    for (int xpos = 0; xpos < tiles.length; xpos++) {
-      // for (int zpos = 260; zpos >= 250; zpos--) {
-      for (int zpos = 0; zpos < tiles[xpos].length; zpos++) {
-        short s = tiles[1024 - xpos - 1][1024 - zpos - 1];
-        y = 1;
-        if ((xpos == 0 || xpos == 1 || xpos == 2) && (zpos == 0 || zpos == 1 || zpos == 2)) {
-          // s = 0;
-          y = 5;
-        } else if ((xpos == 1021 || xpos == 1022 || xpos == 1023)
-            && (zpos == 0 || zpos == 1 || zpos == 2)) {
-          y = 5;
-        } else if ((xpos == 0 || xpos == 1 || xpos == 2)
-            && (zpos == 1021 || zpos == 1022 || zpos == 1023)) {
-          y = 5;
-        } else if ((xpos == 1021 || xpos == 1022 || xpos == 1023)
-            && (zpos == 1021 || zpos == 1022 || zpos == 1023)) {
-          y = 5;
-        }
-
-        if (s != 0) {
-          // TODO: Check on the short and only create the map tiles, not the extras
-          /*
-          TILE STATUS
-          Row 2, tile 1 - Border tile
-          Row 9, tile 10 - Vertical warpgate (Mostly open)
-          Row 9, tile 11 - Vertical warpgate (Frequently open)
-          Row 9, tile 12 - Vertical warpgate (Frequently closed)
-          Row 9, tile 13 - Vertical warpgate (Mostly closed)
-          Row 9, tile 14 - Horizontal warpgate (Mostly open)
-          Row 9, tile 15 - Horizontal warpgate (Frequently open)
-          Row 9, tile 16 - Horizontal warpgate (Frequently closed)
-          Row 9, tile 17 - Horizontal warpgate (Mostly closed)
-          Row 9, tile 18 - Flag for turf [DONE]
-          Row 9, tile 19 - Safezone
-          Row 10, tile 1 - Soccer goal (leave blank if you want)
-          Row 10, tile 2 - Flyover tile
-          Row 10, tile 3 - Flyover tile
-          Row 10, tile 4 - Flyover tile
-          Row 10, tile 5 - Flyunder (opaque) tile
-          Row 10, tile 6 - Flyunder (opaque) tile
-          Row 10, tile 7 - Flyunder (opaque) tile
-          Row 10, tile 8 - Flyunder (opaque) tile
-          Row 10, tile 9 - Flyunder (opaque) tile
-          Row 10, tile 10 - Flunder (opaque) tile
-          Row 10, tile 11 - Flyunder (opaque) tile
-          Row 10, tile 12 - Flyunder (opaque) tile
-          Row 10, tile 13 - Flyunder (black = transparent) tile
-          Row 10, tile 14 - Flyunder (black = transparent) tile
-          Row 10, tile 15 - Flyunder (black = transparent) tile
-          Row 10, tile 16 - Flyunder (black = transparent) tile
-          Row 10, tile 17 - Flyunder (black = transparent) tile
-          Row 10, tile 18 - Flyunder (black = transparent) tile
-          Row 10, tile 19 - Flyunder (black = transparent) tile
-                     *
-                     */
-          /* VIE tile constants.
-                     *
-          public static final char vieNoTile = 0;
-          public static final char vieNormalStart = 1;
-          public static final char vieBorder = 20; // Borders are not included in the .lvl files
-          public static final char vieNormalEnd = 161; // Tiles up to this point are part of sec.chk
-          public static final char vieVDoorStart = 162;
-          public static final char vieVDoorEnd = 165;
-          public static final char vieHDoorStart = 166;
-          public static final char vieHDoorEnd = 169;
-          public static final char vieTurfFlag = 170; [DONE]
-          public static final char vieSafeZone = 171; // Also included in sec.chk
-          public static final char vieGoalArea = 172;
-          public static final char vieFlyOverStart = 173;
-          public static final char vieFlyOverEnd = 175;
-          public static final char vieFlyUnderStart = 176;
-          public static final char vieFlyUnderEnd = 190;
-          public static final char vieAsteroidStart = 216;
-          public static final char vieAsteroidEnd = 218;
-          public static final char vieStation = 219;
-          public static final char vieWormhole = 220;
-          public static final char ssbTeamBrick = 221; // These are internal
-          public static final char ssbEnemyBrick = 222;
-          public static final char ssbTeamGoal = 223;
-          public static final char ssbEnemyGoal = 224;
-          public static final char ssbTeamFlag = 225;
-          public static final char ssbEnemyFlag = 226;
-          public static final char ssbPrize = 227;
-          public static final char ssbBorder = 228; // Use ssbBorder instead of vieBorder to fill border
-                     *
-          20: Border
-          162: Door Horizontal 1
-          163: Door Horizontal 2
-          164: Door Horizontal 3
-          165: Door Horizontal 4
-          166: Door Vertical 1
-          167: Door Vertical 2
-          168: Door Vertical 3
-          169: Door Vertical 4
-          170: flag [DONE]
-          171: safe
-          172: goal
-          173: fly over 1
-          174: fly over 2
-          175: fly over 3
-          176: fly Under 1
-          177: fly Under 2
-          178: fly Under 3
-          179: fly Under 4
-          180: fly Under 5
-          181: fly Under 6
-          182: fly Under 7
-          183: fly Under 8
-          184: fly Under 9
-          185: fly Under 10
-          186: fly Under 11
-          187: fly Under 12
-          188: fly Under 13
-          189: fly Under 14
-          190: fly Under 15
-          191: invisible, Ships go through, items bounce off, Thors go through if you fire an item while in it, it will float suspended in space.
-          192: invisible
-          193: invisible
-          194: invisible
-          195: invisible
-          196: invisible
-          197: invisible
-          198: invisible
-          199: invisible
-          200: invisible
-          201: invisible
-          202: invisible
-          203: invisible
-          204: invisible
-          205: invisible
-          206: invisible
-          207: invisible
-          216: small Asteroid
-          217: large Asteroid
-          218: small Asteroid 2
-          219: space Station
-          220: wormhole
-          240: invisible
-          241: absorbs weapons, invisible
-          242: warp on contact, not on radar, invisible
-          242: not on radar, invisible
-          243: not on radar, invisible
-          244: not on radar, invisible
-          245: not on radar, invisible
-          246: not on radar, invisible
-          247: not on radar, invisible
-          248: not on radar, invisible
-          249: not on radar, invisible
-          250: not on radar, invisible
-          251: invisible, not on radar, warps ship on contact, items bounce off, thors  dissappear
-          252: animated enemy brick, visible, not on radar. Items go through, ship gets warped after 0-2 seconds
-          253: animated team brick. Visible, invisible on radar. Items and ship go through.
-          254: invisible, not on radar. Impossible to lay bricks while on/near it.
-          255: animated green. visible, not on radar. Items and ship go through.
-                     *
-                     */
-
-          final Vec3d location = new Vec3d(xpos, y, zpos).add(arenaOffset);
-          coordinates.add(location);
-          // TODO: add more special cases here:
-          // TODO: Fetch settings for the given coordinates and create the right gravity
-          if (s == MapTypes.vieBorder) {
-            world.setWorldCell(location, 10);
-          } else if (s == MapTypes.vieTurfFlag) {
-            GameEntities.createTurfStationaryFlag(ed, EntityId.NULL_ID, physicsSpace, time.getTime(), location);
-            continue;
-          } else if (s == MapTypes.vieAsteroidSmall) {
-            GameEntities.createAsteroidSmall(ed, null, physicsSpace, time.getTime(), location, 0);
-            continue;
-          } else if (s == MapTypes.vieAsteroidMedium) {
-            GameEntities.createAsteroidMedium(ed, null, physicsSpace, time.getTime(), location, 0);
-            continue;
-          } else if (s == 218) {
-            GameEntities.createWormhole2(ed, null, physicsSpace, time.getTime(), location);
-            continue;
-          } else if (MapTypes.vieFlyOverStart <= s && s <= MapTypes.vieFlyOverEnd) {
-            location.addLocal(0, -1, 0);
-          } else if (MapTypes.vieFlyUnderStart <= s && s <= MapTypes.vieFlyUnderEnd) {
-            location.addLocal(0, 1, 0);
-          } else if (MapTypes.vieVDoorStart <= s && s <= MapTypes.vieHDoorEnd) {
-            GameEntities.createDoor(ed, null, physicsSpace, time.getTime(), 5000, location);
-            continue;
-          } else if (s == MapTypes.vieWormhole) {
-            GameEntities.createWormhole(
-                ed,
-                null,
-                physicsSpace,
-                time.getTime(),
-                location,
-                5000,
-                GravityWell.PULL,
-                new Vec3d(0, 0, 0),
-                1);
-            continue;
-          }
+  private CompiledArena generateArena(final ArenaGenerator generator) {
+    final long start = System.nanoTime();
+    final String key = generator.getCacheKey();
+    CompiledArena arena = arenaCache == null ? null : arenaCache.load(key);
+    if (arena != null) {
+      log.info(
+          "Loaded cached arena for "
+              + generator.getName()
+              + " in "
+              + ((System.nanoTime() - start) / 1000000.0)
+              + " ms");
+      return arena;
+    }
 
-          // TODO: Translate mapId from a level name (see InfinityBlockGeometryIndex)
-          final int mapId = 20;
-          final int tileId = Short.toUnsignedInt(s);
-          tileSet.add(Integer.valueOf(tileId));
+    arena = generator.generate();
+    if (arenaCache != null) {
+      arenaCache.store(key, arena);
+    }
+    log.info(
+        "Generated "
+            + arena
+            + " for "
+            + generator.getName()
+            + " in "
+            + ((System.nanoTime() - start) / 1000000.0)
+            + " ms");
+    return arena;
+  }
 
-          final int value = tileId | (mapId << 8);
+  /**
+   * Creates one of the special objects of a compiled arena. Doors are recorded in the footprint so
+   * that an unload can remove them again.
+   *
+   * @param footprint the cells the arena occupies
+   * @param arena the compiled arena
+   * @param spawn the index of the spawn in the arena
+   */
+  private void commitSpawn(
+      final ArenaFootprint footprint, final CompiledArena arena, final int spawn) {
+    final int[] spawns = arena.getSpawns();
+    final int i = spawn * 4;
+    final Vec3d location =
+        new Vec3d(spawns[i + 1], spawns[i + 2], spawns[i + 3]).addLocal(footprint.getOffset());
+    final EntityId id = spawn(spawns[i], location);
+    if (CompiledArena.getSpawnType(spawns[i]) == CompiledArena.SPAWN_DOOR) {
+      footprint.addDoor(id);
+    }
+  }
 
-          if (s != 0) {
-            world.setWorldCell(location, 10);
-          }
+  /**
+   * Clears the cells of one leaf of a loaded arena.
+   *
+   * @param footprint the cells the arena occupies
+   * @param leaf the index of the leaf in the footprint
+   */
+  private void clearLeaf(final ArenaFootprint footprint, final int leaf) {
+    final int[] indexes = footprint.getCellIndexes(leaf);
+    // Arenas are leaf aligned and own the leaves they occupy, so no masks outside need fixing up
+    setLeafCells(footprint.getLeafWorld(leaf), indexes, new int[indexes.length]);
+  }
 
-          // Vec3d topPlane = new Vec3d(xpos, 1, -zpos).add(arenaOffset);
-
-          // final Vec3i i = new Vec3i(bottomPlane.toVector3f());
-
-          //
-          //                    //TODO: Translate mapId from a level name (see
-          // InfinityBlockGeometryIndex)
-          //                    final int mapId = 20;
-          //                    final int tileId = Short.toUnsignedInt(s);
-          //                    tileSet.add(Integer.valueOf(tileId));
-          //
-          //                    final int value = tileId | (mapId << 8);
-          //                    // log.info("createEntitiesFromLegacyMap:: value = " + value + " <=
-          // (Tile,Map)
-          //                    // =(" + tileId + ","
-          //                    // + mapId + ") - Coords: " + i);
-          //                    // value = InfinityMaskUtils.setSideMask(value,
-          // DirectionMasks.UP_MASK);
-          //                    // world.setWorldCell(bottomPlane, value);
-          //                    //log.info("Creating block at: " + location);
-          //                    world.setWorldCell(location, 10);
-          //
-          //                    // world.setWorldCell(topPlane, 0);
-          //
-          //                    // count++;
-        }
+  /**
+   * Removes the doors of a loaded arena and opens their cells. Door cells are not among the
+   * compiled cells, so clearLeaf() does not reach the ones the DoorSystem closed.
+   *
+   * @param footprint the cells the arena occupies
+   */
+  private void openDoors(final ArenaFootprint footprint) {
+    for (EntityId door : footprint.getDoors()) {
+      ed.removeEntity(door);
+    }
+    final int count = footprint.getDoorCount();
+    if (world instanceof InfinityDefaultLeafWorld) {
+      final List<Vec3d> locations = new ArrayList<>(count);
+      for (int door = 0; door < count; door++) {
+        locations.add(footprint.getDoorWorld(door));
       }
+      ((InfinityDefaultLeafWorld) world).setWorldCells(locations, new int[count]);
+      return;
+    }
+    for (int door = 0; door < count; door++) {
+      world.setWorldCell(footprint.getDoorWorld(door), 0);
     }
+  }
 
-    // Test:
-    /*
-     * for (int i = 0; i < 380; i++) { short s = (short) (i % 190); Vec3d
-     * bottomPlane = new Vec3d(i % 19, 0, (Math.floor(i / 19))); Vec3d topPlane =
-     * new Vec3d(i % 19, 1, (Math.floor(i / 19))); int mapId = 20; int tileId =
-     * Short.toUnsignedInt(s); tileSet.add(tileId);
-     *
-     * int value = tileId | (mapId << 8);
-     * log.info("createEntitiesFromLegacyMap:: value = " + value +
-     * " <= (Tile,Map) = (" + tileId + "," + mapId + ") - Coords: " + bottomPlane);
-     * world.setWorldCell(bottomPlane, value); world.setWorldCell(topPlane, 0);
-     * count++; }
-     */
+  /**
+   * Copies the precomputed cells of one leaf into the world.
+   *
+   * @param leafWorld the world location of the leaf origin
+   * @param indexes the cell indexes within the leaf
+   * @param values the final cell values
+   */
+  private void setLeafCells(final Vec3d leafWorld, final int[] indexes, final int[] values) {
+    if (world instanceof InfinityDefaultLeafWorld) {
+      ((InfinityDefaultLeafWorld) world).setLeafCells(LeafId.fromWorld(leafWorld), indexes, values);
+      return;
+    }
+    final int size = CompiledArena.LEAF_SIZE;
+    for (int i = 0; i < indexes.length; i++) {
+      final int index = indexes[i];
+      world.setWorldCell(
+          leafWorld.add(index % size, (index / size) % size, index / (size * size)),
+          MaskUtils.getType(values[i]));
+    }
+  }
 
-    return coordinates;
+  /**
+   * Creates the entity for a special map object.
+   *
+   * @param spawn the spawn record type, see CompiledArena.getSpawnType()
+   * @param location the world location
+   * @return the entity created, or null for an unknown spawn type
+   */
+  private EntityId spawn(final int spawn, final Vec3d location) {
+    final int type = CompiledArena.getSpawnType(spawn);
+    switch (type) {
+      case CompiledArena.SPAWN_FLAG:
+        return GameEntities.createTurfStationaryFlag(
+            ed, EntityId.NULL_ID, physicsSpace, time.getTime(), location);
+      case CompiledArena.SPAWN_ASTEROID_SMALL:
+        return GameEntities.createAsteroidSmall(
+            ed, null, physicsSpace, time.getTime(), location, 0);
+      case CompiledArena.SPAWN_ASTEROID_MEDIUM:
+        return GameEntities.createAsteroidMedium(
+            ed, null, physicsSpace, time.getTime(), location, 0);
+      case CompiledArena.SPAWN_WORMHOLE_SMALL:
+        return GameEntities.createWormhole2(ed, null, physicsSpace, time.getTime(), location);
+      case CompiledArena.SPAWN_DOOR:
+        return GameEntities.createDoor(
+            ed,
+            null,
+            physicsSpace,
+            time.getTime(),
+            // No interval of its own, the DoorSystem times it from the arena settings
+            0,
+            CompiledArena.getSpawnVariant(spawn),
+            location);
+      case CompiledArena.SPAWN_WORMHOLE:
+        return GameEntities.createWormhole(
+            ed,
+            null,
+            physicsSpace,
+            time.getTime(),
+            location,
+            5000,
+            GravityWell.PULL,
+            new Vec3d(0, 0, 0),
+            1);
+      case CompiledArena.SPAWN_PRIZES:
+        return GameEntities.createWeightedPrizeSpawner(
+            ed,
+            EntityId.NULL_ID,
+            physicsSpace,
+            time.getTime(),
+            location,
+            PRIZE_SPAWN_INTERVAL,
+            false,
+            PRIZE_SPAWN_RADIUS);
+      default:
+        log.warn("Unknown spawn type:" + type + " at " + location);
+        return null;
+    }
   }
 
   @Override
   protected void terminate() {
-    // TODO Auto-generated method stub
+    mapCompiler.shutdownNow();
   }
 
   @Override
@@ -565,6 +748,14 @@ public class MapSystem extends AbstractGameSystem {
     time = tpf;
     accumulatedTime += tpf.getTpf();
 
+    // Commit queued map changes until the budget for this frame is spent
+    final long deadline = System.nanoTime() + commitBudget;
+    MapJob job = mapJobs.peek();
+    while (job != null && job.step(deadline)) {
+      mapJobs.poll();
+      job = mapJobs.peek();
+    }
+
     // Create map:
     // if (!mapCreated && accumulatedTime > 2) {
     // TODO: See InfinityBlockGeometryIndex - same map name is used there to translate back
@@ -620,30 +811,6 @@ public class MapSystem extends AbstractGameSystem {
     sessionTileCreations.add(clampedLocation);
   }
 
-  @SuppressWarnings("unused")
-  private Grid createDungeonGrid() {
-    final Grid result = new Grid(100, 100);
-
-    final DungeonGenerator dungeonGenerator = new DungeonGenerator();
-
-    dungeonGenerator.setCorridorThreshold(NOISE4J_CORRIDOR);
-    dungeonGenerator.setFloorThreshold(NOISE4J_FLOOR);
-    dungeonGenerator.setWallThreshold(NOISE4J_WALL);
-
-    dungeonGenerator.setRoomGenerationAttempts(100);
-    dungeonGenerator.setMaxRoomsAmount(10);
-    dungeonGenerator.addRoomTypes(DefaultRoomType.values());
-
-    // Max first, then min. Only odd values
-    dungeonGenerator.setMaxRoomSize(21);
-    dungeonGenerator.setMinRoomSize(9);
-
-    dungeonGenerator.generate(result);
-
-    // result = carveCorridors(result);
-    return result;
-  }
-
   /**
    * Expands the corridors of a (dungeon) Grid by one.
    *
@@ -772,6 +939,168 @@ public class MapSystem extends AbstractGameSystem {
     abstract Direction next();
   }
 
+  /** Receives the progress of a map load. All methods are called from the simulation thread. */
+  public interface MapLoadListener {
+
+    /**
+     * Called after each frame that committed part of the map.
+     *
+     * @param mapName the map being loaded
+     * @param done the number of leaves and objects committed so far
+     * @param total the number of leaves and objects in the map
+     */
+    void progress(String mapName, int done, int total);
+
+    /**
+     * Called when the map is fully in the world.
+     *
+     * @param mapName the map that was loaded
+     */
+    void loaded(String mapName);
+
+    /**
+     * Called when the map could not be read or compiled.
+     *
+     * @param mapName the map that failed to load
+     * @param cause the error
+     */
+    void failed(String mapName, Throwable cause);
+  }
+
+  /** A piece of map work that has to be committed to the world from the simulation thread. */
+  private interface MapJob {
+
+    /**
+     * Does as much of the work as possible before the deadline.
+     *
+     * @param deadline the System.nanoTime() to stop at
+     * @return true if the job is done, false if it should get more time next frame
+     */
+    boolean step(long deadline);
+  }
+
+  /** Commits a compiled arena leaf by leaf and then creates its special objects. */
+  private final class ArenaLoad implements MapJob {
+
+    private final String mapName;
+    private final Vec3d slot;
+    private final Vec3d arenaOffset;
+    private final Future<CompiledArena> compiled;
+    private final MapLoadListener listener;
+    private CompiledArena arena;
+    private ArenaFootprint footprint;
+    private int leaf;
+    private int spawn;
+    private long start;
+
+    ArenaLoad(
+        String mapName,
+        Vec3d slot,
+        Vec3d arenaOffset,
+        Future<CompiledArena> compiled,
+        MapLoadListener listener) {
+      this.mapName = mapName;
+      this.slot = slot;
+      this.arenaOffset = arenaOffset;
+      this.compiled = compiled;
+      this.listener = listener;
+    }
+
+    @Override
+    public boolean step(long deadline) {
+      if (arena == null) {
+        // Later jobs wait as well, so that loads and unloads happen in order
+        if (!compiled.isDone()) {
+          return false;
+        }
+        try {
+          arena = compiled.get();
+        } catch (InterruptedException | ExecutionException e) {
+          Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+          log.error("Error loading map:" + mapName, cause);
+          releaseSlot(mapName, slot);
+          if (listener != null) {
+            listener.failed(mapName, cause);
+          }
+          return true;
+        }
+        footprint = new ArenaFootprint(arena, arenaOffset);
+        start = System.nanoTime();
+      }
+
+      final int leafCount = arena.getLeafCount();
+      final int spawnCount = arena.getSpawnCount();
+      while (leaf < leafCount) {
+        setLeafCells(
+            footprint.getLeafWorld(leaf), arena.getCellIndexes(leaf), arena.getCellValues(leaf));
+        leaf++;
+        if (System.nanoTime() >= deadline) {
+          break;
+        }
+      }
+      while (leaf == leafCount && spawn < spawnCount && System.nanoTime() < deadline) {
+        commitSpawn(footprint, arena, spawn++);
+      }
+
+      if (leaf < leafCount || spawn < spawnCount) {
+        if (listener != null) {
+          listener.progress(mapName, leaf + spawn, leafCount + spawnCount);
+        }
+        return false;
+      }
+
+      activeMaps.put(mapName, footprint);
+      activeSlots.put(worldSlotKey(arenaOffset.x, arenaOffset.z), footprint);
+      log.info(
+          "Committed "
+              + arena
+              + " for "
+              + mapName
+              + " at "
+              + arenaOffset
+              + " in "
+              + ((System.nanoTime() - start) / 1000000.0)
+              + " ms");
+      if (listener != null) {
+        listener.loaded(mapName);
+      }
+      return true;
+    }
+  }
+
+  /** Clears the cells of a loaded map, leaf by leaf. */
+  private final class ArenaUnload implements MapJob {
+
+    private final String mapName;
+    private ArenaFootprint footprint;
+    private int leaf;
+
+    ArenaUnload(String mapName) {
+      this.mapName = mapName;
+    }
+
+    @Override
+    public boolean step(long deadline) {
+      if (footprint == null) {
+        footprint = activeMaps.remove(mapName);
+        if (footprint == null) {
+          return true;
+        }
+        Vec3d offset = footprint.getOffset();
+        activeSlots.remove(worldSlotKey(offset.x, offset.z));
+      }
+      while (leaf < footprint.getLeafCount() && System.nanoTime() < deadline) {
+        clearLeaf(footprint, leaf++);
+      }
+      if (leaf < footprint.getLeafCount()) {
+        return false;
+      }
+      openDoors(footprint);
+      log.info("Unloaded map: " + mapName + ", " + footprint);
+      return true;
+    }
+  }
+
   private static final class MapTileCallable implements Callable<EntityId> {
 
     String mFile;
@@ -116,7 +116,12 @@ public class PrizeSystem extends AbstractGameSystem implements ContactListener<E
     ships = ed.getEntities(shipColliderFilter, Player.class);
     prizes = ed.getEntities(prizeColliderFilter, PrizeType.class);
 
-    getSystem(ContactSystem.class).addListener(this);
+    getSystem(ContactSystem.class)
+        .addListener(
+            this,
+            CollisionFilters.COLLISION_CATEGORY_PRIZES
+                | CollisionFilters.COLLISION_CATEGORY_DYNAMICS_MAPOBJECTS,
+            CollisionFilters.COLLISION_CATEGORY_DYNAMICS_PLAYERS);
   }
 
   private void initializePrizeMap() {
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.ShapeInfo;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mblock.MaskUtils;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.PhysicsSpace;
+import com.simsilica.mworld.World;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+import infinity.es.ShapeNames;
+import infinity.net.ProjectileHit;
+import infinity.net.ProjectileSpawn;
+import infinity.sim.CorePhysicsConstants;
+import infinity.sim.CoreViewConstants;
+import infinity.sim.GameEntities;
+import infinity.sim.ProjectilePool;
+import infinity.sim.TargetHash;
+import infinity.sim.util.InfinityRunTimeException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Flies the bullets and bursts of all ships in one {@link ProjectilePool} instead of as entities.
+ * A shot costs a few array slots, there is no entity, no physics body and no component to send.
+ *
+ * <p>Each update the pool is stepped against the ships in the {@link TargetHash} of the
+ * TargetGridSystem and the solid cells of the world. A hit damages the ship through the
+ * EnergySystem and leaves an explosion entity, the only entity a shot still makes.
+ *
+ * <p>The shots fired in an update are handed to the ProjectileSpawnListeners as one batch of
+ * {@link ProjectileSpawn}s, the game sessions pass them on to the clients, which fly them with a
+ * pool of their own. Clients only see walls, so the shots that hit a ship follow as a batch of
+ * {@link ProjectileHit}s.
+ *
+ * @author Asser
+ */
+public class ProjectileSystem extends AbstractGameSystem {
+
+  static Logger log = LoggerFactory.getLogger(ProjectileSystem.class);
+
+  private static final ProjectileSpawn[] NO_SPAWNS = new ProjectileSpawn[0];
+  private static final ProjectileHit[] NO_HITS = new ProjectileHit[0];
+
+  /** Hears about the projectiles fired and the ones that hit a ship in an update. */
+  public interface ProjectileSpawnListener {
+    void projectilesSpawned(ProjectileSpawn[] spawns);
+
+    void projectilesHit(ProjectileHit[] hits);
+  }
+
+  private final ProjectilePool pool = new ProjectilePool();
+  private final List<ProjectileSpawn> spawns = new ArrayList<>();
+  private final List<ProjectileHit> hitEvents = new ArrayList<>();
+  private final List<ProjectileSpawnListener> listeners = new CopyOnWriteArrayList<>();
+  private final Vec3d probe = new Vec3d();
+
+  private EntityData ed;
+  private World world;
+  private MPhysSystem<MBlockShape> physics;
+  private PhysicsSpace<EntityId, MBlockShape> physicsSpace;
+  private EnergySystem energySystem;
+  private TargetGridSystem targetGrid;
+  private ShapeInfo explosionShape;
+  private SimTime time;
+
+  private final ProjectilePool.CellTest cells = this::isSolid;
+  private final ProjectilePool.ProjectileListener hits = new Hits();
+
+  @Override
+  protected void initialize() {
+    ed = getSystem(EntityData.class);
+    if (ed == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires an EntityData object.");
+    }
+    @SuppressWarnings("unchecked")
+    final MPhysSystem<MBlockShape> mphys = getSystem(MPhysSystem.class);
+    physics = mphys;
+    if (physics == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the MPhysSystem system.");
+    }
+    physicsSpace = physics.getPhysicsSpace();
+
+    targetGrid = getSystem(TargetGridSystem.class);
+    if (targetGrid == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the TargetGridSystem system.");
+    }
+    world = getSystem(World.class);
+    energySystem = getSystem(EnergySystem.class);
+
+    // Shared by every bullet explosion instead of creating one per hit
+    explosionShape = ShapeInfo.create(ShapeNames.EXPLODE_0, CoreViewConstants.EXPLOSION0SIZE, ed);
+  }
+
+  @Override
+  protected void terminate() {
+    pool.clear();
+    spawns.clear();
+    hitEvents.clear();
+  }
+
+  /**
+   * Fires a projectile.
+   *
+   * @param owner the entity firing it, it is never hit by its own projectiles
+   * @param type ProjectilePool.TYPE_BULLET or TYPE_BURST
+   * @param level the weapon level
+   * @param location where it starts
+   * @param velocity its velocity, only x and z are used
+   * @param damage the damage it does
+   * @param bounces the number of times it bounces off walls
+   * @param lifetimeMillis how long it flies
+   * @param time the current time in nanoseconds
+   */
+  public void fire(
+      EntityId owner,
+      byte type,
+      byte level,
+      Vec3d location,
+      Vec3d velocity,
+      int damage,
+      int bounces,
+      long lifetimeMillis,
+      long time) {
+    double radius =
+        type == ProjectilePool.TYPE_BURST
+            ? CorePhysicsConstants.BURSTSIZERADIUS
+            : CorePhysicsConstants.BULLETSIZERADIUS;
+    long expiry = time + TimeUnit.NANOSECONDS.convert(lifetimeMillis, TimeUnit.MILLISECONDS);
+    int id =
+        pool.add(
+            owner.getId(),
+            type,
+            level,
+            location.x,
+            location.y,
+            location.z,
+            velocity.x,
+            velocity.z,
+            radius,
+            damage,
+            bounces,
+            expiry);
+    spawns.add(
+        new ProjectileSpawn(
+            time,
+            id,
+            owner.getId(),
+            type,
+            level,
+            location.x,
+            location.y,
+            location.z,
+            velocity.x,
+            velocity.z,
+            bounces,
+            (int) lifetimeMillis));
+  }
+
+  public void addProjectileSpawnListener(ProjectileSpawnListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeProjectileSpawnListener(ProjectileSpawnListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Returns the number of projectiles in flight.
+   *
+   * @return the number of projectiles
+   */
+  public int getProjectileCount() {
+    return pool.size();
+  }
+
+  @Override
+  public void update(SimTime tpf) {
+    time = tpf;
+
+    pool.step(tpf.getTime(), tpf.getTpf(), cells, targetGrid.getTargets(), hits);
+
+    if (!spawns.isEmpty()) {
+      ProjectileSpawn[] batch = spawns.toArray(NO_SPAWNS);
+      spawns.clear();
+      for (ProjectileSpawnListener l : listeners) {
+        l.projectilesSpawned(batch);
+      }
+    }
+    // After the spawns, a shot can be fired and hit in the same update
+    if (!hitEvents.isEmpty()) {
+      ProjectileHit[] batch = hitEvents.toArray(NO_HITS);
+      hitEvents.clear();
+      for (ProjectileSpawnListener l : listeners) {
+        l.projectilesHit(batch);
+      }
+    }
+  }
+
+  private boolean isSolid(int x, int y, int z) {
+    if (world == null) {
+      return false;
+    }
+    probe.set(x, y, z);
+    int cell = world.getWorldCell(probe);
+    // -1 is a leaf that is not loaded
+    return cell != -1 && MaskUtils.getType(cell) != 0;
+  }
+
+  private void explode(double x, double y, double z) {
+    GameEntities.createExplosion(
+        ed,
+        EntityId.NULL_ID,
+        physicsSpace,
+        time.getTime(),
+        new Vec3d(x, y, z),
+        CoreViewConstants.EXPLOSION0DECAY,
+        explosionShape);
+  }
+
+  /** Turns the end of a projectile into damage and explosions. */
+  private class Hits implements ProjectilePool.ProjectileListener {
+
+    @Override
+    public void targetHit(ProjectilePool pool, int projectile, long target, double x, double z) {
+      energySystem.damage(new EntityId(target), -pool.getDamage(projectile));
+      explode(x, pool.getY(projectile), z);
+      hitEvents.add(new ProjectileHit(time.getTime(), pool.getId(projectile)));
+    }
+
+    @Override
+    public void projectileEnded(
+        ProjectilePool pool, int projectile, double x, double z, boolean wall) {
+      if (wall) {
+        explode(x, pool.getY(projectile), z);
+      }
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package infinity.systems;
+
+import infinity.map.Region;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The regions of a compiled arena, indexed so that asking what a position is inside of costs an
+ * array lookup instead of a walk over every rectangle of every region. The properties of all the
+ * regions that cover a tile are combined into one flags byte per tile, which is what most callers
+ * need (can I fire here, can I drop a flag here). The regions themselves are kept as row runs for
+ * callers that need to know which region it is, like auto-warp.
+ *
+ * <p>Safe zone tiles are not regions in the map file but are asked about the same way, so they are
+ * folded in as the SAFE_ZONE flag.
+ *
+ * <p>The index is immutable once built and can be read from any thread.
+ *
+ * @author Asser
+ */
+public class RegionIndex {
+
+  public static final int BASE = 0x01;
+  public static final int NO_FLAGS = 0x02;
+  public static final int NO_WEAPONS = 0x04;
+  public static final int NO_ANTIWARP = 0x08;
+  public static final int AUTOWARP = 0x10;
+  public static final int SAFE_ZONE = 0x20;
+  /** Set on every tile that is inside at least one named region. */
+  public static final int IN_REGION = 0x40;
+
+  /** An index without any regions. */
+  public static final RegionIndex EMPTY = new RegionIndex(new ArenaRegion[0], null);
+
+  private static final int MAP_SIZE = MapSystem.MAP_SIZE;
+
+  private final ArenaRegion[] regions;
+  private final ArenaRegion safeZones;
+  // One byte of flags per arena position, indexed by z * MAP_SIZE + x. Null when nothing is set.
+  private final byte[] tileFlags;
+
+  public RegionIndex(ArenaRegion[] regions, ArenaRegion safeZones) {
+    this.regions = regions;
+    this.safeZones = safeZones;
+    if (regions.length == 0 && (safeZones == null || safeZones.getSpanCount() == 0)) {
+      this.tileFlags = null;
+      return;
+    }
+    this.tileFlags = new byte[MAP_SIZE * MAP_SIZE];
+    for (ArenaRegion region : regions) {
+      region.fill(tileFlags, region.getFlags() | IN_REGION);
+    }
+    if (safeZones != null) {
+      safeZones.fill(tileFlags, SAFE_ZONE);
+    }
+  }
+
+  /**
+   * Builds the index of a legacy map.
+   *
+   * @param regions the regions from {@link infinity.map.LevelParser#getRegions()}
+   * @param tiles the map tiles, used for the safe zones, or null
+   * @return the index
+   */
+  public static RegionIndex build(List<Region> regions, byte[] tiles) {
+    ArenaRegion[] result = new ArenaRegion[regions.size()];
+    for (int i = 0; i < result.length; i++) {
+      Region region = regions.get(i);
+      // Tile (x, y) is bit y * MAP_SIZE + x of the bitmap, and map tiles are mirrored on both
+      // axes in the arena, so the arena bits are the bitmap reversed end to end
+      long[] tiles = region.getBitmap();
+      long[] words = new long[tiles.length];
+      for (int w = 0; w < tiles.length; w++) {
+        words[tiles.length - 1 - w] = Long.reverse(tiles[w]);
+      }
+      result[i] =
+          ArenaRegion.fromBits(
+              region.name,
+              getFlags(region),
+              region.x,
+              region.y,
+              region.arena,
+              BitSet.valueOf(words));
+    }
+
+    ArenaRegion safeZones = null;
+    if (tiles != null) {
+      BitSet bits = new BitSet(MAP_SIZE * MAP_SIZE);
+      for (int i = 0; i < tiles.length; i++) {
+        if ((tiles[i] & 0xff) == MapTypes.vieSafeZone) {
+          int tx = i % MAP_SIZE;
+          int ty = i / MAP_SIZE;
+          bits.set((MAP_SIZE - ty - 1) * MAP_SIZE + (MAP_SIZE - tx - 1));
+        }
+      }
+      if (!bits.isEmpty()) {
+        safeZones = ArenaRegion.fromBits(null, SAFE_ZONE, 0, 0, null, bits);
+      }
+    }
+    return new RegionIndex(result, safeZones);
+  }
+
+  private static int getFlags(Region region) {
+    int flags = 0;
+    if (region.isBase) {
+      flags |= BASE;
+    }
+    if (region.isNoFlags) {
+      flags |= NO_FLAGS;
+    }
+    if (region.isNoWeps) {
+      flags |= NO_WEAPONS;
+    }
+    if (region.isNoAnti) {
+      flags |= NO_ANTIWARP;
+    }
+    if (region.isAutoWarp) {
+      flags |= AUTOWARP;
+    }
+    return flags;
+  }
+
+  /**
+   * Returns the combined flags of everything covering an arena position.
+   *
+   * @param x the arena x position
+   * @param z the arena z position
+   * @return the flags, 0 outside the arena
+   */
+  public int getFlags(int x, int z) {
+    if (tileFlags == null || x < 0 || z < 0 || x >= MAP_SIZE || z >= MAP_SIZE) {
+      return 0;
+    }
+    return tileFlags[z * MAP_SIZE + x] & 0xff;
+  }
+
+  /**
+   * Checks a flag at an arena position.
+   *
+   * @param x the arena x position
+   * @param z the arena z position
+   * @param flag one or more flags
+   * @return true if any of the flags is set
+   */
+  public boolean hasFlag(int x, int z, int flag) {
+    return (getFlags(x, z) & flag) != 0;
+  }
+
+  /**
+   * Collects the named regions covering an arena position.
+   *
+   * @param x the arena x position
+   * @param z the arena z position
+   * @param store where to add the regions, or null
+   * @return the regions, an empty list when the position is not in any region
+   */
+  public List<ArenaRegion> getRegions(int x, int z, List<ArenaRegion> store) {
+    if (!hasFlag(x, z, IN_REGION)) {
+      return store == null ? Collections.emptyList() : store;
+    }
+    if (store == null) {
+      store = new ArrayList<>(2);
+    }
+    for (ArenaRegion region : regions) {
+      if (region.contains(x, z)) {
+        store.add(region);
+      }
+    }
+    return store;
+  }
+
+  public int getRegionCount() {
+    return regions.length;
+  }
+
+  public ArenaRegion getRegion(int i) {
+    return regions[i];
+  }
+
+  /**
+   * Returns the number of ints write() takes.
+   *
+   * @return the size in ints
+   */
+  public int getIntSize() {
+    int size = 2;
+    for (ArenaRegion region : regions) {
+      size += region.getIntSize();
+    }
+    return safeZones == null ? size : size + safeZones.getIntSize();
+  }
+
+  /**
+   * Writes the index as: region count, the regions, then 1 and the safe zones or 0. The per tile
+   * flags are rebuilt on read.
+   *
+   * @param ints where to write
+   */
+  public void write(IntBuffer ints) {
+    ints.put(regions.length);
+    for (ArenaRegion region : regions) {
+      region.write(ints);
+    }
+    ints.put(safeZones == null ? 0 : 1);
+    if (safeZones != null) {
+      safeZones.write(ints);
+    }
+  }
+
+  /**
+   * Reads an index written by write().
+   *
+   * @param ints where to read from
+   * @return the index
+   */
+  public static RegionIndex read(IntBuffer ints) {
+    ArenaRegion[] regions = new ArenaRegion[ints.get()];
+    for (int i = 0; i < regions.length; i++) {
+      regions[i] = ArenaRegion.read(ints);
+    }
+    ArenaRegion safeZones = ints.get() != 0 ? ArenaRegion.read(ints) : null;
+    if (regions.length == 0 && safeZones == null) {
+      return EMPTY;
+    }
+    return new RegionIndex(regions, safeZones);
+  }
+
+  @Override
+  public String toString() {
+    return "RegionIndex[regions="
+        + regions.length
+        + ", safeZoneSpans="
+        + (safeZones == null ? 0 : safeZones.getSpanCount())
+        + "]";
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.PhysicsListener;
+import com.simsilica.mphys.RigidBody;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+import infinity.es.ship.Energy;
+import infinity.sim.CorePhysicsConstants;
+import infinity.sim.TargetHash;
+import infinity.sim.util.InfinityRunTimeException;
+
+/**
+ * Keeps a {@link TargetHash} of the ships, everything with Energy that has a rigid body, up to date
+ * with the physics. The hash is refilled every physics frame and built once at the end of it, so
+ * all the systems that look for ships in an update share the one grid: the ProjectileSystem sweeps
+ * its shots through it and the AreaDamageSystem finds what its blasts reach.
+ *
+ * @author Asser
+ */
+public class TargetGridSystem extends AbstractGameSystem
+    implements PhysicsListener<EntityId, MBlockShape> {
+
+  // Bullets move less than this in a frame, and ships are smaller
+  private static final double TARGET_CELL_SIZE = 4;
+
+  private final TargetHash targets = new TargetHash(TARGET_CELL_SIZE);
+
+  private MPhysSystem<MBlockShape> physics;
+  private EntitySet ships;
+
+  @Override
+  protected void initialize() {
+    EntityData ed = getSystem(EntityData.class);
+    if (ed == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires an EntityData object.");
+    }
+    @SuppressWarnings("unchecked")
+    final MPhysSystem<MBlockShape> mphys = getSystem(MPhysSystem.class);
+    physics = mphys;
+    if (physics == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the MPhysSystem system.");
+    }
+    physics.addPhysicsListener(this);
+
+    ships = ed.getEntities(Energy.class);
+  }
+
+  @Override
+  protected void terminate() {
+    physics.removePhysicsListener(this);
+    ships.release();
+    ships = null;
+    targets.clear();
+  }
+
+  /**
+   * Returns the ships as of the last physics frame. The hash is rebuilt by the physics, it is only
+   * valid to query during an update.
+   *
+   * @return the ship targets
+   */
+  public TargetHash getTargets() {
+    return targets;
+  }
+
+  @Override
+  public void update(SimTime tpf) {
+    ships.applyChanges();
+  }
+
+  @Override
+  public void startFrame(final long frameTime, final double stepSize) {
+    targets.clear();
+  }
+
+  @Override
+  public void endFrame() {
+    targets.build();
+  }
+
+  @Override
+  public void update(final RigidBody<EntityId, MBlockShape> body) {
+    if (ships.containsId(body.id)) {
+      targets.add(
+          body.id.getId(), body.position.x, body.position.z, CorePhysicsConstants.SHIPSIZERADIUS);
+    }
+  }
+}
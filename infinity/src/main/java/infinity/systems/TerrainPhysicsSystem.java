@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package infinity.systems;
+
+import com.simsilica.es.EntityId;
+import com.simsilica.ext.mphys.MPhysSystem;
+import com.simsilica.ext.mphys.ObjectStatusListener;
+import com.simsilica.mathd.Vec3d;
+import com.simsilica.mathd.Vec3i;
+import com.simsilica.mathd.bounds.AaBBox;
+import com.simsilica.mblock.phys.MBlockShape;
+import com.simsilica.mphys.PhysicsListener;
+import com.simsilica.mphys.RigidBody;
+import com.simsilica.mphys.StaticBody;
+import com.simsilica.mworld.World;
+import com.simsilica.sim.AbstractGameSystem;
+import infinity.sim.InfinityDefaultLeafWorld;
+import infinity.sim.LeafEdit;
+import infinity.sim.LeafEditListener;
+import infinity.sim.util.InfinityRunTimeException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps the physics in step with terrain edits. The world collision reads the cells as they are,
+ * but a body that went to sleep against a wall does not notice the wall going away. So every
+ * {@link LeafEdit} wakes the rigid bodies whose bounds touch the edited cells, at the start of the
+ * next physics frame.
+ *
+ * @author Asser
+ */
+public class TerrainPhysicsSystem extends AbstractGameSystem
+    implements LeafEditListener,
+        PhysicsListener<EntityId, MBlockShape>,
+        ObjectStatusListener<MBlockShape> {
+
+  // Edits are committed by the WorldSystem, they are applied when the physics gets to them
+  private final ConcurrentLinkedQueue<LeafEdit> edits = new ConcurrentLinkedQueue<>();
+  private final Map<EntityId, RigidBody<EntityId, MBlockShape>> bodies = new HashMap<>();
+  private MPhysSystem<MBlockShape> physics;
+  private InfinityDefaultLeafWorld world;
+
+  @Override
+  protected void initialize() {
+    @SuppressWarnings("unchecked")
+    final MPhysSystem<MBlockShape> mphys = getSystem(MPhysSystem.class);
+    physics = mphys;
+    if (physics == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the MPhysSystem system.");
+    }
+    physics.addPhysicsListener(this);
+    physics.getBinEntityManager().addObjectStatusListener(this);
+
+    // Other worlds do not batch their edits, the physics has nothing to catch up on
+    World w = getSystem(World.class);
+    if (w instanceof InfinityDefaultLeafWorld) {
+      world = (InfinityDefaultLeafWorld) w;
+      world.addLeafEditListener(this);
+    }
+  }
+
+  @Override
+  protected void terminate() {
+    if (world != null) {
+      world.removeLeafEditListener(this);
+      world = null;
+    }
+    physics.removePhysicsListener(this);
+    physics.getBinEntityManager().removeObjectStatusListener(this);
+    edits.clear();
+    bodies.clear();
+  }
+
+  @Override
+  public void leafEdited(LeafEdit edit) {
+    edits.add(edit);
+  }
+
+  @Override
+  public void startFrame(final long frameTime, final double stepSize) {
+    LeafEdit edit;
+    while ((edit = edits.poll()) != null) {
+      wakeBodies(edit);
+    }
+  }
+
+  @Override
+  public void endFrame() {
+    // Nothing to do
+  }
+
+  @Override
+  public void update(final RigidBody<EntityId, MBlockShape> body) {
+    // Nothing to do
+  }
+
+  private void wakeBodies(LeafEdit edit) {
+    Vec3i origin = edit.getLeafId().getWorld(null);
+    // One cell of margin, the side masks of the neighbouring cells changed too
+    double minX = origin.x + edit.getMinX() - 1;
+    double minY = origin.y + edit.getMinY() - 1;
+    double minZ = origin.z + edit.getMinZ() - 1;
+    double maxX = origin.x + edit.getMaxX() + 2;
+    double maxY = origin.y + edit.getMaxY() + 2;
+    double maxZ = origin.z + edit.getMaxZ() + 2;
+    for (RigidBody<EntityId, MBlockShape> body : bodies.values()) {
+      AaBBox bounds = body.getWorldBounds();
+      Vec3d min = bounds.getMin();
+      Vec3d max = bounds.getMax();
+      if (max.x < minX || min.x > maxX) {
+        continue;
+      }
+      if (max.y < minY || min.y > maxY) {
+        continue;
+      }
+      if (max.z < minZ || min.z > maxZ) {
+        continue;
+      }
+      body.wakeUp(true);
+    }
+  }
+
+  @Override
+  public void objectLoaded(final EntityId id, final RigidBody<EntityId, MBlockShape> body) {
+    bodies.put(id, body);
+  }
+
+  @Override
+  public void objectUnloaded(final EntityId id, final RigidBody<EntityId, MBlockShape> body) {
+    bodies.remove(id);
+  }
+
+  @Override
+  public void staticObjectLoaded(EntityId id, StaticBody<EntityId, MBlockShape> body) {
+    // Static bodies do not move, there is nothing to wake
+  }
+
+  @Override
+  public void staticObjectUnloaded(EntityId id, StaticBody<EntityId, MBlockShape> body) {
+    // Nothing to do
+  }
+}
@@ -46,6 +46,7 @@ import infinity.es.ship.Energy;
 import infinity.es.ship.actions.WarpTo;
 import infinity.server.chat.InfinityChatHostedService;
 import infinity.sim.AccessLevel;
+import infinity.sim.CollisionFilters;
 import infinity.sim.CommandTriFunction;
 import infinity.sim.GameEntities;
 import infinity.sim.InfinityEntityBodyFactory;
@@ -97,7 +98,11 @@ public class WarpSystem extends AbstractGameSystem
             "The command to warp to the center of the arena is ~warpCenter",
             new CommandTriFunction<>(AccessLevel.PLAYER_LEVEL, this::commandRequestWarpToCenter));
 
-    getSystem(ContactSystem.class).addListener(this);
+    getSystem(ContactSystem.class)
+        .addListener(
+            this,
+            CollisionFilters.COLLISION_CATEGORY_WORMHOLES,
+            CollisionFilters.COLLISION_CATEGORY_ALL);
   }
 
   @Override
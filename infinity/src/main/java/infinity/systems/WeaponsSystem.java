@@ -7,7 +7,6 @@
 package infinity.systems;
 
 import com.jme3.math.FastMath;
-import com.simsilica.es.Entity;
 import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
@@ -25,34 +24,30 @@ import com.simsilica.mphys.PhysicsSpace;
 import com.simsilica.mphys.RigidBody;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
+import infinity.Bombs;
+import infinity.es.Blast;
 import infinity.es.Damage;
 import infinity.es.Frequency;
 import infinity.es.GravityWell;
+import infinity.es.Parent;
 import infinity.es.ShapeNames;
 import infinity.es.ship.Energy;
-import infinity.es.ship.actions.Burst;
 import infinity.es.ship.actions.Thor;
-import infinity.es.ship.weapons.BombCost;
-import infinity.es.ship.weapons.BombCurrentLevel;
-import infinity.es.ship.weapons.BombFireDelay;
 import infinity.es.ship.weapons.Bounce;
-import infinity.es.ship.weapons.GravityBomb;
-import infinity.es.ship.weapons.GravityBombCost;
-import infinity.es.ship.weapons.GravityBombFireDelay;
-import infinity.es.ship.weapons.GunCost;
-import infinity.es.ship.weapons.GunCurrentLevel;
-import infinity.es.ship.weapons.GunFireDelay;
-import infinity.es.ship.weapons.MineCost;
-import infinity.es.ship.weapons.MineCurrentLevel;
-import infinity.es.ship.weapons.MineFireDelay;
+import infinity.sim.CollisionFilters;
+import infinity.sim.ComponentTable;
 import infinity.sim.CoreGameConstants;
 import infinity.sim.CorePhysicsConstants;
 import infinity.sim.CoreViewConstants;
 import infinity.sim.GameEntities;
 import infinity.sim.GameSounds;
+import infinity.sim.ProjectilePool;
 import infinity.sim.util.InfinityRunTimeException;
+import infinity.systems.ArmamentCache.Armament;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentHashMap.KeySetView;
 import org.slf4j.Logger;
@@ -61,6 +56,10 @@ import org.slf4j.LoggerFactory;
 /**
  * This system handles the creation of projectiles and the application of damage to entities.
  *
+ * <p>Bullets and bursts are not entities, they are fired into the ProjectileSystem. Bombs, gravity
+ * bombs and mines carry a Blast, when they hit something they are handed to the AreaDamageSystem
+ * which damages every ship in reach.
+ *
  * @author AFahrenholz
  */
 public class WeaponsSystem extends AbstractGameSystem
@@ -71,22 +70,25 @@ public class WeaponsSystem extends AbstractGameSystem
   public static final byte GRAVBOMB = 0x2;
   public static final byte MINE = 0x3;
   public static final byte BURST = 0x4;
+  private static final int BURST_DAMAGE = 20;
   static Logger log = LoggerFactory.getLogger(WeaponsSystem.class);
   private final KeySetView<Attack, Boolean> sessionAttackCreations = ConcurrentHashMap.newKeySet();
   private EntityData ed;
   private MPhysSystem<MBlockShape> physics;
   private PhysicsSpace<EntityId, MBlockShape> physicsSpace;
-  private EntitySet mines;
-  private EntitySet gravityBombs;
-  private EntitySet bursts;
-  private EntitySet bombs;
-  private EntitySet guns;
+  // What each ship can fire, so that firing does not have to look up components
+  private ArmamentCache armaments;
   private EntitySet frequencies;
 
   private SimTime time;
   private EnergySystem energySystem;
-  private EntitySet damageEntities;
-  private EntitySet energyEntities;
+  private ProjectileSystem projectileSystem;
+  private AreaDamageSystem areaDamageSystem;
+  private CooldownSystem cooldowns;
+  // The components the contact handler reads, refreshed by the ContactSystem every physics frame
+  private ComponentTable contactComponents;
+  // Explosions from contacts are created in update(), outside of the physics step
+  private final List<PendingExplosion> pendingExplosions = new ArrayList<>();
 
   @Override
   protected void initialize() {
@@ -103,48 +105,44 @@ public class WeaponsSystem extends AbstractGameSystem
 
     physicsSpace = physics.getPhysicsSpace();
     energySystem = getSystem(EnergySystem.class);
-    guns = ed.getEntities(GunCurrentLevel.class, GunFireDelay.class, GunCost.class);
-    bombs = ed.getEntities(BombCurrentLevel.class, BombFireDelay.class, BombCost.class);
-    bursts = ed.getEntities(Burst.class);
-    gravityBombs =
-        ed.getEntities(GravityBomb.class, GravityBombFireDelay.class, GravityBombCost.class);
-    mines = ed.getEntities(MineCurrentLevel.class, MineFireDelay.class, MineCost.class);
-
-    damageEntities = ed.getEntities(Damage.class);
-    energyEntities = ed.getEntities(Energy.class);
+    projectileSystem = getSystem(ProjectileSystem.class);
+    areaDamageSystem = getSystem(AreaDamageSystem.class);
+    cooldowns = getSystem(CooldownSystem.class);
+    if (cooldowns == null) {
+      throw new InfinityRunTimeException(
+          getClass().getName() + " system requires the CooldownSystem system.");
+    }
+    armaments = new ArmamentCache(ed);
 
     frequencies = ed.getEntities(Frequency.class);
 
-    getSystem(ContactSystem.class).addListener(this);
+    ContactSystem contactSystem = getSystem(ContactSystem.class);
+    contactComponents =
+        contactSystem.createComponentTable(
+            Damage.class, Blast.class, Parent.class, Bounce.class, Thor.class, Energy.class);
+
+    // Anything that can carry damage, mines and bursts have no collision category
+    contactSystem.addListener(
+        this,
+        CollisionFilters.COLLISION_CATEGORY_DYNAMICS_PROJECTILES
+            | CollisionFilters.COLLISION_CATEGORY_DYNAMICS_SHIP_PROJECTILES
+            | CollisionFilters.COLLISION_CATEGORY_NONE,
+        CollisionFilters.COLLISION_CATEGORY_ALL);
   }
 
   @Override
   protected void terminate() {
-    guns.release();
-    guns = null;
-
-    bombs.release();
-    bombs = null;
-
-    gravityBombs.release();
-    gravityBombs = null;
-
-    mines.release();
-    mines = null;
-
-    bursts.release();
-    bursts = null;
+    armaments.release();
+    armaments = null;
 
     frequencies.release();
     frequencies = null;
 
-    damageEntities.release();
-    damageEntities = null;
-
-    energyEntities.release();
-    energyEntities = null;
-
-    getSystem(ContactSystem.class).removeListener(this);
+    ContactSystem contactSystem = getSystem(ContactSystem.class);
+    contactSystem.removeListener(this);
+    contactSystem.releaseComponentTable(contactComponents);
+    contactComponents = null;
+    pendingExplosions.clear();
   }
 
   @Override
@@ -152,14 +150,9 @@ public class WeaponsSystem extends AbstractGameSystem
     time = tpf;
 
     // Update who has
-    guns.applyChanges();
-    bombs.applyChanges();
-    gravityBombs.applyChanges();
-    mines.applyChanges();
-    bursts.applyChanges();
+    armaments.update();
 
-    energyEntities.applyChanges();
-    damageEntities.applyChanges();
+    createPendingExplosions();
 
     /*
      * Default pattern to let multiple sessions call methods and then process them
@@ -173,255 +166,72 @@ public class WeaponsSystem extends AbstractGameSystem
     while (iterator.hasNext()) {
       final Attack a = iterator.next();
 
-      Entity requester = ed.getEntity(a.getOwner());
-
-      attack(requester, a.getWeaponType(), time.getTime());
+      attack(armaments.get(a.getOwner()), a.getWeaponType(), time.getTime());
 
       iterator.remove();
     }
   }
 
-  private boolean canAttackGun(Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (guns.contains(requester)) {
-      final GunFireDelay gfd = ed.getComponent(requesterId, GunFireDelay.class);
-      if (gfd.getPercent() < 1) {
-        return false;
-      }
-      final GunCost gc = ed.getComponent(requesterId, GunCost.class);
-      return gc.getCost() <= energySystem.getHealth(requesterId);
+  private boolean canAttack(Armament armament, byte weaponType, long time) {
+    if (armament == null || !armament.has(weaponType)) {
+      return false;
     }
-    return false;
-  }
-
-  private boolean canAttackBomb(Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (bombs.contains(requester)) {
-      final BombFireDelay bfd = ed.getComponent(requesterId, BombFireDelay.class);
-      if (bfd.getPercent() < 1) {
-        return false;
-      }
-      final BombCost bc = ed.getComponent(requesterId, BombCost.class);
-      return bc.getCost() <= energySystem.getHealth(requesterId);
+    int slot = getCooldownSlot(weaponType);
+    if (slot >= 0 && !cooldowns.isReady(armament.getId(), slot, time)) {
+      return false;
     }
-    return false;
+    int cost = armament.getCost(weaponType);
+    return cost == 0 || cost <= energySystem.getHealth(armament.getId());
   }
 
-  private boolean canAttackGravityBomb(Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (gravityBombs.contains(requester)) {
-      final GravityBombFireDelay bfd = ed.getComponent(requesterId, GravityBombFireDelay.class);
-      if (bfd.getPercent() < 1) {
-        return false;
-      }
-      final GravityBombCost bc = ed.getComponent(requesterId, GravityBombCost.class);
-      return bc.getCost() <= energySystem.getHealth(requesterId);
-    }
-    return false;
+  private boolean setCoolDown(final Armament armament, final byte flag, long time) {
+    int slot = getCooldownSlot(flag);
+    // No delay on bursts for now
+    return slot < 0 || cooldowns.start(armament.getId(), slot, time);
   }
 
-  private boolean canAttackMine(Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (mines.contains(requester)) {
-      final MineFireDelay bfd = ed.getComponent(requesterId, MineFireDelay.class);
-      if (bfd.getPercent() < 1) {
-        return false;
-      }
-      final MineCost bc = ed.getComponent(requesterId, MineCost.class);
-      return bc.getCost() <= energySystem.getHealth(requesterId);
+  private void deductCostOfAttack(final Armament armament, final byte flag) {
+    // No cost on bursts for now
+    // TODO: Add cost to burst
+    int cost = armament.getCost(flag);
+    if (cost > 0) {
+      energySystem.damage(armament.getId(), -cost);
     }
-    return false;
-  }
-
-  private boolean canAttackBurst(Entity requester) {
-    return bursts.contains(requester);
   }
 
-  private boolean canAttack(Entity requester, byte weaponType) {
-    if (requester == null) {
-      return false;
-    }
-    switch (weaponType) {
+  private static int getCooldownSlot(byte flag) {
+    switch (flag) {
       case GUN:
-        return canAttackGun(requester);
+        return CooldownSystem.SLOT_GUN;
       case BOMB:
-        return canAttackBomb(requester);
+        return CooldownSystem.SLOT_BOMB;
       case GRAVBOMB:
-        return canAttackGravityBomb(requester);
+        return CooldownSystem.SLOT_GRAVBOMB;
       case MINE:
-        return canAttackMine(requester);
-      case BURST:
-        return canAttackBurst(requester);
+        return CooldownSystem.SLOT_MINE;
       default:
-        return false;
-    }
-  }
-
-  private boolean setCoolDownGun(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (guns.contains(requester)) {
-      final GunFireDelay gfd = ed.getComponent(requesterId, GunFireDelay.class);
-      ed.setComponent(requesterId, gfd.copy());
-      return true;
-    }
-    return false;
-  }
-
-  private boolean setCoolDownBomb(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (bombs.contains(requester)) {
-      final BombFireDelay bfd = ed.getComponent(requesterId, BombFireDelay.class);
-      ed.setComponent(requesterId, bfd.copy());
-      return true;
-    }
-    return false;
-  }
-
-  private boolean setCoolDownGravityBomb(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (gravityBombs.contains(requester)) {
-      final GravityBombFireDelay bfd = ed.getComponent(requesterId, GravityBombFireDelay.class);
-      ed.setComponent(requesterId, bfd.copy());
-      return true;
-    }
-    return false;
-  }
-
-  private boolean setCoolDownMine(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (mines.contains(requester)) {
-      final MineFireDelay bfd = ed.getComponent(requesterId, MineFireDelay.class);
-      ed.setComponent(requesterId, bfd.copy());
-      return true;
-    }
-    return false;
-  }
-
-  private boolean setCoolDown(final Entity requester, final byte flag) {
-
-    if (requester == null) {
-      return false;
-    }
-    if (flag == GUN) {
-      return setCoolDownGun(requester);
-    } else if (flag == BOMB) {
-      return setCoolDownBomb(requester);
-    } else if (flag == GRAVBOMB) {
-      return setCoolDownGravityBomb(requester);
-    } else if (flag == MINE) {
-      return setCoolDownMine(requester);
-    } else if (flag == BURST) {
-      // No delay on this for now
-      return bursts.contains(requester);
-    }
-    return false;
-  }
-
-  private boolean deductCostOfAttackGun(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (guns.contains(requester)) {
-      final GunCost gc = ed.getComponent(requesterId, GunCost.class);
-      if (gc.getCost() > energySystem.getHealth(requesterId)) {
-        return false;
-      }
-      energySystem.damage(requesterId, gc.getCost());
-      return true;
-    }
-    return false;
-  }
-
-  private boolean deductCostOfAttackBomb(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (bombs.contains(requester)) {
-      final BombCost bc = ed.getComponent(requesterId, BombCost.class);
-      if (bc.getCost() > energySystem.getHealth(requesterId)) {
-        return false;
-      }
-      energySystem.damage(requesterId, bc.getCost());
-      return true;
+        return -1;
     }
-    return false;
-  }
-
-  private boolean deductCostOfAttackGravityBomb(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (gravityBombs.contains(requester)) {
-      final GravityBombCost bc = ed.getComponent(requesterId, GravityBombCost.class);
-      if (bc.getCost() > energySystem.getHealth(requesterId)) {
-        return false;
-      }
-      energySystem.damage(requesterId, bc.getCost());
-      return true;
-    }
-    return false;
-  }
-
-  private boolean deductCostOfAttackMine(final Entity requester) {
-    EntityId requesterId = requester.getId();
-    if (mines.contains(requester)) {
-      final MineCost bc = ed.getComponent(requesterId, MineCost.class);
-      if (bc.getCost() > energySystem.getHealth(requesterId)) {
-        return false;
-      }
-      energySystem.damage(requesterId, bc.getCost());
-      return true;
-    }
-    return false;
-  }
-
-  private boolean deductCostOfAttack(final Entity requester, final byte flag) {
-    if (requester == null) {
-      return false;
-    }
-    if (flag == GUN) {
-      return deductCostOfAttackGun(requester);
-    } else if (flag == BOMB) {
-      return deductCostOfAttackBomb(requester);
-    } else if (flag == GRAVBOMB) {
-      return deductCostOfAttackGravityBomb(requester);
-    } else if (flag == MINE) {
-      return deductCostOfAttackMine(requester);
-    } else if (flag == BURST) {
-      // No cost on this for now
-      // TODO: Add cost to burst
-      return bursts.contains(requester);
-    }
-    return false;
   }
 
-  private void createProjectileGun(Entity requesterEntity, final long time, AttackPosition info) {
-    EntityId requester = requesterEntity.getId();
-
-    GunCurrentLevel gunCurrentLevel = this.guns.getEntity(requester).get(GunCurrentLevel.class);
-    final String bulletShape =
-        CoreGameConstants.BULLETLEVELPREPENDTEXT + gunCurrentLevel.getLevel().level;
-
-    EntityId gunProjectile;
-    gunProjectile =
-        GameEntities.createBullet(
-            ed,
-            requester,
-            physicsSpace,
-            time,
-            info.location,
-            info.attackVelocity,
-            CoreGameConstants.BULLETDECAY,
-            bulletShape);
-
-    ed.setComponent(
-        gunProjectile,
-        new Damage(
-            CoreViewConstants.EXPLOSION0DECAY,
-            CoreGameConstants.BULLETDAMAGE,
-            ShapeInfo.create(ShapeNames.EXPLODE_0, CoreViewConstants.EXPLOSION0SIZE, ed)));
+  private void createProjectileGun(Armament armament, final long time, AttackPosition info) {
+    projectileSystem.fire(
+        armament.getId(),
+        ProjectilePool.TYPE_BULLET,
+        (byte) armament.getGunLevel().level,
+        info.location,
+        info.attackVelocity,
+        CoreGameConstants.BULLETDAMAGE,
+        0,
+        CoreGameConstants.BULLETDECAY,
+        time);
   }
 
-  private void createProjectileBomb(Entity requesterEntity, long time, AttackPosition info) {
-    EntityId requester = requesterEntity.getId();
-    BombCurrentLevel bombCurrentLevel = this.bombs.getEntity(requester).get(BombCurrentLevel.class);
+  private void createProjectileBomb(Armament armament, long time, AttackPosition info) {
+    EntityId requester = armament.getId();
+    final int level = armament.getBombLevel().level;
 
-    final String bombShape =
-        CoreGameConstants.BOMBLEVELPREPENDTEXT + bombCurrentLevel.getLevel().level;
+    final String bombShape = CoreGameConstants.BOMBLEVELPREPENDTEXT + level;
 
     final EntityId bombProjectile =
         GameEntities.createBomb(
@@ -433,18 +243,18 @@ public class WeaponsSystem extends AbstractGameSystem
             info.getAttackVelocity(),
             CoreGameConstants.BULLETDECAY,
             bombShape);
-    ed.setComponent(
+    ed.setComponents(
         bombProjectile,
         new Damage(
             CoreViewConstants.EXPLOSION1DECAY,
             CoreGameConstants.BOMBDAMAGE,
-            ShapeInfo.create(ShapeNames.EXPLODE_1, CoreViewConstants.EXPLOSION1SIZE, ed)));
+            ShapeInfo.create(ShapeNames.EXPLODE_1, CoreViewConstants.EXPLOSION1SIZE, ed)),
+        areaDamageSystem.createBlast(info.getLocation(), level, true));
   }
 
-  private void createProjectileGravBomb(Entity requesterEntity, long time, AttackPosition info) {
-    EntityId requester = requesterEntity.getId();
-    GravityBomb gravityBomb = this.gravityBombs.getEntity(requester).get(GravityBomb.class);
-    final GravityBombCost shipGravBombCost = ed.getComponent(requester, GravityBombCost.class);
+  private void createProjectileGravBomb(Armament armament, long time, AttackPosition info) {
+    EntityId requester = armament.getId();
+    final Bombs level = armament.getGravityBombLevel();
 
     EntityId projectile;
     final HashSet<EntityComponent> delayedComponents = new HashSet<>();
@@ -463,22 +273,24 @@ public class WeaponsSystem extends AbstractGameSystem
             CoreGameConstants.GRAVBOMBDECAY,
             CoreGameConstants.GRAVBOMBDELAY,
             delayedComponents,
-            CoreGameConstants.BOMBLEVELPREPENDTEXT + gravityBomb.getLevel());
+            CoreGameConstants.BOMBLEVELPREPENDTEXT + level);
 
-    ed.setComponent(
+    ed.setComponents(
         projectile,
         new Damage(
             CoreViewConstants.EXPLOSION1DECAY,
             CoreGameConstants.GRAVBOMBDAMAGE,
-            ShapeInfo.create(ShapeNames.EXPLODE_1, CoreViewConstants.EXPLOSION1SIZE, ed)));
+            ShapeInfo.create(ShapeNames.EXPLODE_1, CoreViewConstants.EXPLOSION1SIZE, ed)),
+        // Gravity bombs pull ships in instead of going off when they come close
+        areaDamageSystem.createBlast(info.getLocation(), level.level, false));
   }
 
-  private void createProjectileBurst(Entity requesterEntity, long time) {
+  private void createProjectileBurst(Armament armament, long time) {
     Quatd orientation = new Quatd();
 
     final double angle = (360d / CoreGameConstants.BURSTPROJECTILECOUNT) * FastMath.DEG_TO_RAD;
 
-    final AttackPosition infoOrig = getAttackInfo(requesterEntity, WeaponsSystem.BURST);
+    final AttackPosition infoOrig = getAttackInfo(armament.getId(), WeaponsSystem.BURST);
     for (int i = 0; i < CoreGameConstants.BURSTPROJECTILECOUNT; i++) {
       final AttackPosition info = new AttackPosition(infoOrig);
       orientation = orientation.fromAngles(0, angle * i, 0);
@@ -490,55 +302,47 @@ public class WeaponsSystem extends AbstractGameSystem
 
       info.setAttackVelocity(newVelocity);
 
-      EntityId projectile;
-      projectile =
-          GameEntities.createBurst(
-              ed,
-              requesterEntity.getId(),
-              physicsSpace,
-              time,
-              info.getLocation(),
-              info.getAttackVelocity(),
-              CoreGameConstants.BULLETDECAY);
-      ed.setComponent(
-          projectile,
-          new Damage(
-              CoreViewConstants.EXPLOSION0DECAY,
-              20,
-              ShapeInfo.create(ShapeNames.EXPLODE_0, CoreViewConstants.EXPLOSION0SIZE, ed)));
+      projectileSystem.fire(
+          armament.getId(),
+          ProjectilePool.TYPE_BURST,
+          (byte) 0,
+          info.getLocation(),
+          info.getAttackVelocity(),
+          BURST_DAMAGE,
+          0,
+          CoreGameConstants.BULLETDECAY,
+          time);
     }
   }
 
   private void createProjectile(
-      Entity requesterEntity, final byte flag, long time, AttackPosition info) {
+      Armament armament, final byte flag, long time, AttackPosition info) {
     switch (flag) {
       case GUN:
-        createProjectileGun(requesterEntity, time, info);
+        createProjectileGun(armament, time, info);
         break;
       case BOMB:
-        createProjectileBomb(requesterEntity, time, info);
+        createProjectileBomb(armament, time, info);
         break;
       case GRAVBOMB:
-        createProjectileGravBomb(requesterEntity, time, info);
+        createProjectileGravBomb(armament, time, info);
         break;
       case MINE:
-        createProjectileMine(requesterEntity, time, info);
+        createProjectileMine(armament, time, info);
         break;
       case BURST:
-        createProjectileBurst(requesterEntity, time);
+        createProjectileBurst(armament, time);
         break;
       default:
         throw new IllegalArgumentException("Unknown flag: " + flag);
     }
   }
 
-  private boolean createProjectileMine(Entity requesterEntity, long time, AttackPosition info) {
-    EntityId requester = requesterEntity.getId();
-    MineCurrentLevel mineCurrentLevel = this.mines.getEntity(requester).get(MineCurrentLevel.class);
-    MineCost mc = this.mines.getEntity(requester).get(MineCost.class);
+  private boolean createProjectileMine(Armament armament, long time, AttackPosition info) {
+    EntityId requester = armament.getId();
+    final int level = armament.getMineLevel().level;
 
-    final String mineShape =
-        CoreGameConstants.MINELEVELPREPENDTEXT + mineCurrentLevel.getLevel().level;
+    final String mineShape = CoreGameConstants.MINELEVELPREPENDTEXT + level;
 
     final EntityId mineProjectile =
         GameEntities.createMine(
@@ -549,39 +353,34 @@ public class WeaponsSystem extends AbstractGameSystem
             info.getLocation(),
             CoreGameConstants.MINEDECAY,
             mineShape);
-    ed.setComponent(
+    ed.setComponents(
         mineProjectile,
         new Damage(
             CoreViewConstants.EXPLOSION1DECAY,
-            mc.getCost(),
-            ShapeInfo.create(ShapeNames.EXPLODE_1, CoreViewConstants.EXPLOSION1SIZE, ed)));
+            armament.getCost(MINE),
+            ShapeInfo.create(ShapeNames.EXPLODE_1, CoreViewConstants.EXPLOSION1SIZE, ed)),
+        areaDamageSystem.createBlast(info.getLocation(), level, true));
     return true;
   }
 
-  private boolean createSound(Entity requesterEntity, byte flag, long time, AttackPosition info) {
-    EntityId requester = requesterEntity.getId();
+  private boolean createSound(Armament armament, byte flag, long time, AttackPosition info) {
+    EntityId requester = armament.getId();
     switch (flag) {
       case GUN:
-        GunCurrentLevel gunCurrentLevel = this.guns.getEntity(requester).get(GunCurrentLevel.class);
         GameSounds.createBulletSound(
-            ed, requester, physicsSpace, time, info.location, gunCurrentLevel.getLevel());
+            ed, requester, physicsSpace, time, info.location, armament.getGunLevel());
         return true;
       case BOMB:
-        BombCurrentLevel bombCurrentLevel =
-            this.bombs.getEntity(requester).get(BombCurrentLevel.class);
         GameSounds.createBombSound(
-            ed, requester, physicsSpace, time, info.location, bombCurrentLevel.getLevel());
+            ed, requester, physicsSpace, time, info.location, armament.getBombLevel());
         return true;
       case GRAVBOMB:
-        GravityBomb entityGravBomb = this.gravityBombs.getEntity(requester).get(GravityBomb.class);
         GameSounds.createBombSound(
-            ed, requester, physicsSpace, time, info.location, entityGravBomb.getLevel());
+            ed, requester, physicsSpace, time, info.location, armament.getGravityBombLevel());
         return true;
       case MINE:
-        MineCurrentLevel mineCurrentLevel =
-            this.mines.getEntity(requester).get(MineCurrentLevel.class);
         GameSounds.createMineSound(
-            ed, requester, physicsSpace, time, info.location, mineCurrentLevel.getLevel());
+            ed, requester, physicsSpace, time, info.location, armament.getMineLevel());
         break;
       case BURST:
         break;
@@ -594,21 +393,22 @@ public class WeaponsSystem extends AbstractGameSystem
   /**
    * A request to attack with a weapon.
    *
-   * @param requester the requesting entity
+   * <p>Everything it needs is read from the armament of the requester and the energy is looked up
+   * once. The cost is checked against it and deducted at the next energy update.
+   *
+   * @param armament the armament of the requesting entity, null if it has none
    * @param flag the weapon type to attack with
    */
-  private void attack(final Entity requester, final byte flag, long time) {
+  private void attack(final Armament armament, final byte flag, long time) {
 
-    boolean canAttack = canAttack(requester, flag);
+    boolean canAttack = canAttack(armament, flag, time);
     if (canAttack) {
-      boolean cooldownSet = setCoolDown(requester, flag);
+      boolean cooldownSet = setCoolDown(armament, flag, time);
       if (cooldownSet) {
-        boolean costDeducted = deductCostOfAttack(requester, flag);
-        if (costDeducted) {
-          final AttackPosition info = getAttackInfo(requester, flag);
-          createProjectile(requester, flag, time, info);
-          createSound(requester, flag, time, info);
-        }
+        deductCostOfAttack(armament, flag);
+        final AttackPosition info = getAttackInfo(armament.getId(), flag);
+        createProjectile(armament, flag, time, info);
+        createSound(armament, flag, time, info);
       }
     }
   }
@@ -616,11 +416,10 @@ public class WeaponsSystem extends AbstractGameSystem
   /**
    * Find the velocity and the position of the projectile.
    *
-   * @param attackerEntity requesting entity
+   * @param attacker requesting entity
    * @param weaponFlag the weapon type
    */
-  private AttackPosition getAttackInfo(final Entity attackerEntity, final byte weaponFlag) {
-    EntityId attacker = attackerEntity.getId();
+  private AttackPosition getAttackInfo(final EntityId attacker, final byte weaponFlag) {
     // Default vector for projectiles (z=forward):
     Vec3d projectileVelocity = new Vec3d(0, 0, 1);
 
@@ -696,8 +495,9 @@ public class WeaponsSystem extends AbstractGameSystem
    * the case where an entity that has a Damage component hits an entity that has a Health
    * component. We also want the handle the case where a projectile hits the world.
    *
-   * <p>We cannot be sure that the entitysets are updated, so we have to inquire about the entities
-   * here and now.
+   * <p>The components are read from the contact component table, which the ContactSystem brings
+   * up to date at the start of the physics frame. Bounce changes are written through to the table
+   * so that a second contact in the same frame sees them.
    *
    * @param contact the contact
    */
@@ -707,47 +507,40 @@ public class WeaponsSystem extends AbstractGameSystem
     AbstractBody<EntityId, MBlockShape> body2 = contact.body2;
 
     EntityId idOne = body1.id;
-    Entity entity1 = ed.getEntity(idOne, Damage.class, Bounce.class, Thor.class, Energy.class);
+    Damage damageOne = contactComponents.get(idOne, Damage.class);
 
     if (body2 instanceof RigidBody) {
       EntityId idTwo = body2.id;
-      Entity entity2 = ed.getEntity(idTwo, Damage.class, Energy.class);
 
       log.debug("WeaponsSystem contact detected between: {} and {}", body1.id, body2.id);
 
-      Entity damageEntity;
-      Entity energyEntity;
-      if (entity1.get(Damage.class) != null && entity2.get(Energy.class) != null) {
-        damageEntity = entity1;
-        energyEntity = entity2;
-      } else if (entity2.get(Damage.class) != null && entity1.get(Energy.class) != null) {
-        damageEntity = entity2;
-        energyEntity = entity1;
+      EntityId damageId;
+      EntityId energyId;
+      Damage damage;
+      if (damageOne != null && contactComponents.get(idTwo, Energy.class) != null) {
+        damageId = idOne;
+        energyId = idTwo;
+        damage = damageOne;
+      } else if (contactComponents.get(idOne, Energy.class) != null
+          && (damage = contactComponents.get(idTwo, Damage.class)) != null) {
+        damageId = idTwo;
+        energyId = idOne;
       } else {
         return;
       }
 
-      Damage damage = damageEntity.get(Damage.class);
-
-      energySystem.damage(energyEntity.getId(), damage.getIntendedDamage());
-      GameEntities.createExplosion(
-          ed,
-          EntityId.NULL_ID,
-          physicsSpace,
-          time.getTime(),
-          contact.contactPoint,
-          damage.getExplosionDecay(),
-          damage.getExplosionShape());
-      ed.setComponent(damageEntity.getId(), Decay.duration(time.getTime(), 0));
+      if (!detonate(damageId, contact.contactPoint, damage)) {
+        energySystem.damage(energyId, -damage.getIntendedDamage());
+        queueExplosion(contact.contactPoint, damage);
+      }
+      ed.setComponent(damageId, Decay.duration(time.getTime(), 0));
       contact.disable();
     } else if (body2 == null
-        && entity1.get(Damage.class) != null
-        && entity1.get(Thor.class) == null) {
+        && damageOne != null
+        && contactComponents.get(idOne, Thor.class) == null) {
       // body2 = null means that body1 is hitting the world
       // thors are handled in the action system
-      Damage damage = entity1.get(Damage.class);
-
-      Bounce bounce = ed.getComponent(idOne, Bounce.class);
+      Bounce bounce = contactComponents.get(idOne, Bounce.class);
       if (bounce != null) {
         // Retain all energy in the contact
         contact.restitution = 1;
@@ -755,24 +548,74 @@ public class WeaponsSystem extends AbstractGameSystem
         contact.friction = 0;
         if (bounce.getBounces() == 1) {
           ed.removeComponent(idOne, Bounce.class);
+          contactComponents.put(idOne, Bounce.class, null);
         } else {
-          ed.setComponent(idOne, bounce.decreaseBounces());
+          Bounce next = bounce.decreaseBounces();
+          ed.setComponent(idOne, next);
+          contactComponents.put(idOne, Bounce.class, next);
         }
       } else {
-        GameEntities.createExplosion(
-            ed,
-            EntityId.NULL_ID,
-            physicsSpace,
-            time.getTime(),
-            contact.contactPoint,
-            damage.getExplosionDecay(),
-            damage.getExplosionShape());
+        if (!detonate(idOne, contact.contactPoint, damageOne)) {
+          queueExplosion(contact.contactPoint, damageOne);
+        }
         ed.setComponent(idOne, Decay.duration(time.getTime(), 0));
         contact.disable();
       }
     }
   }
 
+  /** Hands a projectile with a Blast to the AreaDamageSystem, returns false if it has none. */
+  private boolean detonate(EntityId id, Vec3d contactPoint, Damage damage) {
+    Blast blast = contactComponents.get(id, Blast.class);
+    if (blast == null) {
+      return false;
+    }
+    Parent parent = contactComponents.get(id, Parent.class);
+    EntityId owner = parent == null ? EntityId.NULL_ID : parent.getParentEntityId();
+    areaDamageSystem.detonate(id, contactPoint, blast, damage, owner);
+    return true;
+  }
+
+  private void queueExplosion(Vec3d contactPoint, Damage damage) {
+    // The contact is reused by the physics engine, so keep a copy of the point
+    pendingExplosions.add(
+        new PendingExplosion(
+            new Vec3d(contactPoint),
+            time.getTime(),
+            damage.getExplosionDecay(),
+            damage.getExplosionShape()));
+  }
+
+  private void createPendingExplosions() {
+    for (PendingExplosion explosion : pendingExplosions) {
+      GameEntities.createExplosion(
+          ed,
+          EntityId.NULL_ID,
+          physicsSpace,
+          explosion.createdTime,
+          explosion.location,
+          explosion.decay,
+          explosion.shape);
+    }
+    pendingExplosions.clear();
+  }
+
+  /** An explosion caused by a contact, waiting to be created. */
+  private static class PendingExplosion {
+
+    private final Vec3d location;
+    private final long createdTime;
+    private final long decay;
+    private final ShapeInfo shape;
+
+    public PendingExplosion(Vec3d location, long createdTime, long decay, ShapeInfo shape) {
+      this.location = location;
+      this.createdTime = createdTime;
+      this.decay = decay;
+      this.shape = shape;
+    }
+  }
+
   /** A class that holds the position information needed to create an attack. */
   private static class AttackPosition {
 
@@ -10,14 +10,21 @@ import infinity.server.DefaultColumnDb;
 import infinity.server.chat.InfinityChatHostedService;
 import infinity.sim.AccessLevel;
 import infinity.sim.CommandTriFunction;
+import infinity.sim.InfinityDefaultLeafWorld;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Owns the world side of the game loop. When the world supports it, all cell edits made during a
+ * frame go into one edit batch that is committed when this system updates, so systems registered
+ * before this one get their edits settled and announced in the same frame.
+ */
 public class WorldSystem extends AbstractGameSystem {
 
   private final Pattern editCell = Pattern.compile("\\~editCell\\s(\\d+)\\s(\\d+)");
   private DefaultColumnDb colDb;
   private World world;
+  private InfinityDefaultLeafWorld batchWorld;
 
   public WorldSystem() {
     //Nothing to do here
@@ -29,22 +36,33 @@ public class WorldSystem extends AbstractGameSystem {
 
   @Override
   public void start() {
-    // Auto-generated method stub
+    if (batchWorld != null) {
+      batchWorld.beginEdits();
+    }
   }
 
   @Override
   public void update(SimTime time) {
-    // Auto-generated method stub
+    if (batchWorld != null) {
+      // Settle and announce this frame's edits, then collect the next frame's
+      batchWorld.commitEdits();
+      batchWorld.beginEdits();
+    }
   }
 
   @Override
   public void stop() {
-    // Auto-generated method stub
+    if (batchWorld != null) {
+      batchWorld.commitEdits();
+    }
   }
 
   @Override
   protected void initialize() {
     world = getSystem(World.class);
+    if (world instanceof InfinityDefaultLeafWorld) {
+      batchWorld = (InfinityDefaultLeafWorld) world;
+    }
 
     InfinityChatHostedService chat = getSystem(InfinityChatHostedService.class);
 
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Round trips region bitmaps through the rTIL code and feeds it corrupt data.
+ *
+ * @author Asser
+ */
+public class RegionCodecTest {
+
+    private static final int LAST = RegionCodec.MAP_SIZE - 1;
+
+    @Test
+    public void roundTripsEmpty() {
+        final long[] bitmap = RegionCodec.newBitmap();
+        // A single long entry of 1024 empty rows
+        assertEquals(2, RegionCodec.encodedLength(bitmap));
+        roundTrip(bitmap);
+    }
+
+    @Test
+    public void roundTripsFull() {
+        final long[] bitmap = RegionCodec.newBitmap();
+        for (int y = 0; y < RegionCodec.MAP_SIZE; ++y) {
+            RegionCodec.setRange(bitmap, y, 0, RegionCodec.MAP_SIZE);
+        }
+        roundTrip(bitmap);
+    }
+
+    @Test
+    public void roundTripsRowAndColumnEdges() {
+        final long[] bitmap = RegionCodec.newBitmap();
+        // Corners
+        RegionCodec.setRange(bitmap, 0, 0, 1);
+        RegionCodec.setRange(bitmap, 0, LAST, LAST + 1);
+        RegionCodec.setRange(bitmap, LAST, 0, 1);
+        RegionCodec.setRange(bitmap, LAST, LAST, LAST + 1);
+        // Runs ending and starting on word borders, and one across a border
+        RegionCodec.setRange(bitmap, 5, 0, 64);
+        RegionCodec.setRange(bitmap, 6, 64, 128);
+        RegionCodec.setRange(bitmap, 7, 63, 65);
+        RegionCodec.setRange(bitmap, 8, 960, RegionCodec.MAP_SIZE);
+        // Runs of exactly 32 and 33, the edge of the short entries
+        RegionCodec.setRange(bitmap, 9, 100, 132);
+        RegionCodec.setRange(bitmap, 10, 100, 133);
+        roundTrip(bitmap);
+    }
+
+    @Test
+    public void roundTripsRepeatsUpToTheLastRow() {
+        final long[] bitmap = RegionCodec.newBitmap();
+        for (int y = 990; y < RegionCodec.MAP_SIZE; ++y) {
+            RegionCodec.setRange(bitmap, y, 10, 20);
+        }
+        roundTrip(bitmap);
+
+        // And repeats right from the first row
+        final long[] top = RegionCodec.newBitmap();
+        for (int y = 0; y < 40; ++y) {
+            RegionCodec.setRange(top, y, 1000, RegionCodec.MAP_SIZE);
+        }
+        roundTrip(top);
+    }
+
+    @Test
+    public void roundTripsRandomRegions() {
+        final Random random = new Random(3);
+        for (int round = 0; round < 30; ++round) {
+            final long[] bitmap = RegionCodec.newBitmap();
+            int y = random.nextInt(100);
+            while (y < RegionCodec.MAP_SIZE) {
+                final int x0 = random.nextInt(RegionCodec.MAP_SIZE);
+                final int x1 = x0 + 1 + random.nextInt(RegionCodec.MAP_SIZE - x0);
+                final int rows = 1 + random.nextInt(50);
+                for (int r = y; r < Math.min(RegionCodec.MAP_SIZE, y + rows); ++r) {
+                    RegionCodec.setRange(bitmap, r, x0, x1);
+                    if (random.nextInt(3) == 0) {
+                        final int x = random.nextInt(RegionCodec.MAP_SIZE);
+                        RegionCodec.setRange(bitmap, r, x, x + 1);
+                    }
+                }
+                y += rows + random.nextInt(60);
+            }
+            roundTrip(bitmap);
+        }
+    }
+
+    @Test
+    public void rectanglesCoverTheBitmap() {
+        final long[] bitmap = RegionCodec.newBitmap();
+        RegionCodec.setRange(bitmap, 0, 0, 10);
+        RegionCodec.setRange(bitmap, 1, 0, 10);
+        RegionCodec.setRange(bitmap, 1, 500, RegionCodec.MAP_SIZE);
+        RegionCodec.setRange(bitmap, LAST, 63, 65);
+        final List<Rectangle> rects = new ArrayList<>();
+        RegionCodec.toRectangles(bitmap, rects);
+        final long[] filled = RegionCodec.newBitmap();
+        RegionCodec.fill(rects, filled);
+        assertArrayEquals(bitmap, filled);
+    }
+
+    @Test
+    public void regionRoundTripsItsChunks() {
+        final Region region = new Region("base", Color.RED);
+        region.isBase = true;
+        region.isAutoWarp = true;
+        region.x = 100;
+        region.y = 200;
+        region.arena = "duel";
+        region.rects.add(new Rectangle(0, 0, 3, 2));
+        region.rects.add(new Rectangle(1000, 1020, 24, 4));
+        // An unknown sub chunk of 5 bytes, padded to 8
+        region.unknownBytes = new byte[] {'r', 'X', 'Y', 'Z', 5, 0, 0, 0, 1, 2, 3, 4, 5, 0, 0, 0};
+
+        final Region decoded = new Region();
+        assertNull(decoded.decodeRegion(ByteBuffer.wrap(region.getEncodedRegion())));
+        assertEquals("base", decoded.name);
+        assertTrue(decoded.isBase);
+        assertTrue(decoded.isAutoWarp);
+        assertEquals(100, decoded.x);
+        assertEquals(200, decoded.y);
+        assertEquals("duel", decoded.arena);
+        assertArrayEquals(region.unknownBytes, decoded.unknownBytes);
+        assertArrayEquals(region.getBitmap(), decoded.getBitmap());
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        final long[] bitmap = RegionCodec.newBitmap();
+        RegionCodec.setRange(bitmap, 3, 10, 500);
+        RegionCodec.setRange(bitmap, 700, 0, RegionCodec.MAP_SIZE);
+        final ByteBuffer out = ByteBuffer.allocate(RegionCodec.encodedLength(bitmap));
+        RegionCodec.encode(bitmap, out);
+        for (int cut = 0; cut < out.capacity(); ++cut) {
+            assertNotNull(decode(out.array(), cut));
+        }
+    }
+
+    @Test
+    public void rejectsEntryCutInHalf() {
+        // The first byte of a long entry of empty rows
+        assertNotNull(decode(new byte[] {(byte) 0xa3}, 1));
+    }
+
+    @Test
+    public void rejectsRunPastTheRowEnd() {
+        // 1000 empty tiles and then 32 more
+        assertNotNull(decode(new byte[] {0x23, (byte) 0xe7, 0x1f}, 3));
+        // 1000 present tiles and then 32 more
+        assertNotNull(decode(new byte[] {0x63, (byte) 0xe7, 0x5f}, 3));
+    }
+
+    @Test
+    public void rejectsRepeatInTheFirstRow() {
+        assertNotNull(decode(new byte[] {(byte) 0xc0}, 1));
+    }
+
+    @Test
+    public void rejectsRepeatPastTheLastRow() {
+        // 1000 empty rows, one row of tiles, then 24 repeats
+        assertNotNull(decode(new byte[] {(byte) 0xa3, (byte) 0xe7, 0x63, (byte) 0xff, (byte) 0xd7}, 5));
+    }
+
+    @Test
+    public void rejectsEmptyRowsInsideARow() {
+        // 10 present tiles and then an empty row
+        assertNotNull(decode(new byte[] {0x49, (byte) 0x80}, 2));
+    }
+
+    @Test
+    public void rejectsTooManyRows() {
+        // 1024 empty rows and then another one
+        assertNotNull(decode(new byte[] {(byte) 0xa3, (byte) 0xff, (byte) 0x80}, 3));
+    }
+
+    private static void roundTrip(final long[] bitmap) {
+        final int length = RegionCodec.encodedLength(bitmap);
+        final ByteBuffer out = ByteBuffer.allocate(length + 3);
+        out.put((byte) 7);
+        assertEquals(length, RegionCodec.encode(bitmap, out));
+        assertEquals(length + 1, out.position());
+
+        final ByteBuffer in = ByteBuffer.wrap(out.array());
+        in.position(1);
+        final long[] decoded = RegionCodec.newBitmap();
+        assertNull(RegionCodec.decode(in, length, decoded));
+        assertEquals(length + 1, in.position());
+        assertArrayEquals(bitmap, decoded);
+    }
+
+    private static String decode(final byte[] data, final int length) {
+        return RegionCodec.decode(ByteBuffer.wrap(data), length, RegionCodec.newBitmap());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import infinity.map.LevelParser;
+import infinity.systems.CompiledArena;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs every ColumnCodec over leaves compiled from real arenas and reports the bytes on disk and
+ * the encode and decode times of each. A leaf is laid out as its raw cell ints, which is the bulk
+ * of what a stored column holds.
+ *
+ * <p>Usage: ColumnCodecBenchmark [map directory, default assets/Maps] [max maps, default 10]
+ *
+ * @author Asser
+ */
+public class ColumnCodecBenchmark {
+
+  private static final int CELL_COUNT =
+      CompiledArena.LEAF_SIZE * CompiledArena.LEAF_SIZE * CompiledArena.LEAF_SIZE;
+  private static final double MB = 1024.0 * 1024.0;
+
+  private final List<byte[]> leaves = new ArrayList<>();
+  private long rawBytes;
+
+  public static void main(String... args) throws IOException {
+    File dir = new File(args.length > 0 ? args[0] : "assets/Maps");
+    int maxMaps = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    ColumnCodecBenchmark bench = new ColumnCodecBenchmark();
+    bench.loadMaps(dir, maxMaps);
+    bench.run(ColumnCodec.NONE);
+    bench.run(ColumnCodec.LZ);
+    bench.run(ColumnCodec.deflate(1));
+    bench.run(ColumnCodec.forName("deflate"));
+    bench.run(ColumnCodec.deflate(9));
+  }
+
+  protected void loadMaps(File dir, int maxMaps) throws IOException {
+    File[] files = dir.listFiles((d, name) -> name.toLowerCase().endsWith(".lvl"));
+    if (files == null) {
+      throw new IOException("No maps found in:" + dir);
+    }
+    Arrays.sort(files);
+    int maps = Math.min(files.length, maxMaps);
+    for (int m = 0; m < maps; m++) {
+      byte[] tiles = LevelParser.parse(files[m].toPath()).getTiles();
+      CompiledArena arena = CompiledArena.compile(tiles);
+      for (int i = 0; i < arena.getLeafCount(); i++) {
+        int[] cells = new int[CELL_COUNT];
+        int[] indexes = arena.getCellIndexes(i);
+        int[] values = arena.getCellValues(i);
+        for (int c = 0; c < indexes.length; c++) {
+          cells[indexes[c]] = values[c];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CELL_COUNT * 4);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(cells);
+        leaves.add(buffer.array());
+        rawBytes += buffer.capacity();
+      }
+    }
+    System.out.println(
+        String.format("%d maps, %d leaves, %.1f MB raw", maps, leaves.size(), rawBytes / MB));
+  }
+
+  protected void run(ColumnCodec codec) throws IOException {
+    List<byte[]> encoded = new ArrayList<>(leaves.size());
+    long stored = 0;
+    long start = System.nanoTime();
+    for (byte[] leaf : leaves) {
+      byte[] payload = new byte[ColumnCodec.HEADER_SIZE + codec.maxEncodedLength(leaf.length)];
+      int length = codec.pack(leaf, leaf.length, payload);
+      encoded.add(Arrays.copyOf(payload, length));
+      stored += length;
+    }
+    long encodeTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < encoded.size(); i++) {
+      byte[] raw = ColumnCodec.unpack(encoded.get(i));
+      if (!Arrays.equals(raw, leaves.get(i))) {
+        throw new IllegalStateException(codec + " did not round trip leaf:" + i);
+      }
+    }
+    long decodeTime = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "%-10s %9.2f MB on disk (%5.2f%%), encode %8.1f ms (%7.1f MB/s),"
+                + " decode %8.1f ms (%7.1f MB/s)",
+            codec,
+            stored / MB,
+            stored * 100.0 / rawBytes,
+            encodeTime / 1000000.0,
+            rawBytes / MB / (encodeTime / 1000000000.0),
+            decodeTime / 1000000.0,
+            rawBytes / MB / (decodeTime / 1000000000.0)));
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package infinity.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import org.junit.Test;
+
+/**
+ * Round trips column payloads through every codec and feeds them corrupt ones.
+ *
+ * @author Asser
+ */
+public class ColumnCodecTest {
+
+  private static final ColumnCodec[] CODECS = {
+    ColumnCodec.NONE, ColumnCodec.LZ, ColumnCodec.deflate(1), ColumnCodec.forName("deflate")
+  };
+
+  @Test
+  public void roundTripsEmpty() throws IOException {
+    roundTrip(new byte[0]);
+  }
+
+  @Test
+  public void roundTripsZeros() throws IOException {
+    // One literal and then a single match that overlaps itself all the way
+    roundTrip(new byte[100000]);
+  }
+
+  @Test
+  public void roundTripsShortPeriods() throws IOException {
+    // Matches whose offset is shorter than their length, for every offset below the minimum match
+    for (int period = 1; period <= 8; period++) {
+      byte[] raw = new byte[5000 + period];
+      for (int i = 0; i < raw.length; i++) {
+        raw[i] = (byte) (i % period + 1);
+      }
+      roundTrip(raw);
+    }
+  }
+
+  @Test
+  public void roundTripsRandom() throws IOException {
+    // Incompressible, one long literal run
+    Random random = new Random(42);
+    for (int length : new int[] {1, 3, 4, 5, 14, 15, 16, 269, 270, 271, 65536, 200000}) {
+      byte[] raw = new byte[length];
+      random.nextBytes(raw);
+      roundTrip(raw);
+    }
+  }
+
+  @Test
+  public void roundTripsMixed() throws IOException {
+    // Literal runs and matches of every length class, with offsets up to and past the window
+    Random random = new Random(7);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] noise = new byte[70000];
+    random.nextBytes(noise);
+    while (out.size() < 500000) {
+      int literals = random.nextInt(4) == 0 ? random.nextInt(600) : random.nextInt(20);
+      out.write(noise, random.nextInt(noise.length - literals), literals);
+      byte[] sofar = out.toByteArray();
+      int length = random.nextInt(4) == 0 ? random.nextInt(1000) : random.nextInt(30);
+      int from = Math.max(0, sofar.length - 1 - random.nextInt(80000));
+      for (int i = 0; i < length && sofar.length > 0; i++) {
+        out.write(sofar[Math.min(from + i, sofar.length - 1)]);
+      }
+    }
+    roundTrip(out.toByteArray());
+  }
+
+  @Test
+  public void unpacksLegacyZlib() throws IOException {
+    byte[] raw = new byte[20000];
+    for (int i = 0; i < raw.length; i++) {
+      raw[i] = (byte) (i * 31 / 1000);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DeflaterOutputStream zip = new DeflaterOutputStream(out)) {
+      zip.write(raw);
+    }
+    byte[] payload = out.toByteArray();
+    assertEquals(0x78, payload[0] & 0xff);
+    assertArrayEquals(raw, ColumnCodec.unpack(payload));
+  }
+
+  @Test
+  public void rejectsEmptyPayload() {
+    assertCorrupt(new byte[0]);
+  }
+
+  @Test
+  public void rejectsTruncatedHeader() {
+    assertCorrupt(new byte[] {(byte) ColumnCodec.TAG_LZ, 0, 0});
+  }
+
+  @Test
+  public void rejectsUnknownTag() {
+    assertCorrupt(new byte[] {9, 0, 0, 0, 1, 0});
+  }
+
+  @Test
+  public void rejectsTruncatedPayloads() throws IOException {
+    byte[] raw = new byte[3000];
+    new Random(1).nextBytes(raw);
+    Arrays.fill(raw, 1000, 2000, (byte) 5);
+    for (ColumnCodec codec : CODECS) {
+      byte[] payload = pack(codec, raw);
+      for (int cut = ColumnCodec.HEADER_SIZE; cut < payload.length; cut += 97) {
+        assertCorrupt(Arrays.copyOf(payload, cut));
+      }
+      assertCorrupt(Arrays.copyOf(payload, payload.length - 1));
+    }
+  }
+
+  @Test
+  public void rejectsLzMatchBeforeTheStart() {
+    // One literal, then a match reaching back two bytes
+    byte[] payload = {(byte) ColumnCodec.TAG_LZ, 0, 0, 0, 10, 0x10, 'a', 2, 0};
+    assertCorrupt(payload);
+  }
+
+  @Test
+  public void rejectsLzZeroOffset() {
+    byte[] payload = {(byte) ColumnCodec.TAG_LZ, 0, 0, 0, 10, 0x10, 'a', 0, 0};
+    assertCorrupt(payload);
+  }
+
+  @Test
+  public void rejectsLzRunPastTheRawLength() {
+    // Says 2 raw bytes, then holds a run of 3 literals
+    byte[] payload = {(byte) ColumnCodec.TAG_LZ, 0, 0, 0, 2, 0x30, 'a', 'b', 'c'};
+    assertCorrupt(payload);
+  }
+
+  private static void roundTrip(byte[] raw) throws IOException {
+    for (ColumnCodec codec : CODECS) {
+      byte[] payload = pack(codec, raw);
+      assertEquals(codec.getTag(), payload[0]);
+      assertArrayEquals(codec.getName(), raw, ColumnCodec.unpack(payload));
+    }
+  }
+
+  private static byte[] pack(ColumnCodec codec, byte[] raw) {
+    byte[] dst = new byte[ColumnCodec.HEADER_SIZE + codec.maxEncodedLength(raw.length)];
+    return Arrays.copyOf(dst, codec.pack(raw, raw.length, dst));
+  }
+
+  private static void assertCorrupt(byte[] payload) {
+    try {
+      ColumnCodec.unpack(payload);
+      fail("Corrupt payload was unpacked, length:" + payload.length);
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Compares the read and write throughput of one file per column, the layout DefaultColumnDb uses,
+ * with ColumnSegments. Both get the same payloads so only the storage layout is measured, not the
+ * compression.
+ *
+ * <p>Usage: ColumnSegmentsBenchmark [directory] [columns] [payload KB] [rounds]
+ *
+ * @author Asser
+ */
+public class ColumnSegmentsBenchmark {
+
+  private final File root;
+  private final int columns;
+  private final byte[][] payloads;
+  private final int rounds;
+  private final Random random = new Random(42);
+
+  public ColumnSegmentsBenchmark(File root, int columns, int payloadSize, int rounds) {
+    this.root = root;
+    this.columns = columns;
+    this.rounds = rounds;
+    this.payloads = new byte[columns][];
+    for (int i = 0; i < columns; i++) {
+      // Half random, half zeros, roughly what a compressed column looks like to the disk
+      payloads[i] = new byte[payloadSize / 2 + random.nextInt(payloadSize)];
+      for (int j = 0; j < payloads[i].length / 2; j++) {
+        payloads[i][j] = (byte) random.nextInt();
+      }
+    }
+  }
+
+  public static void main(String... args) throws IOException {
+    File root = new File(args.length > 0 ? args[0] : "columnbench");
+    int columns = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int payloadSize = (args.length > 2 ? Integer.parseInt(args[2]) : 16) * 1024;
+    int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+    ColumnSegmentsBenchmark bench = new ColumnSegmentsBenchmark(root, columns, payloadSize, rounds);
+    bench.runFiles(new File(root, "files"));
+    bench.runSegments(new File(root, "segments"));
+  }
+
+  protected void runFiles(File dir) throws IOException {
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Could not create:" + dir);
+    }
+    long bytes = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      for (int i = 0; i < columns; i++) {
+        try (OutputStream out =
+            new BufferedOutputStream(new FileOutputStream(new File(dir, i + ".col")))) {
+          out.write(payloads[i]);
+        }
+        bytes += payloads[i].length;
+      }
+    }
+    report("files", "write", bytes, columns * rounds, System.nanoTime() - start);
+
+    bytes = 0;
+    start = System.nanoTime();
+    for (int n = 0; n < columns; n++) {
+      int i = random.nextInt(columns);
+      byte[] b = new byte[payloads[i].length];
+      File f = new File(dir, i + ".col");
+      try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+        int read = 0;
+        while (read < b.length) {
+          read += in.read(b, read, b.length - read);
+        }
+      }
+      bytes += b.length;
+    }
+    report("files", "read", bytes, columns, System.nanoTime() - start);
+  }
+
+  protected void runSegments(File dir) throws IOException {
+    ColumnSegments segments = new ColumnSegments(dir, 16L * 1024 * 1024);
+    segments.open();
+    try {
+      long bytes = 0;
+      long start = System.nanoTime();
+      for (int r = 0; r < rounds; r++) {
+        for (int i = 0; i < columns; i++) {
+          segments.write(i, payloads[i], payloads[i].length);
+          bytes += payloads[i].length;
+        }
+      }
+      segments.sync();
+      report("segments", "write", bytes, columns * rounds, System.nanoTime() - start);
+
+      bytes = 0;
+      start = System.nanoTime();
+      for (int n = 0; n < columns; n++) {
+        int i = random.nextInt(columns);
+        bytes += segments.read(i).length;
+      }
+      report("segments", "read", bytes, columns, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      int compacted = segments.compact();
+      System.out.println(
+          String.format(
+              "segments compact: %d segments in %.1f ms",
+              compacted, (System.nanoTime() - start) / 1000000.0));
+      System.out.println(segments.getStats());
+    } finally {
+      segments.close();
+    }
+  }
+
+  private static void report(String layout, String op, long bytes, int count, long nanos) {
+    double seconds = nanos / 1000000000.0;
+    System.out.println(
+        String.format(
+            "%s %s: %d columns, %.1f MB in %.1f ms, %.0f columns/s, %.1f MB/s",
+            layout,
+            op,
+            count,
+            bytes / (1024.0 * 1024.0),
+            nanos / 1000000.0,
+            count / seconds,
+            bytes / (1024.0 * 1024.0) / seconds));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package infinity.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reopens column segments, also after a write was torn off at the end of the last segment.
+ *
+ * @author Asser
+ */
+public class ColumnSegmentsTest {
+
+  // magic, id, length, crc
+  private static final int HEADER_SIZE = 20;
+  private static final int RECORD_MAGIC = 0x534c4f43;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void reopensWithTheNewestVersions() throws IOException {
+    File root = folder.newFolder();
+    ColumnSegments store = open(root, ColumnSegments.DEFAULT_SEGMENT_SIZE);
+    store.write(1, payload(1, 100), 100);
+    store.write(2, payload(2, 50), 50);
+    store.write(1, payload(3, 70), 70);
+    store.close();
+
+    store = open(root, ColumnSegments.DEFAULT_SEGMENT_SIZE);
+    assertArrayEquals(payload(3, 70), store.read(1));
+    assertArrayEquals(payload(2, 50), store.read(2));
+    assertNull(store.read(3));
+    store.close();
+  }
+
+  @Test
+  public void reopensOverManySegments() throws IOException {
+    File root = folder.newFolder();
+    ColumnSegments store = open(root, 256);
+    for (int i = 0; i < 40; i++) {
+      store.write(i % 10, payload(i, 60), 60);
+    }
+    store.close();
+    assertTrue(segmentFiles(root).length > 1);
+
+    store = open(root, 256);
+    for (int i = 30; i < 40; i++) {
+      assertArrayEquals(payload(i, 60), store.read(i % 10));
+    }
+    store.close();
+  }
+
+  @Test
+  public void cutsOffAHalfWrittenHeader() throws IOException {
+    checkTornTail(new byte[HEADER_SIZE / 2]);
+  }
+
+  @Test
+  public void cutsOffAHalfWrittenPayload() throws IOException {
+    // The header promises 100 bytes, only 10 made it
+    ByteBuffer torn = ByteBuffer.allocate(HEADER_SIZE + 10).order(ByteOrder.LITTLE_ENDIAN);
+    torn.putInt(RECORD_MAGIC).putLong(7).putInt(100).putInt(0);
+    checkTornTail(torn.array());
+  }
+
+  @Test
+  public void cutsOffARecordWithABadChecksum() throws IOException {
+    ByteBuffer torn = ByteBuffer.allocate(HEADER_SIZE + 10).order(ByteOrder.LITTLE_ENDIAN);
+    torn.putInt(RECORD_MAGIC).putLong(7).putInt(10).putInt(12345);
+    checkTornTail(torn.array());
+  }
+
+  @Test
+  public void keepsUnreadableBytesInSealedSegments() throws IOException {
+    File root = folder.newFolder();
+    ColumnSegments store = open(root, 256);
+    for (int i = 0; i < 10; i++) {
+      store.write(i, payload(i, 60), 60);
+    }
+    store.close();
+    File[] files = segmentFiles(root);
+    assertTrue(files.length > 1);
+    long size = files[0].length();
+    append(files[0], new byte[5]);
+
+    store = open(root, 256);
+    for (int i = 0; i < 10; i++) {
+      assertArrayEquals(payload(i, 60), store.read(i));
+    }
+    store.close();
+    // Only the last segment is ever truncated
+    assertEquals(size + 5, files[0].length());
+  }
+
+  /** Appends a torn write to the last segment and checks that it is cut off on open. */
+  private void checkTornTail(byte[] torn) throws IOException {
+    File root = folder.newFolder();
+    ColumnSegments store = open(root, ColumnSegments.DEFAULT_SEGMENT_SIZE);
+    store.write(1, payload(1, 100), 100);
+    store.write(2, payload(2, 30), 30);
+    store.close();
+    File segment = segmentFiles(root)[0];
+    long size = segment.length();
+    append(segment, torn);
+
+    store = open(root, ColumnSegments.DEFAULT_SEGMENT_SIZE);
+    assertEquals(size, segment.length());
+    assertArrayEquals(payload(1, 100), store.read(1));
+    assertArrayEquals(payload(2, 30), store.read(2));
+    assertNull(store.read(7));
+    // New writes go where the torn one was
+    store.write(3, payload(3, 40), 40);
+    store.close();
+    assertEquals(size + HEADER_SIZE + 40, segment.length());
+
+    store = open(root, ColumnSegments.DEFAULT_SEGMENT_SIZE);
+    assertArrayEquals(payload(3, 40), store.read(3));
+    assertArrayEquals(payload(1, 100), store.read(1));
+    store.close();
+  }
+
+  private static ColumnSegments open(File root, long segmentSize) throws IOException {
+    ColumnSegments store = new ColumnSegments(root, segmentSize);
+    store.open();
+    return store;
+  }
+
+  private static File[] segmentFiles(File root) {
+    File[] files = root.listFiles((dir, name) -> name.endsWith(".seg"));
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static void append(File file, byte[] bytes) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(raf.length());
+      raf.write(bytes);
+    }
+  }
+
+  private static byte[] payload(int seed, int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) (seed * 31 + i);
+    }
+    return result;
+  }
+}
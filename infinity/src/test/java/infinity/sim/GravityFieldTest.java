@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package infinity.sim;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks {@link GravityField} against summing every well over every body.
+ *
+ * @author Asser
+ */
+public class GravityFieldTest {
+
+  private static final double STEP = 1 / 60.0;
+  private static final double EPSILON = 1e-9;
+
+  @Test
+  public void matchesBruteForce() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      GravityField field = new GravityField();
+      int bodies = 1 + random.nextInt(300);
+      int wells = 1 + random.nextInt(20);
+      double[] bodyX = new double[bodies];
+      double[] bodyZ = new double[bodies];
+      double[] wellX = new double[wells];
+      double[] wellZ = new double[wells];
+      double[] radius = new double[wells];
+      double[] strength = new double[wells];
+      for (int i = 0; i < bodies; i++) {
+        bodyX[i] = random.nextDouble() * 2000 - 1000;
+        bodyZ[i] = random.nextDouble() * 2000 - 1000;
+        field.addBody(bodyX[i], bodyZ[i]);
+      }
+      for (int w = 0; w < wells; w++) {
+        wellX[w] = random.nextDouble() * 2000 - 1000;
+        wellZ[w] = random.nextDouble() * 2000 - 1000;
+        radius[w] = 1 + random.nextDouble() * 200;
+        strength[w] = random.nextDouble() * 20 - 10;
+        field.addWell(wellX[w], wellZ[w], radius[w], strength[w]);
+      }
+      field.solve(STEP);
+
+      for (int i = 0; i < bodies; i++) {
+        double fx = 0;
+        double fz = 0;
+        for (int w = 0; w < wells; w++) {
+          double dx = wellX[w] - bodyX[i];
+          double dz = wellZ[w] - bodyZ[i];
+          double distanceSq = dx * dx + dz * dz;
+          if (distanceSq <= radius[w] * radius[w] && distanceSq > 1e-9) {
+            double f = strength[w] * STEP * radius[w] / distanceSq;
+            fx += dx * f;
+            fz += dz * f;
+          }
+        }
+        assertEquals(fx, field.getForceX(i), EPSILON);
+        assertEquals(fz, field.getForceZ(i), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void wellOnCellBordersCoversAllItsCells() {
+    // x - r and x + r round across cell borders, so the well spans 4 cells per axis
+    double x = 389.99999999999994;
+    double r = 10;
+    GravityField field = new GravityField();
+    int body = field.addBody(x - r + 1e-3, x);
+    for (int i = 0; i < 64; i++) {
+      field.addBody(i * 7.0, -i * 13.0);
+    }
+    field.addWell(x, x, r, 1);
+    field.addWell(x + 25, x + 25, 5, 1);
+    field.solve(STEP);
+
+    double expected = STEP * r / (r - 1e-3);
+    assertEquals(expected, field.getForceX(body), 1e-6);
+    assertEquals(0, field.getForceZ(body), 1e-6);
+  }
+}
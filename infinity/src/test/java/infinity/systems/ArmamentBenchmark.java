@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018, Asser Fahrenholz
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package infinity.systems;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.es.base.DefaultEntityData;
+import infinity.Guns;
+import infinity.es.ship.Energy;
+import infinity.es.ship.weapons.GunCost;
+import infinity.es.ship.weapons.GunCurrentLevel;
+import infinity.es.ship.weapons.GunFireDelay;
+import infinity.systems.ArmamentCache.Armament;
+import java.util.Random;
+
+/**
+ * Measures the lookups a gun shot makes before anything is fired, once the way WeaponsSystem used
+ * to make them and once through an ArmamentCache, and reports the shots per second of each on a
+ * single thread. Projectiles, sounds and cooldowns are left out as they are the same for both.
+ *
+ * <p>The old path checks the weapon set, asks the EntityData for the cost, reads the level from the
+ * set and reads the energy twice, once to check the cost and once to deduct it. The new path reads
+ * the armament record and the energy once.
+ *
+ * <p>Usage: ArmamentBenchmark [ships, default 256] [shots, default 10000000]
+ *
+ * @author Asser
+ */
+public class ArmamentBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  private final EntityData ed = new DefaultEntityData();
+  private final EntitySet guns;
+  private final EntitySet living;
+  private final ArmamentCache armaments;
+  private final EntityId[] shooters;
+
+  // Keeps the results alive so the loops are not optimized away
+  private long sink;
+
+  public ArmamentBenchmark(int ships) {
+    guns = ed.getEntities(GunCurrentLevel.class, GunFireDelay.class, GunCost.class);
+    living = ed.getEntities(Energy.class);
+    armaments = new ArmamentCache(ed);
+
+    Random random = new Random(1);
+    Guns[] levels = Guns.values();
+    shooters = new EntityId[ships];
+    for (int i = 0; i < ships; i++) {
+      EntityId id = ed.createEntity();
+      ed.setComponents(
+          id,
+          new GunCurrentLevel(levels[random.nextInt(levels.length)]),
+          new GunFireDelay(100),
+          new GunCost(10 + random.nextInt(20)),
+          new Energy(1000 + random.nextInt(1000)));
+      shooters[i] = id;
+    }
+    guns.applyChanges();
+    living.applyChanges();
+    armaments.update();
+  }
+
+  public static void main(String... args) {
+    int ships = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    int shots = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+
+    ArmamentBenchmark bench = new ArmamentBenchmark(ships);
+    System.out.println(String.format("%d ships, %d shots per round", ships, shots));
+    for (int round = 0; round < ROUNDS; round++) {
+      // The first rounds warm up the JIT, the last one is the one to read
+      bench.report("before", bench.runEntityData(shots), shots);
+      bench.report("after", bench.runCache(shots), shots);
+    }
+    bench.release();
+  }
+
+  protected long runEntityData(int shots) {
+    long time = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < shots; i++) {
+      EntityId id = shooters[i % shooters.length];
+      if (!guns.containsId(id)) {
+        continue;
+      }
+      GunCost cost = ed.getComponent(id, GunCost.class);
+      if (cost.getCost() > living.getEntity(id).get(Energy.class).getHealth(time)) {
+        continue;
+      }
+      GunCurrentLevel level = guns.getEntity(id).get(GunCurrentLevel.class);
+      int energy = living.getEntity(id).get(Energy.class).getHealth(time);
+      sink += level.getLevel().level + energy - cost.getCost();
+    }
+    return System.nanoTime() - start;
+  }
+
+  protected long runCache(int shots) {
+    long time = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < shots; i++) {
+      EntityId id = shooters[i % shooters.length];
+      Armament armament = armaments.get(id);
+      if (armament == null || !armament.has(WeaponsSystem.GUN)) {
+        continue;
+      }
+      int cost = armament.getCost(WeaponsSystem.GUN);
+      int energy = living.getEntity(id).get(Energy.class).getHealth(time);
+      if (cost > energy) {
+        continue;
+      }
+      sink += armament.getGunLevel().level + energy - cost;
+    }
+    return System.nanoTime() - start;
+  }
+
+  protected void report(String name, long nanos, int shots) {
+    System.out.println(
+        String.format(
+            "%-7s %8.1f ms, %6.2f M shots/s (%d)",
+            name, nanos / 1000000.0, shots / (nanos / 1000.0), sink & 0xff));
+  }
+
+  protected void release() {
+    guns.release();
+    living.release();
+    armaments.release();
+  }
+}